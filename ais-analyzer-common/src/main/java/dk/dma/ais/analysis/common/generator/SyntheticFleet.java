@@ -0,0 +1,333 @@
+/* Copyright (c) 2011 Danish Maritime Authority.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package dk.dma.ais.analysis.common.generator;
+
+import java.util.Calendar;
+import java.util.Date;
+import java.util.Random;
+import java.util.TimeZone;
+
+import net.jcip.annotations.NotThreadSafe;
+import dk.dma.ais.binary.SixbitException;
+import dk.dma.ais.message.AisMessage;
+import dk.dma.ais.message.AisMessage1;
+import dk.dma.ais.message.AisMessage18;
+import dk.dma.ais.message.AisMessage24;
+import dk.dma.ais.message.AisMessage5;
+import dk.dma.ais.message.AisPosition;
+import dk.dma.ais.packet.AisPacket;
+import dk.dma.ais.packet.AisPacketTags;
+import dk.dma.ais.packet.AisPacketTags.SourceType;
+import dk.dma.ais.sentence.CommentBlock;
+import dk.dma.ais.sentence.Sentence;
+import dk.dma.ais.sentence.SentenceException;
+import dk.dma.ais.sentence.Vdm;
+import dk.dma.enav.model.Country;
+import dk.dma.enav.model.geometry.Position;
+
+/**
+ * Deterministic generator of AIS packets for a synthetic fleet of vessels. Vessels are reported round robin. Class A
+ * vessels send #1 position reports and #5 static reports, class B vessels send #18 position reports and #24 static
+ * reports. Part A and part B of a #24 static report are sent as two consecutive packets. Packets are tagged with a
+ * comment block (source id, type, base station and country) and terrestrial packets also carry a Gatehouse source tag
+ * with a region.
+ * <p>
+ * The generated sequence depends only on the configuration, not on the timestamps given.
+ */
+@NotThreadSafe
+public class SyntheticFleet {
+
+    private static final int[] MIDS = { 219, 220, 265, 257, 230, 211, 244, 232, 636, 538, 477, 563, 351, 248 };
+    private static final int[] SHIP_TYPES = { 70, 71, 79, 80, 81, 89, 60, 69, 30, 36, 37, 52, 50, 0 };
+    private static final String[] NAME_PREFIXES = { "NORD", "BALTIC", "ARCTIC", "NORDIC", "OCEAN", "MAERSK", "STENA",
+            "SEA", "POLAR", "NORTHERN", "ATLANTIC", "WIND" };
+    private static final String[] NAME_SUFFIXES = { "STAR", "TRADER", "SPIRIT", "CARRIER", "EXPRESS", "PRIDE", "QUEEN",
+            "HUNTER", "PIONEER", "EXPLORER", "WAVE", "SPIRIT" };
+    private static final String[] DESTINATIONS = { "AARHUS", "COPENHAGEN", "GOTHENBURG", "HAMBURG", "ROTTERDAM", "OSLO",
+            "GDANSK", "SKAGEN", "ESBJERG", "ANTWERP" };
+    private static final double MOORED_FRACTION = 0.15;
+
+    private final SyntheticFleetConf conf;
+    private final Random random;
+    private final Vessel[] vessels;
+    private final Calendar cal = Calendar.getInstance(TimeZone.getTimeZone("UTC"));
+
+    private int next;
+    private long sequence;
+    // Vessel to send part B of a #24 static report for next, or null
+    private Vessel pendingPartB;
+
+    public SyntheticFleet(SyntheticFleetConf conf) {
+        this.conf = conf;
+        this.random = new Random(conf.getSeed());
+        this.vessels = new Vessel[conf.getFleetSize()];
+
+        // Hotspots are centers of clustered traffic, e.g. ports and straits
+        double[][] hotspots = new double[conf.getHotspots()][];
+        for (int i = 0; i < hotspots.length; i++) {
+            hotspots[i] = new double[] { uniform(conf.getLatMin(), conf.getLatMax()),
+                    uniform(conf.getLonMin(), conf.getLonMax()) };
+        }
+
+        for (int i = 0; i < vessels.length; i++) {
+            Vessel v = new Vessel();
+            int mid = MIDS[random.nextInt(MIDS.length)];
+            v.mmsi = mid * 1000000 + (i + 1) % 1000000;
+            v.classA = random.nextDouble() >= conf.getClassBFraction();
+            v.satellite = random.nextDouble() < conf.getSatFraction();
+            v.baseStation = random.nextInt(Math.max(1, conf.getBaseStations()));
+            if (hotspots.length > 0) {
+                double[] hotspot = hotspots[random.nextInt(hotspots.length)];
+                v.lat = clamp(hotspot[0] + random.nextGaussian() * conf.getHotspotRadius(), conf.getLatMin(),
+                        conf.getLatMax());
+                v.lon = clamp(hotspot[1] + random.nextGaussian() * conf.getHotspotRadius(), conf.getLonMin(),
+                        conf.getLonMax());
+            } else {
+                v.lat = uniform(conf.getLatMin(), conf.getLatMax());
+                v.lon = uniform(conf.getLonMin(), conf.getLonMax());
+            }
+            v.moored = random.nextDouble() < MOORED_FRACTION;
+            v.sog = v.moored ? 0 : 2 + random.nextDouble() * 20;
+            v.cog = random.nextDouble() * 360;
+            v.shipType = SHIP_TYPES[random.nextInt(SHIP_TYPES.length)];
+            v.name = NAME_PREFIXES[random.nextInt(NAME_PREFIXES.length)] + " "
+                    + NAME_SUFFIXES[random.nextInt(NAME_SUFFIXES.length)] + " " + (i + 1);
+            v.callsign = callsign(i);
+            v.destination = DESTINATIONS[random.nextInt(DESTINATIONS.length)];
+            v.imo = v.classA ? 9000000 + i : 0;
+            v.length = 10 + random.nextInt(300);
+            v.breadth = 3 + v.length / 7;
+            // Start at a random point in the static cycle so statics are spread out
+            v.reports = random.nextInt(Math.max(1, conf.getStaticInterval()));
+            vessels[i] = v;
+        }
+    }
+
+    /**
+     * Make the next packet in the sequence
+     *
+     * @param timestamp
+     *            the time of reception to put in the comment block and proprietary tag
+     * @return
+     */
+    public AisPacket nextPacket(Date timestamp) {
+        if (pendingPartB != null) {
+            Vessel v = pendingPartB;
+            pendingPartB = null;
+            return packet(v, classBStaticPartB(v), timestamp);
+        }
+
+        Vessel v = vessels[next];
+        next = (next + 1) % vessels.length;
+
+        boolean staticReport = conf.getStaticInterval() > 0 && v.reports % conf.getStaticInterval() == 0;
+        v.reports++;
+
+        AisMessage message;
+        if (staticReport && v.classA) {
+            message = classAStatic(v);
+        } else if (staticReport) {
+            message = classBStaticPartA(v);
+            pendingPartB = v;
+        } else {
+            v.move(conf.getReportInterval());
+            message = v.classA ? classAPosition(v) : classBPosition(v);
+        }
+        return packet(v, message, timestamp);
+    }
+
+    public int getFleetSize() {
+        return vessels.length;
+    }
+
+    private AisPacket packet(Vessel v, AisMessage message, Date timestamp) {
+        StringBuilder buf = new StringBuilder(256);
+        buf.append(commentBlock(v, timestamp)).append("\r\n");
+        if (!v.satellite) {
+            buf.append(gatehouseTag(v, timestamp)).append("\r\n");
+        }
+        try {
+            for (String sentence : Vdm.createSentences(message, (int) (sequence++ % 10))) {
+                buf.append(sentence).append("\r\n");
+            }
+        } catch (SixbitException e) {
+            throw new IllegalStateException("Failed to encode synthetic message for " + v.mmsi, e);
+        }
+        return AisPacket.from(buf.toString());
+    }
+
+    private String commentBlock(Vessel v, Date timestamp) {
+        CommentBlock cb = new CommentBlock();
+        cb.addTimestamp(timestamp);
+        if (v.satellite) {
+            cb.addString(AisPacketTags.SOURCE_ID_KEY, conf.getSatSourceId());
+            cb.addString(AisPacketTags.SOURCE_TYPE_KEY, SourceType.SATELLITE.encode());
+        } else {
+            cb.addString(AisPacketTags.SOURCE_ID_KEY, conf.getSourceId());
+            cb.addString(AisPacketTags.SOURCE_TYPE_KEY, SourceType.TERRESTRIAL.encode());
+            cb.addInt(AisPacketTags.SOURCE_BS_KEY, baseStationMmsi(v));
+            cb.addString(AisPacketTags.SOURCE_COUNTRY_KEY, conf.getSourceCountry());
+        }
+        return cb.encode();
+    }
+
+    private String gatehouseTag(Vessel v, Date timestamp) {
+        cal.setTime(timestamp);
+        Country country = Country.getByCode(conf.getSourceCountry());
+        int mid = (country != null && !country.getMids().isEmpty()) ? country.getMids().iterator().next() : 219;
+        String region = Integer.toString(800 + v.baseStation % Math.max(1, conf.getRegions()));
+        String tag = "$PGHP,1," + cal.get(Calendar.YEAR) + "," + (cal.get(Calendar.MONTH) + 1) + ","
+                + cal.get(Calendar.DAY_OF_MONTH) + "," + cal.get(Calendar.HOUR_OF_DAY) + ","
+                + cal.get(Calendar.MINUTE) + "," + cal.get(Calendar.SECOND) + "," + cal.get(Calendar.MILLISECOND) + ","
+                + mid + "," + region + "," + baseStationMmsi(v) + ",1,";
+        try {
+            return tag + "*" + Sentence.getStringChecksum(Sentence.getChecksum(tag));
+        } catch (SentenceException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    private static int baseStationMmsi(Vessel v) {
+        return 2190000 + v.baseStation;
+    }
+
+    private static AisMessage1 classAPosition(Vessel v) {
+        AisMessage1 msg = new AisMessage1();
+        msg.setUserId(v.mmsi);
+        msg.setNavStatus(v.moored ? 5 : 0);
+        msg.setSog((int) Math.round(v.sog * 10));
+        msg.setCog((int) Math.round(v.cog * 10) % 3600);
+        msg.setTrueHeading((int) Math.round(v.cog) % 360);
+        msg.setPosAcc(1);
+        msg.setPos(new AisPosition(Position.create(v.lat, v.lon)));
+        return msg;
+    }
+
+    private static AisMessage18 classBPosition(Vessel v) {
+        AisMessage18 msg = new AisMessage18();
+        msg.setUserId(v.mmsi);
+        msg.setSog((int) Math.round(v.sog * 10));
+        msg.setCog((int) Math.round(v.cog * 10) % 3600);
+        msg.setTrueHeading(511);
+        msg.setClassBUnitFlag(1);
+        msg.setPos(new AisPosition(Position.create(v.lat, v.lon)));
+        return msg;
+    }
+
+    private static AisMessage5 classAStatic(Vessel v) {
+        AisMessage5 msg = new AisMessage5();
+        msg.setUserId(v.mmsi);
+        msg.setName(v.name);
+        msg.setCallsign(v.callsign);
+        msg.setShipType(v.shipType);
+        msg.setImo(v.imo);
+        msg.setDest(v.destination);
+        msg.setDraught(20 + v.length / 5);
+        msg.setPosType(1);
+        msg.setDimBow(v.length * 3 / 4);
+        msg.setDimStern(v.length - v.length * 3 / 4);
+        msg.setDimPort(v.breadth / 2);
+        msg.setDimStarboard(v.breadth - v.breadth / 2);
+        return msg;
+    }
+
+    private static AisMessage24 classBStaticPartA(Vessel v) {
+        AisMessage24 partA = new AisMessage24();
+        partA.setUserId(v.mmsi);
+        partA.setPartNumber(0);
+        partA.setName(v.name);
+        return partA;
+    }
+
+    private static AisMessage24 classBStaticPartB(Vessel v) {
+        AisMessage24 partB = new AisMessage24();
+        partB.setUserId(v.mmsi);
+        partB.setPartNumber(1);
+        partB.setShipType(v.shipType);
+        partB.setCallsign(v.callsign);
+        partB.setVendorId("SIM");
+        partB.setDimBow(v.length / 2);
+        partB.setDimStern(v.length - v.length / 2);
+        partB.setDimPort(v.breadth / 2);
+        partB.setDimStarboard(v.breadth - v.breadth / 2);
+        return partB;
+    }
+
+    private static String callsign(int i) {
+        StringBuilder buf = new StringBuilder("O");
+        for (int j = 0; j < 4; j++) {
+            buf.append((char) ('A' + i % 26));
+            i /= 26;
+        }
+        return buf.toString();
+    }
+
+    private double uniform(double min, double max) {
+        return min + random.nextDouble() * (max - min);
+    }
+
+    private static double clamp(double value, double min, double max) {
+        return Math.max(min, Math.min(max, value));
+    }
+
+    /**
+     * State of a single synthetic vessel
+     */
+    private final class Vessel {
+        int mmsi;
+        boolean classA;
+        boolean satellite;
+        boolean moored;
+        int baseStation;
+        double lat;
+        double lon;
+        double sog; // knots
+        double cog; // degrees
+        int shipType;
+        String name;
+        String callsign;
+        String destination;
+        long imo;
+        int length;
+        int breadth;
+        long reports;
+
+        /**
+         * Dead reckoning with a small course and speed drift. Vessels bounce off the edges of the configured area.
+         */
+        void move(int seconds) {
+            if (moored) {
+                return;
+            }
+            cog = (cog + random.nextGaussian() * 2 + 360) % 360;
+            sog = clamp(sog + random.nextGaussian() * 0.2, 0.5, 30);
+            double dist = sog * seconds / 3600.0 / 60.0; // degrees of latitude
+            double rad = Math.toRadians(cog);
+            double newLat = lat + dist * Math.cos(rad);
+            double newLon = lon + dist * Math.sin(rad) / Math.max(0.01, Math.cos(Math.toRadians(lat)));
+            if (newLat < conf.getLatMin() || newLat > conf.getLatMax()) {
+                cog = (540 - cog) % 360;
+                newLat = clamp(newLat, conf.getLatMin(), conf.getLatMax());
+            }
+            if (newLon < conf.getLonMin() || newLon > conf.getLonMax()) {
+                cog = 360 - cog;
+                newLon = clamp(newLon, conf.getLonMin(), conf.getLonMax());
+            }
+            lat = newLat;
+            lon = newLon;
+        }
+    }
+
+}
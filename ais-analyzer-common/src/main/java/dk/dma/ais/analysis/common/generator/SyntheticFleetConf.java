@@ -0,0 +1,181 @@
+/* Copyright (c) 2011 Danish Maritime Authority.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package dk.dma.ais.analysis.common.generator;
+
+/**
+ * Configuration of a synthetic fleet. Two fleets created with the same configuration (and seed) produce the same
+ * sequence of messages.
+ */
+public class SyntheticFleetConf {
+
+    private long seed = 1;
+    private int fleetSize = 1000;
+    private double classBFraction = 0.2;
+    private double satFraction = 0.3;
+    private double latMin = -60;
+    private double latMax = 70;
+    private double lonMin = -180;
+    private double lonMax = 180;
+    private int hotspots = 0;
+    private double hotspotRadius = 0.5; // degrees
+    private int reportInterval = 10; // seconds between two reports from the same vessel
+    private int staticInterval = 36; // every 36th report is a static report
+    private int baseStations = 20;
+    private int regions = 4;
+    private String sourceCountry = "DNK";
+    private String sourceId = "SIM";
+    private String satSourceId = "SIMSAT";
+
+    public SyntheticFleetConf() {
+
+    }
+
+    public long getSeed() {
+        return seed;
+    }
+
+    public void setSeed(long seed) {
+        this.seed = seed;
+    }
+
+    public int getFleetSize() {
+        return fleetSize;
+    }
+
+    public void setFleetSize(int fleetSize) {
+        this.fleetSize = fleetSize;
+    }
+
+    public double getClassBFraction() {
+        return classBFraction;
+    }
+
+    public void setClassBFraction(double classBFraction) {
+        this.classBFraction = classBFraction;
+    }
+
+    public double getSatFraction() {
+        return satFraction;
+    }
+
+    public void setSatFraction(double satFraction) {
+        this.satFraction = satFraction;
+    }
+
+    public double getLatMin() {
+        return latMin;
+    }
+
+    public void setLatMin(double latMin) {
+        this.latMin = latMin;
+    }
+
+    public double getLatMax() {
+        return latMax;
+    }
+
+    public void setLatMax(double latMax) {
+        this.latMax = latMax;
+    }
+
+    public double getLonMin() {
+        return lonMin;
+    }
+
+    public void setLonMin(double lonMin) {
+        this.lonMin = lonMin;
+    }
+
+    public double getLonMax() {
+        return lonMax;
+    }
+
+    public void setLonMax(double lonMax) {
+        this.lonMax = lonMax;
+    }
+
+    public int getHotspots() {
+        return hotspots;
+    }
+
+    public void setHotspots(int hotspots) {
+        this.hotspots = hotspots;
+    }
+
+    public double getHotspotRadius() {
+        return hotspotRadius;
+    }
+
+    public void setHotspotRadius(double hotspotRadius) {
+        this.hotspotRadius = hotspotRadius;
+    }
+
+    public int getReportInterval() {
+        return reportInterval;
+    }
+
+    public void setReportInterval(int reportInterval) {
+        this.reportInterval = reportInterval;
+    }
+
+    public int getStaticInterval() {
+        return staticInterval;
+    }
+
+    public void setStaticInterval(int staticInterval) {
+        this.staticInterval = staticInterval;
+    }
+
+    public int getBaseStations() {
+        return baseStations;
+    }
+
+    public void setBaseStations(int baseStations) {
+        this.baseStations = baseStations;
+    }
+
+    public int getRegions() {
+        return regions;
+    }
+
+    public void setRegions(int regions) {
+        this.regions = regions;
+    }
+
+    public String getSourceCountry() {
+        return sourceCountry;
+    }
+
+    public void setSourceCountry(String sourceCountry) {
+        this.sourceCountry = sourceCountry;
+    }
+
+    public String getSourceId() {
+        return sourceId;
+    }
+
+    public void setSourceId(String sourceId) {
+        this.sourceId = sourceId;
+    }
+
+    public String getSatSourceId() {
+        return satSourceId;
+    }
+
+    public void setSatSourceId(String satSourceId) {
+        this.satSourceId = satSourceId;
+    }
+
+}
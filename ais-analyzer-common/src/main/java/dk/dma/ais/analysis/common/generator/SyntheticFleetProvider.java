@@ -0,0 +1,118 @@
+/* Copyright (c) 2011 Danish Maritime Authority.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package dk.dma.ais.analysis.common.generator;
+
+import java.util.Date;
+import java.util.concurrent.TimeUnit;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import dk.dma.ais.bus.AisBusProvider;
+
+/**
+ * AisBus provider pushing packets from a synthetic fleet at a fixed rate
+ */
+public class SyntheticFleetProvider extends AisBusProvider implements Runnable {
+
+    private static final Logger LOG = LoggerFactory.getLogger(SyntheticFleetProvider.class);
+
+    private final SyntheticFleetConf fleetConf;
+
+    /**
+     * Messages per second. Zero or negative means as fast as possible.
+     */
+    private int rate = 1000;
+
+    /**
+     * Stop after this many messages. Zero or negative means run until cancelled.
+     */
+    private long maxMessages;
+
+    private SyntheticFleet fleet;
+
+    public SyntheticFleetProvider(SyntheticFleetConf fleetConf) {
+        this.fleetConf = fleetConf;
+    }
+
+    @Override
+    public synchronized void init() {
+        fleet = new SyntheticFleet(fleetConf);
+        super.init();
+    }
+
+    @Override
+    public synchronized void start() {
+        Thread t = new Thread(this);
+        setThread(t);
+        t.start();
+    }
+
+    @Override
+    public void run() {
+        LOG.info("Generating " + fleet.getFleetSize() + " vessels at " + (rate > 0 ? rate + " msg/s" : "max rate"));
+        setConnected();
+        long start = System.nanoTime();
+        long count = 0;
+        while (!getThread().isInterrupted()) {
+            push(fleet.nextPacket(new Date()));
+            count++;
+            if (maxMessages > 0 && count >= maxMessages) {
+                break;
+            }
+            if (rate > 0) {
+                // Sleep until this message is due, in whole milliseconds to keep the overhead low
+                long ahead = start + count * 1000000000L / rate - System.nanoTime();
+                if (ahead >= 1000000L) {
+                    try {
+                        TimeUnit.NANOSECONDS.sleep(ahead);
+                    } catch (InterruptedException e) {
+                        break;
+                    }
+                }
+            }
+        }
+        LOG.info("Stopped after " + count + " messages");
+        setStopped();
+    }
+
+    @Override
+    public void cancel() {
+        getThread().interrupt();
+        try {
+            getThread().join(THREAD_STOP_WAIT_MAX);
+        } catch (InterruptedException e) {
+            e.printStackTrace();
+        }
+        setStopped();
+    }
+
+    public int getRate() {
+        return rate;
+    }
+
+    public void setRate(int rate) {
+        this.rate = rate;
+    }
+
+    public long getMaxMessages() {
+        return maxMessages;
+    }
+
+    public void setMaxMessages(long maxMessages) {
+        this.maxMessages = maxMessages;
+    }
+
+}
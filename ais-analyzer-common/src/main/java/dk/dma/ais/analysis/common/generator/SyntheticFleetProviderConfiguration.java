@@ -0,0 +1,69 @@
+/* Copyright (c) 2011 Danish Maritime Authority.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package dk.dma.ais.analysis.common.generator;
+
+import javax.xml.bind.annotation.XmlTransient;
+
+import dk.dma.ais.bus.AisBusComponent;
+import dk.dma.ais.configuration.bus.provider.AisBusProviderConfiguration;
+
+/**
+ * AisBus configuration of a {@link SyntheticFleetProvider}. The JAXB context loading the configuration must know this
+ * class, e.g. through {@code @XmlSeeAlso}.
+ */
+public class SyntheticFleetProviderConfiguration extends AisBusProviderConfiguration {
+
+    private SyntheticFleetConf fleetConf = new SyntheticFleetConf();
+    private int rate = 1000;
+    private long maxMessages;
+
+    public SyntheticFleetProviderConfiguration() {
+
+    }
+
+    public SyntheticFleetConf getFleetConf() {
+        return fleetConf;
+    }
+
+    public void setFleetConf(SyntheticFleetConf fleetConf) {
+        this.fleetConf = fleetConf;
+    }
+
+    public int getRate() {
+        return rate;
+    }
+
+    public void setRate(int rate) {
+        this.rate = rate;
+    }
+
+    public long getMaxMessages() {
+        return maxMessages;
+    }
+
+    public void setMaxMessages(long maxMessages) {
+        this.maxMessages = maxMessages;
+    }
+
+    @Override
+    @XmlTransient
+    public AisBusComponent getInstance() {
+        SyntheticFleetProvider provider = new SyntheticFleetProvider(fleetConf);
+        provider.setRate(rate);
+        provider.setMaxMessages(maxMessages);
+        return super.configure(provider);
+    }
+
+}
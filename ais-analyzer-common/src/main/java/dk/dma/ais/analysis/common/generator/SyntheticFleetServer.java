@@ -0,0 +1,121 @@
+/* Copyright (c) 2011 Danish Maritime Authority.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package dk.dma.ais.analysis.common.generator;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.beust.jcommander.Parameter;
+import com.google.inject.Injector;
+
+import dk.dma.ais.bus.AisBus;
+import dk.dma.ais.bus.tcp.TcpServerConf;
+import dk.dma.ais.configuration.bus.AisBusConfiguration;
+import dk.dma.ais.configuration.bus.consumer.TcpServerConsumerConfiguration;
+import dk.dma.commons.app.AbstractDaemon;
+
+/**
+ * Local TCP server serving a synthetic fleet. Point the TCP client provider of an AisView at it to load test the full
+ * stack without a live feed.
+ */
+public class SyntheticFleetServer extends AbstractDaemon {
+
+    private static final Logger LOG = LoggerFactory.getLogger(SyntheticFleetServer.class);
+
+    @Parameter(names = "-port", description = "TCP port to serve on")
+    int port = 4001;
+
+    @Parameter(names = "-maxClients", description = "Maximum number of connected clients")
+    int maxClients = 10;
+
+    @Parameter(names = "-size", description = "Number of vessels in the fleet")
+    int fleetSize = 10000;
+
+    @Parameter(names = "-rate", description = "Messages per second, 0 for max rate")
+    int rate = 1000;
+
+    @Parameter(names = "-seed", description = "Random seed")
+    long seed = 1;
+
+    @Parameter(names = "-satFraction", description = "Fraction of vessels only seen by satellite")
+    double satFraction = 0.3;
+
+    @Parameter(names = "-classBFraction", description = "Fraction of class B vessels")
+    double classBFraction = 0.2;
+
+    @Parameter(names = "-hotspots", description = "Number of traffic hotspots, 0 for uniform distribution")
+    int hotspots;
+
+    @Parameter(names = "-bbox", description = "Area as latMin,lonMin,latMax,lonMax")
+    String bbox;
+
+    private AisBus aisBus;
+
+    @Override
+    protected void runDaemon(Injector injector) throws Exception {
+        SyntheticFleetConf fleetConf = new SyntheticFleetConf();
+        fleetConf.setFleetSize(fleetSize);
+        fleetConf.setSeed(seed);
+        fleetConf.setSatFraction(satFraction);
+        fleetConf.setClassBFraction(classBFraction);
+        fleetConf.setHotspots(hotspots);
+        if (bbox != null) {
+            String[] corners = bbox.split(",");
+            if (corners.length != 4) {
+                LOG.error("Invalid bbox: " + bbox);
+                return;
+            }
+            fleetConf.setLatMin(Double.parseDouble(corners[0]));
+            fleetConf.setLonMin(Double.parseDouble(corners[1]));
+            fleetConf.setLatMax(Double.parseDouble(corners[2]));
+            fleetConf.setLonMax(Double.parseDouble(corners[3]));
+        }
+
+        AisBusConfiguration aisBusConf = new AisBusConfiguration();
+        aisBusConf.setBusQueueSize(Math.max(10000, rate));
+
+        SyntheticFleetProviderConfiguration providerConf = new SyntheticFleetProviderConfiguration();
+        providerConf.setFleetConf(fleetConf);
+        providerConf.setRate(rate);
+        aisBusConf.getProviders().add(providerConf);
+
+        TcpServerConsumerConfiguration serverConf = new TcpServerConsumerConfiguration();
+        TcpServerConf tcpServerConf = new TcpServerConf();
+        tcpServerConf.setPort(port);
+        tcpServerConf.setMaxClients(maxClients);
+        serverConf.setServerConf(tcpServerConf);
+        aisBusConf.getConsumers().add(serverConf);
+
+        LOG.info("Serving " + fleetSize + " synthetic vessels on port " + port);
+        aisBus = aisBusConf.getInstance();
+        aisBus.start();
+        aisBus.startConsumers();
+        aisBus.startProviders();
+    }
+
+    @Override
+    public void shutdown() {
+        LOG.info("Shutting down");
+        if (aisBus != null) {
+            aisBus.cancel();
+        }
+        super.shutdown();
+    }
+
+    public static void main(String[] args) throws Exception {
+        new SyntheticFleetServer().execute(args);
+    }
+
+}
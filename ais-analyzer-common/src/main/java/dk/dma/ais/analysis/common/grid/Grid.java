@@ -41,8 +41,11 @@ public class Grid {
         // static_cast<long>(360.0 / GEO_CELL_SIZE) Constant = 7200
         // Result of last two lines Range -3600..3600, span 7200
 
-        return (long) (Math.floor(_lat / GEO_CELL_SIZE_IN_DEGREES) * MULTIPLIER)
-                + (long) ((360.0 + _lon) / GEO_CELL_SIZE_IN_DEGREES) - (long) (360.0 / GEO_CELL_SIZE_IN_DEGREES);
+        long lonPart = (long) ((360.0 + _lon) / GEO_CELL_SIZE_IN_DEGREES);
+        // A longitude just below 180 may round up to the column of 180, which is -180 of the next row
+        lonPart = Math.min(lonPart, Math.round(540.0 / GEO_CELL_SIZE_IN_DEGREES) - 1);
+        return (long) (Math.floor(_lat / GEO_CELL_SIZE_IN_DEGREES) * MULTIPLIER) + lonPart
+                - (long) (360.0 / GEO_CELL_SIZE_IN_DEGREES);
     }
 
     public Position getGeoPosOfCellId(long _id) {
@@ -69,56 +72,90 @@ public class Grid {
     }
 
     public Long getCellIdWestOf(Long id) {
-        if (id % MULTIPLIER == 1) {
-            return (long) (id + MULTIPLIER - 1);
+        if (getColumn(id) == -getColumns() / 2) {
+            return id + getColumns() - 1;
         }
 
         return id - 1;
     }
 
     public Long getCellIdEastOf(Long id) {
-        if (id % MULTIPLIER == 0) {
-            return (long) (id - MULTIPLIER + 1);
+        if (getColumn(id) == getColumns() - getColumns() / 2 - 1) {
+            return id - getColumns() + 1;
         }
 
         return id + 1;
     }
 
     public Set<Long> getNearbyCellIds(Position position, double radius) {
+        long[] ids = new long[getMaxNearbyCells(radius, radius)];
+        int count = getNearbyCellIds(position.getLatitude(), position.getLongitude(), radius, radius, ids);
         Set<Long> cellIds = new HashSet<Long>();
+        for (int i = 0; i < count; i++) {
+            cellIds.add(ids[i]);
+        }
+        return cellIds;
+    }
 
-        double latN = position.getLatitude() + radius;
-        double latS = position.getLatitude() - radius;
-        double lonW = position.getLongitude() - radius;
-        double lonE = position.getLongitude() + radius;
-
-        Long cellIdNW = getCellId(latN, lonW);
-        Long cellIdNE = getCellId(latN, lonE);
-        Long cellIdSE = getCellId(latS, lonE);
-
-        Long firstCellId = cellIdNW;
-        Long iteratorCellId = cellIdNW;
-        Long lastCellId = cellIdNE;
-
-        while (iteratorCellId <= lastCellId) {
-            iteratorCellId = firstCellId;
-
-            cellIds.add(firstCellId);
-
-            while (iteratorCellId <= lastCellId) {
-                iteratorCellId = getCellIdEastOf(iteratorCellId);
-
-                cellIds.add(iteratorCellId);
+    /**
+     * Get the ids of the cells overlapping a box around a position without allocating. The box spans the radii in
+     * degrees on each side of the position, wrapping around the date line and ending at the poles. Each cell id is
+     * returned once. The cell size must divide 180 degrees, so a cell boundary is at the date line.
+     *
+     * @param cellIds
+     *            the array to store the ids in, at least {@link #getMaxNearbyCells(double, double)} long
+     * @return the number of ids stored
+     */
+    public int getNearbyCellIds(double lat, double lon, double latRadius, double lonRadius, long[] cellIds) {
+        long rowS = (long) Math.floor(Math.max(lat - latRadius, -90.0) / GEO_CELL_SIZE_IN_DEGREES);
+        long rowN = (long) Math.floor(Math.min(lat + latRadius, 90.0) / GEO_CELL_SIZE_IN_DEGREES);
+        long colW = (long) Math.floor((lon - lonRadius) / GEO_CELL_SIZE_IN_DEGREES);
+        long colE = (long) Math.floor((lon + lonRadius) / GEO_CELL_SIZE_IN_DEGREES);
+        long columns = getColumns();
+        if (colE - colW + 1 >= columns) {
+            colW = -columns / 2;
+            colE = colW + columns - 1;
+        }
+        int count = 0;
+        for (long row = rowS; row <= rowN; row++) {
+            double cellLat = (row + 0.5) * GEO_CELL_SIZE_IN_DEGREES;
+            for (long col = colW; col <= colE; col++) {
+                // Ids are taken from the cell centres, so they always agree with getCellId()
+                double cellLon = (col + 0.5) * GEO_CELL_SIZE_IN_DEGREES;
+                if (cellLon >= 180.0) {
+                    cellLon -= 360.0;
+                } else if (cellLon < -180.0) {
+                    cellLon += 360.0;
+                }
+                cellIds[count++] = getCellId(cellLat, cellLon);
             }
-
-            firstCellId = getCellIdSouthOf(firstCellId);
-            lastCellId = getCellIdSouthOf(lastCellId);
         }
+        return count;
+    }
 
-        if (cellIdNW == cellIdSE) {
-            cellIds.add(cellIdNW);
-        }
+    /**
+     * The largest number of cell ids returned by {@link #getNearbyCellIds(double, double, double, double, long[])}
+     * for the given radii in degrees
+     */
+    public int getMaxNearbyCells(double latRadius, double lonRadius) {
+        long rows = Math.min((long) Math.ceil(2 * latRadius / GEO_CELL_SIZE_IN_DEGREES) + 1,
+                (long) Math.ceil(180.0 / GEO_CELL_SIZE_IN_DEGREES) + 1);
+        long columns = Math.min((long) Math.ceil(2 * lonRadius / GEO_CELL_SIZE_IN_DEGREES) + 1, getColumns());
+        return (int) (rows * columns);
+    }
 
-        return cellIds;
+    /**
+     * Number of cells around a latitude
+     */
+    private long getColumns() {
+        return Math.round(MULTIPLIER);
+    }
+
+    /**
+     * Column of a cell, from -columns / 2 at longitude -180
+     */
+    private long getColumn(long id) {
+        long columns = getColumns();
+        return Math.floorMod(id + columns / 2, columns) - columns / 2;
     }
 }
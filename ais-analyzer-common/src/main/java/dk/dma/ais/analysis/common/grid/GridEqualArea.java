@@ -28,6 +28,7 @@ public class GridEqualArea {
     public int numberOfParallelStrips; //
     public int numberOfCells; // Total number of cells in the grid
     public LatitudeStrip[] parallelStrips; // List with each parallel strip
+    private final int[] firstCellIds; // Id of the first cell of each parallel strip
 
     public GridEqualArea(double lonmin_, double latmin_, double lonmax_, double latmax_, double cellHeightInMeter_) {
         double lat;
@@ -86,6 +87,14 @@ public class GridEqualArea {
             parallelStrips[i] = strip;
             numberOfCells = numberOfCells + 1;
         }
+
+        // Cells are numbered by strip from south and then east within a strip
+        firstCellIds = new int[numberOfParallelStrips];
+        int cells = 0;
+        for (i = 0; i < numberOfParallelStrips; i++) {
+            firstCellIds[i] = cells;
+            cells += parallelStrips[i].nColumns;
+        }
     }
 
     // Get how many longitude degrees at a given latitude 1 meter is.
@@ -178,79 +187,68 @@ public class GridEqualArea {
         return lat0;
     }
 
-    // Calculates the cell id of a position
+    // Calculates the cell id of a position, from 0 to numberOfCells - 1
     // Returns -1 if it cannot be calculated
     public int getCellId(double lon, double lat) {
         if (lon < lonmin || lon > lonmax || lat < latmin || lat > latmax) {
             return -1;
         }
 
-        int id = 0;
-        if (lat < -POLE_LATITUDE) {
-            return id;
-        }
-        if (lat > POLE_LATITUDE) {
-            return numberOfCells - 1;
-        }
-
-        int Row = 0;
-        if (parallelStrips[0].nColumns == 1) {
-            Row = 1;
-        }
-        for (int i = 0; i <= numberOfParallelStrips - 1; i++) {
-            if ((parallelStrips[i].latmin + parallelStrips[i].cellHeightInDeg) < lat) {
-                id = id + parallelStrips[i].nColumns;
-                if (i > 0) {
-                    id = id + 1;
-                }
-                Row = i + 1;
+        // Binary search for the last strip starting at or south of the latitude
+        int low = 0;
+        int high = numberOfParallelStrips - 1;
+        while (low < high) {
+            int mid = (low + high + 1) >>> 1;
+            if (parallelStrips[mid].latmin <= lat) {
+                low = mid;
             } else {
-                i = numberOfParallelStrips; // Break the for loop
+                high = mid - 1;
             }
-
         }
 
-        int nColumns = (int) Math.floor((lon - lonmin) / (lonmax - lonmin) * parallelStrips[Row].nColumns);
-        id = id + nColumns;
-
-        return id;
+        int nColumns = parallelStrips[low].nColumns;
+        int column = (int) Math.floor((lon - lonmin) / (lonmax - lonmin) * nColumns);
+        return firstCellIds[low] + Math.min(column, nColumns - 1);
     }
 
-    // Calculates the lat,lon of a cell with id
+    // Calculates the lat,lon of the south west corner of a cell with id
     // return not null if all went well
     public Position getGeoPosOfCellId(int cellId) {
-        double lat, lon;
-        if (cellId < 0 || cellId > numberOfCells) {
-            lon = 181.0;
-            lat = 91.0;
+        if (cellId < 0 || cellId >= numberOfCells) {
             return null;
         }
-
-        int id = 0;
-        if (cellId == 0) {
-            lat = latmin;
-            lon = lonmin;
-            return Position.create(lat, lon);
+        int i = stripOfCellId(cellId);
+        LatitudeStrip strip = parallelStrips[i];
+        double lon = lonmin;
+        if (strip.nColumns > 1) {
+            lon = lonmin + (lonmax - lonmin) * (cellId - firstCellIds[i]) / strip.nColumns;
         }
+        return Position.create(strip.latmin, lon);
+    }
 
-        if (cellId == numberOfCells - 1) {
-            lat = latmax;
-            lon = latmin;
-            return Position.create(lat, lon);
+    // Calculates the height and width in degrees of a cell with id
+    // return null if the cell does not exist
+    public double[] getCellSizeInDeg(int cellId) {
+        if (cellId < 0 || cellId >= numberOfCells) {
+            return null;
         }
+        LatitudeStrip strip = parallelStrips[stripOfCellId(cellId)];
+        return new double[] { strip.cellHeightInDeg, (lonmax - lonmin) / strip.nColumns };
+    }
 
-        id = cellId;
-        int i = 0;
-        while (id > parallelStrips[0].nColumns - 1) {
-            id -= parallelStrips[0].nColumns;
-            i++;
-        }
-        if (id < 0) {
-            id = id + parallelStrips[i - 1].nColumns;
+    // Binary search for the strip of a cell
+    private int stripOfCellId(int cellId) {
+        int low = 0;
+        int high = numberOfParallelStrips - 1;
+        while (low < high) {
+            int mid = (low + high + 1) >>> 1;
+            if (firstCellIds[mid] <= cellId) {
+                low = mid;
+            } else {
+                high = mid - 1;
+            }
         }
-        lat = parallelStrips[i].latmin;
-        lon = lonmin + parallelStrips[i].cellWidthInDeg * id;
-        return Position.create(lat, lon);
+        return low;
     }
 
     // Each latitude strip is stored with the parameters below
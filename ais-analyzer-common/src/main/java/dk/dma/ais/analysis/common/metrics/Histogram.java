@@ -0,0 +1,132 @@
+/* Copyright (c) 2011 Danish Maritime Authority.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package dk.dma.ais.analysis.common.metrics;
+
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Lock-free histogram with exponentially growing buckets. Bucket i holds values in (first * 2^(i-1), first * 2^i],
+ * the last bucket holds everything above. Recording a value is a few arithmetic operations and an atomic increment.
+ * <p>
+ * Values are recorded in a base unit (e.g. nanoseconds) and exported in a larger unit (e.g. seconds).
+ */
+public class Histogram {
+
+    private final long first;
+    private final double divisor;
+    private final AtomicLongArray buckets;
+    private final LongAdder sum = new LongAdder();
+
+    /**
+     * @param first
+     *            upper bound of the first bucket in the base unit
+     * @param bucketCount
+     *            number of finite buckets
+     * @param divisor
+     *            number of base units in the exported unit
+     */
+    public Histogram(long first, int bucketCount, double divisor) {
+        this.first = first;
+        this.divisor = divisor;
+        this.buckets = new AtomicLongArray(bucketCount + 1);
+    }
+
+    /**
+     * Histogram of nanosecond latencies from 1 microsecond to about 18 minutes, exported in seconds
+     */
+    public static Histogram latency() {
+        return new Histogram(1000, 31, 1e9);
+    }
+
+    /**
+     * Histogram of byte sizes from 64 bytes to 1 GB
+     */
+    public static Histogram size() {
+        return new Histogram(64, 25, 1);
+    }
+
+    public void record(long value) {
+        int index;
+        if (value <= first) {
+            index = 0;
+        } else {
+            index = Math.min(64 - Long.numberOfLeadingZeros((value - 1) / first), buckets.length() - 1);
+        }
+        buckets.incrementAndGet(index);
+        sum.add(value);
+    }
+
+    /**
+     * Record the time elapsed since the given {@link System#nanoTime()}
+     */
+    public void recordSince(long startNanos) {
+        record(System.nanoTime() - startNanos);
+    }
+
+    public long getCount() {
+        long count = 0;
+        for (int i = 0; i < buckets.length(); i++) {
+            count += buckets.get(i);
+        }
+        return count;
+    }
+
+    /**
+     * Sum of recorded values in the exported unit
+     */
+    public double getSum() {
+        return sum.sum() / divisor;
+    }
+
+    /**
+     * Number of finite buckets
+     */
+    public int getBucketCount() {
+        return buckets.length() - 1;
+    }
+
+    /**
+     * Upper bound of bucket i in the exported unit
+     */
+    public double getUpperBound(int i) {
+        return (first << i) / divisor;
+    }
+
+    public long getBucket(int i) {
+        return buckets.get(i);
+    }
+
+    /**
+     * Estimate of the given quantile in the exported unit. The estimate is the upper bound of the bucket holding the
+     * quantile.
+     */
+    public double getQuantile(double q) {
+        long count = getCount();
+        if (count == 0) {
+            return 0;
+        }
+        long rank = (long) Math.ceil(q * count);
+        long seen = 0;
+        for (int i = 0; i < getBucketCount(); i++) {
+            seen += buckets.get(i);
+            if (seen >= rank) {
+                return getUpperBound(i);
+            }
+        }
+        return Double.POSITIVE_INFINITY;
+    }
+
+}
@@ -0,0 +1,78 @@
+/* Copyright (c) 2011 Danish Maritime Authority.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package dk.dma.ais.analysis.common.metrics;
+
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Lock-free event rate over a sliding window. Events are counted with {@link #mark()}, and a periodic
+ * {@link #tick(long)} samples the count. The rate is the number of events between the oldest sample in the window and
+ * the latest tick.
+ */
+public class Meter {
+
+    private final LongAdder count = new LongAdder();
+    private final long[] sampleCounts;
+    private final long[] sampleTimes;
+    private int next;
+    private int filled;
+    private volatile double rate;
+
+    /**
+     * @param samples
+     *            number of ticks in the window
+     */
+    public Meter(int samples) {
+        this.sampleCounts = new long[samples];
+        this.sampleTimes = new long[samples];
+    }
+
+    public void mark() {
+        count.increment();
+    }
+
+    public long getCount() {
+        return count.sum();
+    }
+
+    /**
+     * Sample the count and update the rate
+     * 
+     * @param now
+     *            current time in milliseconds
+     */
+    public synchronized void tick(long now) {
+        long current = count.sum();
+        if (filled > 0) {
+            int oldest = filled < sampleCounts.length ? 0 : next;
+            long elapsed = now - sampleTimes[oldest];
+            if (elapsed > 0) {
+                rate = (current - sampleCounts[oldest]) * 1000.0 / elapsed;
+            }
+        }
+        sampleCounts[next] = current;
+        sampleTimes[next] = now;
+        next = (next + 1) % sampleCounts.length;
+        filled = Math.min(filled + 1, sampleCounts.length);
+    }
+
+    /**
+     * Events per second as of the last tick
+     */
+    public double getRate() {
+        return rate;
+    }
+
+}
@@ -0,0 +1,171 @@
+/* Copyright (c) 2011 Danish Maritime Authority.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package dk.dma.ais.analysis.common.metrics;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ConcurrentSkipListMap;
+
+/**
+ * Registry of named metrics exported in the Prometheus text format. A metric is identified by its name and an optional
+ * label. Looking up a metric allocates, so hot paths should keep a reference to the metric instead.
+ */
+public final class MetricsRegistry {
+
+    public static final String CONTENT_TYPE = "text/plain; version=0.0.4";
+
+    private static MetricsRegistry instance;
+
+    private final ConcurrentMap<String, Family> families = new ConcurrentSkipListMap<>();
+
+    public MetricsRegistry() {
+
+    }
+
+    public static synchronized MetricsRegistry getInstance() {
+        if (instance == null) {
+            instance = new MetricsRegistry();
+        }
+        return instance;
+    }
+
+    public Counter counter(String name, String help) {
+        return counter(name, help, null, null);
+    }
+
+    public Counter counter(String name, String help, String labelName, String labelValue) {
+        return (Counter) family(name, help, "counter").get(labelName, labelValue, new Counter());
+    }
+
+    public Histogram histogram(String name, String help, Histogram template) {
+        return histogram(name, help, null, null, template);
+    }
+
+    /**
+     * Get or register a histogram. The template is registered if no histogram exists with the name and label.
+     */
+    public Histogram histogram(String name, String help, String labelName, String labelValue, Histogram template) {
+        return (Histogram) family(name, help, "histogram").get(labelName, labelValue, template);
+    }
+
+    /**
+     * Register a gauge, replacing any existing gauge with the name and label
+     */
+    public void gauge(String name, String help, Gauge gauge) {
+        gauge(name, help, null, null, gauge);
+    }
+
+    public void gauge(String name, String help, String labelName, String labelValue, Gauge gauge) {
+        family(name, help, "gauge").series.put(Family.labels(labelName, labelValue), gauge);
+    }
+
+    private Family family(String name, String help, String type) {
+        Family family = families.get(name);
+        if (family == null) {
+            Family newFamily = new Family(help, type);
+            family = families.putIfAbsent(name, newFamily);
+            if (family == null) {
+                family = newFamily;
+            }
+        }
+        if (!family.type.equals(type)) {
+            throw new IllegalArgumentException("Metric " + name + " is a " + family.type + ", not a " + type);
+        }
+        return family;
+    }
+
+    /**
+     * Write all metrics in the Prometheus text exposition format
+     */
+    public String toPrometheus() {
+        StringBuilder buf = new StringBuilder(4096);
+        for (Map.Entry<String, Family> entry : families.entrySet()) {
+            String name = entry.getKey();
+            Family family = entry.getValue();
+            buf.append("# HELP ").append(name).append(' ').append(family.help).append('\n');
+            buf.append("# TYPE ").append(name).append(' ').append(family.type).append('\n');
+            for (Map.Entry<String, Object> series : family.series.entrySet()) {
+                String labels = series.getKey();
+                Object metric = series.getValue();
+                if (metric instanceof Counter) {
+                    sample(buf, name, labels, null, ((Counter) metric).get());
+                } else if (metric instanceof Gauge) {
+                    sample(buf, name, labels, null, ((Gauge) metric).getValue());
+                } else if (metric instanceof Histogram) {
+                    Histogram histogram = (Histogram) metric;
+                    long cumulative = 0;
+                    for (int i = 0; i < histogram.getBucketCount(); i++) {
+                        cumulative += histogram.getBucket(i);
+                        sample(buf, name + "_bucket", labels, "le=\"" + histogram.getUpperBound(i) + "\"", cumulative);
+                    }
+                    cumulative += histogram.getBucket(histogram.getBucketCount());
+                    sample(buf, name + "_bucket", labels, "le=\"+Inf\"", cumulative);
+                    sample(buf, name + "_sum", labels, null, histogram.getSum());
+                    sample(buf, name + "_count", labels, null, cumulative);
+                }
+            }
+        }
+        return buf.toString();
+    }
+
+    private static void sample(StringBuilder buf, String name, String labels, String extraLabel, double value) {
+        buf.append(name);
+        if (!labels.isEmpty() || extraLabel != null) {
+            buf.append('{').append(labels);
+            if (extraLabel != null) {
+                buf.append(labels.isEmpty() ? "" : ",").append(extraLabel);
+            }
+            buf.append('}');
+        }
+        buf.append(' ');
+        if (Double.isInfinite(value)) {
+            buf.append(value > 0 ? "+Inf" : "-Inf");
+        } else if (value == (long) value) {
+            buf.append((long) value);
+        } else {
+            buf.append(value);
+        }
+        buf.append('\n');
+    }
+
+    /**
+     * All series of a metric name
+     */
+    private static final class Family {
+        final String help;
+        final String type;
+        final ConcurrentMap<String, Object> series = new ConcurrentHashMap<>();
+
+        Family(String help, String type) {
+            this.help = help;
+            this.type = type;
+        }
+
+        Object get(String labelName, String labelValue, Object newMetric) {
+            String labels = labels(labelName, labelValue);
+            Object metric = series.putIfAbsent(labels, newMetric);
+            return metric != null ? metric : newMetric;
+        }
+
+        static String labels(String labelName, String labelValue) {
+            if (labelName == null) {
+                return "";
+            }
+            return labelName + "=\"" + labelValue.replace("\\", "\\\\").replace("\"", "\\\"") + "\"";
+        }
+    }
+
+}
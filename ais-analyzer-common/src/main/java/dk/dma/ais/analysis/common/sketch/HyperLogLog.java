@@ -0,0 +1,193 @@
+/* Copyright (c) 2011 Danish Maritime Authority.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package dk.dma.ais.analysis.common.sketch;
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+import java.util.Arrays;
+
+/**
+ * HyperLogLog sketch of the number of distinct values, such as the distinct MMSI numbers seen in a cell or by a
+ * source. A sketch of precision p has 2^p registers and a standard error of about 1.04 / sqrt(2^p).
+ * <p>
+ * A sketch starts sparse, keeping only the registers set as an array of ints, and turns dense with a byte per
+ * register when it holds 2^p / 16 registers, a quarter of the size of the dense registers. Most sketches of small areas
+ * or short intervals never see enough values to become dense. Adding a value takes at most 2^p / 16 comparisons while
+ * sparse and constant time when dense. Sketches of the same precision are merged by taking the maximum of each
+ * register, so the sketch of a day is the merge of the sketches of its hours. Not thread safe.
+ */
+public final class HyperLogLog {
+
+    private final int precision;
+
+    // Registers set while sparse as index << 8 | rank, unordered
+    private int[] sparse;
+    private int sparseSize;
+
+    // Rank of each register when dense, else null
+    private byte[] dense;
+
+    public HyperLogLog(int precision) {
+        if (precision < 4 || precision > 16) {
+            throw new IllegalArgumentException("Precision must be between 4 and 16: " + precision);
+        }
+        this.precision = precision;
+        this.sparse = new int[4];
+    }
+
+    public int getPrecision() {
+        return precision;
+    }
+
+    public void add(long value) {
+        long hash = hash(value);
+        int index = (int) (hash >>> 64 - precision);
+        int rank = Long.numberOfLeadingZeros(hash << precision | 1L << precision - 1) + 1;
+        set(index, rank);
+    }
+
+    private void set(int index, int rank) {
+        if (dense != null) {
+            if (dense[index] < rank) {
+                dense[index] = (byte) rank;
+            }
+            return;
+        }
+        for (int i = 0; i < sparseSize; i++) {
+            if (sparse[i] >>> 8 == index) {
+                if ((sparse[i] & 0xFF) < rank) {
+                    sparse[i] = index << 8 | rank;
+                }
+                return;
+            }
+        }
+        if (sparseSize == sparse.length) {
+            if (sparseSize * 16 >= 1 << precision) {
+                toDense();
+                dense[index] = (byte) rank;
+                return;
+            }
+            sparse = Arrays.copyOf(sparse, sparseSize * 2);
+        }
+        sparse[sparseSize++] = index << 8 | rank;
+    }
+
+    private void toDense() {
+        dense = new byte[1 << precision];
+        for (int i = 0; i < sparseSize; i++) {
+            dense[sparse[i] >>> 8] = (byte) (sparse[i] & 0xFF);
+        }
+        sparse = null;
+        sparseSize = 0;
+    }
+
+    /**
+     * Merge another sketch of the same precision into this
+     */
+    public void merge(HyperLogLog other) {
+        if (other.precision != precision) {
+            throw new IllegalArgumentException("Cannot merge sketches of precision " + precision + " and "
+                    + other.precision);
+        }
+        if (other.dense != null) {
+            if (dense == null) {
+                toDense();
+            }
+            for (int i = 0; i < dense.length; i++) {
+                if (dense[i] < other.dense[i]) {
+                    dense[i] = other.dense[i];
+                }
+            }
+        } else {
+            for (int i = 0; i < other.sparseSize; i++) {
+                set(other.sparse[i] >>> 8, other.sparse[i] & 0xFF);
+            }
+        }
+    }
+
+    /**
+     * Estimated number of distinct values added
+     */
+    public long estimate() {
+        int m = 1 << precision;
+        double sum = 0;
+        int zeros = 0;
+        if (dense != null) {
+            for (byte rank : dense) {
+                sum += 1.0 / (1L << rank);
+                if (rank == 0) {
+                    zeros++;
+                }
+            }
+        } else {
+            zeros = m - sparseSize;
+            sum = zeros;
+            for (int i = 0; i < sparseSize; i++) {
+                sum += 1.0 / (1L << (sparse[i] & 0xFF));
+            }
+        }
+        double alpha = m == 16 ? 0.673 : m == 32 ? 0.697 : m == 64 ? 0.709 : 0.7213 / (1 + 1.079 / m);
+        double estimate = alpha * m * m / sum;
+        // Linear counting is more accurate for small cardinalities
+        if (estimate <= 2.5 * m && zeros > 0) {
+            estimate = m * Math.log((double) m / zeros);
+        }
+        return Math.round(estimate);
+    }
+
+    public void write(DataOutput out) throws IOException {
+        out.writeByte(precision);
+        if (dense != null) {
+            out.writeBoolean(true);
+            out.write(dense);
+        } else {
+            out.writeBoolean(false);
+            out.writeShort(sparseSize);
+            for (int i = 0; i < sparseSize; i++) {
+                out.writeInt(sparse[i]);
+            }
+        }
+    }
+
+    public static HyperLogLog read(DataInput in) throws IOException {
+        HyperLogLog hll = new HyperLogLog(in.readByte());
+        if (in.readBoolean()) {
+            hll.dense = new byte[1 << hll.precision];
+            in.readFully(hll.dense);
+            hll.sparse = null;
+        } else {
+            hll.sparseSize = in.readUnsignedShort();
+            hll.sparse = new int[Math.max(4, hll.sparseSize)];
+            for (int i = 0; i < hll.sparseSize; i++) {
+                hll.sparse[i] = in.readInt();
+            }
+        }
+        return hll;
+    }
+
+    /**
+     * 64 bit finalizer of MurmurHash3, spreading consecutive values such as MMSI numbers over all bits
+     */
+    private static long hash(long value) {
+        value ^= value >>> 33;
+        value *= 0xff51afd7ed558ccdL;
+        value ^= value >>> 33;
+        value *= 0xc4ceb9fe1a85ec53L;
+        value ^= value >>> 33;
+        return value;
+    }
+
+}
@@ -0,0 +1,100 @@
+/* Copyright (c) 2011 Danish Maritime Authority.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package dk.dma.ais.analysis.common.traffic;
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+
+import dk.dma.ais.message.ShipTypeCargo.ShipType;
+
+/**
+ * Statistics of a grid cell by ship type. Not thread safe.
+ */
+public final class CellStatistics {
+
+    private static final ShipType[] TYPES = ShipType.values();
+
+    private final TypeStatistics[] types = new TypeStatistics[TYPES.length];
+
+    /**
+     * @return the statistics of a ship type, created if missing
+     */
+    TypeStatistics type(ShipType type) {
+        TypeStatistics stats = types[type.ordinal()];
+        if (stats == null) {
+            stats = new TypeStatistics();
+            types[type.ordinal()] = stats;
+        }
+        return stats;
+    }
+
+    /**
+     * @return the statistics of a ship type, or null if no messages of the type were seen
+     */
+    public TypeStatistics get(ShipType type) {
+        return types[type.ordinal()];
+    }
+
+    /**
+     * Merge another cell into this. The statistics of the other cell are copied, not shared.
+     */
+    public void merge(CellStatistics other) {
+        for (int i = 0; i < types.length; i++) {
+            if (other.types[i] != null) {
+                type(TYPES[i]).merge(other.types[i]);
+            }
+        }
+    }
+
+    /**
+     * Statistics of all ship types merged
+     */
+    public TypeStatistics getTotal() {
+        TypeStatistics total = new TypeStatistics();
+        for (TypeStatistics stats : types) {
+            if (stats != null) {
+                total.merge(stats);
+            }
+        }
+        return total;
+    }
+
+    void write(DataOutput out) throws IOException {
+        int count = 0;
+        for (TypeStatistics stats : types) {
+            if (stats != null) {
+                count++;
+            }
+        }
+        out.writeByte(count);
+        for (int i = 0; i < types.length; i++) {
+            if (types[i] != null) {
+                out.writeByte(i);
+                types[i].write(out);
+            }
+        }
+    }
+
+    static CellStatistics read(DataInput in) throws IOException {
+        CellStatistics cell = new CellStatistics();
+        int count = in.readUnsignedByte();
+        for (int i = 0; i < count; i++) {
+            cell.types[in.readUnsignedByte()] = TypeStatistics.read(in);
+        }
+        return cell;
+    }
+
+}
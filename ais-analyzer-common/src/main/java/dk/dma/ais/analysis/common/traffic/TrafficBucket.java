@@ -0,0 +1,164 @@
+/* Copyright (c) 2011 Danish Maritime Authority.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package dk.dma.ais.analysis.common.traffic;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * Statistics of the cells of a grid within a time interval: an hour, a day or a month. Not thread safe.
+ * <p>
+ * The format of a bucket file is
+ *
+ * <pre>
+ * header:  int magic, int version, long start, long end, int merged, int cells
+ * body:    gzip of the cells ascending by id
+ * cell:    long id, byte types, then for each type: byte ship type, type statistics
+ * </pre>
+ *
+ * The header is not compressed, so the interval and merged days of a file are read without the body.
+ */
+public final class TrafficBucket {
+
+    static final int MAGIC = 0x54524653; // TRFS
+    static final int VERSION = 1;
+
+    private final long start;
+    private final long end;
+    private final Map<Long, CellStatistics> cells = new HashMap<>();
+
+    // Days of the month merged into a monthly bucket, bit 0 for the first day
+    private int merged;
+
+    public TrafficBucket(long start, long end) {
+        this.start = start;
+        this.end = end;
+    }
+
+    /**
+     * @return the statistics of a cell, created if missing
+     */
+    CellStatistics cell(long cellId) {
+        CellStatistics cell = cells.get(cellId);
+        if (cell == null) {
+            cell = new CellStatistics();
+            cells.put(cellId, cell);
+        }
+        return cell;
+    }
+
+    /**
+     * Merge another bucket into this. The statistics of the other bucket are copied, not shared.
+     */
+    public void merge(TrafficBucket other) {
+        for (Map.Entry<Long, CellStatistics> entry : other.cells.entrySet()) {
+            cell(entry.getKey()).merge(entry.getValue());
+        }
+    }
+
+    /**
+     * Start of the interval in milliseconds, inclusive
+     */
+    public long getStart() {
+        return start;
+    }
+
+    /**
+     * End of the interval in milliseconds, exclusive
+     */
+    public long getEnd() {
+        return end;
+    }
+
+    /**
+     * Statistics by cell id
+     */
+    public Map<Long, CellStatistics> getCells() {
+        return Collections.unmodifiableMap(cells);
+    }
+
+    int getMerged() {
+        return merged;
+    }
+
+    void setMerged(int merged) {
+        this.merged = merged;
+    }
+
+    /**
+     * Write the bucket to a file. The file is written under a temporary name and renamed, so a bucket file is always
+     * complete.
+     */
+    void write(File file) throws IOException {
+        File tmp = new File(file.getParentFile(), file.getName() + ".tmp");
+        try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(tmp)))) {
+            out.writeInt(MAGIC);
+            out.writeInt(VERSION);
+            out.writeLong(start);
+            out.writeLong(end);
+            out.writeInt(merged);
+            out.writeInt(cells.size());
+            out.flush();
+            DataOutputStream body = new DataOutputStream(new BufferedOutputStream(new GZIPOutputStream(out)));
+            Long[] ids = cells.keySet().toArray(new Long[cells.size()]);
+            Arrays.sort(ids);
+            for (Long id : ids) {
+                body.writeLong(id);
+                cells.get(id).write(body);
+            }
+            body.close();
+        }
+        Files.move(tmp.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING);
+    }
+
+    /**
+     * Read a bucket file
+     *
+     * @param body
+     *            read the cells, else only the header
+     */
+    static TrafficBucket read(File file, boolean body) throws IOException {
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(file)))) {
+            if (in.readInt() != MAGIC || in.readInt() != VERSION) {
+                throw new IOException("Not a traffic statistics file: " + file);
+            }
+            TrafficBucket bucket = new TrafficBucket(in.readLong(), in.readLong());
+            bucket.merged = in.readInt();
+            int count = in.readInt();
+            if (body) {
+                DataInputStream cells = new DataInputStream(new BufferedInputStream(new GZIPInputStream(in)));
+                for (int i = 0; i < count; i++) {
+                    bucket.cells.put(cells.readLong(), CellStatistics.read(cells));
+                }
+            }
+            return bucket;
+        }
+    }
+
+}
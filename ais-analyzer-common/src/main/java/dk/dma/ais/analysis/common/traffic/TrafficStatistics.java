@@ -0,0 +1,560 @@
+/* Copyright (c) 2011 Danish Maritime Authority.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package dk.dma.ais.analysis.common.traffic;
+
+import java.io.File;
+import java.io.IOException;
+import java.text.DateFormat;
+import java.text.SimpleDateFormat;
+import java.util.ArrayList;
+import java.util.Calendar;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.TimeZone;
+import java.util.TreeMap;
+import java.util.TreeSet;
+
+import net.jcip.annotations.GuardedBy;
+import net.jcip.annotations.ThreadSafe;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import dk.dma.ais.analysis.common.grid.Grid;
+import dk.dma.ais.analysis.common.metrics.Counter;
+import dk.dma.ais.analysis.common.metrics.Gauge;
+import dk.dma.ais.analysis.common.metrics.Histogram;
+import dk.dma.ais.analysis.common.metrics.MetricsRegistry;
+import dk.dma.ais.message.AisMessage;
+import dk.dma.ais.message.AisMessage24;
+import dk.dma.ais.message.AisStaticCommon;
+import dk.dma.ais.message.IVesselPositionMessage;
+import dk.dma.ais.message.ShipTypeCargo;
+import dk.dma.ais.message.ShipTypeCargo.ShipType;
+import dk.dma.ais.packet.AisPacket;
+import dk.dma.enav.model.geometry.Position;
+import dk.dma.enav.util.function.Consumer;
+
+/**
+ * Traffic statistics of the cells of a grid, aggregated from the stream of messages as it passes.
+ * <p>
+ * Each position message is added to the statistics of its cell and the ship type of the vessel in the bucket of its
+ * hour, at constant cost. The ship type is taken from the last static message of the vessel, and forgotten when the
+ * vessel has not been seen within the hours kept in memory. When the time of the messages has passed the end of an
+ * hour by the flush delay, the hour is merged into the file of its day by the writer thread. A day is merged into
+ * the file of its month when it has ended, and hours of a day arriving later are merged into both. Closed hours are
+ * kept in memory for a number of hours. Day files are removed after a number of days, month files are kept.
+ * <p>
+ * Statistics of an hour, day or month are read at any time, including the hours not yet written.
+ */
+@ThreadSafe
+public class TrafficStatistics extends Thread implements Consumer<AisPacket> {
+
+    private static final Logger LOG = LoggerFactory.getLogger(TrafficStatistics.class);
+
+    public static final long HOUR = 3600 * 1000L;
+    public static final long DAY = 24 * HOUR;
+
+    private static final String SUFFIX = ".tsd";
+
+    private final Grid grid;
+    private final File dir;
+    private final long flushDelay;
+    private final long retain;
+    private final long dayTtl;
+
+    // Ship type and time last seen of each MMSI
+    @GuardedBy("this")
+    private final Map<Integer, Vessel> vessels = new HashMap<>();
+
+    // Hours receiving messages
+    @GuardedBy("this")
+    private final TreeMap<Long, TrafficBucket> open = new TreeMap<>();
+
+    // Hours waiting for the writer
+    @GuardedBy("this")
+    private final List<TrafficBucket> closing = new ArrayList<>();
+
+    // Hours written, kept for queries
+    @GuardedBy("this")
+    private final TreeMap<Long, TrafficBucket> closed = new TreeMap<>();
+
+    // Latest message time
+    @GuardedBy("this")
+    private long streamTime = Long.MIN_VALUE;
+
+    // Held while files are written or read, so a query sees an hour either in a file or in memory
+    private final Object fileLock = new Object();
+
+    // Days written but not merged into their month
+    @GuardedBy("fileLock")
+    private final TreeSet<Long> unmerged = new TreeSet<>();
+
+    private final Counter messages;
+    private final Counter writeErrors;
+    private final Histogram writeTime;
+
+    /**
+     * @param flushDelay
+     *            time in milliseconds after the end of an hour until it is written
+     * @param retain
+     *            time in milliseconds hours are kept in memory after their end
+     * @param dayTtl
+     *            time in milliseconds day files are kept after their end, 0 to keep all day files
+     * @throws IOException
+     *             if the directory cannot be created or read
+     */
+    public TrafficStatistics(Grid grid, File dir, long flushDelay, long retain, long dayTtl) throws IOException {
+        super("TrafficStatistics");
+        setDaemon(true);
+        this.grid = grid;
+        this.dir = dir;
+        this.flushDelay = flushDelay;
+        this.retain = retain;
+        this.dayTtl = dayTtl;
+        if (!dir.isDirectory() && !dir.mkdirs()) {
+            throw new IOException("Could not create traffic statistics directory " + dir);
+        }
+        open();
+
+        MetricsRegistry metrics = MetricsRegistry.getInstance();
+        messages = metrics.counter("traffic_messages_total", "Position messages added to the traffic statistics");
+        writeErrors = metrics.counter("traffic_write_errors_total", "Hours that could not be written");
+        writeTime = metrics.histogram("traffic_write_duration_seconds", "Time merging an hour into its day and month",
+                Histogram.latency());
+        metrics.gauge("traffic_open_cells", "Cells of the hours not yet written", new Gauge() {
+            @Override
+            public double getValue() {
+                return getOpenCells();
+            }
+        });
+        metrics.gauge("traffic_ship_types", "Vessels with a known ship type", new Gauge() {
+            @Override
+            public double getValue() {
+                return getShipTypeCount();
+            }
+        });
+    }
+
+    /**
+     * Find the days not merged into their month
+     */
+    private void open() throws IOException {
+        File[] files = dir.listFiles();
+        if (files == null) {
+            throw new IOException("Could not list traffic statistics directory " + dir);
+        }
+        int days = 0;
+        for (File file : files) {
+            if (!file.getName().endsWith(SUFFIX)) {
+                continue;
+            }
+            TrafficBucket header;
+            try {
+                header = TrafficBucket.read(file, false);
+            } catch (IOException e) {
+                LOG.warn("Ignoring invalid traffic statistics file " + file + ": " + e.getMessage());
+                continue;
+            }
+            if (header.getEnd() - header.getStart() == DAY) {
+                days++;
+                File monthFile = monthFile(header.getStart());
+                int merged = monthFile.exists() ? TrafficBucket.read(monthFile, false).getMerged() : 0;
+                if ((merged & dayBit(header.getStart())) == 0) {
+                    unmerged.add(header.getStart());
+                }
+            }
+        }
+        LOG.info("Opened traffic statistics " + dir + " with " + days + " days, " + unmerged.size()
+                + " not merged into their month");
+    }
+
+    @Override
+    public void accept(AisPacket packet) {
+        AisMessage aisMessage = packet.tryGetAisMessage();
+        if (aisMessage instanceof AisStaticCommon) {
+            // Part A of message 24 holds the name only
+            if (!(aisMessage instanceof AisMessage24) || ((AisMessage24) aisMessage).getPartNumber() == 1) {
+                ShipType type = new ShipTypeCargo(((AisStaticCommon) aisMessage).getShipType()).getShipType();
+                long time = time(packet);
+                synchronized (this) {
+                    Vessel vessel = vessels.get(aisMessage.getUserId());
+                    if (vessel == null) {
+                        vessel = new Vessel();
+                        vessels.put(aisMessage.getUserId(), vessel);
+                    }
+                    vessel.type = type;
+                    vessel.seen = Math.max(vessel.seen, time);
+                }
+            }
+        }
+        if (!(aisMessage instanceof IVesselPositionMessage)) {
+            return;
+        }
+        IVesselPositionMessage posMessage = (IVesselPositionMessage) aisMessage;
+        Position pos = posMessage.getValidPosition();
+        if (pos == null) {
+            return;
+        }
+        long cellId = grid.getCellId(pos.getLatitude(), pos.getLongitude());
+        long time = time(packet);
+        messages.inc();
+
+        synchronized (this) {
+            long hour = Math.floorDiv(time, HOUR) * HOUR;
+            TrafficBucket bucket = open.get(hour);
+            if (bucket == null) {
+                bucket = new TrafficBucket(hour, hour + HOUR);
+                open.put(hour, bucket);
+            }
+            Vessel vessel = vessels.get(aisMessage.getUserId());
+            ShipType type = ShipType.UNKNOWN;
+            if (vessel != null) {
+                type = vessel.type;
+                vessel.seen = Math.max(vessel.seen, time);
+            }
+            bucket.cell(cellId).type(type).add(aisMessage.getUserId(), posMessage.getSog(), posMessage.getCog());
+
+            if (time > streamTime) {
+                streamTime = time;
+                boolean due = false;
+                while (!open.isEmpty() && open.firstKey() + HOUR + flushDelay <= streamTime) {
+                    closing.add(open.remove(open.firstKey()));
+                    due = true;
+                }
+                if (due) {
+                    expireShipTypes(streamTime - HOUR - flushDelay - retain);
+                    notify();
+                }
+            }
+        }
+    }
+
+    private static long time(AisPacket packet) {
+        long time = packet.getBestTimestamp();
+        return time > 0 ? time : System.currentTimeMillis();
+    }
+
+    /**
+     * Forget the ship types of the vessels not seen since a time, about the start of the oldest hour in memory
+     */
+    @GuardedBy("this")
+    private void expireShipTypes(long time) {
+        Iterator<Vessel> it = vessels.values().iterator();
+        while (it.hasNext()) {
+            if (it.next().seen < time) {
+                it.remove();
+            }
+        }
+    }
+
+    /**
+     * Write all open hours and wait until written
+     */
+    public void flushAll() {
+        synchronized (this) {
+            closing.addAll(open.values());
+            open.clear();
+        }
+        write();
+    }
+
+    @Override
+    public void run() {
+        while (!isInterrupted()) {
+            synchronized (this) {
+                try {
+                    while (closing.isEmpty()) {
+                        wait();
+                    }
+                } catch (InterruptedException e) {
+                    break;
+                }
+            }
+            write();
+        }
+        flushAll();
+        LOG.info("Traffic statistics writer stopped");
+    }
+
+    /**
+     * Merge the hours waiting for the writer into their days, and the ended days into their months
+     */
+    private void write() {
+        synchronized (fileLock) {
+            List<TrafficBucket> hours;
+            long time;
+            synchronized (this) {
+                hours = new ArrayList<>(closing);
+                time = streamTime;
+            }
+            for (TrafficBucket hour : hours) {
+                long start = System.nanoTime();
+                try {
+                    long day = Math.floorDiv(hour.getStart(), DAY) * DAY;
+                    TrafficBucket dayBucket = readOrCreate(dayFile(day), day, day + DAY);
+                    dayBucket.merge(hour);
+                    dayBucket.write(dayFile(day));
+                    if (!unmerged.contains(day)) {
+                        // The day is merged into its month already, or is new
+                        File monthFile = monthFile(day);
+                        boolean mergedDay = monthFile.exists()
+                                && (TrafficBucket.read(monthFile, false).getMerged() & dayBit(day)) != 0;
+                        if (mergedDay) {
+                            TrafficBucket month = TrafficBucket.read(monthFile, true);
+                            month.merge(hour);
+                            month.write(monthFile);
+                        } else {
+                            unmerged.add(day);
+                        }
+                    }
+                } catch (IOException e) {
+                    writeErrors.inc();
+                    LOG.error("Failed to write traffic statistics of hour " + hour.getStart() + ": " + e.getMessage());
+                }
+                writeTime.recordSince(start);
+                synchronized (this) {
+                    closing.remove(hour);
+                    TrafficBucket previous = closed.get(hour.getStart());
+                    if (previous != null) {
+                        previous.merge(hour);
+                    } else {
+                        closed.put(hour.getStart(), hour);
+                    }
+                    Iterator<Long> it = closed.keySet().iterator();
+                    while (it.hasNext() && it.next() + HOUR + retain < time) {
+                        it.remove();
+                    }
+                }
+            }
+            mergeDays(time);
+            expire(time);
+        }
+    }
+
+    /**
+     * Merge the days ended by the flush delay into their months
+     */
+    @GuardedBy("fileLock")
+    private void mergeDays(long time) {
+        Iterator<Long> it = unmerged.iterator();
+        while (it.hasNext()) {
+            long day = it.next();
+            if (day + DAY + flushDelay > time) {
+                break;
+            }
+            try {
+                File monthFile = monthFile(day);
+                long monthStart = monthStart(day);
+                TrafficBucket month = readOrCreate(monthFile, monthStart, monthEnd(monthStart));
+                month.merge(TrafficBucket.read(dayFile(day), true));
+                month.setMerged(month.getMerged() | dayBit(day));
+                month.write(monthFile);
+                it.remove();
+            } catch (IOException e) {
+                LOG.error("Failed to merge traffic statistics of day " + day + " into its month: " + e.getMessage());
+                return;
+            }
+        }
+    }
+
+    /**
+     * Remove the day files merged into their month and ended more than the time to live ago
+     */
+    @GuardedBy("fileLock")
+    private void expire(long time) {
+        if (dayTtl <= 0) {
+            return;
+        }
+        File[] files = dir.listFiles();
+        if (files == null) {
+            return;
+        }
+        for (File file : files) {
+            if (!file.getName().endsWith(SUFFIX)) {
+                continue;
+            }
+            try {
+                TrafficBucket header = TrafficBucket.read(file, false);
+                if (header.getEnd() - header.getStart() == DAY && header.getEnd() + dayTtl < time
+                        && !unmerged.contains(header.getStart())) {
+                    LOG.info("Removing expired traffic statistics file " + file);
+                    if (!file.delete()) {
+                        LOG.warn("Could not remove expired traffic statistics file " + file);
+                    }
+                }
+            } catch (IOException e) {
+                LOG.warn("Could not read traffic statistics file " + file + ": " + e.getMessage());
+            }
+        }
+    }
+
+    /**
+     * Get the statistics of an hour kept in memory
+     *
+     * @param time
+     *            a time within the hour in milliseconds
+     * @return the statistics or null if the hour is not kept
+     */
+    public TrafficBucket getHour(long time) {
+        long hour = Math.floorDiv(time, HOUR) * HOUR;
+        TrafficBucket result = new TrafficBucket(hour, hour + HOUR);
+        boolean found = false;
+        synchronized (this) {
+            for (TrafficBucket bucket : buckets(hour, hour + HOUR)) {
+                result.merge(bucket);
+                found = true;
+            }
+        }
+        return found ? result : null;
+    }
+
+    /**
+     * Get the statistics of a day, including the hours not yet written
+     *
+     * @param time
+     *            a time within the day in milliseconds
+     */
+    public TrafficBucket getDay(long time) throws IOException {
+        long day = Math.floorDiv(time, DAY) * DAY;
+        TrafficBucket result;
+        synchronized (fileLock) {
+            result = readOrCreate(dayFile(day), day, day + DAY);
+            synchronized (this) {
+                for (TrafficBucket bucket : unwritten(day, day + DAY)) {
+                    result.merge(bucket);
+                }
+            }
+        }
+        return result;
+    }
+
+    /**
+     * Get the statistics of a month, including the days not merged and the hours not yet written
+     *
+     * @param time
+     *            a time within the month in milliseconds
+     */
+    public TrafficBucket getMonth(long time) throws IOException {
+        long monthStart = monthStart(time);
+        long monthEnd = monthEnd(monthStart);
+        TrafficBucket result;
+        synchronized (fileLock) {
+            result = readOrCreate(monthFile(monthStart), monthStart, monthEnd);
+            for (long day : unmerged.subSet(monthStart, monthEnd)) {
+                result.merge(TrafficBucket.read(dayFile(day), true));
+            }
+            synchronized (this) {
+                for (TrafficBucket bucket : unwritten(monthStart, monthEnd)) {
+                    result.merge(bucket);
+                }
+            }
+        }
+        return result;
+    }
+
+    /**
+     * The buckets in memory of the hours within an interval
+     */
+    @GuardedBy("this")
+    private List<TrafficBucket> buckets(long from, long to) {
+        List<TrafficBucket> buckets = unwritten(from, to);
+        buckets.addAll(closed.subMap(from, to).values());
+        return buckets;
+    }
+
+    /**
+     * The buckets of the hours within an interval not yet written
+     */
+    @GuardedBy("this")
+    private List<TrafficBucket> unwritten(long from, long to) {
+        List<TrafficBucket> buckets = new ArrayList<>(open.subMap(from, to).values());
+        for (TrafficBucket bucket : closing) {
+            if (bucket.getStart() >= from && bucket.getStart() < to) {
+                buckets.add(bucket);
+            }
+        }
+        return buckets;
+    }
+
+    public synchronized int getOpenCells() {
+        int cells = 0;
+        for (TrafficBucket bucket : open.values()) {
+            cells += bucket.getCells().size();
+        }
+        return cells;
+    }
+
+    /**
+     * Number of vessels with a known ship type
+     */
+    public synchronized int getShipTypeCount() {
+        return vessels.size();
+    }
+
+    public Grid getGrid() {
+        return grid;
+    }
+
+    private static TrafficBucket readOrCreate(File file, long start, long end) throws IOException {
+        return file.exists() ? TrafficBucket.read(file, true) : new TrafficBucket(start, end);
+    }
+
+    private File dayFile(long day) {
+        return new File(dir, "traffic-" + format("yyyyMMdd", day) + SUFFIX);
+    }
+
+    private File monthFile(long time) {
+        return new File(dir, "traffic-" + format("yyyyMM", time) + SUFFIX);
+    }
+
+    private static String format(String pattern, long time) {
+        DateFormat format = new SimpleDateFormat(pattern);
+        format.setTimeZone(TimeZone.getTimeZone("UTC"));
+        return format.format(new Date(time));
+    }
+
+    private static long monthStart(long time) {
+        Calendar cal = Calendar.getInstance(TimeZone.getTimeZone("UTC"));
+        cal.setTimeInMillis(Math.floorDiv(time, DAY) * DAY);
+        cal.set(Calendar.DAY_OF_MONTH, 1);
+        return cal.getTimeInMillis();
+    }
+
+    private static long monthEnd(long monthStart) {
+        Calendar cal = Calendar.getInstance(TimeZone.getTimeZone("UTC"));
+        cal.setTimeInMillis(monthStart);
+        cal.add(Calendar.MONTH, 1);
+        return cal.getTimeInMillis();
+    }
+
+    /**
+     * Bit of a day in the merged days of its month
+     */
+    private static int dayBit(long day) {
+        return 1 << (int) ((day - monthStart(day)) / DAY);
+    }
+
+    /**
+     * Ship type of a vessel and the time of its last message
+     */
+    private static final class Vessel {
+        ShipType type;
+        long seen = Long.MIN_VALUE;
+    }
+}
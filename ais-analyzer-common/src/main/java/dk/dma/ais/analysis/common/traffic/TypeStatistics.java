@@ -0,0 +1,147 @@
+/* Copyright (c) 2011 Danish Maritime Authority.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package dk.dma.ais.analysis.common.traffic;
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+
+import dk.dma.ais.analysis.common.sketch.HyperLogLog;
+
+/**
+ * Statistics of the position messages of one ship type in a cell: message count, distinct vessels and histograms of
+ * speed and course over ground. Not thread safe.
+ */
+public final class TypeStatistics {
+
+    /**
+     * Precision of the distinct vessel sketches, a standard error of about 3%
+     */
+    public static final int PRECISION = 10;
+
+    /**
+     * Upper bounds in knots of the speed bins but the last, which holds all higher speeds
+     */
+    public static final double[] SPEED_BOUNDS = { 0.5, 3, 6, 10, 14, 18, 23 };
+
+    /**
+     * Course bins of 30 degrees from north
+     */
+    public static final int COURSE_BINS = 12;
+
+    // Speed bounds in tenths of knots
+    private static final int[] SPEED_TENTHS = { 5, 30, 60, 100, 140, 180, 230 };
+
+    private long messages;
+    private final HyperLogLog vessels;
+    private final int[] speeds = new int[SPEED_BOUNDS.length + 1];
+    private final int[] courses = new int[COURSE_BINS];
+
+    public TypeStatistics() {
+        this(new HyperLogLog(PRECISION));
+    }
+
+    private TypeStatistics(HyperLogLog vessels) {
+        this.vessels = vessels;
+    }
+
+    /**
+     * Add a position message
+     *
+     * @param sog
+     *            speed over ground in tenths of knots, 1023 if not available
+     * @param cog
+     *            course over ground in tenths of degrees, 3600 if not available
+     */
+    public void add(int mmsi, int sog, int cog) {
+        messages++;
+        vessels.add(mmsi);
+        if (sog >= 0 && sog < 1023) {
+            int bin = 0;
+            while (bin < SPEED_TENTHS.length && sog >= SPEED_TENTHS[bin]) {
+                bin++;
+            }
+            speeds[bin]++;
+        }
+        if (cog >= 0 && cog < 3600) {
+            courses[cog / (3600 / COURSE_BINS)]++;
+        }
+    }
+
+    public void merge(TypeStatistics other) {
+        messages += other.messages;
+        vessels.merge(other.vessels);
+        for (int i = 0; i < speeds.length; i++) {
+            speeds[i] += other.speeds[i];
+        }
+        for (int i = 0; i < courses.length; i++) {
+            courses[i] += other.courses[i];
+        }
+    }
+
+    public long getMessages() {
+        return messages;
+    }
+
+    /**
+     * Estimated number of distinct vessels
+     */
+    public long getVessels() {
+        return vessels.estimate();
+    }
+
+    /**
+     * Messages in each speed bin, see {@link #SPEED_BOUNDS}
+     */
+    public int[] getSpeeds() {
+        return speeds.clone();
+    }
+
+    /**
+     * Messages in each course bin, see {@link #COURSE_BINS}
+     */
+    public int[] getCourses() {
+        return courses.clone();
+    }
+
+    void write(DataOutput out) throws IOException {
+        out.writeLong(messages);
+        for (int count : speeds) {
+            out.writeInt(count);
+        }
+        for (int count : courses) {
+            out.writeInt(count);
+        }
+        vessels.write(out);
+    }
+
+    static TypeStatistics read(DataInput in) throws IOException {
+        long messages = in.readLong();
+        int[] speeds = new int[SPEED_BOUNDS.length + 1];
+        for (int i = 0; i < speeds.length; i++) {
+            speeds[i] = in.readInt();
+        }
+        int[] courses = new int[COURSE_BINS];
+        for (int i = 0; i < courses.length; i++) {
+            courses[i] = in.readInt();
+        }
+        TypeStatistics stats = new TypeStatistics(HyperLogLog.read(in));
+        stats.messages = messages;
+        System.arraycopy(speeds, 0, stats.speeds, 0, speeds.length);
+        System.arraycopy(courses, 0, stats.courses, 0, courses.length);
+        return stats;
+    }
+
+}
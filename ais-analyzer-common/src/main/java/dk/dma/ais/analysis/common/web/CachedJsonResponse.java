@@ -0,0 +1,239 @@
+/* Copyright (c) 2011 Danish Maritime Authority.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package dk.dma.ais.analysis.common.web;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.zip.CRC32;
+import java.util.zip.Deflater;
+
+import net.jcip.annotations.Immutable;
+
+import org.codehaus.jackson.map.ObjectMapper;
+
+/**
+ * A JSON object serialized and gzipped once, and written many times with a different value of its first field, e.g.
+ * a request id. The cached part is everything after the value.
+ * <p>
+ * The gzipped form holds the cached part as a complete raw deflate stream. Writing it prepends the header of the
+ * object as a stored (uncompressed) deflate block and appends the gzip trailer, with the CRC of the whole object
+ * combined from the CRCs of the two parts. No compression happens when serving the response.
+ */
+@Immutable
+public final class CachedJsonResponse {
+
+    private static final ObjectMapper MAPPER = new ObjectMapper();
+
+    private static final byte[] GZIP_HEADER = { 0x1f, (byte) 0x8b, Deflater.DEFLATED, 0, 0, 0, 0, 0, 0, (byte) 0xff };
+
+    private static final int CRC_POLYNOMIAL = 0xedb88320;
+    private static final int[] CRC_TABLE = new int[256];
+
+    static {
+        for (int n = 0; n < 256; n++) {
+            int c = n;
+            for (int k = 0; k < 8; k++) {
+                c = (c & 1) != 0 ? CRC_POLYNOMIAL ^ (c >>> 1) : c >>> 1;
+            }
+            CRC_TABLE[n] = c;
+        }
+    }
+
+    private final byte[] head;
+    private final byte[] json;
+    private final byte[] deflated;
+    private final int crc;
+    // Linear operator moving the CRC of the header past the cached part
+    private final int[] crcShift;
+
+    private CachedJsonResponse(byte[] head, byte[] json) {
+        this.head = head;
+        this.json = json;
+        CRC32 crc32 = new CRC32();
+        crc32.update(json);
+        this.crc = (int) crc32.getValue();
+        this.crcShift = crcShift(json.length);
+
+        Deflater deflater = new Deflater(Deflater.BEST_SPEED, true);
+        deflater.setInput(json);
+        deflater.finish();
+        ByteArrayOutputStream out = new ByteArrayOutputStream(json.length / 4 + 64);
+        byte[] buf = new byte[8192];
+        while (!deflater.finished()) {
+            int len = deflater.deflate(buf);
+            out.write(buf, 0, len);
+        }
+        deflater.end();
+        this.deflated = out.toByteArray();
+    }
+
+    /**
+     * Serialize an object with Jackson
+     * 
+     * @param entity
+     *            object serializing to a JSON object with the given numeric field first
+     * @param field
+     *            name of the field varying between requests
+     * @throws IllegalArgumentException
+     *             if the field is not the first field of the object
+     */
+    public static CachedJsonResponse create(Object entity, String field) throws IOException {
+        byte[] bytes = MAPPER.writeValueAsBytes(entity);
+        byte[] head = ("{\"" + field + "\":").getBytes(StandardCharsets.UTF_8);
+        if (bytes.length < head.length || !Arrays.equals(head, Arrays.copyOf(bytes, head.length))) {
+            throw new IllegalArgumentException(field + " is not the first field of " + entity.getClass().getName());
+        }
+        // Skip the value
+        int start = head.length;
+        while (start < bytes.length && bytes[start] != ',' && bytes[start] != '}') {
+            start++;
+        }
+        return new CachedJsonResponse(head, Arrays.copyOfRange(bytes, start, bytes.length));
+    }
+
+    /**
+     * Write the response with the given value of the field
+     * 
+     * @param out
+     * @param value
+     * @param gzipped
+     *            write gzip content encoding
+     * @throws IOException
+     */
+    public void write(OutputStream out, long value, boolean gzipped) throws IOException {
+        byte[] digits = Long.toString(value).getBytes(StandardCharsets.US_ASCII);
+        if (!gzipped) {
+            out.write(head);
+            out.write(digits);
+            out.write(json);
+            return;
+        }
+        int len = head.length + digits.length;
+        out.write(GZIP_HEADER);
+        // Non-final stored block
+        out.write(0);
+        out.write(len);
+        out.write(len >>> 8);
+        out.write(~len);
+        out.write(~len >>> 8);
+        out.write(head);
+        out.write(digits);
+        out.write(deflated);
+        // Trailer
+        int headCrc = crc32(crc32(0, head), digits);
+        writeInt(out, gf2Times(crcShift, headCrc) ^ crc);
+        writeInt(out, len + json.length);
+    }
+
+    private static void writeInt(OutputStream out, int value) throws IOException {
+        out.write(value);
+        out.write(value >>> 8);
+        out.write(value >>> 16);
+        out.write(value >>> 24);
+    }
+
+    /**
+     * Continue a CRC-32 over more bytes
+     */
+    static int crc32(int crc, byte[] bytes) {
+        int c = ~crc;
+        for (byte b : bytes) {
+            c = CRC_TABLE[(c ^ b) & 0xff] ^ (c >>> 8);
+        }
+        return ~c;
+    }
+
+    /**
+     * Operator over GF(2) taking crc(a) to crc(a + b) ^ crc(b) for any b of the given length. This is the zlib
+     * crc32_combine algorithm with the operator kept instead of applied.
+     */
+    static int[] crcShift(long length) {
+        int[] odd = new int[32];
+        int[] even = new int[32];
+        int[] shift = new int[32];
+        // Operator for one zero bit
+        odd[0] = CRC_POLYNOMIAL;
+        for (int n = 1; n < 32; n++) {
+            odd[n] = 1 << (n - 1);
+        }
+        // Identity
+        for (int n = 0; n < 32; n++) {
+            shift[n] = 1 << n;
+        }
+        // Two and four zero bits
+        gf2Square(even, odd);
+        gf2Square(odd, even);
+        while (length != 0) {
+            // Operator for the next power of two bytes in even, then in odd
+            gf2Square(even, odd);
+            if ((length & 1) != 0) {
+                gf2Compose(shift, even);
+            }
+            length >>>= 1;
+            if (length == 0) {
+                break;
+            }
+            gf2Square(odd, even);
+            if ((length & 1) != 0) {
+                gf2Compose(shift, odd);
+            }
+            length >>>= 1;
+        }
+        return shift;
+    }
+
+    private static int gf2Times(int[] matrix, int vector) {
+        int sum = 0;
+        for (int i = 0; vector != 0; i++, vector >>>= 1) {
+            if ((vector & 1) != 0) {
+                sum ^= matrix[i];
+            }
+        }
+        return sum;
+    }
+
+    private static void gf2Square(int[] square, int[] matrix) {
+        for (int n = 0; n < 32; n++) {
+            square[n] = gf2Times(matrix, matrix[n]);
+        }
+    }
+
+    /**
+     * Apply the matrix after the operator
+     */
+    private static void gf2Compose(int[] operator, int[] matrix) {
+        for (int n = 0; n < 32; n++) {
+            operator[n] = gf2Times(matrix, operator[n]);
+        }
+    }
+
+    /**
+     * Size of the uncompressed cached part
+     */
+    public int getSize() {
+        return json.length;
+    }
+
+    /**
+     * Size of the compressed cached part
+     */
+    public int getGzipSize() {
+        return deflated.length;
+    }
+
+}
@@ -0,0 +1,74 @@
+/* Copyright (c) 2011 Danish Maritime Authority.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package dk.dma.ais.analysis.common.web;
+
+import java.util.concurrent.CancellationException;
+
+/**
+ * Cooperative cancellation of the work of a request. The request thread gets the token of its request with
+ * {@link #current()} and hands it to any other threads working for the request, which check it at regular intervals.
+ */
+public final class Cancellation {
+
+    private static final ThreadLocal<Cancellation> CURRENT = new ThreadLocal<>();
+
+    /**
+     * Token of threads not serving a request, never cancelled
+     */
+    private static final Cancellation NONE = new Cancellation();
+
+    private volatile boolean cancelled;
+
+    Cancellation() {
+
+    }
+
+    /**
+     * @return the token of the request served by the calling thread
+     */
+    public static Cancellation current() {
+        Cancellation cancellation = CURRENT.get();
+        return cancellation != null ? cancellation : NONE;
+    }
+
+    static void setCurrent(Cancellation cancellation) {
+        if (cancellation == null) {
+            CURRENT.remove();
+        } else {
+            CURRENT.set(cancellation);
+        }
+    }
+
+    void cancel() {
+        if (this != NONE) {
+            cancelled = true;
+        }
+    }
+
+    public boolean isCancelled() {
+        return cancelled;
+    }
+
+    /**
+     * @throws CancellationException
+     *             if the request has been cancelled
+     */
+    public void check() {
+        if (cancelled) {
+            throw new CancellationException("Request cancelled");
+        }
+    }
+
+}
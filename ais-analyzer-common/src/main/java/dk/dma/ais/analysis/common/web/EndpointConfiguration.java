@@ -0,0 +1,73 @@
+/* Copyright (c) 2011 Danish Maritime Authority.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package dk.dma.ais.analysis.common.web;
+
+/**
+ * Execution of requests to an endpoint, the first path segment after the servlet path. Requests are executed on the
+ * executor for cheap or for expensive endpoints, with at most maxConcurrent requests executing at a time.
+ */
+public class EndpointConfiguration {
+
+    private String name;
+    private boolean expensive;
+    private int maxConcurrent; // 0 for no limit but the executor
+    private int queueTimeout; // 0 for the server default
+
+    public EndpointConfiguration() {
+
+    }
+
+    public EndpointConfiguration(String name, boolean expensive, int maxConcurrent) {
+        this.name = name;
+        this.expensive = expensive;
+        this.maxConcurrent = maxConcurrent;
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    public void setName(String name) {
+        this.name = name;
+    }
+
+    public boolean isExpensive() {
+        return expensive;
+    }
+
+    public void setExpensive(boolean expensive) {
+        this.expensive = expensive;
+    }
+
+    public int getMaxConcurrent() {
+        return maxConcurrent;
+    }
+
+    public void setMaxConcurrent(int maxConcurrent) {
+        this.maxConcurrent = maxConcurrent;
+    }
+
+    /**
+     * Milliseconds a request may wait for execution before it is rejected with 503
+     */
+    public int getQueueTimeout() {
+        return queueTimeout;
+    }
+
+    public void setQueueTimeout(int queueTimeout) {
+        this.queueTimeout = queueTimeout;
+    }
+
+}
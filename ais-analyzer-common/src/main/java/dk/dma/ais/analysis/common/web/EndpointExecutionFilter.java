@@ -0,0 +1,389 @@
+/* Copyright (c) 2011 Danish Maritime Authority.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package dk.dma.ais.analysis.common.web;
+
+import java.io.IOException;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Queue;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.Executors;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import javax.servlet.AsyncContext;
+import javax.servlet.AsyncEvent;
+import javax.servlet.AsyncListener;
+import javax.servlet.Filter;
+import javax.servlet.FilterChain;
+import javax.servlet.FilterConfig;
+import javax.servlet.ServletException;
+import javax.servlet.ServletRequest;
+import javax.servlet.ServletResponse;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletRequestWrapper;
+import javax.servlet.http.HttpServletResponse;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import dk.dma.ais.analysis.common.metrics.Counter;
+import dk.dma.ais.analysis.common.metrics.Gauge;
+import dk.dma.ais.analysis.common.metrics.Histogram;
+import dk.dma.ais.analysis.common.metrics.MetricsRegistry;
+
+/**
+ * Servlet filter executing requests to configured endpoints asynchronously on bounded executors, one for cheap and
+ * one for expensive endpoints. The web server thread is released as soon as a request is handed over, so a burst of
+ * expensive requests cannot occupy all web server threads.
+ * <p>
+ * Each endpoint may limit the number of concurrently executing requests. Requests above the limit wait without a
+ * thread, and are rejected with 503 if they have not started executing within the queue timeout. A request whose
+ * client goes away is cancelled through its {@link Cancellation}, which long running work checks cooperatively.
+ */
+public class EndpointExecutionFilter implements Filter {
+
+    private static final Logger LOG = LoggerFactory.getLogger(EndpointExecutionFilter.class);
+
+    private final Map<String, Endpoint> endpoints = new HashMap<>();
+    private final ThreadPoolExecutor cheapExecutor;
+    private final ThreadPoolExecutor expensiveExecutor;
+    private final ScheduledExecutorService timer;
+
+    public EndpointExecutionFilter(WebServerConfiguration conf) {
+        cheapExecutor = executor("rest-cheap", conf.getCheapThreads(), conf.getExecutorQueueSize());
+        expensiveExecutor = executor("rest-expensive", conf.getExpensiveThreads(), conf.getExecutorQueueSize());
+        timer = Executors.newSingleThreadScheduledExecutor(threadFactory("rest-queue-timer"));
+        for (EndpointConfiguration endpointConf : conf.getEndpoints()) {
+            int queueTimeout = endpointConf.getQueueTimeout() > 0 ? endpointConf.getQueueTimeout() : conf
+                    .getQueueTimeout();
+            endpoints.put(endpointConf.getName(), new Endpoint(endpointConf.getName(),
+                    endpointConf.isExpensive() ? expensiveExecutor : cheapExecutor, endpointConf.getMaxConcurrent(),
+                    queueTimeout));
+        }
+    }
+
+    private static ThreadPoolExecutor executor(final String name, int threads, int queueSize) {
+        ThreadPoolExecutor executor = new ThreadPoolExecutor(threads, threads, 60, TimeUnit.SECONDS,
+                new LinkedBlockingQueue<Runnable>(queueSize), threadFactory(name));
+        executor.allowCoreThreadTimeOut(true);
+        final ThreadPoolExecutor pool = executor;
+        MetricsRegistry metrics = MetricsRegistry.getInstance();
+        metrics.gauge("http_executor_active_threads", "Threads executing requests", "executor", name, new Gauge() {
+            @Override
+            public double getValue() {
+                return pool.getActiveCount();
+            }
+        });
+        metrics.gauge("http_executor_queued_requests", "Requests waiting for an executor thread", "executor", name,
+                new Gauge() {
+                    @Override
+                    public double getValue() {
+                        return pool.getQueue().size();
+                    }
+                });
+        return executor;
+    }
+
+    private static ThreadFactory threadFactory(final String name) {
+        final AtomicInteger count = new AtomicInteger();
+        return new ThreadFactory() {
+            @Override
+            public Thread newThread(Runnable r) {
+                Thread thread = new Thread(r, name + "-" + count.incrementAndGet());
+                thread.setDaemon(true);
+                return thread;
+            }
+        };
+    }
+
+    @Override
+    public void init(FilterConfig filterConfig) throws ServletException {
+
+    }
+
+    @Override
+    public void doFilter(ServletRequest request, ServletResponse response, FilterChain chain) throws IOException,
+            ServletException {
+        Endpoint endpoint = null;
+        if (request instanceof HttpServletRequest && request.isAsyncSupported()) {
+            endpoint = endpoints.get(RequestMetricsFilter.endpoint((HttpServletRequest) request));
+        }
+        if (endpoint == null) {
+            chain.doFilter(request, response);
+            return;
+        }
+        AsyncContext asyncContext = request.startAsync(new DispatchedRequest((HttpServletRequest) request), response);
+        // Queue timeouts are handled here, and execution is not limited in time
+        asyncContext.setTimeout(0);
+        Job job = new Job(endpoint, asyncContext, chain);
+        asyncContext.addListener(job);
+        endpoint.submit(job);
+    }
+
+    @Override
+    public void destroy() {
+        cheapExecutor.shutdown();
+        expensiveExecutor.shutdown();
+        timer.shutdown();
+    }
+
+    /**
+     * Execution state of an endpoint
+     */
+    private final class Endpoint {
+        final ThreadPoolExecutor executor;
+        // Null if not limited
+        final Semaphore permits;
+        final long queueTimeoutNanos;
+        final Queue<Job> waiting = new ConcurrentLinkedQueue<>();
+
+        final Histogram queueWait;
+        final Counter rejected;
+        final Counter cancelled;
+
+        Endpoint(String name, ThreadPoolExecutor executor, int maxConcurrent, int queueTimeout) {
+            this.executor = executor;
+            this.permits = maxConcurrent > 0 ? new Semaphore(maxConcurrent) : null;
+            this.queueTimeoutNanos = TimeUnit.MILLISECONDS.toNanos(queueTimeout);
+            MetricsRegistry metrics = MetricsRegistry.getInstance();
+            queueWait = metrics.histogram("http_queue_wait_seconds", "Time requests wait before executing",
+                    "endpoint", name, Histogram.latency());
+            rejected = metrics.counter("http_rejected_total", "Requests rejected after the queue timeout",
+                    "endpoint", name);
+            cancelled = metrics.counter("http_cancelled_total", "Requests cancelled because the client went away",
+                    "endpoint", name);
+        }
+
+        void submit(final Job job) {
+            if (permits == null || permits.tryAcquire()) {
+                job.claim();
+                execute(job);
+                return;
+            }
+            waiting.add(job);
+            timer.schedule(new Runnable() {
+                @Override
+                public void run() {
+                    if (job.claim()) {
+                        waiting.remove(job);
+                        reject(job);
+                    }
+                }
+            }, queueTimeoutNanos, TimeUnit.NANOSECONDS);
+            // A permit may have been released before the job was added
+            drain();
+        }
+
+        void execute(Job job) {
+            try {
+                executor.execute(job);
+            } catch (RejectedExecutionException e) {
+                reject(job);
+                release();
+            }
+        }
+
+        void release() {
+            if (permits != null) {
+                permits.release();
+                drain();
+            }
+        }
+
+        /**
+         * Execute waiting jobs while permits are available
+         */
+        private void drain() {
+            while (!waiting.isEmpty() && permits.tryAcquire()) {
+                Job job = waiting.poll();
+                if (job != null && job.claim()) {
+                    execute(job);
+                } else {
+                    permits.release();
+                }
+            }
+        }
+
+        void reject(Job job) {
+            rejected.inc();
+            try {
+                HttpServletResponse response = (HttpServletResponse) job.asyncContext.getResponse();
+                response.setStatus(HttpServletResponse.SC_SERVICE_UNAVAILABLE);
+                response.setHeader("Retry-After", "1");
+            } catch (RuntimeException e) {
+                LOG.debug("Failed to reject request: " + e.getMessage());
+            }
+            job.complete();
+        }
+    }
+
+    /**
+     * A request waiting for or under execution
+     */
+    private static final class Job implements Runnable, AsyncListener {
+        final Endpoint endpoint;
+        final AsyncContext asyncContext;
+        final FilterChain chain;
+        final ClassLoader contextClassLoader = Thread.currentThread().getContextClassLoader();
+        final long queued = System.nanoTime();
+        final Cancellation cancellation = new Cancellation();
+        // Set by the first of execution and queue timeout
+        final AtomicBoolean claimed = new AtomicBoolean();
+
+        Job(Endpoint endpoint, AsyncContext asyncContext, FilterChain chain) {
+            this.endpoint = endpoint;
+            this.asyncContext = asyncContext;
+            this.chain = chain;
+        }
+
+        boolean claim() {
+            return claimed.compareAndSet(false, true);
+        }
+
+        @Override
+        public void run() {
+            long waited = System.nanoTime() - queued;
+            endpoint.queueWait.record(waited);
+            try {
+                if (cancellation.isCancelled()) {
+                    endpoint.cancelled.inc();
+                    complete();
+                    return;
+                }
+                // Time waiting for an executor thread counts against the queue timeout
+                if (waited > endpoint.queueTimeoutNanos) {
+                    endpoint.reject(this);
+                    return;
+                }
+                execute();
+            } finally {
+                endpoint.release();
+            }
+        }
+
+        private void execute() {
+            Thread thread = Thread.currentThread();
+            ClassLoader classLoader = thread.getContextClassLoader();
+            thread.setContextClassLoader(contextClassLoader);
+            Cancellation.setCurrent(cancellation);
+            try {
+                chain.doFilter(asyncContext.getRequest(), asyncContext.getResponse());
+                if (cancellation.isCancelled()) {
+                    endpoint.cancelled.inc();
+                }
+            } catch (IOException e) {
+                // Writing to a client that went away
+                LOG.debug("Failed to write response: " + e);
+                endpoint.cancelled.inc();
+            } catch (ServletException | RuntimeException e) {
+                if (cancellation.isCancelled() || isCancellation(e)) {
+                    endpoint.cancelled.inc();
+                } else {
+                    LOG.error("Failed to execute request", e);
+                    HttpServletResponse response = (HttpServletResponse) asyncContext.getResponse();
+                    if (!response.isCommitted()) {
+                        response.setStatus(HttpServletResponse.SC_INTERNAL_SERVER_ERROR);
+                    }
+                }
+            } finally {
+                Cancellation.setCurrent(null);
+                thread.setContextClassLoader(classLoader);
+                complete();
+            }
+        }
+
+        /**
+         * Complete the request unless the container already did after an error
+         */
+        void complete() {
+            try {
+                asyncContext.complete();
+            } catch (IllegalStateException e) {
+                LOG.debug("Request already completed: " + e.getMessage());
+            }
+        }
+
+        private static boolean isCancellation(Throwable e) {
+            for (Throwable t = e; t != null; t = t.getCause()) {
+                if (t instanceof CancellationException) {
+                    return true;
+                }
+            }
+            return false;
+        }
+
+        @Override
+        public void onError(AsyncEvent event) throws IOException {
+            cancellation.cancel();
+        }
+
+        @Override
+        public void onComplete(AsyncEvent event) throws IOException {
+
+        }
+
+        @Override
+        public void onTimeout(AsyncEvent event) throws IOException {
+
+        }
+
+        @Override
+        public void onStartAsync(AsyncEvent event) throws IOException {
+
+        }
+    }
+
+    /**
+     * The container restores the context path, servlet path and path info of a request when the dispatch that started
+     * async processing returns. The request keeps the paths of the dispatch for the servlet executing it later.
+     */
+    private static final class DispatchedRequest extends HttpServletRequestWrapper {
+        private final String contextPath;
+        private final String servletPath;
+        private final String pathInfo;
+
+        DispatchedRequest(HttpServletRequest request) {
+            super(request);
+            this.contextPath = request.getContextPath();
+            this.servletPath = request.getServletPath();
+            this.pathInfo = request.getPathInfo();
+        }
+
+        @Override
+        public String getContextPath() {
+            return contextPath;
+        }
+
+        @Override
+        public String getServletPath() {
+            return servletPath;
+        }
+
+        @Override
+        public String getPathInfo() {
+            return pathInfo;
+        }
+    }
+
+}
@@ -50,6 +50,18 @@ public class QueryParams {
         }
     }
     
+    public Long getLong(String key) {
+        String valStr = queryParams.getFirst(key);
+        if (valStr == null) {
+            return null;
+        }
+        try { 
+            return Long.parseLong(valStr);
+        } catch (NumberFormatException e) {
+            return null;
+        }
+    }
+    
     public Double getDouble(String key) {
         String valStr = queryParams.getFirst(key);
         if (valStr == null) {
@@ -0,0 +1,209 @@
+/* Copyright (c) 2011 Danish Maritime Authority.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package dk.dma.ais.analysis.common.web;
+
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.PrintWriter;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+
+import javax.servlet.Filter;
+import javax.servlet.FilterChain;
+import javax.servlet.FilterConfig;
+import javax.servlet.ServletException;
+import javax.servlet.ServletOutputStream;
+import javax.servlet.ServletRequest;
+import javax.servlet.ServletResponse;
+import javax.servlet.WriteListener;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+import javax.servlet.http.HttpServletResponseWrapper;
+
+import dk.dma.ais.analysis.common.metrics.Histogram;
+import dk.dma.ais.analysis.common.metrics.MetricsRegistry;
+
+/**
+ * Servlet filter recording request latency and response size per endpoint. The endpoint is the first path segment
+ * after the servlet path, so path parameters do not create new series. Only the endpoints listed in the comma
+ * separated init parameter endpoints get their own series, all other paths are recorded as {@link #OTHER}, so
+ * clients requesting arbitrary paths cannot create new series. The series are registered by {@link #init}, so serving
+ * a request only looks them up by endpoint.
+ */
+public class RequestMetricsFilter implements Filter {
+
+    static final String OTHER = "other";
+
+    private final MetricsRegistry registry = MetricsRegistry.getInstance();
+    private volatile Map<String, Series> series = Collections.emptyMap();
+    private volatile Series other;
+
+    @Override
+    public void init(FilterConfig filterConfig) throws ServletException {
+        Map<String, Series> map = new HashMap<>();
+        String param = filterConfig.getInitParameter("endpoints");
+        if (param != null) {
+            for (String name : param.split(",")) {
+                if (!name.trim().isEmpty()) {
+                    map.put(name.trim(), new Series(registry, name.trim()));
+                }
+            }
+        }
+        other = new Series(registry, OTHER);
+        series = map;
+    }
+
+    @Override
+    public void doFilter(ServletRequest request, ServletResponse response, FilterChain chain) throws IOException,
+            ServletException {
+        if (!(request instanceof HttpServletRequest) || !(response instanceof HttpServletResponse)) {
+            chain.doFilter(request, response);
+            return;
+        }
+        Series endpointSeries = series.get(endpoint((HttpServletRequest) request));
+        if (endpointSeries == null) {
+            endpointSeries = other;
+        }
+        CountingResponse countingResponse = new CountingResponse((HttpServletResponse) response);
+        long start = System.nanoTime();
+        try {
+            chain.doFilter(request, countingResponse);
+        } finally {
+            endpointSeries.duration.recordSince(start);
+            endpointSeries.size.record(countingResponse.getCount());
+        }
+    }
+
+    @Override
+    public void destroy() {
+
+    }
+
+    static String endpoint(HttpServletRequest request) {
+        String path = request.getPathInfo();
+        if (path == null) {
+            path = request.getServletPath();
+        }
+        if (path == null || path.length() <= 1) {
+            return "/";
+        }
+        int end = path.indexOf('/', 1);
+        return end < 0 ? path.substring(1) : path.substring(1, end);
+    }
+
+    /**
+     * The histograms of an endpoint
+     */
+    private static final class Series {
+
+        final Histogram duration;
+        final Histogram size;
+
+        Series(MetricsRegistry registry, String endpoint) {
+            duration = registry.histogram("http_request_duration_seconds", "Time spent serving requests", "endpoint",
+                    endpoint, Histogram.latency());
+            size = registry.histogram("http_response_size_bytes", "Size of response bodies", "endpoint", endpoint,
+                    Histogram.size());
+        }
+    }
+
+    /**
+     * Response wrapper counting the bytes written to the body
+     */
+    private static final class CountingResponse extends HttpServletResponseWrapper {
+
+        private CountingOutputStream out;
+        private PrintWriter writer;
+
+        CountingResponse(HttpServletResponse response) {
+            super(response);
+        }
+
+        @Override
+        public ServletOutputStream getOutputStream() throws IOException {
+            if (out == null) {
+                out = new CountingOutputStream(super.getOutputStream());
+            }
+            return out;
+        }
+
+        @Override
+        public PrintWriter getWriter() throws IOException {
+            if (writer == null) {
+                writer = new PrintWriter(new OutputStreamWriter(getOutputStream(), getCharacterEncoding()));
+            }
+            return writer;
+        }
+
+        @Override
+        public void flushBuffer() throws IOException {
+            if (writer != null) {
+                writer.flush();
+            }
+            super.flushBuffer();
+        }
+
+        long getCount() {
+            if (writer != null) {
+                writer.flush();
+            }
+            return out == null ? 0 : out.count;
+        }
+    }
+
+    private static final class CountingOutputStream extends ServletOutputStream {
+
+        private final ServletOutputStream delegate;
+        long count;
+
+        CountingOutputStream(ServletOutputStream delegate) {
+            this.delegate = delegate;
+        }
+
+        @Override
+        public void write(int b) throws IOException {
+            delegate.write(b);
+            count++;
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) throws IOException {
+            delegate.write(b, off, len);
+            count += len;
+        }
+
+        @Override
+        public void flush() throws IOException {
+            delegate.flush();
+        }
+
+        @Override
+        public void close() throws IOException {
+            delegate.close();
+        }
+
+        @Override
+        public boolean isReady() {
+            return delegate.isReady();
+        }
+
+        @Override
+        public void setWriteListener(WriteListener writeListener) {
+            delegate.setWriteListener(writeListener);
+        }
+    }
+
+}
@@ -0,0 +1,180 @@
+/* Copyright (c) 2011 Danish Maritime Authority.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package dk.dma.ais.analysis.common.web;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.util.Iterator;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.FutureTask;
+
+import net.jcip.annotations.ThreadSafe;
+
+import dk.dma.ais.analysis.common.metrics.Counter;
+import dk.dma.ais.analysis.common.metrics.MetricsRegistry;
+
+/**
+ * Short lived cache of computed responses with single-flight loading. Concurrent requests for a key that is missing or
+ * expired share one computation. An entry expires the given time after its computation has completed, and failed
+ * computations are not cached.
+ * 
+ * @param <K>
+ *            key type, must implement equals and hashCode
+ * @param <V>
+ *            response type
+ */
+@ThreadSafe
+public class ResponseCache<K, V> {
+
+    private final ConcurrentMap<K, Entry<V>> entries = new ConcurrentHashMap<>();
+    private final long ttl;
+    private final int maxEntries;
+
+    private final Counter hits;
+    private final Counter shared;
+    private final Counter misses;
+
+    /**
+     * @param name
+     *            prefix of the metric names
+     * @param ttl
+     *            time to live of entries in milliseconds
+     * @param maxEntries
+     *            number of entries above which expired entries are swept
+     */
+    public ResponseCache(String name, long ttl, int maxEntries) {
+        this.ttl = ttl;
+        this.maxEntries = maxEntries;
+        MetricsRegistry metrics = MetricsRegistry.getInstance();
+        String help = "Response cache lookups by result";
+        hits = metrics.counter(name + "_requests_total", help, "result", "hit");
+        shared = metrics.counter(name + "_requests_total", help, "result", "shared");
+        misses = metrics.counter(name + "_requests_total", help, "result", "miss");
+    }
+
+    /**
+     * Get the cached response or compute it
+     * 
+     * @param key
+     * @param loader
+     *            computation of the response, run in the calling thread if no other thread is computing it. If the
+     *            computation of another thread is cancelled, the calling thread computes the response itself.
+     * @return the response
+     * @throws IOException
+     *             if the loader failed with a checked exception or the thread was interrupted while waiting
+     */
+    public V get(K key, Callable<V> loader) throws IOException {
+        while (true) {
+            long now = System.currentTimeMillis();
+            Entry<V> entry = entries.get(key);
+            if (entry != null && !entry.isExpired(now)) {
+                if (entry.isDone()) {
+                    hits.inc();
+                } else {
+                    shared.inc();
+                }
+                try {
+                    return entry.get();
+                } catch (CancellationException e) {
+                    // The request computing the entry was cancelled, which is no reason to fail this request
+                    entries.remove(key, entry);
+                    continue;
+                }
+            }
+            Entry<V> newEntry = new Entry<>(loader);
+            boolean added = entry == null ? entries.putIfAbsent(key, newEntry) == null : entries.replace(key, entry,
+                    newEntry);
+            if (!added) {
+                // Another thread started a computation
+                continue;
+            }
+            misses.inc();
+            if (entries.size() > maxEntries) {
+                sweep(now);
+            }
+            newEntry.task.run();
+            newEntry.expires = System.currentTimeMillis() + ttl;
+            try {
+                return newEntry.get();
+            } catch (IOException | RuntimeException | Error e) {
+                entries.remove(key, newEntry);
+                throw e;
+            }
+        }
+    }
+
+    private void sweep(long now) {
+        for (Iterator<Entry<V>> it = entries.values().iterator(); it.hasNext();) {
+            if (it.next().isExpired(now)) {
+                it.remove();
+            }
+        }
+        // Drop completed entries if still too many, keeping computations others may be waiting for
+        if (entries.size() > maxEntries) {
+            for (Iterator<Entry<V>> it = entries.values().iterator(); it.hasNext();) {
+                if (it.next().isDone()) {
+                    it.remove();
+                }
+            }
+        }
+    }
+
+    public int size() {
+        return entries.size();
+    }
+
+    private static final class Entry<V> {
+        final FutureTask<V> task;
+        volatile long expires = Long.MAX_VALUE;
+
+        Entry(Callable<V> loader) {
+            this.task = new FutureTask<>(loader);
+        }
+
+        boolean isExpired(long now) {
+            return now >= expires;
+        }
+
+        boolean isDone() {
+            return task.isDone();
+        }
+
+        V get() throws IOException {
+            try {
+                return task.get();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new InterruptedIOException();
+            } catch (ExecutionException e) {
+                Throwable cause = e.getCause();
+                if (cause instanceof RuntimeException) {
+                    throw (RuntimeException) cause;
+                }
+                if (cause instanceof Error) {
+                    throw (Error) cause;
+                }
+                if (cause instanceof IOException) {
+                    throw (IOException) cause;
+                }
+                throw new IOException(cause);
+            }
+        }
+    }
+
+}
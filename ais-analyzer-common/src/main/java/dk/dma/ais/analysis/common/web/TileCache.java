@@ -0,0 +1,216 @@
+/* Copyright (c) 2011 Danish Maritime Authority.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package dk.dma.ais.analysis.common.web;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.FutureTask;
+
+import net.jcip.annotations.GuardedBy;
+import net.jcip.annotations.ThreadSafe;
+
+import dk.dma.ais.analysis.common.metrics.Counter;
+import dk.dma.ais.analysis.common.metrics.Gauge;
+import dk.dma.ais.analysis.common.metrics.MetricsRegistry;
+
+/**
+ * Cache of encoded tiles bounded by their total size, evicting the least recently used tiles. As in
+ * {@link ResponseCache}, concurrent requests for a missing or expired tile share one computation, an entry expires the
+ * given time after its computation has completed, and failed computations are not cached.
+ * 
+ * @param <K>
+ *            key type, must implement equals and hashCode
+ */
+@ThreadSafe
+public class TileCache<K> {
+
+    @GuardedBy("this")
+    private final LinkedHashMap<K, Entry> entries = new LinkedHashMap<>(256, 0.75f, true);
+    @GuardedBy("this")
+    private long bytes;
+    private final long ttl;
+    private final long maxBytes;
+
+    private final Counter hits;
+    private final Counter shared;
+    private final Counter misses;
+    private final Counter evictions;
+
+    /**
+     * @param name
+     *            prefix of the metric names
+     * @param ttl
+     *            time to live of entries in milliseconds
+     * @param maxBytes
+     *            total size of the tiles above which the least recently used tiles are evicted
+     */
+    public TileCache(String name, long ttl, long maxBytes) {
+        this.ttl = ttl;
+        this.maxBytes = maxBytes;
+        MetricsRegistry metrics = MetricsRegistry.getInstance();
+        String help = "Tile cache lookups by result";
+        hits = metrics.counter(name + "_requests_total", help, "result", "hit");
+        shared = metrics.counter(name + "_requests_total", help, "result", "shared");
+        misses = metrics.counter(name + "_requests_total", help, "result", "miss");
+        evictions = metrics.counter(name + "_evictions_total", "Tiles evicted to stay within the size of the cache");
+        metrics.gauge(name + "_bytes", "Total size of the cached tiles", new Gauge() {
+            @Override
+            public double getValue() {
+                return getBytes();
+            }
+        });
+    }
+
+    /**
+     * Get the cached tile or compute it
+     * 
+     * @param key
+     * @param loader
+     *            computation of the tile, run in the calling thread if no other thread is computing it
+     * @return the tile
+     * @throws IOException
+     *             if the loader failed with a checked exception or the thread was interrupted while waiting
+     */
+    public byte[] get(K key, Callable<byte[]> loader) throws IOException {
+        while (true) {
+            Entry entry;
+            boolean load = false;
+            synchronized (this) {
+                entry = entries.get(key);
+                if (entry == null || entry.isExpired(System.currentTimeMillis())) {
+                    if (entry != null) {
+                        remove(key);
+                    }
+                    entry = new Entry(loader);
+                    entries.put(key, entry);
+                    load = true;
+                }
+            }
+            if (!load) {
+                if (entry.isDone()) {
+                    hits.inc();
+                } else {
+                    shared.inc();
+                }
+                try {
+                    return entry.get();
+                } catch (CancellationException e) {
+                    // The request computing the entry was cancelled, which is no reason to fail this request
+                    synchronized (this) {
+                        if (entries.get(key) == entry) {
+                            remove(key);
+                        }
+                    }
+                    continue;
+                }
+            }
+            misses.inc();
+            entry.task.run();
+            try {
+                byte[] tile = entry.get();
+                synchronized (this) {
+                    entry.expires = System.currentTimeMillis() + ttl;
+                    if (entries.get(key) == entry) {
+                        entry.size = tile.length;
+                        bytes += tile.length;
+                        evict();
+                    }
+                }
+                return tile;
+            } catch (IOException | RuntimeException | Error e) {
+                synchronized (this) {
+                    if (entries.get(key) == entry) {
+                        remove(key);
+                    }
+                }
+                throw e;
+            }
+        }
+    }
+
+    @GuardedBy("this")
+    private void remove(K key) {
+        bytes -= entries.remove(key).size;
+    }
+
+    /**
+     * Remove the least recently used computed tiles until within the maximum size
+     */
+    @GuardedBy("this")
+    private void evict() {
+        for (Iterator<Entry> it = entries.values().iterator(); bytes > maxBytes && it.hasNext();) {
+            Entry entry = it.next();
+            if (entry.isDone()) {
+                bytes -= entry.size;
+                it.remove();
+                evictions.inc();
+            }
+        }
+    }
+
+    public synchronized long getBytes() {
+        return bytes;
+    }
+
+    public synchronized int size() {
+        return entries.size();
+    }
+
+    private static final class Entry {
+        final FutureTask<byte[]> task;
+        volatile long expires = Long.MAX_VALUE;
+        // Size counted in the total, 0 while computing
+        int size;
+
+        Entry(Callable<byte[]> loader) {
+            this.task = new FutureTask<>(loader);
+        }
+
+        boolean isExpired(long now) {
+            return now >= expires;
+        }
+
+        boolean isDone() {
+            return task.isDone();
+        }
+
+        byte[] get() throws IOException {
+            try {
+                return task.get();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new InterruptedIOException();
+            } catch (ExecutionException e) {
+                Throwable cause = e.getCause();
+                if (cause instanceof RuntimeException) {
+                    throw (RuntimeException) cause;
+                }
+                if (cause instanceof Error) {
+                    throw (Error) cause;
+                }
+                if (cause instanceof IOException) {
+                    throw (IOException) cause;
+                }
+                throw new IOException(cause);
+            }
+        }
+    }
+
+}
@@ -14,10 +14,25 @@
  */
 package dk.dma.ais.analysis.common.web;
 
+import java.util.EnumSet;
+
+import javax.servlet.DispatcherType;
+
+import org.eclipse.jetty.http2.server.HTTP2CServerConnectionFactory;
+import org.eclipse.jetty.server.ConnectionFactory;
+import org.eclipse.jetty.server.HttpConfiguration;
+import org.eclipse.jetty.server.HttpConnectionFactory;
 import org.eclipse.jetty.server.Server;
 import org.eclipse.jetty.server.ServerConnector;
+import org.eclipse.jetty.server.handler.gzip.GzipHandler;
+import org.eclipse.jetty.servlet.FilterHolder;
+import org.eclipse.jetty.util.BlockingArrayQueue;
+import org.eclipse.jetty.util.thread.QueuedThreadPool;
 import org.eclipse.jetty.webapp.WebAppContext;
 
+import dk.dma.ais.analysis.common.metrics.Gauge;
+import dk.dma.ais.analysis.common.metrics.MetricsRegistry;
+
 /**
  * Embedded Jetty web server and servlet container using a web app context  
  */
@@ -26,14 +41,74 @@ public class WebServer {
     private final Server server;
     
     public WebServer(WebServerConfiguration conf) {
-        server = new Server(conf.getPort());
-        // Sets setReuseAddress
-        ((ServerConnector) server.getConnectors()[0]).setReuseAddress(true);
+        // Bounded thread pool and job queue
+        final QueuedThreadPool threadPool = new QueuedThreadPool(conf.getMaxThreads(), conf.getMinThreads(),
+                conf.getThreadIdleTimeout(), new BlockingArrayQueue<Runnable>(conf.getMinThreads(),
+                        conf.getMinThreads(), conf.getQueueSize()));
+        threadPool.setName("web");
+        server = new Server(threadPool);
+
+        // HTTP/1.1 and optionally HTTP/2 cleartext on the same port
+        HttpConfiguration httpConf = new HttpConfiguration();
+        ConnectionFactory[] factories;
+        if (conf.isHttp2c()) {
+            factories = new ConnectionFactory[] { new HttpConnectionFactory(httpConf),
+                    new HTTP2CServerConnectionFactory(httpConf) };
+        } else {
+            factories = new ConnectionFactory[] { new HttpConnectionFactory(httpConf) };
+        }
+        ServerConnector connector = new ServerConnector(server, conf.getAcceptors(), conf.getSelectors(), factories);
+        connector.setPort(conf.getPort());
+        connector.setReuseAddress(true);
+        connector.setIdleTimeout(conf.getIdleTimeout());
+        connector.setAcceptQueueSize(conf.getAcceptQueueSize());
+        server.addConnector(connector);
+
         WebAppContext bb = new WebAppContext();
         bb.setServer(server);
         bb.setContextPath(conf.getContextPath());
         bb.setWar(conf.getWebappPath());
-        server.setHandler(bb);
+        // Static resources are cached in memory and validated by clients with ETags
+        bb.setInitParameter("org.eclipse.jetty.servlet.Default.etags", "true");
+        bb.setInitParameter("org.eclipse.jetty.servlet.Default.cacheControl", "max-age=" + conf.getStaticMaxAge());
+        bb.setInitParameter("org.eclipse.jetty.servlet.Default.maxCacheSize",
+                Integer.toString(conf.getStaticCacheSize()));
+        bb.setInitParameter("org.eclipse.jetty.servlet.Default.maxCachedFiles", "2048");
+
+        // Configured endpoints are executed on bounded executors ahead of the filters of the webapp
+        if (!conf.getEndpoints().isEmpty()) {
+            FilterHolder executionFilter = new FilterHolder(new EndpointExecutionFilter(conf));
+            executionFilter.setName("EndpointExecution");
+            executionFilter.setAsyncSupported(true);
+            bb.addFilter(executionFilter, "/*", EnumSet.of(DispatcherType.REQUEST));
+        }
+
+        if (conf.isGzip()) {
+            // Responses already carrying a content encoding are left alone
+            GzipHandler gzipHandler = new GzipHandler();
+            gzipHandler.setIncludedMimeTypes("application/json", "application/vnd.google-earth.kml+xml", "text/html",
+                    "text/plain", "text/css", "application/javascript", "text/javascript",
+                    MetricsRegistry.CONTENT_TYPE);
+            gzipHandler.setMinGzipSize(conf.getGzipMinSize());
+            gzipHandler.setHandler(bb);
+            server.setHandler(gzipHandler);
+        } else {
+            server.setHandler(bb);
+        }
+
+        MetricsRegistry metrics = MetricsRegistry.getInstance();
+        metrics.gauge("jetty_threads_busy", "Busy web server threads", new Gauge() {
+            @Override
+            public double getValue() {
+                return threadPool.getBusyThreads();
+            }
+        });
+        metrics.gauge("jetty_queued_jobs", "Web server jobs waiting for a thread", new Gauge() {
+            @Override
+            public double getValue() {
+                return threadPool.getQueueSize();
+            }
+        });
     }
     
     public void start() throws Exception {        
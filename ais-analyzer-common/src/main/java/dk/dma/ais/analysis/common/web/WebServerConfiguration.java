@@ -14,6 +14,11 @@
  */
 package dk.dma.ais.analysis.common.web;
 
+import java.util.ArrayList;
+import java.util.List;
+
+import javax.xml.bind.annotation.XmlElement;
+
 /**
  * Configuration for the web server
  */
@@ -22,6 +27,24 @@ public class WebServerConfiguration {
     private int port = 8080;
     private String webappPath = "web";
     private String contextPath = "/";
+    private int minThreads = 8;
+    private int maxThreads = 200;
+    private int threadIdleTimeout = 60000; // 1 minute
+    private int queueSize = 1000; // requests waiting for a thread
+    private int acceptors = -1; // -1 for Jetty default
+    private int selectors = -1; // -1 for Jetty default
+    private int acceptQueueSize; // 0 for OS default
+    private int idleTimeout = 30000; // keep-alive, 30 seconds
+    private boolean http2c = true;
+    private boolean gzip = true;
+    private int gzipMinSize = 1024; // bytes
+    private int staticMaxAge = 600; // 10 minutes
+    private int staticCacheSize = 64 * 1024 * 1024; // bytes
+    private List<EndpointConfiguration> endpoints = new ArrayList<>();
+    private int cheapThreads = 16;
+    private int expensiveThreads = 4;
+    private int executorQueueSize = 200; // requests waiting for an executor thread
+    private int queueTimeout = 10000; // 10 seconds
 
     public WebServerConfiguration() {
 
@@ -51,4 +74,184 @@ public class WebServerConfiguration {
         this.contextPath = contextPath;
     }
 
+    public int getMinThreads() {
+        return minThreads;
+    }
+
+    public void setMinThreads(int minThreads) {
+        this.minThreads = minThreads;
+    }
+
+    public int getMaxThreads() {
+        return maxThreads;
+    }
+
+    public void setMaxThreads(int maxThreads) {
+        this.maxThreads = maxThreads;
+    }
+
+    /**
+     * Time in milliseconds before threads above the minimum are stopped
+     */
+    public int getThreadIdleTimeout() {
+        return threadIdleTimeout;
+    }
+
+    public void setThreadIdleTimeout(int threadIdleTimeout) {
+        this.threadIdleTimeout = threadIdleTimeout;
+    }
+
+    /**
+     * Maximum number of jobs waiting for a thread. Connections beyond this are rejected rather than queued without
+     * bound.
+     */
+    public int getQueueSize() {
+        return queueSize;
+    }
+
+    public void setQueueSize(int queueSize) {
+        this.queueSize = queueSize;
+    }
+
+    public int getAcceptors() {
+        return acceptors;
+    }
+
+    public void setAcceptors(int acceptors) {
+        this.acceptors = acceptors;
+    }
+
+    public int getSelectors() {
+        return selectors;
+    }
+
+    public void setSelectors(int selectors) {
+        this.selectors = selectors;
+    }
+
+    public int getAcceptQueueSize() {
+        return acceptQueueSize;
+    }
+
+    public void setAcceptQueueSize(int acceptQueueSize) {
+        this.acceptQueueSize = acceptQueueSize;
+    }
+
+    /**
+     * Time in milliseconds an idle connection is kept open
+     */
+    public int getIdleTimeout() {
+        return idleTimeout;
+    }
+
+    public void setIdleTimeout(int idleTimeout) {
+        this.idleTimeout = idleTimeout;
+    }
+
+    /**
+     * Accept HTTP/2 without TLS (h2c) on the HTTP/1.1 port
+     */
+    public boolean isHttp2c() {
+        return http2c;
+    }
+
+    public void setHttp2c(boolean http2c) {
+        this.http2c = http2c;
+    }
+
+    /**
+     * Gzip JSON, KML and text responses for clients accepting it
+     */
+    public boolean isGzip() {
+        return gzip;
+    }
+
+    public void setGzip(boolean gzip) {
+        this.gzip = gzip;
+    }
+
+    public int getGzipMinSize() {
+        return gzipMinSize;
+    }
+
+    public void setGzipMinSize(int gzipMinSize) {
+        this.gzipMinSize = gzipMinSize;
+    }
+
+    /**
+     * Max age in seconds of static resources in client caches
+     */
+    public int getStaticMaxAge() {
+        return staticMaxAge;
+    }
+
+    public void setStaticMaxAge(int staticMaxAge) {
+        this.staticMaxAge = staticMaxAge;
+    }
+
+    /**
+     * Size in bytes of the in-memory cache of static resources, 0 to disable
+     */
+    public int getStaticCacheSize() {
+        return staticCacheSize;
+    }
+
+    public void setStaticCacheSize(int staticCacheSize) {
+        this.staticCacheSize = staticCacheSize;
+    }
+
+    /**
+     * Endpoints executed asynchronously on bounded executors. Requests to other endpoints are executed on the web
+     * server threads.
+     */
+    @XmlElement(name = "endpoint")
+    public List<EndpointConfiguration> getEndpoints() {
+        return endpoints;
+    }
+
+    public void setEndpoints(List<EndpointConfiguration> endpoints) {
+        this.endpoints = endpoints;
+    }
+
+    /**
+     * Threads executing requests to cheap endpoints
+     */
+    public int getCheapThreads() {
+        return cheapThreads;
+    }
+
+    public void setCheapThreads(int cheapThreads) {
+        this.cheapThreads = cheapThreads;
+    }
+
+    /**
+     * Threads executing requests to expensive endpoints
+     */
+    public int getExpensiveThreads() {
+        return expensiveThreads;
+    }
+
+    public void setExpensiveThreads(int expensiveThreads) {
+        this.expensiveThreads = expensiveThreads;
+    }
+
+    public int getExecutorQueueSize() {
+        return executorQueueSize;
+    }
+
+    public void setExecutorQueueSize(int executorQueueSize) {
+        this.executorQueueSize = executorQueueSize;
+    }
+
+    /**
+     * Default milliseconds a request may wait for execution before it is rejected with 503
+     */
+    public int getQueueTimeout() {
+        return queueTimeout;
+    }
+
+    public void setQueueTimeout(int queueTimeout) {
+        this.queueTimeout = queueTimeout;
+    }
+
 }
@@ -0,0 +1,69 @@
+/* Copyright (c) 2011 Danish Maritime Authority.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package dk.dma.ais.analysis.common.grid;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import dk.dma.enav.model.geometry.Position;
+
+public class GridEqualAreaTest {
+
+    @Test
+    public void roundTripWorld() {
+        GridEqualArea grid = new GridEqualArea(-180, -90, 180, 90, 50000);
+        assertRoundTrip(grid);
+        // One cell for each pole cap
+        Assert.assertEquals(360.0, grid.getCellSizeInDeg(0)[1], 0.0);
+        Assert.assertEquals(360.0, grid.getCellSizeInDeg(grid.numberOfCells - 1)[1], 0.0);
+        Assert.assertEquals(0, grid.getCellId(12.0, -89.95));
+        Assert.assertEquals(0, grid.getCellId(-170.0, -90.0));
+        Assert.assertEquals(grid.numberOfCells - 1, grid.getCellId(12.0, 89.95));
+        Assert.assertEquals(grid.numberOfCells - 1, grid.getCellId(180.0, 90.0));
+    }
+
+    @Test
+    public void roundTripRegion() {
+        GridEqualArea grid = new GridEqualArea(3.0, 53.0, 17.0, 59.0, 2000);
+        assertRoundTrip(grid);
+        Assert.assertEquals(-1, grid.getCellId(2.9, 55.0));
+        Assert.assertEquals(-1, grid.getCellId(10.0, 59.1));
+        Assert.assertNull(grid.getGeoPosOfCellId(-1));
+        Assert.assertNull(grid.getGeoPosOfCellId(grid.numberOfCells));
+    }
+
+    /**
+     * Assert the south west corner and the centre of every cell are in the cell. The last strip below the north pole
+     * cap or the top of the grid is cut off by it.
+     */
+    private static void assertRoundTrip(GridEqualArea grid) {
+        double lastLat = grid.getGeoPosOfCellId(grid.numberOfCells - 1).getLatitude();
+        for (int id = 0; id < grid.numberOfCells; id++) {
+            Position corner = grid.getGeoPosOfCellId(id);
+            double[] size = grid.getCellSizeInDeg(id);
+            // Just inside the corner, as the corner itself may round to the cell before
+            double lat = corner.getLatitude() + size[0] * 1e-9;
+            double lon = corner.getLongitude() + size[1] * 1e-9;
+            Assert.assertEquals("corner of cell " + id, id, grid.getCellId(lon, lat));
+            double top = Math.min(corner.getLatitude() + size[0], grid.latmax);
+            if (corner.getLatitude() < lastLat) {
+                top = Math.min(top, lastLat);
+            }
+            lat = (corner.getLatitude() + top) / 2;
+            lon = corner.getLongitude() + size[1] / 2;
+            Assert.assertEquals("centre of cell " + id, id, grid.getCellId(lon, lat));
+        }
+    }
+}
@@ -0,0 +1,156 @@
+/* Copyright (c) 2011 Danish Maritime Authority.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package dk.dma.ais.analysis.common.grid;
+
+import java.util.HashSet;
+import java.util.Random;
+import java.util.Set;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import dk.dma.enav.model.geometry.Position;
+
+public class GridTest {
+
+    private static final double[] SIZES = { 0.0045, 0.1, 0.25, 1, 5 };
+
+    @Test
+    public void eastAndWestOf() {
+        Random random = new Random(1);
+        for (double size : SIZES) {
+            Grid grid = GridFactory.getInstance().getGrid(size);
+            for (int i = 0; i < 1000; i++) {
+                double lat = random.nextDouble() * 178 - 89;
+                double lon = random.nextDouble() * 360 - 180;
+                long id = grid.getCellId(lat, lon);
+                Assert.assertEquals(grid.getCellId(lat, wrap(lon + size)), (long) grid.getCellIdEastOf(id));
+                Assert.assertEquals(grid.getCellId(lat, wrap(lon - size)), (long) grid.getCellIdWestOf(id));
+            }
+        }
+    }
+
+    @Test
+    public void eastAndWestOfDateLine() {
+        for (double size : SIZES) {
+            Grid grid = GridFactory.getInstance().getGrid(size);
+            for (double lat : new double[] { -89.9, -10, 0, 55.7, 89.9 }) {
+                long east = grid.getCellId(lat, 180 - size / 2);
+                long west = grid.getCellId(lat, -180 + size / 2);
+                Assert.assertEquals(west, (long) grid.getCellIdEastOf(east));
+                Assert.assertEquals(east, (long) grid.getCellIdWestOf(west));
+            }
+        }
+    }
+
+    @Test
+    public void nearbyCellsCoverBox() {
+        Random random = new Random(2);
+        for (double size : SIZES) {
+            Grid grid = GridFactory.getInstance().getGrid(size);
+            for (int i = 0; i < 100; i++) {
+                double lat = random.nextDouble() * 178 - 89;
+                double lon = random.nextDouble() * 360 - 180;
+                double latRadius = random.nextDouble() * 3 * size;
+                double lonRadius = random.nextDouble() * 3 * size;
+                assertCovers(grid, lat, lon, latRadius, lonRadius);
+            }
+        }
+    }
+
+    @Test
+    public void nearbyCellsAcrossDateLine() {
+        for (double size : SIZES) {
+            Grid grid = GridFactory.getInstance().getGrid(size);
+            assertCovers(grid, 12.3, 179.99, size, size * 2.5);
+            assertCovers(grid, -40.1, -179.99, size * 1.5, size);
+            assertCovers(grid, 0, 180 - size, size, size);
+        }
+    }
+
+    @Test
+    public void cellJustWestOfDateLine() {
+        for (double size : SIZES) {
+            Grid grid = GridFactory.getInstance().getGrid(size);
+            double lon = Math.nextDown(180.0);
+            Assert.assertEquals(grid.getCellId(10, 180 - size / 2), grid.getCellId(10, lon));
+            Assert.assertEquals(grid.getCellId(10, -180), (long) grid.getCellIdEastOf(grid.getCellId(10, lon)));
+        }
+    }
+
+    @Test
+    public void nearbyCellsAtPoles() {
+        for (double size : SIZES) {
+            Grid grid = GridFactory.getInstance().getGrid(size);
+            assertCovers(grid, 90 - size / 3, 10, size, size * 2);
+            assertCovers(grid, -90 + size / 3, -170, size * 2, size);
+        }
+    }
+
+    @Test
+    public void nearbyCellsAroundWorld() {
+        Grid grid = GridFactory.getInstance().getGrid(5);
+        long[] ids = new long[grid.getMaxNearbyCells(2, 200)];
+        int count = grid.getNearbyCellIds(30, 100, 2, 200, ids);
+        // Two rows of all columns
+        Assert.assertEquals(2 * 72, count);
+        assertCovers(grid, 30, 100, 2, 200);
+        assertCovers(GridFactory.getInstance().getGrid(1), 89.5, 0, 1, 300);
+    }
+
+    @Test
+    public void nearbyCellIdsOfPosition() {
+        Grid grid = GridFactory.getInstance().getGrid(1);
+        Set<Long> ids = grid.getNearbyCellIds(Position.create(55.5, 179.5), 1);
+        Assert.assertEquals(9, ids.size());
+        Assert.assertTrue(ids.contains(grid.getCellId(55.5, -179.5)));
+        Assert.assertTrue(ids.contains(grid.getCellId(56.5, 178.5)));
+    }
+
+    /**
+     * Assert the cells returned for a box are distinct, within the maximum and include the cells of points sampled
+     * over the box. The points are kept a hair inside the box, as a point on its edge may round to either cell.
+     */
+    private static void assertCovers(Grid grid, double lat, double lon, double latRadius, double lonRadius) {
+        long[] ids = new long[grid.getMaxNearbyCells(latRadius, lonRadius)];
+        int count = grid.getNearbyCellIds(lat, lon, latRadius, lonRadius, ids);
+        Assert.assertTrue(count <= ids.length);
+        Set<Long> found = new HashSet<>();
+        for (int i = 0; i < count; i++) {
+            Assert.assertTrue("duplicate cell", found.add(ids[i]));
+        }
+        int steps = 100;
+        double inside = 1 - 1e-9;
+        for (int i = 0; i <= steps; i++) {
+            double pointLat = Math.max(-90, Math.min(90, lat + latRadius * (2.0 * i / steps - 1) * inside));
+            for (int j = 0; j <= steps; j++) {
+                double pointLon = wrap(lon + lonRadius * (2.0 * j / steps - 1) * inside);
+                long id = grid.getCellId(pointLat, pointLon);
+                Assert.assertTrue("cell of " + pointLat + ", " + pointLon + " missing for box at " + lat + ", " + lon,
+                        found.contains(id));
+            }
+        }
+    }
+
+    private static double wrap(double lon) {
+        while (lon >= 180) {
+            lon -= 360;
+        }
+        while (lon < -180) {
+            lon += 360;
+        }
+        return lon;
+    }
+}
@@ -0,0 +1,117 @@
+/* Copyright (c) 2011 Danish Maritime Authority.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package dk.dma.ais.analysis.common.sketch;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.util.Arrays;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+public class HyperLogLogTest {
+
+    private static final int[] CARDINALITIES = { 0, 1, 10, 100, 1000, 10000, 100000, 1000000 };
+
+    @Test
+    public void estimate() {
+        for (int precision : new int[] { 6, 10, 14 }) {
+            double error = 1.04 / Math.sqrt(1 << precision);
+            for (int cardinality : CARDINALITIES) {
+                HyperLogLog hll = new HyperLogLog(precision);
+                for (int i = 0; i < cardinality; i++) {
+                    hll.add(200000000 + i);
+                }
+                assertEstimate(hll, cardinality, error);
+                // Values added again do not count
+                for (int i = 0; i < Math.min(cardinality, 1000); i++) {
+                    hll.add(200000000 + i);
+                }
+                assertEstimate(hll, cardinality, error);
+            }
+        }
+    }
+
+    @Test
+    public void merge() {
+        for (int cardinality : CARDINALITIES) {
+            HyperLogLog all = new HyperLogLog(12);
+            HyperLogLog even = new HyperLogLog(12);
+            HyperLogLog odd = new HyperLogLog(12);
+            for (int i = 0; i < cardinality; i++) {
+                all.add(i);
+                (i % 2 == 0 ? even : odd).add(i);
+            }
+            // Sparse and dense sketches on either side
+            HyperLogLog small = new HyperLogLog(12);
+            small.add(cardinality);
+            all.add(cardinality);
+            even.merge(odd);
+            even.merge(small);
+            Assert.assertEquals(bytes(all).length, bytes(even).length);
+            Assert.assertEquals(all.estimate(), even.estimate());
+            small.merge(all);
+            Assert.assertEquals(all.estimate(), small.estimate());
+        }
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void mergePrecision() {
+        new HyperLogLog(10).merge(new HyperLogLog(12));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void precision() {
+        new HyperLogLog(17);
+    }
+
+    @Test
+    public void writeRead() throws IOException {
+        for (int cardinality : CARDINALITIES) {
+            HyperLogLog hll = new HyperLogLog(14);
+            for (int i = 0; i < cardinality; i++) {
+                hll.add(i * 7919L);
+            }
+            byte[] written = bytes(hll);
+            HyperLogLog read = HyperLogLog.read(new DataInputStream(new ByteArrayInputStream(written)));
+            Assert.assertEquals(14, read.getPrecision());
+            Assert.assertEquals(hll.estimate(), read.estimate());
+            Assert.assertTrue(Arrays.equals(written, bytes(read)));
+            // The read sketch keeps counting
+            read.add(-1);
+            hll.add(-1);
+            Assert.assertEquals(hll.estimate(), read.estimate());
+        }
+    }
+
+    private static void assertEstimate(HyperLogLog hll, int cardinality, double error) {
+        // Within four standard errors, or one value for the smallest cardinalities
+        double tolerance = Math.max(1, 4 * error * cardinality);
+        Assert.assertEquals("precision " + hll.getPrecision(), cardinality, hll.estimate(), tolerance);
+    }
+
+    private static byte[] bytes(HyperLogLog hll) {
+        try {
+            ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+            hll.write(new DataOutputStream(bytes));
+            return bytes.toByteArray();
+        } catch (IOException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+}
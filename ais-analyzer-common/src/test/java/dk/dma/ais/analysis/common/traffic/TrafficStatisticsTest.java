@@ -0,0 +1,66 @@
+/* Copyright (c) 2011 Danish Maritime Authority.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package dk.dma.ais.analysis.common.traffic;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.Date;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import dk.dma.ais.analysis.common.generator.SyntheticFleet;
+import dk.dma.ais.analysis.common.generator.SyntheticFleetConf;
+import dk.dma.ais.analysis.common.grid.GridFactory;
+
+public class TrafficStatisticsTest {
+
+    private static final long START = 400000 * TrafficStatistics.HOUR;
+
+    @Test
+    public void expireShipTypes() throws IOException {
+        File dir = Files.createTempDirectory("traffic").toFile();
+        try {
+            TrafficStatistics statistics = new TrafficStatistics(GridFactory.getInstance().getGrid(1), dir, 60000,
+                    TrafficStatistics.HOUR, 0);
+            // A fleet in the first hour, then a smaller fleet for four hours
+            feed(statistics, 100, START, TrafficStatistics.HOUR / 2);
+            int all = statistics.getShipTypeCount();
+            Assert.assertTrue(all > 50);
+            feed(statistics, 10, START + TrafficStatistics.HOUR, 4 * TrafficStatistics.HOUR);
+            int remaining = statistics.getShipTypeCount();
+            Assert.assertTrue(remaining > 0 && remaining <= 10);
+        } finally {
+            for (File file : dir.listFiles()) {
+                file.delete();
+            }
+            dir.delete();
+        }
+    }
+
+    /**
+     * Add the reports of a fleet evenly spread over an interval, about 40 of each vessel
+     */
+    private static void feed(TrafficStatistics statistics, int fleetSize, long from, long length) {
+        SyntheticFleetConf conf = new SyntheticFleetConf();
+        conf.setFleetSize(fleetSize);
+        SyntheticFleet fleet = new SyntheticFleet(conf);
+        int count = fleetSize * 40;
+        for (int i = 0; i < count; i++) {
+            statistics.accept(fleet.nextPacket(new Date(from + length * i / count)));
+        }
+    }
+}
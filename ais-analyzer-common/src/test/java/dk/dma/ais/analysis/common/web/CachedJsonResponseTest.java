@@ -0,0 +1,156 @@
+/* Copyright (c) 2011 Danish Maritime Authority.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package dk.dma.ais.analysis.common.web;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.zip.CRC32;
+import java.util.zip.GZIPInputStream;
+
+import org.codehaus.jackson.map.ObjectMapper;
+import org.junit.Assert;
+import org.junit.Test;
+
+public class CachedJsonResponseTest {
+
+    private static final ObjectMapper MAPPER = new ObjectMapper();
+
+    private static final long[] REQUEST_IDS = { -1, 0, 7, 12345, -987654, Long.MAX_VALUE, Long.MIN_VALUE };
+
+    @Test
+    public void write() throws IOException {
+        for (int vessels : new int[] { 0, 1, 10, 1000, 20000 }) {
+            Map<String, Object> entity = entity(vessels);
+            CachedJsonResponse cached = CachedJsonResponse.create(entity, "requestId");
+            for (long requestId : REQUEST_IDS) {
+                entity.put("requestId", requestId);
+                byte[] expected = MAPPER.writeValueAsBytes(entity);
+
+                ByteArrayOutputStream plain = new ByteArrayOutputStream();
+                cached.write(plain, requestId, false);
+                Assert.assertArrayEquals(expected, plain.toByteArray());
+
+                ByteArrayOutputStream gzipped = new ByteArrayOutputStream();
+                cached.write(gzipped, requestId, true);
+                byte[] bytes = gzipped.toByteArray();
+                Assert.assertArrayEquals(vessels + " vessels, request " + requestId, expected, gunzip(bytes));
+                assertTrailer(expected, bytes);
+            }
+        }
+    }
+
+    @Test
+    public void onlyField() throws IOException {
+        Map<String, Object> entity = new LinkedHashMap<>();
+        entity.put("requestId", 1);
+        CachedJsonResponse cached = CachedJsonResponse.create(entity, "requestId");
+        Assert.assertEquals(1, cached.getSize());
+        ByteArrayOutputStream gzipped = new ByteArrayOutputStream();
+        cached.write(gzipped, -42, true);
+        Assert.assertEquals("{\"requestId\":-42}", new String(gunzip(gzipped.toByteArray()), "UTF-8"));
+        assertTrailer("{\"requestId\":-42}".getBytes("UTF-8"), gzipped.toByteArray());
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void notFirstField() throws IOException {
+        Map<String, Object> entity = new LinkedHashMap<>();
+        entity.put("vessels", 0);
+        entity.put("requestId", 1);
+        CachedJsonResponse.create(entity, "requestId");
+    }
+
+    @Test
+    public void crcShift() {
+        Random random = new Random(1);
+        for (int length : new int[] { 0, 1, 2, 3, 7, 100, 4096, 65537, 1000000 }) {
+            byte[] a = new byte[random.nextInt(20)];
+            byte[] b = new byte[length];
+            random.nextBytes(a);
+            random.nextBytes(b);
+            CRC32 crc = new CRC32();
+            crc.update(a);
+            int crcA = (int) crc.getValue();
+            Assert.assertEquals(crcA, CachedJsonResponse.crc32(0, a));
+            crc.update(b);
+            int crcAB = (int) crc.getValue();
+            int crcB = CachedJsonResponse.crc32(0, b);
+            int shifted = 0;
+            int[] shift = CachedJsonResponse.crcShift(length);
+            for (int i = 0; i < 32; i++) {
+                if ((crcA >>> i & 1) != 0) {
+                    shifted ^= shift[i];
+                }
+            }
+            Assert.assertEquals("length " + length, crcAB, shifted ^ crcB);
+        }
+    }
+
+    /**
+     * An object like a vessel list response, with non-ASCII names and enough random content for several deflate
+     * blocks when large
+     */
+    private static Map<String, Object> entity(int vessels) {
+        Random random = new Random(vessels);
+        List<Object> list = new ArrayList<>();
+        for (int i = 0; i < vessels; i++) {
+            Map<String, Object> vessel = new LinkedHashMap<>();
+            vessel.put("mmsi", 219000000 + random.nextInt(1000000));
+            String prefix = random.nextBoolean() ? "\u00c6R\u00d8 " : "NORD ";
+            vessel.put("name", prefix + Integer.toString(random.nextInt(), 36));
+            vessel.put("lat", random.nextDouble() * 180 - 90);
+            vessel.put("lon", random.nextDouble() * 360 - 180);
+            list.add(vessel);
+        }
+        Map<String, Object> entity = new LinkedHashMap<>();
+        entity.put("requestId", -1);
+        entity.put("vesselsInWorld", vessels);
+        entity.put("vessels", list);
+        return entity;
+    }
+
+    private static byte[] gunzip(byte[] bytes) throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        try (InputStream in = new GZIPInputStream(new ByteArrayInputStream(bytes))) {
+            byte[] buf = new byte[8192];
+            int len;
+            while ((len = in.read(buf)) >= 0) {
+                out.write(buf, 0, len);
+            }
+        }
+        return out.toByteArray();
+    }
+
+    private static void assertTrailer(byte[] expected, byte[] gzipped) {
+        CRC32 crc = new CRC32();
+        crc.update(expected);
+        byte[] trailer = Arrays.copyOfRange(gzipped, gzipped.length - 8, gzipped.length);
+        Assert.assertEquals((int) crc.getValue(), readInt(trailer, 0));
+        Assert.assertEquals(expected.length, readInt(trailer, 4));
+    }
+
+    private static int readInt(byte[] bytes, int pos) {
+        return bytes[pos] & 0xff | (bytes[pos + 1] & 0xff) << 8 | (bytes[pos + 2] & 0xff) << 16
+                | (bytes[pos + 3] & 0xff) << 24;
+    }
+
+}
@@ -0,0 +1,139 @@
+/* Copyright (c) 2011 Danish Maritime Authority.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package dk.dma.ais.analysis.common.web;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+public class ResponseCacheTest {
+
+    @Test
+    public void sharedLoad() throws Exception {
+        final ResponseCache<String, Object> cache = new ResponseCache<>("test_shared", 60000, 100);
+        final AtomicInteger loads = new AtomicInteger();
+        final CountDownLatch release = new CountDownLatch(1);
+        final Callable<Object> loader = new Callable<Object>() {
+            @Override
+            public Object call() throws Exception {
+                loads.incrementAndGet();
+                release.await();
+                return new Object();
+            }
+        };
+        final Object[] results = new Object[8];
+        List<Thread> threads = new ArrayList<>();
+        for (int i = 0; i < results.length; i++) {
+            final int index = i;
+            Thread thread = new Thread() {
+                @Override
+                public void run() {
+                    try {
+                        results[index] = cache.get("key", loader);
+                    } catch (IOException e) {
+                        throw new RuntimeException(e);
+                    }
+                }
+            };
+            threads.add(thread);
+            thread.start();
+        }
+        // Let the loader finish once all threads wait, either in the loader or for its result
+        for (Thread thread : threads) {
+            while (thread.getState() != Thread.State.WAITING) {
+                Thread.sleep(1);
+            }
+        }
+        release.countDown();
+        for (Thread thread : threads) {
+            thread.join();
+        }
+        Assert.assertEquals(1, loads.get());
+        for (Object result : results) {
+            Assert.assertNotNull(result);
+            Assert.assertSame(results[0], result);
+        }
+        // Cached
+        Assert.assertSame(results[0], cache.get("key", loader));
+        Assert.assertEquals(1, loads.get());
+        Assert.assertEquals(1, cache.size());
+    }
+
+    @Test
+    public void failedLoad() throws Exception {
+        ResponseCache<String, String> cache = new ResponseCache<>("test_failed", 60000, 100);
+        final AtomicInteger loads = new AtomicInteger();
+        Callable<String> failing = new Callable<String>() {
+            @Override
+            public String call() throws Exception {
+                loads.incrementAndGet();
+                throw new IOException("failed");
+            }
+        };
+        Callable<String> throwing = new Callable<String>() {
+            @Override
+            public String call() {
+                loads.incrementAndGet();
+                throw new IllegalStateException("failed");
+            }
+        };
+        Callable<String> loading = new Callable<String>() {
+            @Override
+            public String call() {
+                return "value" + loads.incrementAndGet();
+            }
+        };
+        try {
+            cache.get("key", failing);
+            Assert.fail();
+        } catch (IOException e) {
+            Assert.assertEquals("failed", e.getMessage());
+        }
+        Assert.assertEquals(0, cache.size());
+        try {
+            cache.get("key", throwing);
+            Assert.fail();
+        } catch (IllegalStateException e) {
+            Assert.assertEquals("failed", e.getMessage());
+        }
+        Assert.assertEquals(0, cache.size());
+        // Failures are not cached, so the next request computes the response
+        Assert.assertEquals("value3", cache.get("key", loading));
+        Assert.assertEquals("value3", cache.get("key", failing));
+        Assert.assertEquals(3, loads.get());
+    }
+
+    @Test
+    public void expiry() throws Exception {
+        ResponseCache<Integer, Integer> cache = new ResponseCache<>("test_expiry", 0, 100);
+        final AtomicInteger loads = new AtomicInteger();
+        Callable<Integer> loader = new Callable<Integer>() {
+            @Override
+            public Integer call() {
+                return loads.incrementAndGet();
+            }
+        };
+        Assert.assertEquals(1, (int) cache.get(1, loader));
+        Assert.assertEquals(2, (int) cache.get(1, loader));
+        Assert.assertEquals(3, (int) cache.get(2, loader));
+    }
+
+}
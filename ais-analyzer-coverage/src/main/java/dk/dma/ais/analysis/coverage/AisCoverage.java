@@ -0,0 +1,135 @@
+/* Copyright (c) 2011 Danish Maritime Authority.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package dk.dma.ais.analysis.coverage;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+
+import net.jcip.annotations.GuardedBy;
+import net.jcip.annotations.ThreadSafe;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import dk.dma.ais.analysis.common.grid.GridEqualArea;
+import dk.dma.ais.analysis.common.web.EndpointConfiguration;
+import dk.dma.ais.analysis.common.web.WebServer;
+import dk.dma.ais.analysis.coverage.analyzer.CoverageAnalyzer;
+import dk.dma.ais.analysis.coverage.analyzer.CoverageStore;
+import dk.dma.ais.analysis.coverage.configuration.AisCoverageConfiguration;
+import dk.dma.ais.bus.AisBus;
+import dk.dma.ais.bus.consumer.DistributerConsumer;
+
+/**
+ * AIS coverage analyzer
+ */
+@ThreadSafe
+public final class AisCoverage {
+
+    private static final Logger LOG = LoggerFactory.getLogger(AisCoverage.class);
+
+    @GuardedBy("AisCoverage")
+    private static AisCoverage instance;
+
+    private final AisCoverageConfiguration conf;
+    private final CoverageAnalyzer analyzer;
+    private final AisBus aisBus;
+    private final WebServer webServer;
+
+    private AisCoverage(AisCoverageConfiguration conf) throws IOException {
+        this.conf = conf;
+
+        // Create grid, store and analyzer
+        GridEqualArea grid = new GridEqualArea(conf.getLonMin(), conf.getLatMin(), conf.getLonMax(), conf.getLatMax(),
+                conf.getCellSize());
+        LOG.info("Coverage grid has " + grid.numberOfCells + " cells of " + conf.getCellSize() + " m");
+        CoverageStore store = new CoverageStore(new File(conf.getDataDir()), conf.getTtl() * 24L * 3600L * 1000L);
+        analyzer = new CoverageAnalyzer(grid, store, conf.getMaxGap() * 1000L, conf.getFlushDelay() * 1000L,
+                conf.getMaxEntries());
+
+        // Create AisBus
+        aisBus = conf.getAisbusConfiguration().getInstance();
+
+        // Create web server
+        if (conf.getServerConfiguration() != null) {
+            if (conf.getServerConfiguration().getEndpoints().isEmpty()) {
+                conf.getServerConfiguration().setEndpoints(defaultEndpoints());
+            }
+            webServer = new WebServer(conf.getServerConfiguration());
+        } else {
+            webServer = null;
+        }
+
+        // Create distributor consumer and add to aisBus
+        DistributerConsumer distributer = new DistributerConsumer();
+        distributer.getConsumers().add(analyzer);
+        distributer.init();
+        aisBus.registerConsumer(distributer);
+    }
+
+    /**
+     * Coverage queries read the hour files of their interval
+     */
+    private static List<EndpointConfiguration> defaultEndpoints() {
+        List<EndpointConfiguration> endpoints = new ArrayList<>();
+        endpoints.add(new EndpointConfiguration("coverage", true, 4));
+        endpoints.add(new EndpointConfiguration("sources", false, 0));
+        endpoints.add(new EndpointConfiguration("metrics", false, 0));
+        return endpoints;
+    }
+
+    public void start() {
+        // Start aisBus
+        aisBus.start();
+        aisBus.startConsumers();
+        aisBus.startProviders();
+        // Start web server
+        if (webServer != null) {
+            try {
+                webServer.start();
+            } catch (Exception e) {
+                LOG.error("Failed to start web server: " + e.getMessage());
+                e.printStackTrace();
+            }
+        }
+    }
+
+    public void stop() {
+        // Stop AisBus
+        aisBus.cancel();
+        // Write the open hours
+        analyzer.flushAll();
+    }
+
+    public AisCoverageConfiguration getConf() {
+        return conf;
+    }
+
+    public CoverageAnalyzer getAnalyzer() {
+        return analyzer;
+    }
+
+    public static synchronized AisCoverage create(AisCoverageConfiguration conf) throws IOException {
+        instance = new AisCoverage(conf);
+        return instance;
+    }
+
+    public static synchronized AisCoverage get() {
+        return instance;
+    }
+
+}
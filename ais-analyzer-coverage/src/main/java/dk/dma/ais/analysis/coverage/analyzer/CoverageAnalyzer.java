@@ -0,0 +1,368 @@
+/* Copyright (c) 2011 Danish Maritime Authority.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package dk.dma.ais.analysis.coverage.analyzer;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+
+import net.jcip.annotations.GuardedBy;
+import net.jcip.annotations.ThreadSafe;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import dk.dma.ais.analysis.common.grid.GridEqualArea;
+import dk.dma.ais.analysis.common.metrics.Counter;
+import dk.dma.ais.analysis.common.metrics.Gauge;
+import dk.dma.ais.analysis.common.metrics.Histogram;
+import dk.dma.ais.analysis.common.metrics.MetricsRegistry;
+import dk.dma.ais.message.AisMessage;
+import dk.dma.ais.message.AisMessage18;
+import dk.dma.ais.message.AisMessage19;
+import dk.dma.ais.message.AisPositionMessage;
+import dk.dma.ais.message.IVesselPositionMessage;
+import dk.dma.ais.packet.AisPacket;
+import dk.dma.ais.packet.AisPacketTags;
+import dk.dma.enav.model.geometry.Position;
+import dk.dma.enav.util.function.Consumer;
+
+/**
+ * Counts the expected and received position messages of each source in the cells of an equal area grid by hour.
+ * <p>
+ * A message received by a source counts as received in the cell of the position. When the source received the
+ * previous message of the vessel less than the maximum gap before, the messages the vessel should have sent in between
+ * according to its reporting interval are counted as expected, else only the message itself is expected.
+ * <p>
+ * Counts are kept in primitive tables keyed by source index and cell id for each open hour. An hour is appended to
+ * the {@link CoverageStore} when the time of the messages has passed its end by the flush delay, and all hours are
+ * written early when the tables hold too many counters. Memory is bounded by the counters of the open hours and the
+ * last reception of each vessel by each source, whatever the length of the run.
+ */
+@ThreadSafe
+public class CoverageAnalyzer implements Consumer<AisPacket> {
+
+    private static final Logger LOG = LoggerFactory.getLogger(CoverageAnalyzer.class);
+
+    private static final long HOUR = CoverageStore.HOUR;
+    private static final String UNKNOWN_SOURCE = "UNKNOWN";
+
+    private final GridEqualArea grid;
+    private final CoverageStore store;
+    private final long maxGap;
+    private final long flushDelay;
+    private final int maxEntries;
+
+    // Index of each source, and names and messages by index
+    @GuardedBy("this")
+    private final Map<String, Integer> sourceIndex = new HashMap<>();
+    @GuardedBy("this")
+    private final List<String> sourceNames = new ArrayList<>();
+    @GuardedBy("this")
+    private long[] sourceMessages = new long[16];
+
+    // Time of the last message of each vessel from each source, by source index and MMSI
+    @GuardedBy("this")
+    private LongMap receptions = new LongMap(1024);
+
+    // Packed counts by source index and cell id of each open hour
+    @GuardedBy("this")
+    private final TreeMap<Long, LongMap> open = new TreeMap<>();
+    @GuardedBy("this")
+    private int entries;
+
+    // Latest message time
+    @GuardedBy("this")
+    private long streamTime = Long.MIN_VALUE;
+
+    private final Counter messages;
+    private final Counter lateMessages;
+    private final Counter flushErrors;
+    private final Histogram flushTime;
+
+    /**
+     * @param maxGap
+     *            time in milliseconds between two messages of a vessel from a source within which missing messages
+     *            are counted as expected
+     * @param flushDelay
+     *            time in milliseconds after the end of an hour until it is written
+     * @param maxEntries
+     *            number of counters in the open hours causing all hours to be written
+     */
+    public CoverageAnalyzer(GridEqualArea grid, CoverageStore store, long maxGap, long flushDelay, int maxEntries) {
+        this.grid = grid;
+        this.store = store;
+        this.maxGap = maxGap;
+        this.flushDelay = flushDelay;
+        this.maxEntries = maxEntries;
+
+        MetricsRegistry metrics = MetricsRegistry.getInstance();
+        messages = metrics.counter("coverage_messages_total", "Position messages counted");
+        lateMessages = metrics.counter("coverage_late_messages_total",
+                "Position messages of hours already written, appended as extra segments");
+        flushErrors = metrics.counter("coverage_flush_errors_total", "Hours that could not be written");
+        flushTime = metrics.histogram("coverage_flush_duration_seconds", "Time writing an hour", Histogram.latency());
+        metrics.gauge("coverage_entries", "Counters of the open hours", new Gauge() {
+            @Override
+            public double getValue() {
+                return getEntries();
+            }
+        });
+        metrics.gauge("coverage_sources", "Sources seen", new Gauge() {
+            @Override
+            public double getValue() {
+                return getSourceCount();
+            }
+        });
+    }
+
+    @Override
+    public void accept(AisPacket packet) {
+        // Decode outside the lock. The packet caches the decoded message.
+        AisMessage aisMessage = packet.tryGetAisMessage();
+        if (!(aisMessage instanceof IVesselPositionMessage)) {
+            return;
+        }
+        IVesselPositionMessage posMessage = (IVesselPositionMessage) aisMessage;
+        Position pos = posMessage.getValidPosition();
+        if (pos == null) {
+            return;
+        }
+        int cellId = grid.getCellId(pos.getLongitude(), pos.getLatitude());
+        if (cellId < 0) {
+            return;
+        }
+        long interval = reportingInterval(aisMessage, posMessage.getSog());
+        long time = packet.getBestTimestamp();
+        if (time <= 0) {
+            time = System.currentTimeMillis();
+        }
+        String source = source(packet.getTags());
+        messages.inc();
+
+        synchronized (this) {
+            int index = sourceIndex(source);
+            sourceMessages[index]++;
+
+            // Expected messages since the last reception of the vessel by the source
+            long receptionKey = (long) index << 32 | aisMessage.getUserId() & 0xFFFFFFFFL;
+            long last = receptions.get(receptionKey, Long.MIN_VALUE);
+            long expected = 1;
+            if (last != Long.MIN_VALUE && time > last && time - last <= maxGap) {
+                expected = Math.max(1, Math.round((double) (time - last) / interval));
+            }
+            if (time > last) {
+                receptions.put(receptionKey, time);
+            }
+
+            long hour = Math.floorDiv(time, HOUR) * HOUR;
+            LongMap table = open.get(hour);
+            if (table == null) {
+                if (store.contains(hour)) {
+                    lateMessages.inc();
+                }
+                table = new LongMap(1024);
+                open.put(hour, table);
+            }
+            int size = table.size();
+            table.add((long) index << 32 | cellId, CoverageSegment.pack(expected, 1));
+            entries += table.size() - size;
+
+            if (time > streamTime) {
+                streamTime = time;
+                while (!open.isEmpty() && open.firstKey() + HOUR + flushDelay <= streamTime) {
+                    flush(open.firstKey());
+                }
+            }
+            if (entries > maxEntries) {
+                LOG.warn("Writing all " + open.size() + " open hours early with " + entries
+                        + " counters. Consider a larger maxEntries or a shorter flushDelay.");
+                flushAll();
+            }
+        }
+    }
+
+    /**
+     * Write all open hours
+     */
+    public synchronized void flushAll() {
+        while (!open.isEmpty()) {
+            flush(open.firstKey());
+        }
+    }
+
+    /**
+     * Write and close an open hour, and forget the receptions older than the maximum gap
+     */
+    @GuardedBy("this")
+    private void flush(long hour) {
+        LongMap table = open.remove(hour);
+        entries -= table.size();
+        long start = System.nanoTime();
+        try {
+            store.append(hour, sourceNames.toArray(new String[sourceNames.size()]), table);
+            LOG.info("Wrote coverage hour " + hour + " with " + table.size() + " counters");
+        } catch (IOException e) {
+            flushErrors.inc();
+            LOG.error("Failed to write coverage hour " + hour + ": " + e.getMessage());
+        }
+        flushTime.recordSince(start);
+
+        LongMap retained = new LongMap(receptions.size());
+        for (int slot = 0; slot < receptions.capacity(); slot++) {
+            long key = receptions.keyAt(slot);
+            if (key != LongMap.NO_KEY && receptions.valueAt(slot) >= streamTime - maxGap) {
+                retained.put(key, receptions.valueAt(slot));
+            }
+        }
+        receptions = retained;
+        store.expire();
+    }
+
+    /**
+     * Get the counts of the hours starting within a time interval, written or open
+     *
+     * @param from
+     *            start of the interval in milliseconds, inclusive
+     * @param to
+     *            end of the interval in milliseconds, exclusive
+     * @param sources
+     *            the sources to include, or null for all sources
+     * @return packed counts by cell id of each source, see {@link #getExpected(long)} and {@link #getReceived(long)}
+     */
+    public Map<String, LongMap> getCoverage(long from, long to, Set<String> sources) throws IOException {
+        Map<String, LongMap> result = store.read(from, to, sources);
+        synchronized (this) {
+            LongMap[] tables = new LongMap[sourceNames.size()];
+            for (int i = 0; i < tables.length; i++) {
+                String name = sourceNames.get(i);
+                if (sources == null || sources.contains(name)) {
+                    tables[i] = result.get(name);
+                    if (tables[i] == null) {
+                        tables[i] = new LongMap(1024);
+                        result.put(name, tables[i]);
+                    }
+                }
+            }
+            for (LongMap table : open.subMap(from, to).values()) {
+                for (int slot = 0; slot < table.capacity(); slot++) {
+                    long key = table.keyAt(slot);
+                    if (key != LongMap.NO_KEY && tables[(int) (key >>> 32)] != null) {
+                        tables[(int) (key >>> 32)].add((int) key, table.valueAt(slot));
+                    }
+                }
+            }
+        }
+        return result;
+    }
+
+    public static long getExpected(long counts) {
+        return CoverageSegment.expected(counts);
+    }
+
+    public static long getReceived(long counts) {
+        return CoverageSegment.received(counts);
+    }
+
+    /**
+     * Messages counted of each source
+     */
+    public synchronized Map<String, Long> getSources() {
+        Map<String, Long> sources = new LinkedHashMap<>();
+        for (int i = 0; i < sourceNames.size(); i++) {
+            sources.put(sourceNames.get(i), sourceMessages[i]);
+        }
+        return sources;
+    }
+
+    public synchronized int getSourceCount() {
+        return sourceNames.size();
+    }
+
+    public synchronized int getEntries() {
+        return entries;
+    }
+
+    public GridEqualArea getGrid() {
+        return grid;
+    }
+
+    @GuardedBy("this")
+    private int sourceIndex(String source) {
+        Integer index = sourceIndex.get(source);
+        if (index == null) {
+            index = sourceNames.size();
+            sourceIndex.put(source, index);
+            sourceNames.add(source);
+            if (index == sourceMessages.length) {
+                sourceMessages = Arrays.copyOf(sourceMessages, index * 2);
+            }
+        }
+        return index;
+    }
+
+    /**
+     * The source of a packet is the base station if known, else the source id
+     */
+    private static String source(AisPacketTags tags) {
+        if (tags == null) {
+            return UNKNOWN_SOURCE;
+        }
+        if (tags.getSourceBs() != null) {
+            return tags.getSourceBs().toString();
+        }
+        if (tags.getSourceId() != null) {
+            return tags.getSourceId();
+        }
+        return UNKNOWN_SOURCE;
+    }
+
+    /**
+     * Reporting interval in milliseconds of a position message as given by ITU-R M.1371. Class A vessels changing
+     * course report more often, which is not taken into account.
+     *
+     * @param sog
+     *            speed over ground in tenths of knots, 1023 if not available
+     */
+    static long reportingInterval(AisMessage aisMessage, int sog) {
+        if (sog >= 1023) {
+            sog = 0;
+        }
+        if (aisMessage instanceof AisMessage18 || aisMessage instanceof AisMessage19) {
+            return sog <= 20 ? 180000 : 30000;
+        }
+        if (aisMessage instanceof AisPositionMessage) {
+            int navStatus = ((AisPositionMessage) aisMessage).getNavStatus();
+            // At anchor or moored
+            if ((navStatus == 1 || navStatus == 5) && sog <= 30) {
+                return 180000;
+            }
+        }
+        if (sog <= 140) {
+            return 10000;
+        }
+        if (sog <= 230) {
+            return 6000;
+        }
+        return 2000;
+    }
+
+}
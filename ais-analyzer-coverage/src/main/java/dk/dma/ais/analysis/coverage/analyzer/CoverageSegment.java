@@ -0,0 +1,204 @@
+/* Copyright (c) 2011 Danish Maritime Authority.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package dk.dma.ais.analysis.coverage.analyzer;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Format of the hourly coverage files. A file starts with a header holding the start of the hour, followed by segments
+ * appended by each flush of the hour:
+ *
+ * <pre>
+ * file header:  int magic, int version, long hour
+ * segment:      int magic, int sources, int entries, int data length
+ *               data: names of the sources, then the entries ascending by key
+ * source:       varint length, UTF-8 bytes
+ * entry:        varint key delta, varint expected, varint received
+ * </pre>
+ *
+ * The key of an entry is the index of the source in the segment in the high 32 bits and the cell id in the low 32
+ * bits. Key deltas are from the previous key, the first from 0. A cell may occur in several segments of an hour, and
+ * the counts of all segments are summed.
+ */
+final class CoverageSegment {
+
+    static final int FILE_MAGIC = 0x434f5641; // COVA
+    static final int FILE_VERSION = 1;
+    static final int FILE_HEADER_SIZE = 16;
+
+    static final int SEGMENT_MAGIC = 0x434f5653; // COVS
+    static final int SEGMENT_HEADER_SIZE = 16;
+
+    private CoverageSegment() {
+
+    }
+
+    /**
+     * Encode a table of counts as a segment
+     *
+     * @param sources
+     *            names of the sources by index
+     * @param table
+     *            packed counts by key
+     */
+    static ByteBuffer encode(String[] sources, LongMap table) {
+        Encoder data = new Encoder(64 + table.size() * 8);
+        for (String source : sources) {
+            byte[] name = source.getBytes(StandardCharsets.UTF_8);
+            data.varint(name.length);
+            data.bytes(name);
+        }
+        long previous = 0;
+        for (int slot : table.sortedSlots()) {
+            long key = table.keyAt(slot);
+            long counts = table.valueAt(slot);
+            data.varint(key - previous);
+            data.varint(expected(counts));
+            data.varint(received(counts));
+            previous = key;
+        }
+        ByteBuffer segment = ByteBuffer.allocate(SEGMENT_HEADER_SIZE + data.size);
+        segment.putInt(SEGMENT_MAGIC).putInt(sources.length).putInt(table.size()).putInt(data.size);
+        segment.put(data.bytes, 0, data.size);
+        segment.flip();
+        return segment;
+    }
+
+    /**
+     * Get the size of the segment at a position
+     *
+     * @return the size or -1 if there is no complete segment at the position
+     */
+    static int size(ByteBuffer file, int pos) {
+        if (pos + SEGMENT_HEADER_SIZE > file.limit() || file.getInt(pos) != SEGMENT_MAGIC) {
+            return -1;
+        }
+        long size = SEGMENT_HEADER_SIZE + (long) file.getInt(pos + 12);
+        return pos + size > file.limit() ? -1 : (int) size;
+    }
+
+    /**
+     * Add the counts of the segment at a position to tables of packed counts by cell id of each source
+     *
+     * @param sources
+     *            the sources to read, or null for all sources
+     */
+    static void read(ByteBuffer file, int pos, Set<String> sources, Map<String, LongMap> out) {
+        int sourceCount = file.getInt(pos + 4);
+        int entries = file.getInt(pos + 8);
+        Decoder decoder = new Decoder(file, pos + SEGMENT_HEADER_SIZE);
+        LongMap[] tables = new LongMap[sourceCount];
+        for (int i = 0; i < sourceCount; i++) {
+            String name = decoder.string();
+            if (sources == null || sources.contains(name)) {
+                tables[i] = out.get(name);
+                if (tables[i] == null) {
+                    tables[i] = new LongMap(1024);
+                    out.put(name, tables[i]);
+                }
+            }
+        }
+        long key = 0;
+        for (int i = 0; i < entries; i++) {
+            key += decoder.varint();
+            long expected = decoder.varint();
+            long received = decoder.varint();
+            LongMap table = tables[(int) (key >>> 32)];
+            if (table != null) {
+                table.add((int) key, pack(expected, received));
+            }
+        }
+    }
+
+    /**
+     * Pack expected and received counts in one long, so both are summed by adding packed values
+     */
+    static long pack(long expected, long received) {
+        return expected << 32 | received;
+    }
+
+    static long expected(long counts) {
+        return counts >>> 32;
+    }
+
+    static long received(long counts) {
+        return counts & 0xFFFFFFFFL;
+    }
+
+    private static final class Encoder {
+        byte[] bytes;
+        int size;
+
+        Encoder(int capacity) {
+            bytes = new byte[capacity];
+        }
+
+        void bytes(byte[] b) {
+            ensure(b.length);
+            System.arraycopy(b, 0, bytes, size, b.length);
+            size += b.length;
+        }
+
+        void varint(long value) {
+            ensure(10);
+            while ((value & ~0x7FL) != 0) {
+                bytes[size++] = (byte) (value & 0x7F | 0x80);
+                value >>>= 7;
+            }
+            bytes[size++] = (byte) value;
+        }
+
+        private void ensure(int n) {
+            if (size + n > bytes.length) {
+                bytes = Arrays.copyOf(bytes, Math.max(bytes.length * 2, size + n));
+            }
+        }
+    }
+
+    private static final class Decoder {
+        private final ByteBuffer file;
+        private int pos;
+
+        Decoder(ByteBuffer file, int pos) {
+            this.file = file;
+            this.pos = pos;
+        }
+
+        String string() {
+            byte[] b = new byte[(int) varint()];
+            for (int i = 0; i < b.length; i++) {
+                b[i] = file.get(pos++);
+            }
+            return new String(b, StandardCharsets.UTF_8);
+        }
+
+        long varint() {
+            long value = 0;
+            int shift = 0;
+            byte b;
+            do {
+                b = file.get(pos++);
+                value |= (long) (b & 0x7F) << shift;
+                shift += 7;
+            } while (b < 0);
+            return value;
+        }
+    }
+
+}
@@ -0,0 +1,238 @@
+/* Copyright (c) 2011 Danish Maritime Authority.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package dk.dma.ais.analysis.coverage.analyzer;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.text.DateFormat;
+import java.text.SimpleDateFormat;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TimeZone;
+import java.util.TreeMap;
+
+import net.jcip.annotations.ThreadSafe;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Directory of hourly coverage files. Each flush of an hour is appended to the file of the hour as a segment, see
+ * {@link CoverageSegment}.
+ */
+@ThreadSafe
+public class CoverageStore {
+
+    private static final Logger LOG = LoggerFactory.getLogger(CoverageStore.class);
+
+    static final long HOUR = 3600 * 1000L;
+    private static final String SUFFIX = ".cov";
+
+    private final File dir;
+    private final long ttl;
+
+    // Length of the complete segments of the file of each hour
+    private final TreeMap<Long, HourFile> hours = new TreeMap<>();
+
+    /**
+     * @param dir
+     *            directory of the files, created if missing
+     * @param ttl
+     *            time in milliseconds hours are kept after their end, 0 to keep all hours
+     * @throws IOException
+     *             if the directory cannot be created or read
+     */
+    public CoverageStore(File dir, long ttl) throws IOException {
+        this.dir = dir;
+        this.ttl = ttl;
+        if (!dir.isDirectory() && !dir.mkdirs()) {
+            throw new IOException("Could not create coverage directory " + dir);
+        }
+        open();
+    }
+
+    /**
+     * Register the existing hour files. Incomplete segments left by a crash are truncated.
+     */
+    private void open() throws IOException {
+        File[] files = dir.listFiles();
+        if (files == null) {
+            throw new IOException("Could not list coverage directory " + dir);
+        }
+        for (File file : files) {
+            if (!file.getName().endsWith(SUFFIX)) {
+                continue;
+            }
+            try (RandomAccessFile raf = new RandomAccessFile(file, "rw"); FileChannel channel = raf.getChannel()) {
+                MappedByteBuffer map = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+                if (map.limit() < CoverageSegment.FILE_HEADER_SIZE || map.getInt(0) != CoverageSegment.FILE_MAGIC
+                        || map.getInt(4) != CoverageSegment.FILE_VERSION) {
+                    LOG.warn("Ignoring invalid coverage file " + file);
+                    continue;
+                }
+                long hour = map.getLong(8);
+                int length = CoverageSegment.FILE_HEADER_SIZE;
+                int size;
+                while ((size = CoverageSegment.size(map, length)) > 0) {
+                    length += size;
+                }
+                if (length < map.limit()) {
+                    LOG.warn("Truncating incomplete segment of coverage file " + file);
+                    channel.truncate(length);
+                }
+                hours.put(hour, new HourFile(file, length));
+            }
+        }
+        LOG.info("Opened coverage directory " + dir + " with " + hours.size() + " hours");
+    }
+
+    /**
+     * Append the counts of an hour to the file of the hour, creating the file if needed
+     *
+     * @param hour
+     *            start of the hour in milliseconds
+     * @param sources
+     *            names of the sources by index
+     * @param table
+     *            packed counts by key of source index and cell id
+     */
+    public synchronized void append(long hour, String[] sources, LongMap table) throws IOException {
+        ByteBuffer segment = CoverageSegment.encode(sources, table);
+        HourFile hourFile = hours.get(hour);
+        File file = hourFile != null ? hourFile.file : new File(dir, fileName(hour));
+        try (RandomAccessFile raf = new RandomAccessFile(file, "rw"); FileChannel channel = raf.getChannel()) {
+            long pos;
+            if (hourFile == null) {
+                channel.truncate(0);
+                ByteBuffer header = ByteBuffer.allocate(CoverageSegment.FILE_HEADER_SIZE);
+                header.putInt(CoverageSegment.FILE_MAGIC).putInt(CoverageSegment.FILE_VERSION).putLong(hour).flip();
+                writeFully(channel, header, 0);
+                pos = CoverageSegment.FILE_HEADER_SIZE;
+            } else {
+                // Overwrite anything after the last complete segment
+                pos = hourFile.length;
+            }
+            writeFully(channel, segment, pos);
+            hours.put(hour, new HourFile(file, pos + segment.limit()));
+        }
+    }
+
+    /**
+     * Get the counts of the hours starting within a time interval
+     *
+     * @param from
+     *            start of the interval in milliseconds, inclusive
+     * @param to
+     *            end of the interval in milliseconds, exclusive
+     * @param sources
+     *            the sources to read, or null for all sources
+     * @return packed counts by cell id of each source
+     */
+    public Map<String, LongMap> read(long from, long to, Set<String> sources) throws IOException {
+        List<HourFile> files;
+        synchronized (this) {
+            files = new ArrayList<>(hours.subMap(from, to).values());
+        }
+        Map<String, LongMap> result = new HashMap<>();
+        for (HourFile hourFile : files) {
+            try (RandomAccessFile raf = new RandomAccessFile(hourFile.file, "r");
+                    FileChannel channel = raf.getChannel()) {
+                MappedByteBuffer map = channel.map(FileChannel.MapMode.READ_ONLY, 0, hourFile.length);
+                int pos = CoverageSegment.FILE_HEADER_SIZE;
+                while (pos < hourFile.length) {
+                    CoverageSegment.read(map, pos, sources, result);
+                    pos += CoverageSegment.size(map, pos);
+                }
+            }
+        }
+        return result;
+    }
+
+    /**
+     * @return true if the file of an hour has been written
+     */
+    public synchronized boolean contains(long hour) {
+        return hours.containsKey(hour);
+    }
+
+    /**
+     * Number of hour files
+     */
+    public synchronized int size() {
+        return hours.size();
+    }
+
+    /**
+     * Remove the hours ending more than the time to live ago
+     */
+    public void expire() {
+        if (ttl <= 0) {
+            return;
+        }
+        List<File> expired = new ArrayList<>();
+        synchronized (this) {
+            long now = System.currentTimeMillis();
+            Iterator<Map.Entry<Long, HourFile>> it = hours.entrySet().iterator();
+            while (it.hasNext()) {
+                Map.Entry<Long, HourFile> entry = it.next();
+                if (entry.getKey() + HOUR + ttl < now) {
+                    expired.add(entry.getValue().file);
+                    it.remove();
+                }
+            }
+        }
+        for (File file : expired) {
+            LOG.info("Removing expired coverage file " + file);
+            if (!file.delete()) {
+                LOG.warn("Could not remove expired coverage file " + file);
+            }
+        }
+    }
+
+    private static void writeFully(FileChannel channel, ByteBuffer buffer, long pos) throws IOException {
+        while (buffer.hasRemaining()) {
+            pos += channel.write(buffer, pos);
+        }
+    }
+
+    private static String fileName(long hour) {
+        DateFormat format = new SimpleDateFormat("yyyyMMdd'T'HH");
+        format.setTimeZone(TimeZone.getTimeZone("UTC"));
+        return "coverage-" + format.format(new Date(hour)) + SUFFIX;
+    }
+
+    /**
+     * An hour file and the length of its complete segments
+     */
+    private static final class HourFile {
+        final File file;
+        final long length;
+
+        HourFile(File file, long length) {
+            this.file = file;
+            this.length = length;
+        }
+    }
+
+}
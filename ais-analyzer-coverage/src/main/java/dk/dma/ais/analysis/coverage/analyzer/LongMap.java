@@ -0,0 +1,151 @@
+/* Copyright (c) 2011 Danish Maritime Authority.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package dk.dma.ais.analysis.coverage.analyzer;
+
+import java.util.Arrays;
+
+/**
+ * Hash map from long to long in two primitive arrays with open addressing and linear probing, so a counter costs 16
+ * bytes at most twice over instead of a boxed entry. Long.MIN_VALUE is reserved as the empty key. Entries cannot be
+ * removed one by one, but the map can be cleared. Not thread safe.
+ */
+public final class LongMap {
+
+    public static final long NO_KEY = Long.MIN_VALUE;
+
+    private long[] keys;
+    private long[] values;
+    private int size;
+
+    public LongMap(int capacity) {
+        int slots = Integer.highestOneBit(Math.max(16, capacity) * 2 - 1);
+        keys = new long[slots];
+        values = new long[slots];
+        Arrays.fill(keys, NO_KEY);
+    }
+
+    /**
+     * @return the value of the key or the given value if the key is not in the map
+     */
+    public long get(long key, long missing) {
+        int slot = slot(key);
+        return keys[slot] == key ? values[slot] : missing;
+    }
+
+    public void put(long key, long value) {
+        int slot = slot(key);
+        if (keys[slot] != key) {
+            slot = insert(key);
+        }
+        values[slot] = value;
+    }
+
+    /**
+     * Add to the value of a key, which is 0 if the key is not in the map
+     */
+    public void add(long key, long delta) {
+        int slot = slot(key);
+        if (keys[slot] != key) {
+            slot = insert(key);
+        }
+        values[slot] += delta;
+    }
+
+    public int size() {
+        return size;
+    }
+
+    /**
+     * Number of slots. Slots without an entry have the key {@link #NO_KEY}.
+     */
+    public int capacity() {
+        return keys.length;
+    }
+
+    public long keyAt(int slot) {
+        return keys[slot];
+    }
+
+    public long valueAt(int slot) {
+        return values[slot];
+    }
+
+    /**
+     * Slots of the entries in ascending order of key
+     */
+    public int[] sortedSlots() {
+        long[] sorted = new long[size];
+        int count = 0;
+        for (int slot = 0; slot < keys.length; slot++) {
+            if (keys[slot] != NO_KEY) {
+                sorted[count++] = keys[slot];
+            }
+        }
+        Arrays.sort(sorted);
+        int[] slots = new int[size];
+        for (int i = 0; i < size; i++) {
+            slots[i] = slot(sorted[i]);
+        }
+        return slots;
+    }
+
+    public void clear() {
+        Arrays.fill(keys, NO_KEY);
+        size = 0;
+    }
+
+    private int insert(long key) {
+        if (key == NO_KEY) {
+            throw new IllegalArgumentException("Reserved key");
+        }
+        if (size * 4 >= keys.length * 3) {
+            grow();
+        }
+        int slot = slot(key);
+        keys[slot] = key;
+        values[slot] = 0;
+        size++;
+        return slot;
+    }
+
+    /**
+     * The slot of the key, or the empty slot where it would be inserted
+     */
+    private int slot(long key) {
+        int mask = keys.length - 1;
+        long hash = key * 0x9E3779B97F4A7C15L;
+        int slot = (int) (hash ^ hash >>> 32) & mask;
+        while (keys[slot] != key && keys[slot] != NO_KEY) {
+            slot = slot + 1 & mask;
+        }
+        return slot;
+    }
+
+    private void grow() {
+        long[] oldKeys = keys;
+        long[] oldValues = values;
+        keys = new long[oldKeys.length * 2];
+        values = new long[oldKeys.length * 2];
+        Arrays.fill(keys, NO_KEY);
+        for (int i = 0; i < oldKeys.length; i++) {
+            if (oldKeys[i] != NO_KEY) {
+                int slot = slot(oldKeys[i]);
+                keys[slot] = oldKeys[i];
+                values[slot] = oldValues[i];
+            }
+        }
+    }
+
+}
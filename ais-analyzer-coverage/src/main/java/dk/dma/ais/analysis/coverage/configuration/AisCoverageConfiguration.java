@@ -0,0 +1,186 @@
+/* Copyright (c) 2011 Danish Maritime Authority.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package dk.dma.ais.analysis.coverage.configuration;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileNotFoundException;
+import java.io.FileOutputStream;
+
+import javax.xml.bind.JAXBContext;
+import javax.xml.bind.JAXBException;
+import javax.xml.bind.Marshaller;
+import javax.xml.bind.Unmarshaller;
+import javax.xml.bind.annotation.XmlElement;
+import javax.xml.bind.annotation.XmlRootElement;
+
+import dk.dma.ais.analysis.common.web.WebServerConfiguration;
+import dk.dma.ais.configuration.bus.AisBusConfiguration;
+
+/**
+ * Class to represent AisCoverage configuration. To be marshalled and unmarshalled by JAXB.
+ */
+@XmlRootElement
+public class AisCoverageConfiguration {
+
+    private AisBusConfiguration aisbusConfiguration;
+    private WebServerConfiguration serverConfiguration;
+    private String dataDir = "coverage";
+    private double cellSize = 2500; // meters
+    private double latMin = -90;
+    private double latMax = 90;
+    private double lonMin = -180;
+    private double lonMax = 180;
+    private int maxGap = 600; // 10 minutes
+    private int flushDelay = 600; // 10 minutes
+    private int maxEntries = 5000000;
+    private int ttl; // days, 0 to keep all
+
+    public AisCoverageConfiguration() {
+
+    }
+
+    @XmlElement(name = "aisbus")
+    public AisBusConfiguration getAisbusConfiguration() {
+        return aisbusConfiguration;
+    }
+
+    public void setAisbusConfiguration(AisBusConfiguration aisbusConfiguration) {
+        this.aisbusConfiguration = aisbusConfiguration;
+    }
+
+    public WebServerConfiguration getServerConfiguration() {
+        return serverConfiguration;
+    }
+
+    public void setServerConfiguration(WebServerConfiguration serverConfiguration) {
+        this.serverConfiguration = serverConfiguration;
+    }
+
+    /**
+     * Directory of the hourly coverage files
+     */
+    public String getDataDir() {
+        return dataDir;
+    }
+
+    public void setDataDir(String dataDir) {
+        this.dataDir = dataDir;
+    }
+
+    /**
+     * Height and approximate width in meters of the cells of the equal area grid
+     */
+    public double getCellSize() {
+        return cellSize;
+    }
+
+    public void setCellSize(double cellSize) {
+        this.cellSize = cellSize;
+    }
+
+    public double getLatMin() {
+        return latMin;
+    }
+
+    public void setLatMin(double latMin) {
+        this.latMin = latMin;
+    }
+
+    public double getLatMax() {
+        return latMax;
+    }
+
+    public void setLatMax(double latMax) {
+        this.latMax = latMax;
+    }
+
+    public double getLonMin() {
+        return lonMin;
+    }
+
+    public void setLonMin(double lonMin) {
+        this.lonMin = lonMin;
+    }
+
+    public double getLonMax() {
+        return lonMax;
+    }
+
+    public void setLonMax(double lonMax) {
+        this.lonMax = lonMax;
+    }
+
+    /**
+     * Longest time in seconds between two messages of a vessel received by a source for the messages in between to be
+     * counted as expected by the source
+     */
+    public int getMaxGap() {
+        return maxGap;
+    }
+
+    public void setMaxGap(int maxGap) {
+        this.maxGap = maxGap;
+    }
+
+    /**
+     * Time in seconds after the end of an hour, in time of the messages, until the counts of the hour are written
+     */
+    public int getFlushDelay() {
+        return flushDelay;
+    }
+
+    public void setFlushDelay(int flushDelay) {
+        this.flushDelay = flushDelay;
+    }
+
+    /**
+     * Number of counters in memory causing all hours to be written early
+     */
+    public int getMaxEntries() {
+        return maxEntries;
+    }
+
+    public void setMaxEntries(int maxEntries) {
+        this.maxEntries = maxEntries;
+    }
+
+    /**
+     * Days hourly coverage files are kept, 0 to keep all
+     */
+    public int getTtl() {
+        return ttl;
+    }
+
+    public void setTtl(int ttl) {
+        this.ttl = ttl;
+    }
+
+    public static void save(String filename, AisCoverageConfiguration conf) throws JAXBException,
+            FileNotFoundException {
+        JAXBContext context = JAXBContext.newInstance(AisCoverageConfiguration.class);
+        Marshaller m = context.createMarshaller();
+        m.setProperty(Marshaller.JAXB_FORMATTED_OUTPUT, Boolean.TRUE);
+        m.setProperty(Marshaller.JAXB_ENCODING, "UTF-8");
+        m.marshal(conf, new FileOutputStream(new File(filename)));
+    }
+
+    public static AisCoverageConfiguration load(String filename) throws JAXBException, FileNotFoundException {
+        JAXBContext context = JAXBContext.newInstance(AisCoverageConfiguration.class);
+        Unmarshaller um = context.createUnmarshaller();
+        return (AisCoverageConfiguration) um.unmarshal(new FileInputStream(new File(filename)));
+    }
+
+}
@@ -0,0 +1,118 @@
+/* Copyright (c) 2011 Danish Maritime Authority.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package dk.dma.ais.analysis.coverage.rest;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import javax.ws.rs.GET;
+import javax.ws.rs.Path;
+import javax.ws.rs.Produces;
+import javax.ws.rs.WebApplicationException;
+import javax.ws.rs.core.Context;
+import javax.ws.rs.core.MediaType;
+import javax.ws.rs.core.Response;
+import javax.ws.rs.core.UriInfo;
+
+import dk.dma.ais.analysis.common.grid.GridEqualArea;
+import dk.dma.ais.analysis.common.metrics.MetricsRegistry;
+import dk.dma.ais.analysis.common.web.QueryParams;
+import dk.dma.ais.analysis.coverage.AisCoverage;
+import dk.dma.ais.analysis.coverage.analyzer.CoverageAnalyzer;
+import dk.dma.ais.analysis.coverage.analyzer.LongMap;
+import dk.dma.ais.analysis.coverage.rest.json.CoverageJsonResponse;
+import dk.dma.enav.model.geometry.Position;
+
+/**
+ * JAX-RS rest services
+ */
+@Path("/")
+public class CoverageRestService {
+
+    private static final long HOUR = 3600 * 1000L;
+
+    // Hours of a coverage query at most
+    private static final int MAX_HOURS = 24 * 366;
+
+    private final CoverageAnalyzer analyzer;
+
+    public CoverageRestService() {
+        this.analyzer = AisCoverage.get().getAnalyzer();
+    }
+
+    /**
+     * Coverage of the hours from from to to, in milliseconds since the epoch, by default the last 24 hours. The
+     * interval is extended to whole hours. Sources are given by the source parameter, by default all sources.
+     */
+    @GET
+    @Path("coverage")
+    @Produces(MediaType.APPLICATION_JSON)
+    public CoverageJsonResponse coverage(@Context UriInfo uriInfo) throws IOException {
+        QueryParams queryParams = new QueryParams(uriInfo.getQueryParameters());
+        long to = queryParams.getLong("to") != null ? queryParams.getLong("to") : System.currentTimeMillis();
+        long from = queryParams.getLong("from") != null ? queryParams.getLong("from") : to - 24 * HOUR;
+        from = Math.floorDiv(from, HOUR) * HOUR;
+        to = Math.floorDiv(to + HOUR - 1, HOUR) * HOUR;
+        if (from >= to || (to - from) / HOUR > MAX_HOURS) {
+            throw new WebApplicationException(Response.Status.BAD_REQUEST);
+        }
+        List<String> sourceParams = uriInfo.getQueryParameters().get("source");
+        Set<String> sources = sourceParams != null ? new HashSet<>(sourceParams) : null;
+
+        GridEqualArea grid = analyzer.getGrid();
+        CoverageJsonResponse response = new CoverageJsonResponse();
+        response.setFrom(from);
+        response.setTo(to);
+        response.setCellSize(grid.cellHeightInMeter);
+        for (Map.Entry<String, LongMap> entry : analyzer.getCoverage(from, to, sources).entrySet()) {
+            LongMap table = entry.getValue();
+            List<double[]> cells = new ArrayList<>(table.size());
+            for (int slot : table.sortedSlots()) {
+                int cellId = (int) table.keyAt(slot);
+                long counts = table.valueAt(slot);
+                Position corner = grid.getGeoPosOfCellId(cellId);
+                double[] size = grid.getCellSizeInDeg(cellId);
+                cells.add(new double[] { corner.getLatitude(), corner.getLongitude(), size[0], size[1],
+                        CoverageAnalyzer.getExpected(counts), CoverageAnalyzer.getReceived(counts) });
+            }
+            if (!cells.isEmpty()) {
+                response.getSources().put(entry.getKey(), cells);
+            }
+        }
+        return response;
+    }
+
+    /**
+     * Messages counted of each source since start
+     */
+    @GET
+    @Path("sources")
+    @Produces(MediaType.APPLICATION_JSON)
+    public Map<String, Long> sources() {
+        return analyzer.getSources();
+    }
+
+    @GET
+    @Path("metrics")
+    @Produces(MetricsRegistry.CONTENT_TYPE)
+    public String metrics() {
+        return MetricsRegistry.getInstance().toPrometheus();
+    }
+
+}
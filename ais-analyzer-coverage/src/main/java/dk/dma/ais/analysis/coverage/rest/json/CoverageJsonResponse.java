@@ -0,0 +1,68 @@
+/* Copyright (c) 2011 Danish Maritime Authority.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package dk.dma.ais.analysis.coverage.rest.json;
+
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Coverage of sources within a time interval. The cells of each source are given as arrays of the latitude and
+ * longitude of the south west corner, the height and width in degrees, and the expected and received messages.
+ */
+public class CoverageJsonResponse {
+
+    private long from;
+    private long to;
+    private double cellSize;
+    private Map<String, List<double[]>> sources = new HashMap<>();
+
+    public CoverageJsonResponse() {
+
+    }
+
+    public long getFrom() {
+        return from;
+    }
+
+    public void setFrom(long from) {
+        this.from = from;
+    }
+
+    public long getTo() {
+        return to;
+    }
+
+    public void setTo(long to) {
+        this.to = to;
+    }
+
+    public double getCellSize() {
+        return cellSize;
+    }
+
+    public void setCellSize(double cellSize) {
+        this.cellSize = cellSize;
+    }
+
+    public Map<String, List<double[]>> getSources() {
+        return sources;
+    }
+
+    public void setSources(Map<String, List<double[]>> sources) {
+        this.sources = sources;
+    }
+
+}
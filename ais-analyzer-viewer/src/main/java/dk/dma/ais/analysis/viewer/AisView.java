@@ -14,15 +14,31 @@
  */
 package dk.dma.ais.analysis.viewer;
 
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+
 import net.jcip.annotations.GuardedBy;
 import net.jcip.annotations.ThreadSafe;
 
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import dk.dma.ais.analysis.common.grid.GridFactory;
+import dk.dma.ais.analysis.common.metrics.Gauge;
+import dk.dma.ais.analysis.common.metrics.MetricsRegistry;
+import dk.dma.ais.analysis.common.traffic.TrafficStatistics;
+import dk.dma.ais.analysis.common.web.CachedJsonResponse;
+import dk.dma.ais.analysis.common.web.EndpointConfiguration;
+import dk.dma.ais.analysis.common.web.ResponseCache;
+import dk.dma.ais.analysis.common.web.TileCache;
 import dk.dma.ais.analysis.common.web.WebServer;
 import dk.dma.ais.analysis.viewer.configuration.AisViewConfiguration;
+import dk.dma.ais.analysis.viewer.cpa.CloseEncounters;
 import dk.dma.ais.analysis.viewer.handler.AisViewHandler;
+import dk.dma.ais.analysis.viewer.handler.ConflatingQueue;
+import dk.dma.ais.analysis.viewer.handler.SourceStatistics;
 import dk.dma.ais.bus.AisBus;
 import dk.dma.ais.bus.consumer.DistributerConsumer;
 
@@ -39,8 +55,16 @@ public final class AisView {
 
     private final AisViewConfiguration conf;
     private final AisViewHandler handler;
+    private final ConflatingQueue conflatingQueue;
     private final AisBus aisBus;
     private final WebServer webServer;
+    private final ResponseCache<String, CachedJsonResponse> responseCache;
+    private final TileCache<String> densityCache;
+    private final TileCache<String> vesselTileCache;
+    private final ResponseCache<String, CachedJsonResponse> vesselListTileCache;
+    private final TrafficStatistics trafficStatistics;
+    private final SourceStatistics sourceStatistics;
+    private final CloseEncounters closeEncounters;
 
     private AisView(AisViewConfiguration conf) {
         this.conf = conf;
@@ -48,12 +72,75 @@ public final class AisView {
         // Create and start handler
         handler = new AisViewHandler(conf);
         handler.start();
+        if (handler.getTrackArchive() != null) {
+            handler.getTrackArchive().start();
+        }
+
+        // Create and start ingest buffer
+        if (conf.getConflationQueueSize() > 0) {
+            conflatingQueue = new ConflatingQueue(handler, conf.getConflationQueueSize());
+            conflatingQueue.start();
+        } else {
+            conflatingQueue = null;
+        }
+
+        // Create response cache
+        if (conf.getResponseCacheTtl() > 0) {
+            responseCache = new ResponseCache<>("aisview_response_cache", conf.getResponseCacheTtl(), 1000);
+        } else {
+            responseCache = null;
+        }
+
+        // Create density tile cache
+        if (conf.getDensityCacheSize() > 0) {
+            densityCache = new TileCache<>("aisview_density_cache", conf.getDensityInterval() * 1000L,
+                    conf.getDensityCacheSize() * 1024L * 1024L);
+        } else {
+            densityCache = null;
+        }
+
+        // Create vessel tile cache
+        if (conf.getVesselTileCacheSize() > 0) {
+            vesselTileCache = new TileCache<>("aisview_vessel_tile_cache", conf.getVesselTileInterval() * 1000L,
+                    conf.getVesselTileCacheSize() * 1024L * 1024L);
+        } else {
+            vesselTileCache = null;
+        }
+
+        // Create cache of vessel list fragments of tiles
+        if (conf.getVesselListTileCacheSize() > 0) {
+            vesselListTileCache = new ResponseCache<>("aisview_vessel_list_tile_cache",
+                    conf.getVesselTileInterval() * 1000L, conf.getVesselListTileCacheSize());
+        } else {
+            vesselListTileCache = null;
+        }
+
+        // Create source statistics
+        sourceStatistics = conf.getSourceTtl() > 0 ? new SourceStatistics(conf.getSourceTtl() * 1000L) : null;
+
+        // Create traffic statistics
+        trafficStatistics = createTrafficStatistics(conf);
+        if (trafficStatistics != null) {
+            trafficStatistics.start();
+        }
+
+        // Create close encounters
+        if (conf.getCpaRange() > 0) {
+            closeEncounters = new CloseEncounters(handler, conf.getCpaRange(), conf.getCpaDistance(),
+                    conf.getCpaTime() * 1000L, conf.getCpaInterval() * 1000L);
+            closeEncounters.start();
+        } else {
+            closeEncounters = null;
+        }
 
         // Create AisBus
         aisBus = conf.getAisbusConfiguration().getInstance();
 
         // Create web server
         if (conf.getServerConfiguration() != null) {
+            if (conf.getServerConfiguration().getEndpoints().isEmpty()) {
+                conf.getServerConfiguration().setEndpoints(defaultEndpoints());
+            }
             webServer = new WebServer(conf.getServerConfiguration());
         } else {
             webServer = null;
@@ -61,10 +148,82 @@ public final class AisView {
 
         // Create distributor consumer and add to aisBus
         DistributerConsumer distributer = new DistributerConsumer();
-        distributer.getConsumers().add(handler);
+        if (conflatingQueue != null) {
+            distributer.getConsumers().add(conflatingQueue);
+        } else {
+            distributer.getConsumers().add(handler);
+        }
+        if (sourceStatistics != null) {
+            distributer.getConsumers().add(sourceStatistics);
+        }
+        if (trafficStatistics != null) {
+            distributer.getConsumers().add(trafficStatistics);
+        }
         distributer.init();
         aisBus.registerConsumer(distributer);
 
+        // Register gauges
+        MetricsRegistry metrics = MetricsRegistry.getInstance();
+        metrics.gauge("aisview_message_rate", "Received messages per second", new Gauge() {
+            @Override
+            public double getValue() {
+                return handler.getRate();
+            }
+        });
+        metrics.gauge("aisbus_overflow_rate", "Packets per second dropped because the AisBus queue is full",
+                new Gauge() {
+                    @Override
+                    public double getValue() {
+                        return aisBus.avgOverflowRate();
+                    }
+                });
+
+    }
+
+    private static TrafficStatistics createTrafficStatistics(AisViewConfiguration conf) {
+        if (conf.getTrafficStatisticsDir() == null) {
+            return null;
+        }
+        try {
+            return new TrafficStatistics(GridFactory.getInstance().getGrid(conf.getTrafficCellSize()), new File(
+                    conf.getTrafficStatisticsDir()), conf.getTrafficFlushDelay() * 1000L,
+                    conf.getTrafficRetain() * 1000L, conf.getTrafficDayTtl() * 86400000L);
+        } catch (IOException e) {
+            LOG.error("Failed to open traffic statistics, running without: " + e.getMessage());
+            return null;
+        }
+    }
+
+    /**
+     * Endpoints used by the live map share the expensive executor with at most two KML downloads, and the cheap
+     * endpoints stay responsive when the expensive executor is saturated
+     */
+    private static List<EndpointConfiguration> defaultEndpoints() {
+        List<EndpointConfiguration> endpoints = new ArrayList<>();
+        EndpointConfiguration kml = new EndpointConfiguration("kml", true, 2);
+        kml.setQueueTimeout(30000);
+        endpoints.add(kml);
+        endpoints.add(new EndpointConfiguration("vessel_list", true, 0));
+        endpoints.add(new EndpointConfiguration("anon_vessel_list", true, 0));
+        endpoints.add(new EndpointConfiguration("vessel_clusters", true, 0));
+        endpoints.add(new EndpointConfiguration("vessel_search", true, 4));
+        endpoints.add(new EndpointConfiguration("vessel_target_details", false, 0));
+        endpoints.add(new EndpointConfiguration("archived_track", true, 4));
+        endpoints.add(new EndpointConfiguration("vessel_list_history", true, 4));
+        endpoints.add(new EndpointConfiguration("density", false, 8));
+        endpoints.add(new EndpointConfiguration("tiles", false, 8));
+        endpoints.add(new EndpointConfiguration("traffic_statistics", true, 2));
+        endpoints.add(new EndpointConfiguration("source_statistics", false, 0));
+        endpoints.add(new EndpointConfiguration("abnormal_events", false, 0));
+        endpoints.add(new EndpointConfiguration("geofence_zones", false, 0));
+        endpoints.add(new EndpointConfiguration("geofence_events", false, 0));
+        endpoints.add(new EndpointConfiguration("close_encounters", false, 0));
+        // A playback holds its thread while streaming, but mostly sleeps between frames
+        endpoints.add(new EndpointConfiguration("playback", false, 2));
+        endpoints.add(new EndpointConfiguration("stats", false, 0));
+        endpoints.add(new EndpointConfiguration("rate", false, 0));
+        endpoints.add(new EndpointConfiguration("metrics", false, 0));
+        return endpoints;
     }
 
     public void start() {
@@ -85,7 +244,21 @@ public final class AisView {
 
     public void stop() {
         // Stop handler
+        if (conflatingQueue != null) {
+            conflatingQueue.interrupt();
+        }
         handler.interrupt();
+        // Write buffered track points
+        if (handler.getTrackArchive() != null) {
+            handler.getTrackArchive().interrupt();
+        }
+        // Write open hours of traffic statistics
+        if (trafficStatistics != null) {
+            trafficStatistics.interrupt();
+        }
+        if (closeEncounters != null) {
+            closeEncounters.interrupt();
+        }
         // Stop AisBus
         aisBus.cancel();
     }
@@ -98,6 +271,55 @@ public final class AisView {
         return handler;
     }
 
+    /**
+     * @return the cache of vessel list and cluster responses, or null if caching is disabled
+     */
+    public ResponseCache<String, CachedJsonResponse> getResponseCache() {
+        return responseCache;
+    }
+
+    /**
+     * @return the cache of density tiles, or null if caching is disabled
+     */
+    public TileCache<String> getDensityCache() {
+        return densityCache;
+    }
+
+    /**
+     * @return the cache of vessel tiles, or null if caching is disabled
+     */
+    public TileCache<String> getVesselTileCache() {
+        return vesselTileCache;
+    }
+
+    /**
+     * @return the cache of vessel list fragments of tiles, or null if caching is disabled
+     */
+    public ResponseCache<String, CachedJsonResponse> getVesselListTileCache() {
+        return vesselListTileCache;
+    }
+
+    /**
+     * @return the traffic statistics, or null if disabled
+     */
+    public TrafficStatistics getTrafficStatistics() {
+        return trafficStatistics;
+    }
+
+    /**
+     * @return the source statistics, or null if disabled
+     */
+    public SourceStatistics getSourceStatistics() {
+        return sourceStatistics;
+    }
+
+    /**
+     * @return the close encounters, or null if disabled
+     */
+    public CloseEncounters getCloseEncounters() {
+        return closeEncounters;
+    }
+
     public static synchronized AisView create(AisViewConfiguration conf) {
         instance = new AisView(conf);
         return instance;
@@ -0,0 +1,126 @@
+/* Copyright (c) 2011 Danish Maritime Authority.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package dk.dma.ais.analysis.viewer.anomaly;
+
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import net.jcip.annotations.NotThreadSafe;
+
+import dk.dma.ais.analysis.common.metrics.Counter;
+import dk.dma.ais.analysis.common.metrics.MetricsRegistry;
+import dk.dma.ais.analysis.viewer.handler.CompactTarget;
+
+/**
+ * Detection of abnormal behavior in the stream of position reports. Each report of a vessel is checked by all
+ * detectors against a fixed size {@link VesselState} of the vessel, and the state is then moved forward to the
+ * report, so the work per report is constant and detection keeps up with the feed. Events are kept in
+ * {@link AnomalyEvents}.
+ * <p>
+ * An event of a type is not repeated for the same vessel within a suppression interval, so a vessel with a bad GPS or
+ * two vessels sharing an MMSI do not flood the events.
+ * <p>
+ * Detection is not thread safe. It is fed by the handler under its lock, while the events may be read by any thread.
+ */
+@NotThreadSafe
+public class AnomalyDetection {
+
+    private final AnomalyDetector[] detectors;
+    private final Map<Integer, VesselState> states = new HashMap<>();
+    private final AnomalyEvents events;
+    private final long suppress;
+    private final Counter[] eventCounters = new Counter[AnomalyType.values().length];
+
+    /**
+     * @param detectors
+     *            detectors to check each report with
+     * @param capacity
+     *            number of events kept
+     * @param suppress
+     *            minimum time in milliseconds between events of the same type for the same vessel
+     */
+    public AnomalyDetection(List<AnomalyDetector> detectors, int capacity, long suppress) {
+        this.detectors = detectors.toArray(new AnomalyDetector[detectors.size()]);
+        this.events = new AnomalyEvents(capacity);
+        this.suppress = suppress;
+        MetricsRegistry metrics = MetricsRegistry.getInstance();
+        for (AnomalyType type : AnomalyType.values()) {
+            eventCounters[type.ordinal()] = metrics.counter("aisview_anomaly_events_total",
+                    "Abnormal behavior events by type", "type", type.name());
+        }
+    }
+
+    /**
+     * Check a position report of a target and record it in the state of the vessel. Reports not newer than the last
+     * report of the vessel, as late satellite reports, are ignored.
+     *
+     * @param target
+     *            the target updated with the report
+     * @param time
+     *            time of the report in milliseconds
+     * @param lat
+     *            latitude of the report
+     * @param lon
+     *            longitude of the report
+     * @param sog
+     *            speed over ground in knots, or NaN if not available
+     * @param cog
+     *            course over ground in degrees, or NaN if not available
+     */
+    public void update(CompactTarget target, long time, double lat, double lon, double sog, double cog) {
+        int mmsi = target.getMmsi();
+        VesselState state = states.get(mmsi);
+        if (state == null) {
+            states.put(mmsi, new VesselState(time, lat, lon, sog, cog));
+            return;
+        }
+        if (time <= state.getTime()) {
+            return;
+        }
+        for (AnomalyDetector detector : detectors) {
+            AnomalyType type = detector.getType();
+            if (time - state.getLastEvent(type) < suppress) {
+                continue;
+            }
+            String description = detector.check(state, time, lat, lon, sog, cog);
+            if (description != null) {
+                state.setLastEvent(type, time);
+                events.add(type, description, mmsi, time, lat, lon, target.getName(), target.getShipType());
+                eventCounters[type.ordinal()].inc();
+            }
+        }
+        state.update(time, lat, lon, sog, cog);
+    }
+
+    /**
+     * Forget a vessel
+     */
+    public void remove(int mmsi) {
+        states.remove(mmsi);
+    }
+
+    /**
+     * Number of vessels with a state
+     */
+    public int size() {
+        return states.size();
+    }
+
+    public AnomalyEvents getEvents() {
+        return events;
+    }
+
+}
@@ -0,0 +1,48 @@
+/* Copyright (c) 2011 Danish Maritime Authority.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package dk.dma.ais.analysis.viewer.anomaly;
+
+/**
+ * Detector of one type of abnormal behavior. A detector compares a position report with the state of the vessel
+ * before the report, and must do so in constant time as it is called for every position report of the feed.
+ * Detectors keep no state of their own.
+ */
+public interface AnomalyDetector {
+
+    /**
+     * @return the type of the detected events
+     */
+    AnomalyType getType();
+
+    /**
+     * Check a position report
+     *
+     * @param state
+     *            the vessel before the report, older than the report
+     * @param time
+     *            time of the report in milliseconds
+     * @param lat
+     *            latitude of the report
+     * @param lon
+     *            longitude of the report
+     * @param sog
+     *            speed over ground in knots, or NaN if not available
+     * @param cog
+     *            course over ground in degrees, or NaN if not available
+     * @return description of the abnormal behavior, or null if the report is normal
+     */
+    String check(VesselState state, long time, double lat, double lon, double sog, double cog);
+
+}
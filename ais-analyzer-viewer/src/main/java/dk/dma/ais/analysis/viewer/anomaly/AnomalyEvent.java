@@ -0,0 +1,93 @@
+/* Copyright (c) 2011 Danish Maritime Authority.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package dk.dma.ais.analysis.viewer.anomaly;
+
+/**
+ * An abnormal behavior detected in a position report
+ */
+public final class AnomalyEvent {
+
+    private final long id;
+    private final AnomalyType type;
+    private final String description;
+    private final int mmsi;
+    private final long time;
+    private final double lat;
+    private final double lon;
+    private final String vesselName;
+    private final String shipType;
+
+    AnomalyEvent(long id, AnomalyType type, String description, int mmsi, long time, double lat, double lon,
+            String vesselName, String shipType) {
+        this.id = id;
+        this.type = type;
+        this.description = description;
+        this.mmsi = mmsi;
+        this.time = time;
+        this.lat = lat;
+        this.lon = lon;
+        this.vesselName = vesselName;
+        this.shipType = shipType;
+    }
+
+    /**
+     * Sequence number of the event. Later events have higher numbers.
+     */
+    public long getId() {
+        return id;
+    }
+
+    public AnomalyType getType() {
+        return type;
+    }
+
+    public String getDescription() {
+        return description;
+    }
+
+    public int getMmsi() {
+        return mmsi;
+    }
+
+    /**
+     * Time of the position report in milliseconds
+     */
+    public long getTime() {
+        return time;
+    }
+
+    public double getLat() {
+        return lat;
+    }
+
+    public double getLon() {
+        return lon;
+    }
+
+    /**
+     * @return the name of the vessel when the event was detected, or null if not known
+     */
+    public String getVesselName() {
+        return vesselName;
+    }
+
+    /**
+     * @return the ship type of the vessel when the event was detected, or null if not known
+     */
+    public String getShipType() {
+        return shipType;
+    }
+
+}
@@ -0,0 +1,94 @@
+/* Copyright (c) 2011 Danish Maritime Authority.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package dk.dma.ais.analysis.viewer.anomaly;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Set;
+
+import net.jcip.annotations.GuardedBy;
+import net.jcip.annotations.ThreadSafe;
+
+import dk.dma.ais.message.ShipTypeCargo.ShipType;
+
+/**
+ * The latest abnormal behavior events in a ring buffer of fixed capacity. When the buffer is full each new event
+ * replaces the oldest, so memory use does not depend on the number of events detected.
+ */
+@ThreadSafe
+public class AnomalyEvents {
+
+    @GuardedBy("this")
+    private final AnomalyEvent[] ring;
+    // Id of the next event, the number of events added
+    @GuardedBy("this")
+    private long next;
+
+    /**
+     * @param capacity
+     *            number of events kept
+     */
+    public AnomalyEvents(int capacity) {
+        ring = new AnomalyEvent[capacity];
+    }
+
+    synchronized void add(AnomalyType type, String description, int mmsi, long time, double lat, double lon,
+            String vesselName, ShipType shipType) {
+        ring[(int) (next % ring.length)] = new AnomalyEvent(next, type, description, mmsi, time, lat, lon, vesselName,
+                shipType == null ? null : shipType.toString());
+        next++;
+    }
+
+    /**
+     * Get the kept events matching a filter, newest first
+     *
+     * @param types
+     *            types of events, or null for all types
+     * @param mmsi
+     *            MMSI of the vessel, or null for all vessels
+     * @param from
+     *            minimum time in milliseconds of the reports
+     * @param to
+     *            maximum time in milliseconds of the reports
+     * @param after
+     *            events with this id or lower are excluded, so a client polling for new events can pass the highest id
+     *            received
+     * @return the events
+     */
+    public synchronized List<AnomalyEvent> list(Set<AnomalyType> types, Integer mmsi, long from, long to, long after) {
+        List<AnomalyEvent> events = new ArrayList<>();
+        long oldest = Math.max(next - ring.length, after + 1);
+        for (long id = next - 1; id >= oldest && id >= 0; id--) {
+            AnomalyEvent event = ring[(int) (id % ring.length)];
+            if ((types == null || types.contains(event.getType())) && (mmsi == null || mmsi == event.getMmsi())
+                    && event.getTime() >= from && event.getTime() <= to) {
+                events.add(event);
+            }
+        }
+        return events;
+    }
+
+    /**
+     * Number of events added since start, including events no longer kept
+     */
+    public synchronized long getCount() {
+        return next;
+    }
+
+    public int getCapacity() {
+        return ring.length;
+    }
+
+}
@@ -0,0 +1,39 @@
+/* Copyright (c) 2011 Danish Maritime Authority.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package dk.dma.ais.analysis.viewer.anomaly;
+
+/**
+ * Types of abnormal behavior. The names are the event types of the abnormal behavior web client.
+ */
+public enum AnomalyType {
+
+    /**
+     * Course over ground deviating from the steady course of the vessel
+     */
+    COG,
+    /**
+     * Speed over ground changing faster than a vessel can accelerate or stop
+     */
+    SUDDEN_SPEED_CHANGE,
+    /**
+     * Position moving faster than a vessel can sail
+     */
+    POSITION_JUMP,
+    /**
+     * No position reports from a vessel for a long time
+     */
+    GAP
+
+}
@@ -0,0 +1,66 @@
+/* Copyright (c) 2011 Danish Maritime Authority.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package dk.dma.ais.analysis.viewer.anomaly;
+
+import java.util.Locale;
+
+/**
+ * Detection of a vessel leaving a steady course. The course over ground is compared with the mean course of the
+ * history of the vessel when the vessel has been moving on a steady course for some time. Gradual turns move the mean
+ * course along, so only sharp turns away from the course are detected.
+ */
+public class CourseDeviationDetector implements AnomalyDetector {
+
+    // Minimum length of the mean course vector of a steady course
+    private static final double STEADY = 0.95;
+
+    private final double maxDeviation;
+    private final long minHistory;
+
+    /**
+     * @param maxDeviation
+     *            maximum normal deviation from the mean course in degrees
+     * @param minHistory
+     *            minimum time in milliseconds the vessel has been moving before the course is compared
+     */
+    public CourseDeviationDetector(double maxDeviation, long minHistory) {
+        this.maxDeviation = maxDeviation;
+        this.minHistory = minHistory;
+    }
+
+    @Override
+    public AnomalyType getType() {
+        return AnomalyType.COG;
+    }
+
+    @Override
+    public String check(VesselState state, long time, double lat, double lon, double sog, double cog) {
+        if (Double.isNaN(cog) || sog < VesselState.MOVING_SPEED || state.getCourseSince() == 0
+                || state.getTime() - state.getCourseSince() < minHistory || state.getCourseSteadiness() < STEADY) {
+            return null;
+        }
+        double mean = state.getMeanCourse();
+        double deviation = Math.abs(cog - mean) % 360;
+        if (deviation > 180) {
+            deviation = 360 - deviation;
+        }
+        if (deviation <= maxDeviation) {
+            return null;
+        }
+        return String.format(Locale.US, "Course %.0f deviates %.0f degrees from the course %.0f steered for %d minutes",
+                cog, deviation, mean, (state.getTime() - state.getCourseSince()) / 60000);
+    }
+
+}
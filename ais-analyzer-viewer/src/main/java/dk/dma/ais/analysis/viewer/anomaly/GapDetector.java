@@ -0,0 +1,53 @@
+/* Copyright (c) 2011 Danish Maritime Authority.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package dk.dma.ais.analysis.viewer.anomaly;
+
+import java.util.Locale;
+
+/**
+ * Detection of a vessel reporting again after a long interval without position reports. A gap can only be detected
+ * when the vessel is heard again, so the event has the time and position of the report ending the gap.
+ * <p>
+ * Vessels only received by satellite have long gaps between reports, and the gap should be longer than the usual
+ * interval of satellite reception when satellite data is received.
+ */
+public class GapDetector implements AnomalyDetector {
+
+    private final long gap;
+
+    /**
+     * @param gap
+     *            minimum interval in milliseconds without position reports
+     */
+    public GapDetector(long gap) {
+        this.gap = gap;
+    }
+
+    @Override
+    public AnomalyType getType() {
+        return AnomalyType.GAP;
+    }
+
+    @Override
+    public String check(VesselState state, long time, double lat, double lon, double sog, double cog) {
+        long interval = time - state.getTime();
+        if (interval < gap) {
+            return null;
+        }
+        return String.format(Locale.US, "No position reports for %d minutes since %.3f, %.3f", interval / 60000,
+                state.getLat(), state.getLon());
+    }
+
+}
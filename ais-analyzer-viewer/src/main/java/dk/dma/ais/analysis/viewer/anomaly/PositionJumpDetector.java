@@ -0,0 +1,71 @@
+/* Copyright (c) 2011 Danish Maritime Authority.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package dk.dma.ais.analysis.viewer.anomaly;
+
+import java.util.Locale;
+
+/**
+ * Detection of positions moving faster than a vessel can sail, as when a GPS fails or two vessels transmit the same
+ * MMSI. Jumps shorter than a minimum distance are ignored, as short intervals between reports make the implied speed
+ * of small position errors high.
+ */
+public class PositionJumpDetector implements AnomalyDetector {
+
+    private final double minDistance;
+    private final double maxSpeed;
+
+    /**
+     * @param minDistance
+     *            minimum distance of a jump in nautical miles
+     * @param maxSpeed
+     *            maximum speed of a vessel in knots
+     */
+    public PositionJumpDetector(double minDistance, double maxSpeed) {
+        this.minDistance = minDistance;
+        this.maxSpeed = maxSpeed;
+    }
+
+    @Override
+    public AnomalyType getType() {
+        return AnomalyType.POSITION_JUMP;
+    }
+
+    @Override
+    public String check(VesselState state, long time, double lat, double lon, double sog, double cog) {
+        double distance = distance(state.getLat(), state.getLon(), lat, lon);
+        double hours = (time - state.getTime()) / 3600000.0;
+        if (distance < minDistance || distance <= maxSpeed * hours) {
+            return null;
+        }
+        return String.format(Locale.US, "Moved %.1f nautical miles in %.0f seconds from %.3f, %.3f", distance,
+                hours * 3600, state.getLat(), state.getLon());
+    }
+
+    /**
+     * Distance in nautical miles on an equirectangular projection, close enough to the great circle distance for the
+     * distances between consecutive reports
+     */
+    static double distance(double lat1, double lon1, double lat2, double lon2) {
+        double dLon = lon2 - lon1;
+        if (dLon > 180) {
+            dLon -= 360;
+        } else if (dLon < -180) {
+            dLon += 360;
+        }
+        double x = dLon * Math.cos(Math.toRadians((lat1 + lat2) / 2));
+        return Math.hypot(x, lat2 - lat1) * 60;
+    }
+
+}
@@ -0,0 +1,58 @@
+/* Copyright (c) 2011 Danish Maritime Authority.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package dk.dma.ais.analysis.viewer.anomaly;
+
+import java.util.Locale;
+
+/**
+ * Detection of speed over ground changing faster than a vessel can accelerate or stop. A change is sudden when it is
+ * at least a minimum change and at a rate above a maximum rate.
+ */
+public class SpeedChangeDetector implements AnomalyDetector {
+
+    private final double minChange;
+    private final double maxRate;
+
+    /**
+     * @param minChange
+     *            minimum change of speed in knots
+     * @param maxRate
+     *            maximum normal rate of change in knots per minute
+     */
+    public SpeedChangeDetector(double minChange, double maxRate) {
+        this.minChange = minChange;
+        this.maxRate = maxRate;
+    }
+
+    @Override
+    public AnomalyType getType() {
+        return AnomalyType.SUDDEN_SPEED_CHANGE;
+    }
+
+    @Override
+    public String check(VesselState state, long time, double lat, double lon, double sog, double cog) {
+        if (Double.isNaN(sog) || Double.isNaN(state.getSog())) {
+            return null;
+        }
+        double change = Math.abs(sog - state.getSog());
+        double minutes = (time - state.getTime()) / 60000.0;
+        if (change < minChange || change < maxRate * minutes) {
+            return null;
+        }
+        return String.format(Locale.US, "Speed changed from %.1f to %.1f knots in %.0f seconds", state.getSog(), sog,
+                minutes * 60);
+    }
+
+}
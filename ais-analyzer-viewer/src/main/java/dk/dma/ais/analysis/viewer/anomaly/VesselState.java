@@ -0,0 +1,140 @@
+/* Copyright (c) 2011 Danish Maritime Authority.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package dk.dma.ais.analysis.viewer.anomaly;
+
+/**
+ * What is known about a vessel before a position report: the previous report and an exponentially weighted mean of
+ * the courses steered while moving. The state has a fixed size, so checking and updating it is constant time per
+ * report whatever the length of the history.
+ * <p>
+ * The mean course is the mean of unit vectors of the courses, so courses on both sides of north average to north.
+ * Its length is close to 1 for a steady course and shrinks when the course varies.
+ */
+public final class VesselState {
+
+    /**
+     * Speed in knots below which the course over ground is not meaningful
+     */
+    public static final double MOVING_SPEED = 3;
+
+    // Time constant of the course history
+    private static final double COURSE_TIME_CONSTANT = 600000;
+    // Course history is restarted after a longer interval between reports
+    private static final long COURSE_BREAK = 600000;
+
+    private long time;
+    private double lat;
+    private double lon;
+    private double sog = Double.NaN;
+    private double cog = Double.NaN;
+
+    private double courseX;
+    private double courseY;
+    private long courseSince;
+
+    // Time of the last event of each type
+    private final long[] lastEvents = new long[AnomalyType.values().length];
+
+    VesselState(long time, double lat, double lon, double sog, double cog) {
+        update(time, lat, lon, sog, cog);
+    }
+
+    /**
+     * Record a report and move the course history forward
+     */
+    void update(long time, double lat, double lon, double sog, double cog) {
+        if (!Double.isNaN(cog) && sog >= MOVING_SPEED) {
+            double x = Math.cos(Math.toRadians(cog));
+            double y = Math.sin(Math.toRadians(cog));
+            if (courseSince == 0 || time - this.time > COURSE_BREAK) {
+                courseX = x;
+                courseY = y;
+                courseSince = time;
+            } else {
+                double weight = 1 - Math.exp(-(time - this.time) / COURSE_TIME_CONSTANT);
+                courseX += weight * (x - courseX);
+                courseY += weight * (y - courseY);
+            }
+        } else {
+            courseSince = 0;
+        }
+        this.time = time;
+        this.lat = lat;
+        this.lon = lon;
+        this.sog = sog;
+        this.cog = cog;
+    }
+
+    long getLastEvent(AnomalyType type) {
+        return lastEvents[type.ordinal()];
+    }
+
+    void setLastEvent(AnomalyType type, long time) {
+        lastEvents[type.ordinal()] = time;
+    }
+
+    /**
+     * Time of the previous report in milliseconds
+     */
+    public long getTime() {
+        return time;
+    }
+
+    public double getLat() {
+        return lat;
+    }
+
+    public double getLon() {
+        return lon;
+    }
+
+    /**
+     * Speed over ground in knots of the previous report, or NaN if not available
+     */
+    public double getSog() {
+        return sog;
+    }
+
+    /**
+     * Course over ground in degrees of the previous report, or NaN if not available
+     */
+    public double getCog() {
+        return cog;
+    }
+
+    /**
+     * @return the time since when the vessel has been moving with a known course, or 0 if it was not in the previous
+     *         report
+     */
+    public long getCourseSince() {
+        return courseSince;
+    }
+
+    /**
+     * Mean course in degrees of the course history
+     */
+    public double getMeanCourse() {
+        double course = Math.toDegrees(Math.atan2(courseY, courseX));
+        return course < 0 ? course + 360 : course;
+    }
+
+    /**
+     * Length of the mean course vector, 1 for a course steered without change and towards 0 for a varying course
+     */
+    public double getCourseSteadiness() {
+        return Math.hypot(courseX, courseY);
+    }
+
+}
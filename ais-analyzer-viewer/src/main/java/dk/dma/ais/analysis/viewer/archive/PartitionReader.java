@@ -0,0 +1,146 @@
+/* Copyright (c) 2011 Danish Maritime Authority.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package dk.dma.ais.analysis.viewer.archive;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+
+/**
+ * Reader of the complete segments of a partition file. A buffer cannot exceed 2 GB, so rather than mapping the whole
+ * file, the reader maps a window of whole segments of up to {@link #WINDOW_SIZE} bytes and moves it forward when the
+ * next segment does not fit. Offsets in the file are longs, so only a single segment is limited to 2 GB.
+ */
+final class PartitionReader implements Closeable {
+
+    static final int WINDOW_SIZE = 1 << 30;
+
+    private final RandomAccessFile raf;
+    private final FileChannel channel;
+    private final long length;
+    private final int windowSize;
+    private final ByteBuffer header = ByteBuffer.allocate(TrackSegment.FILE_HEADER_SIZE);
+
+    private MappedByteBuffer window;
+    private long windowStart;
+    // Offset and size of the current segment
+    private long offset = TrackSegment.FILE_HEADER_SIZE;
+    private long size;
+
+    /**
+     * @param file
+     *            the partition file
+     * @param length
+     *            length of the file to read, the written length or the size of the file
+     * @throws java.io.FileNotFoundException
+     *             if the file does not exist
+     */
+    PartitionReader(File file, long length) throws IOException {
+        this(file, length, WINDOW_SIZE);
+    }
+
+    PartitionReader(File file, long length, int windowSize) throws IOException {
+        this.raf = new RandomAccessFile(file, "r");
+        this.channel = raf.getChannel();
+        this.length = length;
+        this.windowSize = windowSize;
+    }
+
+    /**
+     * Read the file header. The buffer is reused by {@link #next()}.
+     *
+     * @return the header, or null if the file does not start with a valid header
+     */
+    ByteBuffer readHeader() throws IOException {
+        if (!read(0, TrackSegment.FILE_HEADER_SIZE) || header.getInt(0) != TrackSegment.FILE_MAGIC
+                || header.getInt(4) != TrackSegment.FILE_VERSION) {
+            return null;
+        }
+        return header;
+    }
+
+    /**
+     * Move to the next segment
+     *
+     * @return false if there is no complete segment left
+     */
+    boolean next() throws IOException {
+        long pos = offset + size;
+        if (!read(pos, TrackSegment.SEGMENT_HEADER_SIZE)) {
+            return false;
+        }
+        long next = TrackSegment.size(header, 0);
+        if (next < 0 || pos + next > length || next > Integer.MAX_VALUE) {
+            return false;
+        }
+        if (window == null || pos + next > windowStart + window.limit()) {
+            windowStart = pos;
+            long mapped = Math.min(length - pos, Math.max(next, windowSize));
+            window = channel.map(FileChannel.MapMode.READ_ONLY, pos, mapped);
+        }
+        offset = pos;
+        size = next;
+        return true;
+    }
+
+    /**
+     * Buffer holding the current segment
+     */
+    ByteBuffer buffer() {
+        return window;
+    }
+
+    /**
+     * Position of the current segment in the buffer
+     */
+    int position() {
+        return (int) (offset - windowStart);
+    }
+
+    /**
+     * Offset in the file of the end of the current segment, the length of the complete segments read
+     */
+    long end() {
+        return offset + size;
+    }
+
+    /**
+     * Read bytes at an offset of the file into the header buffer
+     *
+     * @return false if the file ends before
+     */
+    private boolean read(long pos, int count) throws IOException {
+        if (pos + count > length) {
+            return false;
+        }
+        header.clear();
+        header.limit(count);
+        while (header.hasRemaining()) {
+            if (channel.read(header, pos + header.position()) < 0) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    @Override
+    public void close() throws IOException {
+        raf.close();
+    }
+}
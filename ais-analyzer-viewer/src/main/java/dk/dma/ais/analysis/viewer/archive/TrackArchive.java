@@ -0,0 +1,599 @@
+/* Copyright (c) 2011 Danish Maritime Authority.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package dk.dma.ais.analysis.viewer.archive;
+
+import java.io.File;
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.text.DateFormat;
+import java.text.SimpleDateFormat;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Date;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.TimeZone;
+import java.util.TreeMap;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import dk.dma.ais.analysis.common.metrics.Counter;
+import dk.dma.ais.analysis.common.metrics.Gauge;
+import dk.dma.ais.analysis.common.metrics.Histogram;
+import dk.dma.ais.analysis.common.metrics.MetricsRegistry;
+import dk.dma.ais.data.PastTrackPoint;
+
+/**
+ * Archive of past track points on local disk, for tracks longer than the past tracks kept in memory. Points are
+ * partitioned by time into files of a fixed time interval, for example an hour or a day. Points are buffered in
+ * memory and appended to their partition file as a segment sorted by MMSI and time by a separate thread every flush
+ * interval. Files are only appended to, so they can be copied or removed while the archive runs.
+ * <p>
+ * Queries for the track of a vessel memory map the files of the requested interval and decode only the points of the
+ * vessel, found by binary search of the index of each segment. See {@link TrackSegment} for the format. Files are
+ * mapped a window of whole segments at a time, so a partition file may grow beyond 2 GB, see {@link PartitionReader}.
+ * <p>
+ * The writer also stores a keyframe at the start of each partition, once the partition before it has ended one
+ * partition length ago. A keyframe is the last position of each vessel within the keyframe horizon, see
+ * {@link TrackKeyframe}. The picture of the traffic at a time is the preceding keyframe updated with the points since,
+ * so reconstruction reads at most the points of two partitions. Points arriving after the keyframe following them has
+ * been written are archived, but not reflected in pictures based on that keyframe.
+ */
+public class TrackArchive extends Thread {
+
+    private static final Logger LOG = LoggerFactory.getLogger(TrackArchive.class);
+
+    private static final String SUFFIX = ".trk";
+    private static final String KEYFRAME_SUFFIX = ".key";
+
+    // Keyframes written by a flush at most, so a flush catching up on a large archive is not delayed
+    private static final int MAX_KEYFRAMES_PER_FLUSH = 24;
+
+    private final File dir;
+    private final long partitionLength;
+    private final long flushInterval;
+    private final int maxBuffered;
+    private final long ttl;
+    private final long keyframeHorizon;
+
+    // Files by partition start
+    private final TreeMap<Long, Partition> partitions = new TreeMap<>();
+    // Longest partition on disk
+    private long maxPartitionLength;
+    // Points not yet handed to the writer by partition start
+    private TreeMap<Long, TrackBuffer> buffers = new TreeMap<>();
+    // Points being written by partition start, removed when written
+    private final TreeMap<Long, TrackBuffer> writing = new TreeMap<>();
+    private int buffered;
+    // Held while writing, so concurrent flushes do not write the same points
+    private final Object writeLock = new Object();
+    // Keyframe files by time
+    private final TreeMap<Long, File> keyframes = new TreeMap<>();
+
+    private final Counter archivedPoints;
+    private final Counter droppedPoints;
+    private final Histogram flushTime;
+    private final Histogram queryTime;
+    private final Histogram pictureTime;
+    private final Counter latePoints;
+
+    /**
+     * @param dir
+     *            directory of the partition files
+     * @param partitionLength
+     *            time interval of a partition in milliseconds
+     * @param flushInterval
+     *            maximum time in milliseconds points are buffered before written
+     * @param maxBuffered
+     *            number of buffered points causing an early flush. Points are dropped if twice as many are buffered.
+     * @param ttl
+     *            time in milliseconds partitions are kept after their end, 0 to keep all partitions
+     * @param keyframeHorizon
+     *            time in milliseconds before a keyframe the positions of the keyframe are taken from, and maximum age
+     *            of the positions in a picture
+     * @throws IOException
+     *             if the directory cannot be created or read
+     */
+    public TrackArchive(File dir, long partitionLength, long flushInterval, int maxBuffered, long ttl,
+            long keyframeHorizon) throws IOException {
+        super("TrackArchive");
+        setDaemon(true);
+        this.dir = dir;
+        this.partitionLength = partitionLength;
+        this.flushInterval = flushInterval;
+        this.maxBuffered = maxBuffered;
+        this.ttl = ttl;
+        this.keyframeHorizon = keyframeHorizon;
+        if (!dir.isDirectory() && !dir.mkdirs()) {
+            throw new IOException("Could not create track archive directory " + dir);
+        }
+        open();
+
+        MetricsRegistry metrics = MetricsRegistry.getInstance();
+        archivedPoints = metrics.counter("aisview_archive_points_total", "Past track points written to the archive");
+        droppedPoints = metrics.counter("aisview_archive_dropped_points_total",
+                "Past track points dropped because the archive writer is behind");
+        flushTime = metrics.histogram("aisview_archive_flush_duration_seconds", "Time writing buffered points",
+                Histogram.latency());
+        queryTime = metrics.histogram("aisview_archive_query_duration_seconds", "Time reading an archived track",
+                Histogram.latency());
+        pictureTime = metrics.histogram("aisview_archive_picture_duration_seconds",
+                "Time reconstructing the traffic picture at a time", Histogram.latency());
+        latePoints = metrics.counter("aisview_archive_late_points_total",
+                "Points archived after the keyframe following them, not shown in pictures based on the keyframe");
+        metrics.gauge("aisview_archive_buffered_points", "Points waiting to be written to the archive", new Gauge() {
+            @Override
+            public double getValue() {
+                return getBuffered();
+            }
+        });
+        metrics.gauge("aisview_archive_partitions", "Partition files in the archive", new Gauge() {
+            @Override
+            public double getValue() {
+                return getPartitionCount();
+            }
+        });
+    }
+
+    /**
+     * Register the existing partition files. Incomplete segments left by a crash are truncated.
+     */
+    private void open() throws IOException {
+        File[] files = dir.listFiles();
+        if (files == null) {
+            throw new IOException("Could not list track archive directory " + dir);
+        }
+        for (File file : files) {
+            if (file.getName().endsWith(KEYFRAME_SUFFIX)) {
+                Long time = TrackKeyframe.time(file);
+                if (time != null) {
+                    keyframes.put(time, file);
+                } else {
+                    LOG.warn("Ignoring invalid track archive keyframe " + file);
+                }
+                continue;
+            }
+            if (!file.getName().endsWith(SUFFIX)) {
+                continue;
+            }
+            long length = file.length();
+            long start;
+            long end;
+            long written;
+            try (PartitionReader reader = new PartitionReader(file, length)) {
+                ByteBuffer header = reader.readHeader();
+                if (header == null) {
+                    LOG.warn("Ignoring invalid track archive file " + file);
+                    continue;
+                }
+                start = header.getLong(8);
+                end = header.getLong(16);
+                while (reader.next()) {
+                    // Skip to the end of the complete segments
+                }
+                written = reader.end();
+            }
+            if (written < length) {
+                LOG.warn("Truncating incomplete segment of track archive file " + file);
+                try (RandomAccessFile raf = new RandomAccessFile(file, "rw")) {
+                    raf.setLength(written);
+                }
+            }
+            addPartition(new Partition(file, start, end, written));
+        }
+        LOG.info("Opened track archive " + dir + " with " + partitions.size() + " partitions and " + keyframes.size()
+                + " keyframes");
+    }
+
+    private void addPartition(Partition partition) {
+        partitions.put(partition.start, partition);
+        maxPartitionLength = Math.max(maxPartitionLength, partition.end - partition.start);
+    }
+
+    /**
+     * Add a point to the archive
+     */
+    public synchronized void add(int mmsi, PastTrackPoint point) {
+        if (buffered >= 2 * maxBuffered) {
+            droppedPoints.inc();
+            return;
+        }
+        if (!keyframes.isEmpty() && point.getTime() < keyframes.lastKey()) {
+            latePoints.inc();
+        }
+        long start = Math.floorDiv(point.getTime(), partitionLength) * partitionLength;
+        TrackBuffer buffer = buffers.get(start);
+        if (buffer == null) {
+            buffer = new TrackBuffer();
+            buffers.put(start, buffer);
+        }
+        buffer.add(mmsi, point.getTime(), TrackSegment.toUnits(point.getLat()), TrackSegment.toUnits(point.getLon()),
+                TrackSegment.toTenths(point.getCog()), TrackSegment.toTenths(point.getSog()));
+        buffered++;
+        if (buffered == maxBuffered) {
+            notify();
+        }
+    }
+
+    /**
+     * Get the archived points of a vessel within a time interval, including points not yet written
+     *
+     * @param mmsi
+     *            the vessel
+     * @param from
+     *            start of the interval in milliseconds, inclusive
+     * @param to
+     *            end of the interval in milliseconds, exclusive
+     * @return the points ascending by time
+     * @throws IOException
+     *             if a partition file cannot be read
+     */
+    public List<PastTrackPoint> getTrack(int mmsi, long from, long to) throws IOException {
+        long begin = System.nanoTime();
+        List<PastTrackPoint> points = new ArrayList<>();
+        // Take the written length of the files together with the buffered points, so no point is read twice
+        List<Partition> files;
+        synchronized (this) {
+            files = partitions(from, to);
+            readBuffers(writing, mmsi, from, to, points);
+            readBuffers(buffers, mmsi, from, to, points);
+        }
+        for (Partition partition : files) {
+            try (PartitionReader reader = open(partition)) {
+                while (reader != null && reader.next()) {
+                    TrackSegment.read(reader.buffer(), reader.position(), mmsi, from, to, points);
+                }
+            }
+        }
+        Collections.sort(points);
+        queryTime.recordSince(begin);
+        return points;
+    }
+
+    private void readBuffers(TreeMap<Long, TrackBuffer> buffers, int mmsi, long from, long to,
+            List<PastTrackPoint> points) {
+        for (TrackBuffer buffer : buffers.subMap(from - partitionLength, false, to, false).values()) {
+            buffer.read(mmsi, from, to, points);
+        }
+    }
+
+    /**
+     * Get the traffic picture at a time: the last archived position before the time of each vessel with a position
+     * within the maximum age, including points not yet written
+     *
+     * @param time
+     *            time of the picture in milliseconds, exclusive
+     * @param maxAge
+     *            maximum age in milliseconds of the positions, limited to the keyframe horizon
+     * @throws IOException
+     *             if a partition or keyframe file cannot be read
+     */
+    public TrafficPicture getPicture(long time, long maxAge) throws IOException {
+        long begin = System.nanoTime();
+        maxAge = Math.min(maxAge, keyframeHorizon);
+        Map.Entry<Long, File> keyframe;
+        synchronized (this) {
+            keyframe = keyframes.floorEntry(time);
+        }
+        TrafficPicture picture = null;
+        // Start from the keyframe unless the positions since the maximum age are fewer to read
+        if (keyframe != null && keyframe.getKey() > time - maxAge) {
+            try {
+                picture = TrackKeyframe.read(keyframe.getValue());
+            } catch (FileNotFoundException e) {
+                // Removed by the retention
+                LOG.debug("Track archive keyframe removed: " + keyframe.getValue());
+            }
+        }
+        if (picture == null) {
+            picture = new TrafficPicture(time - maxAge);
+        }
+        advance(picture, time);
+        picture.retain(time - maxAge);
+        pictureTime.recordSince(begin);
+        return picture;
+    }
+
+    /**
+     * Move a picture forward in time with the points archived since the time of the picture. Vessels are not removed,
+     * see {@link #getPicture(long, long)} for a picture of positions within a maximum age.
+     *
+     * @param picture
+     *            the picture to update
+     * @param time
+     *            the new time of the picture in milliseconds, exclusive
+     * @throws IOException
+     *             if a partition file cannot be read
+     */
+    public void advance(TrafficPicture picture, long time) throws IOException {
+        long from = picture.getTime();
+        if (time <= from) {
+            return;
+        }
+        List<Partition> files;
+        synchronized (this) {
+            files = partitions(from, time);
+            readBuffers(writing, from, time, picture);
+            readBuffers(buffers, from, time, picture);
+        }
+        for (Partition partition : files) {
+            try (PartitionReader reader = open(partition)) {
+                while (reader != null && reader.next()) {
+                    TrackSegment.readAll(reader.buffer(), reader.position(), from, time, picture);
+                }
+            }
+        }
+        picture.setTime(time);
+    }
+
+    private void readBuffers(TreeMap<Long, TrackBuffer> buffers, long from, long to, TrafficPicture picture) {
+        for (TrackBuffer buffer : buffers.subMap(from - partitionLength, false, to, false).values()) {
+            buffer.readAll(from, to, picture);
+        }
+    }
+
+    /**
+     * Copies of the partitions overlapping a time interval, taken with the lock held so the written lengths match the
+     * buffered points
+     */
+    private List<Partition> partitions(long from, long to) {
+        List<Partition> files = new ArrayList<>();
+        for (Partition partition : partitions.subMap(from - maxPartitionLength, false, to, false).values()) {
+            if (partition.end > from) {
+                files.add(partition.copy());
+            }
+        }
+        return files;
+    }
+
+    /**
+     * Open the written length of a partition file for reading
+     *
+     * @return the reader, or null if the file has been removed
+     */
+    private static PartitionReader open(Partition partition) throws IOException {
+        try {
+            return new PartitionReader(partition.file, partition.length);
+        } catch (FileNotFoundException e) {
+            // Removed by the retention
+            LOG.debug("Track archive file removed: " + partition.file);
+            return null;
+        }
+    }
+
+    public synchronized int getBuffered() {
+        return buffered;
+    }
+
+    public synchronized int getPartitionCount() {
+        return partitions.size();
+    }
+
+    public synchronized int getKeyframeCount() {
+        return keyframes.size();
+    }
+
+    /**
+     * Maximum age of the positions in a picture in milliseconds
+     */
+    public long getKeyframeHorizon() {
+        return keyframeHorizon;
+    }
+
+    @Override
+    public void run() {
+        while (true) {
+            try {
+                synchronized (this) {
+                    long deadline = System.currentTimeMillis() + flushInterval;
+                    long remaining;
+                    while (buffered < maxBuffered && (remaining = deadline - System.currentTimeMillis()) > 0) {
+                        wait(remaining);
+                    }
+                }
+            } catch (InterruptedException e) {
+                LOG.info("Stopping TrackArchive");
+                flush();
+                return;
+            }
+            flush();
+        }
+    }
+
+    /**
+     * Write the buffered points and due keyframes, and remove expired partitions
+     */
+    public void flush() {
+        synchronized (writeLock) {
+            long begin = System.nanoTime();
+            writeBuffered();
+            writeKeyframes();
+            expire();
+            flushTime.recordSince(begin);
+        }
+    }
+
+    private void writeBuffered() {
+        synchronized (this) {
+            writing.putAll(buffers);
+            buffers = new TreeMap<>();
+            buffered = 0;
+        }
+        // The points being written are not changed, so they are encoded and written without the lock
+        for (Map.Entry<Long, TrackBuffer> entry : new ArrayList<>(writing.entrySet())) {
+            long start = entry.getKey();
+            TrackBuffer buffer = entry.getValue();
+            try {
+                Partition partition = write(start, buffer);
+                synchronized (this) {
+                    writing.remove(start);
+                    Partition existing = partitions.get(start);
+                    if (existing != null) {
+                        existing.length = partition.length;
+                    } else {
+                        addPartition(partition);
+                    }
+                }
+                archivedPoints.add(buffer.size());
+            } catch (IOException e) {
+                LOG.error("Failed to write track archive partition " + start + ": " + e.getMessage());
+                synchronized (this) {
+                    writing.remove(start);
+                }
+                droppedPoints.add(buffer.size());
+            }
+        }
+    }
+
+    /**
+     * Append a segment to a partition file, creating the file if needed
+     *
+     * @return the partition with its new length
+     */
+    private Partition write(long start, TrackBuffer buffer) throws IOException {
+        Partition partition;
+        synchronized (this) {
+            Partition existing = partitions.get(start);
+            partition = existing != null ? existing.copy() : null;
+        }
+        ByteBuffer segment = TrackSegment.encode(buffer);
+        File file = partition != null ? partition.file : new File(dir, fileName(start, SUFFIX));
+        try (RandomAccessFile raf = new RandomAccessFile(file, "rw"); FileChannel channel = raf.getChannel()) {
+            long pos;
+            if (partition == null) {
+                partition = new Partition(file, start, start + partitionLength, 0);
+                channel.truncate(0);
+                ByteBuffer header = ByteBuffer.allocate(TrackSegment.FILE_HEADER_SIZE);
+                header.putInt(TrackSegment.FILE_MAGIC).putInt(TrackSegment.FILE_VERSION).putLong(partition.start)
+                        .putLong(partition.end).flip();
+                writeFully(channel, header, 0);
+                pos = TrackSegment.FILE_HEADER_SIZE;
+            } else {
+                // Overwrite anything after the last complete segment
+                pos = partition.length;
+            }
+            writeFully(channel, segment, pos);
+            partition.length = pos + segment.limit();
+        }
+        return partition;
+    }
+
+    /**
+     * Write the keyframes at the start of each partition, when the partition before it ended at least one partition
+     * length ago. Each keyframe is built from the previous keyframe and the points of the partition in between.
+     */
+    private void writeKeyframes() {
+        long due = Math.floorDiv(System.currentTimeMillis(), partitionLength) * partitionLength - partitionLength;
+        long next;
+        synchronized (this) {
+            if (partitions.isEmpty()) {
+                return;
+            }
+            long last = keyframes.isEmpty() ? partitions.firstKey() : keyframes.lastKey();
+            next = Math.floorDiv(last, partitionLength) * partitionLength + partitionLength;
+        }
+        for (int i = 0; i < MAX_KEYFRAMES_PER_FLUSH && next <= due; i++, next += partitionLength) {
+            try {
+                TrafficPicture picture = getPicture(next, keyframeHorizon);
+                File file = new File(dir, fileName(next, KEYFRAME_SUFFIX));
+                TrackKeyframe.write(file, picture);
+                synchronized (this) {
+                    keyframes.put(next, file);
+                }
+            } catch (IOException e) {
+                LOG.error("Failed to write track archive keyframe " + next + ": " + e.getMessage());
+                return;
+            }
+        }
+    }
+
+    private static void writeFully(FileChannel channel, ByteBuffer buffer, long pos) throws IOException {
+        while (buffer.hasRemaining()) {
+            pos += channel.write(buffer, pos);
+        }
+    }
+
+    /**
+     * Remove the partitions ending and the keyframes made more than the time to live ago
+     */
+    private void expire() {
+        if (ttl <= 0) {
+            return;
+        }
+        List<File> expired = new ArrayList<>();
+        synchronized (this) {
+            long now = System.currentTimeMillis();
+            Iterator<Partition> it = partitions.values().iterator();
+            while (it.hasNext()) {
+                Partition partition = it.next();
+                if (partition.end + ttl < now) {
+                    expired.add(partition.file);
+                    it.remove();
+                }
+            }
+            Iterator<Map.Entry<Long, File>> keyframeIt = keyframes.entrySet().iterator();
+            while (keyframeIt.hasNext()) {
+                Map.Entry<Long, File> keyframe = keyframeIt.next();
+                if (keyframe.getKey() + ttl < now) {
+                    expired.add(keyframe.getValue());
+                    keyframeIt.remove();
+                }
+            }
+        }
+        for (File file : expired) {
+            LOG.info("Removing expired track archive file " + file);
+            if (!file.delete()) {
+                LOG.warn("Could not remove expired track archive file " + file);
+            }
+        }
+    }
+
+    private static String fileName(long start, String suffix) {
+        return "tracks-" + fileDateFormat().format(new Date(start)) + suffix;
+    }
+
+    private static DateFormat fileDateFormat() {
+        DateFormat format = new SimpleDateFormat("yyyyMMdd'T'HHmm");
+        format.setTimeZone(TimeZone.getTimeZone("UTC"));
+        return format;
+    }
+
+    /**
+     * A partition file and the length of its complete segments
+     */
+    private static final class Partition {
+        final File file;
+        final long start;
+        final long end;
+        long length;
+
+        Partition(File file, long start, long end, long length) {
+            this.file = file;
+            this.start = start;
+            this.end = end;
+            this.length = length;
+        }
+
+        Partition copy() {
+            return new Partition(file, start, end, length);
+        }
+    }
+
+}
@@ -0,0 +1,151 @@
+/* Copyright (c) 2011 Danish Maritime Authority.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package dk.dma.ais.analysis.viewer.archive;
+
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import dk.dma.ais.data.PastTrackPoint;
+
+/**
+ * Points of one partition not yet written to its file. Points are kept in primitive arrays per MMSI in order of
+ * arrival. The buffer is not changed after it has been handed to the writer, so it can be read while written.
+ */
+final class TrackBuffer {
+
+    private final Map<Integer, Points> vessels = new HashMap<>();
+    private int size;
+
+    void add(int mmsi, long time, int lat, int lon, int cog, int sog) {
+        Points points = vessels.get(mmsi);
+        if (points == null) {
+            points = new Points();
+            vessels.put(mmsi, points);
+        }
+        points.add(time, lat, lon, cog, sog);
+        size++;
+    }
+
+    /**
+     * Add the points of a vessel within a time interval to a list
+     */
+    void read(int mmsi, long from, long to, List<PastTrackPoint> out) {
+        Points points = vessels.get(mmsi);
+        if (points == null) {
+            return;
+        }
+        for (int i = 0; i < points.size; i++) {
+            long time = points.times[i];
+            if (time >= from && time < to) {
+                out.add(TrackSegment.point(time, points.lats[i], points.lons[i], points.cogs[i], points.sogs[i]));
+            }
+        }
+    }
+
+    /**
+     * Update a picture with the points of all vessels within a time interval
+     */
+    void readAll(long from, long to, TrafficPicture picture) {
+        for (Map.Entry<Integer, Points> entry : vessels.entrySet()) {
+            int mmsi = entry.getKey();
+            Points points = entry.getValue();
+            for (int i = 0; i < points.size; i++) {
+                long time = points.times[i];
+                if (time >= from && time < to) {
+                    picture.update(mmsi, time, points.lats[i], points.lons[i], points.cogs[i], points.sogs[i]);
+                }
+            }
+        }
+    }
+
+    /**
+     * MMSIs of the buffered vessels in ascending order
+     */
+    int[] mmsis() {
+        int[] mmsis = new int[vessels.size()];
+        int i = 0;
+        for (Integer mmsi : vessels.keySet()) {
+            mmsis[i++] = mmsi;
+        }
+        Arrays.sort(mmsis);
+        return mmsis;
+    }
+
+    Points get(int mmsi) {
+        return vessels.get(mmsi);
+    }
+
+    int size() {
+        return size;
+    }
+
+    /**
+     * Points of one vessel. Positions are in 1/10000 minutes and course and speed in tenths, as in the messages.
+     */
+    static final class Points {
+        long[] times = new long[8];
+        int[] lats = new int[8];
+        int[] lons = new int[8];
+        int[] cogs = new int[8];
+        int[] sogs = new int[8];
+        int size;
+
+        void add(long time, int lat, int lon, int cog, int sog) {
+            if (size == times.length) {
+                int capacity = size * 2;
+                times = Arrays.copyOf(times, capacity);
+                lats = Arrays.copyOf(lats, capacity);
+                lons = Arrays.copyOf(lons, capacity);
+                cogs = Arrays.copyOf(cogs, capacity);
+                sogs = Arrays.copyOf(sogs, capacity);
+            }
+            times[size] = time;
+            lats[size] = lat;
+            lons[size] = lon;
+            cogs[size] = cog;
+            sogs[size] = sog;
+            size++;
+        }
+
+        /**
+         * Indexes of the points in order of time. Points mostly arrive in order, so this is usually the identity.
+         */
+        int[] order() {
+            Integer[] order = new Integer[size];
+            boolean sorted = true;
+            for (int i = 0; i < size; i++) {
+                order[i] = i;
+                sorted &= i == 0 || times[i - 1] <= times[i];
+            }
+            if (!sorted) {
+                Arrays.sort(order, new Comparator<Integer>() {
+                    @Override
+                    public int compare(Integer i1, Integer i2) {
+                        return Long.compare(times[i1], times[i2]);
+                    }
+                });
+            }
+            int[] result = new int[size];
+            for (int i = 0; i < size; i++) {
+                result[i] = order[i];
+            }
+            return result;
+        }
+    }
+
+}
@@ -0,0 +1,113 @@
+/* Copyright (c) 2011 Danish Maritime Authority.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package dk.dma.ais.analysis.viewer.archive;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+
+/**
+ * Format of the keyframe files. A keyframe is a {@link TrafficPicture} at the start of a partition, so a picture at
+ * any time can be reconstructed from the preceding keyframe and the points of at most a few partitions.
+ *
+ * <pre>
+ * header:  int magic, int version, long time, int vessels
+ * vessel:  int mmsi, long time, int latitude, int longitude, int course, int speed
+ * </pre>
+ *
+ * Vessels are ascending by MMSI, with units as in {@link TrackSegment}.
+ */
+final class TrackKeyframe {
+
+    static final int MAGIC = 0x54524b4b; // TRKK
+    static final int VERSION = 1;
+    static final int HEADER_SIZE = 20;
+    static final int ENTRY_SIZE = 28;
+
+    private TrackKeyframe() {
+
+    }
+
+    /**
+     * Write a picture to a file. The file is written under a temporary name and renamed, so a keyframe file is
+     * always complete.
+     */
+    static void write(File file, TrafficPicture picture) throws IOException {
+        int[] order = picture.order();
+        ByteBuffer buffer = ByteBuffer.allocate(HEADER_SIZE + order.length * ENTRY_SIZE);
+        buffer.putInt(MAGIC).putInt(VERSION).putLong(picture.getTime()).putInt(order.length);
+        for (int slot : order) {
+            buffer.putInt(picture.getMmsi(slot));
+            buffer.putLong(picture.getTime(slot));
+            buffer.putInt(picture.getLatUnits(slot));
+            buffer.putInt(picture.getLonUnits(slot));
+            buffer.putInt(picture.getCogTenths(slot));
+            buffer.putInt(picture.getSogTenths(slot));
+        }
+        buffer.flip();
+        File tmp = new File(file.getParentFile(), file.getName() + ".tmp");
+        try (RandomAccessFile raf = new RandomAccessFile(tmp, "rw"); FileChannel channel = raf.getChannel()) {
+            channel.truncate(0);
+            while (buffer.hasRemaining()) {
+                channel.write(buffer);
+            }
+        }
+        Files.move(tmp.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING);
+    }
+
+    /**
+     * Read the time of a keyframe file
+     *
+     * @return the time or null if the file is not a complete keyframe
+     */
+    static Long time(File file) throws IOException {
+        try (RandomAccessFile raf = new RandomAccessFile(file, "r")) {
+            if (raf.length() < HEADER_SIZE) {
+                return null;
+            }
+            int magic = raf.readInt();
+            int version = raf.readInt();
+            long time = raf.readLong();
+            int vessels = raf.readInt();
+            if (magic != MAGIC || version != VERSION || raf.length() != HEADER_SIZE + (long) vessels * ENTRY_SIZE) {
+                return null;
+            }
+            return time;
+        }
+    }
+
+    /**
+     * Read a keyframe file
+     */
+    static TrafficPicture read(File file) throws IOException {
+        try (RandomAccessFile raf = new RandomAccessFile(file, "r"); FileChannel channel = raf.getChannel()) {
+            MappedByteBuffer map = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+            TrafficPicture picture = new TrafficPicture(map.getLong(8));
+            int vessels = map.getInt(16);
+            for (int i = 0; i < vessels; i++) {
+                int pos = HEADER_SIZE + i * ENTRY_SIZE;
+                picture.update(map.getInt(pos), map.getLong(pos + 4), map.getInt(pos + 12), map.getInt(pos + 16),
+                        map.getInt(pos + 20), map.getInt(pos + 24));
+            }
+            return picture;
+        }
+    }
+
+}
@@ -0,0 +1,296 @@
+/* Copyright (c) 2011 Danish Maritime Authority.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package dk.dma.ais.analysis.viewer.archive;
+
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.Date;
+import java.util.List;
+
+import dk.dma.ais.data.AisVesselPosition;
+import dk.dma.ais.data.PastTrackPoint;
+import dk.dma.enav.model.geometry.Position;
+
+/**
+ * Format of the partition files. A file starts with a header holding the time interval of the partition, followed by
+ * segments appended by each flush of the partition:
+ *
+ * <pre>
+ * file header:   int magic, int version, long start, long end
+ * segment:       int magic, int vessels, int points, int data length
+ *                index of vessels ascending by MMSI: int mmsi, int points, long first time, long last time, int offset
+ *                data: one block per vessel
+ * vessel block:  columns of time, latitude, longitude, course and speed of the points ascending by time
+ * </pre>
+ *
+ * The time column starts with the absolute time as a varint. All other values are zigzag varint deltas from the
+ * previous value of the column, the first from 0. Times are in milliseconds, positions in 1/10000 minutes and course
+ * and speed in tenths.
+ * <p>
+ * Offsets within a segment are ints, so a segment is limited to 2 GB, far more than the points buffered by a flush.
+ * Files are read a window of whole segments at a time, see {@link PartitionReader}, so a file may exceed 2 GB.
+ */
+final class TrackSegment {
+
+    static final int FILE_MAGIC = 0x54524b41; // TRKA
+    static final int FILE_VERSION = 1;
+    static final int FILE_HEADER_SIZE = 24;
+
+    static final int SEGMENT_MAGIC = 0x54524b53; // TRKS
+    static final int SEGMENT_HEADER_SIZE = 16;
+    static final int INDEX_ENTRY_SIZE = 28;
+
+    private TrackSegment() {
+
+    }
+
+    /**
+     * Encode the points of a buffer as a segment
+     */
+    static ByteBuffer encode(TrackBuffer buffer) {
+        int[] mmsis = buffer.mmsis();
+        ByteBuffer index = ByteBuffer.allocate(SEGMENT_HEADER_SIZE + mmsis.length * INDEX_ENTRY_SIZE);
+        index.position(SEGMENT_HEADER_SIZE);
+        Encoder data = new Encoder(buffer.size() * 10);
+        for (int mmsi : mmsis) {
+            TrackBuffer.Points points = buffer.get(mmsi);
+            int[] order = points.order();
+            index.putInt(mmsi);
+            index.putInt(points.size);
+            index.putLong(points.times[order[0]]);
+            index.putLong(points.times[order[order.length - 1]]);
+            index.putInt(data.size);
+            data.times(points.times, order);
+            data.column(points.lats, order);
+            data.column(points.lons, order);
+            data.column(points.cogs, order);
+            data.column(points.sogs, order);
+        }
+        index.putInt(0, SEGMENT_MAGIC);
+        index.putInt(4, mmsis.length);
+        index.putInt(8, buffer.size());
+        index.putInt(12, data.size);
+
+        ByteBuffer segment = ByteBuffer.allocate(index.capacity() + data.size);
+        index.flip();
+        segment.put(index);
+        segment.put(data.bytes, 0, data.size);
+        segment.flip();
+        return segment;
+    }
+
+    /**
+     * Get the size of a segment from its header at a position, whether the rest of the segment follows or not
+     *
+     * @return the size or -1 if there is no segment header at the position
+     */
+    static long size(ByteBuffer header, int pos) {
+        if (pos + SEGMENT_HEADER_SIZE > header.limit() || header.getInt(pos) != SEGMENT_MAGIC) {
+            return -1;
+        }
+        return SEGMENT_HEADER_SIZE + (long) header.getInt(pos + 4) * INDEX_ENTRY_SIZE + header.getInt(pos + 12);
+    }
+
+    /**
+     * Add the points of a vessel within a time interval in the segment at a position to a list
+     */
+    static void read(ByteBuffer file, int pos, int mmsi, long from, long to, List<PastTrackPoint> out) {
+        int vessels = file.getInt(pos + 4);
+        int indexStart = pos + SEGMENT_HEADER_SIZE;
+        int dataStart = indexStart + vessels * INDEX_ENTRY_SIZE;
+        // Binary search of the index
+        int low = 0;
+        int high = vessels - 1;
+        while (low <= high) {
+            int mid = low + high >>> 1;
+            int entry = indexStart + mid * INDEX_ENTRY_SIZE;
+            int midMmsi = file.getInt(entry);
+            if (midMmsi < mmsi) {
+                low = mid + 1;
+            } else if (midMmsi > mmsi) {
+                high = mid - 1;
+            } else {
+                if (file.getLong(entry + 8) < to && file.getLong(entry + 16) >= from) {
+                    readBlock(file, dataStart + file.getInt(entry + 24), file.getInt(entry + 4), from, to, out);
+                }
+                return;
+            }
+        }
+    }
+
+    /**
+     * Update a picture with the last point of each vessel within a time interval in the segment at a position. Blocks
+     * ending before the interval or before the known position of the vessel are not decoded.
+     */
+    static void readAll(ByteBuffer file, int pos, long from, long to, TrafficPicture picture) {
+        int vessels = file.getInt(pos + 4);
+        int indexStart = pos + SEGMENT_HEADER_SIZE;
+        int dataStart = indexStart + vessels * INDEX_ENTRY_SIZE;
+        for (int i = 0; i < vessels; i++) {
+            int entry = indexStart + i * INDEX_ENTRY_SIZE;
+            int mmsi = file.getInt(entry);
+            long lastTime = file.getLong(entry + 16);
+            if (file.getLong(entry + 8) >= to || lastTime < from || lastTime <= picture.getTimeOf(mmsi)) {
+                continue;
+            }
+            int count = file.getInt(entry + 4);
+            Decoder decoder = new Decoder(file, dataStart + file.getInt(entry + 24));
+            long[] times = decoder.times(count);
+            long[] lats = decoder.column(count);
+            long[] lons = decoder.column(count);
+            long[] cogs = decoder.column(count);
+            long[] sogs = decoder.column(count);
+            int last = count - 1;
+            while (last >= 0 && times[last] >= to) {
+                last--;
+            }
+            if (last >= 0 && times[last] >= from) {
+                picture.update(mmsi, times[last], (int) lats[last], (int) lons[last], (int) cogs[last],
+                        (int) sogs[last]);
+            }
+        }
+    }
+
+    private static void readBlock(ByteBuffer file, int pos, int count, long from, long to, List<PastTrackPoint> out) {
+        Decoder decoder = new Decoder(file, pos);
+        long[] times = decoder.times(count);
+        long[] lats = decoder.column(count);
+        long[] lons = decoder.column(count);
+        long[] cogs = decoder.column(count);
+        long[] sogs = decoder.column(count);
+        for (int i = 0; i < count; i++) {
+            if (times[i] >= from && times[i] < to) {
+                out.add(point(times[i], (int) lats[i], (int) lons[i], (int) cogs[i], (int) sogs[i]));
+            }
+        }
+    }
+
+    /**
+     * Create a past track point from archived values. The values are converted as when the point was created from
+     * the message.
+     */
+    static PastTrackPoint point(long time, int lat, int lon, int cog, int sog) {
+        AisVesselPosition position = new AisVesselPosition();
+        position.setPos(Position.create(lat / 10000.0 / 60.0, lon / 10000.0 / 60.0));
+        position.setCog(cog / 10.0);
+        position.setSog(sog / 10.0);
+        position.setSourceTimestamp(new Date(time));
+        return new PastTrackPoint(position);
+    }
+
+    /**
+     * Convert a position to 1/10000 minutes
+     */
+    static int toUnits(double degrees) {
+        return (int) Math.round(degrees * 600000);
+    }
+
+    /**
+     * Convert a course or speed to tenths
+     */
+    static int toTenths(double value) {
+        return (int) Math.round(value * 10);
+    }
+
+    private static final class Encoder {
+        byte[] bytes;
+        int size;
+
+        Encoder(int capacity) {
+            bytes = new byte[Math.max(capacity, 64)];
+        }
+
+        void times(long[] times, int[] order) {
+            long previous = times[order[0]];
+            varint(previous);
+            for (int i = 1; i < order.length; i++) {
+                long time = times[order[i]];
+                zigzag(time - previous);
+                previous = time;
+            }
+        }
+
+        void column(int[] values, int[] order) {
+            long previous = 0;
+            for (int i = 0; i < order.length; i++) {
+                long value = values[order[i]];
+                zigzag(value - previous);
+                previous = value;
+            }
+        }
+
+        private void zigzag(long value) {
+            varint(value << 1 ^ value >> 63);
+        }
+
+        private void varint(long value) {
+            if (size + 10 > bytes.length) {
+                bytes = Arrays.copyOf(bytes, bytes.length * 2);
+            }
+            while ((value & ~0x7FL) != 0) {
+                bytes[size++] = (byte) (value & 0x7F | 0x80);
+                value >>>= 7;
+            }
+            bytes[size++] = (byte) value;
+        }
+    }
+
+    private static final class Decoder {
+        private final ByteBuffer file;
+        private int pos;
+
+        Decoder(ByteBuffer file, int pos) {
+            this.file = file;
+            this.pos = pos;
+        }
+
+        long[] times(int count) {
+            long[] times = new long[count];
+            times[0] = varint();
+            for (int i = 1; i < count; i++) {
+                times[i] = times[i - 1] + zigzag();
+            }
+            return times;
+        }
+
+        long[] column(int count) {
+            long[] values = new long[count];
+            long previous = 0;
+            for (int i = 0; i < count; i++) {
+                previous += zigzag();
+                values[i] = previous;
+            }
+            return values;
+        }
+
+        private long zigzag() {
+            long value = varint();
+            return value >>> 1 ^ -(value & 1);
+        }
+
+        private long varint() {
+            long value = 0;
+            int shift = 0;
+            byte b;
+            do {
+                b = file.get(pos++);
+                value |= (long) (b & 0x7F) << shift;
+                shift += 7;
+            } while (b < 0);
+            return value;
+        }
+    }
+
+}
@@ -0,0 +1,196 @@
+/* Copyright (c) 2011 Danish Maritime Authority.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package dk.dma.ais.analysis.viewer.archive;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * The last archived position of each vessel before a point in time. Positions are kept in primitive arrays indexed
+ * by slot, in 1/10000 minutes with course and speed in tenths as in the archive.
+ * <p>
+ * A picture is not thread safe. It is created by {@link TrackArchive#getPicture(long, long)} and moved forward in time
+ * by {@link TrackArchive#advance(TrafficPicture, long)}.
+ */
+public class TrafficPicture {
+
+    // Slot of each MMSI
+    private final Map<Integer, Integer> slots = new HashMap<>();
+    private int[] mmsis = new int[64];
+    private long[] times = new long[64];
+    private int[] lats = new int[64];
+    private int[] lons = new int[64];
+    private int[] cogs = new int[64];
+    private int[] sogs = new int[64];
+    private int size;
+
+    // Positions received before this time are included
+    private long time;
+
+    TrafficPicture(long time) {
+        this.time = time;
+    }
+
+    /**
+     * Set the position of a vessel unless a later position is already known
+     */
+    void update(int mmsi, long time, int lat, int lon, int cog, int sog) {
+        Integer slot = slots.get(mmsi);
+        if (slot == null) {
+            if (size == mmsis.length) {
+                int capacity = size * 2;
+                mmsis = Arrays.copyOf(mmsis, capacity);
+                times = Arrays.copyOf(times, capacity);
+                lats = Arrays.copyOf(lats, capacity);
+                lons = Arrays.copyOf(lons, capacity);
+                cogs = Arrays.copyOf(cogs, capacity);
+                sogs = Arrays.copyOf(sogs, capacity);
+            }
+            slot = size++;
+            slots.put(mmsi, slot);
+            mmsis[slot] = mmsi;
+        } else if (times[slot] >= time) {
+            return;
+        }
+        times[slot] = time;
+        lats[slot] = lat;
+        lons[slot] = lon;
+        cogs[slot] = cog;
+        sogs[slot] = sog;
+    }
+
+    /**
+     * Time of the last known position of a vessel, or Long.MIN_VALUE if not in the picture
+     */
+    long getTimeOf(int mmsi) {
+        Integer slot = slots.get(mmsi);
+        return slot == null ? Long.MIN_VALUE : times[slot];
+    }
+
+    void setTime(long time) {
+        this.time = time;
+    }
+
+    /**
+     * Remove the vessels with no position since the given time
+     */
+    public void retain(long from) {
+        int kept = 0;
+        for (int i = 0; i < size; i++) {
+            if (times[i] < from) {
+                slots.remove(mmsis[i]);
+                continue;
+            }
+            if (kept != i) {
+                mmsis[kept] = mmsis[i];
+                times[kept] = times[i];
+                lats[kept] = lats[i];
+                lons[kept] = lons[i];
+                cogs[kept] = cogs[i];
+                sogs[kept] = sogs[i];
+                slots.put(mmsis[kept], kept);
+            }
+            kept++;
+        }
+        size = kept;
+    }
+
+    /**
+     * Slots ordered by MMSI
+     */
+    int[] order() {
+        long[] keys = new long[size];
+        for (int i = 0; i < size; i++) {
+            keys[i] = (long) mmsis[i] << 32 | i;
+        }
+        Arrays.sort(keys);
+        int[] order = new int[size];
+        for (int i = 0; i < size; i++) {
+            order[i] = (int) keys[i];
+        }
+        return order;
+    }
+
+    /**
+     * The time of the picture. Positions received before this time are included.
+     */
+    public long getTime() {
+        return time;
+    }
+
+    /**
+     * Number of vessels
+     */
+    public int size() {
+        return size;
+    }
+
+    public int getMmsi(int slot) {
+        return mmsis[slot];
+    }
+
+    /**
+     * Time of the position in milliseconds
+     */
+    public long getTime(int slot) {
+        return times[slot];
+    }
+
+    /**
+     * Latitude in degrees
+     */
+    public double getLat(int slot) {
+        return lats[slot] / 10000.0 / 60.0;
+    }
+
+    /**
+     * Longitude in degrees
+     */
+    public double getLon(int slot) {
+        return lons[slot] / 10000.0 / 60.0;
+    }
+
+    /**
+     * Course over ground in degrees
+     */
+    public double getCog(int slot) {
+        return cogs[slot] / 10.0;
+    }
+
+    /**
+     * Speed over ground in knots
+     */
+    public double getSog(int slot) {
+        return sogs[slot] / 10.0;
+    }
+
+    int getLatUnits(int slot) {
+        return lats[slot];
+    }
+
+    int getLonUnits(int slot) {
+        return lons[slot];
+    }
+
+    int getCogTenths(int slot) {
+        return cogs[slot];
+    }
+
+    int getSogTenths(int slot) {
+        return sogs[slot];
+    }
+
+}
@@ -25,7 +25,9 @@ import javax.xml.bind.Marshaller;
 import javax.xml.bind.Unmarshaller;
 import javax.xml.bind.annotation.XmlElement;
 import javax.xml.bind.annotation.XmlRootElement;
+import javax.xml.bind.annotation.XmlSeeAlso;
 
+import dk.dma.ais.analysis.common.generator.SyntheticFleetProviderConfiguration;
 import dk.dma.ais.analysis.common.web.WebServerConfiguration;
 import dk.dma.ais.configuration.bus.AisBusConfiguration;
 
@@ -33,6 +35,7 @@ import dk.dma.ais.configuration.bus.AisBusConfiguration;
  * Class to represent AisView configuration. To be marshalled and unmarshalled by JAXB.
  */
 @XmlRootElement
+@XmlSeeAlso(SyntheticFleetProviderConfiguration.class)
 public class AisViewConfiguration {
 
     private AisBusConfiguration aisbusConfiguration;
@@ -46,6 +49,41 @@ public class AisViewConfiguration {
     private int pastTrackSatTtl = 3600; // 1 hour
     private int cleanupInterval = 600; // 10 minutes
     private int cleanupTtl = 43200; // 12 hours
+    private int responseCacheTtl = 1000; // 1 second, 0 to disable
+    private double responseCacheGridSize = 0.1; // degrees
+    private int snapshotInterval = 1000; // 1 second
+    private int queryParallelism; // 0 for number of processors
+    private int parallelThreshold = 5000;
+    private int duplicateWindow = 10000; // 10 seconds, 0 to disable
+    private int conflationQueueSize; // 0 to disable
+    private int heapBudget; // MB, 0 to disable
+    private String trackArchiveDir; // null to disable
+    private int trackArchivePartition = 3600; // 1 hour
+    private int trackArchiveFlushInterval = 60; // 1 minute
+    private int trackArchiveTtl; // days, 0 to keep all
+    private double densityCellSize = 0.01; // degrees
+    private int densityInterval = 60; // 1 minute
+    private int densityCacheSize = 64; // MB, 0 to disable
+    private int vesselTileInterval = 10; // 10 seconds
+    private int vesselTileThinningZoom = 8;
+    private int vesselTileCacheSize = 32; // MB, 0 to disable
+    private int vesselListTileCacheSize = 10000; // entries, 0 to disable
+    private int sourceTtl = 86400; // 24 hours, 0 to disable
+    private String trafficStatisticsDir; // null to disable
+    private double trafficCellSize = 0.05; // degrees
+    private int trafficFlushDelay = 600; // 10 minutes
+    private int trafficRetain = 86400; // 24 hours
+    private int trafficDayTtl; // days, 0 to keep all
+    private int anomalyEvents = 10000; // events, 0 to disable
+    private int anomalyGap = 1800; // 30 minutes, 0 to disable
+    private int anomalySuppress = 600; // 10 minutes
+    private String geofenceFile; // null to disable
+    private double geofenceCellSize = 0.05; // degrees
+    private int geofenceEvents = 10000;
+    private double cpaRange = 6; // nautical miles, 0 to disable
+    private double cpaDistance = 0.5; // nautical miles
+    private int cpaTime = 1200; // 20 minutes
+    private int cpaInterval = 10; // 10 seconds
 
     public AisViewConfiguration() {
 
@@ -140,6 +178,400 @@ public class AisViewConfiguration {
         this.cleanupTtl = cleanupTtl;
     }
 
+    /**
+     * Time to live in milliseconds of cached vessel list and cluster responses
+     */
+    public int getResponseCacheTtl() {
+        return responseCacheTtl;
+    }
+
+    public void setResponseCacheTtl(int responseCacheTtl) {
+        this.responseCacheTtl = responseCacheTtl;
+    }
+
+    /**
+     * Size in degrees of the grid requested areas are expanded to when responses are cached
+     */
+    public double getResponseCacheGridSize() {
+        return responseCacheGridSize;
+    }
+
+    public void setResponseCacheGridSize(double responseCacheGridSize) {
+        this.responseCacheGridSize = responseCacheGridSize;
+    }
+
+    /**
+     * Interval in milliseconds between refreshes of the snapshot used by vessel list and cluster queries
+     */
+    public int getSnapshotInterval() {
+        return snapshotInterval;
+    }
+
+    public void setSnapshotInterval(int snapshotInterval) {
+        this.snapshotInterval = snapshotInterval;
+    }
+
+    /**
+     * Number of threads scanning the snapshot for list, cluster and search queries. 0 uses the number of processors,
+     * and 1 evaluates all queries on the calling thread.
+     */
+    public int getQueryParallelism() {
+        return queryParallelism;
+    }
+
+    public void setQueryParallelism(int queryParallelism) {
+        this.queryParallelism = queryParallelism;
+    }
+
+    /**
+     * Minimum number of vessels in the requested area for a query to be split over the query threads. Smaller requests
+     * are evaluated on the calling thread.
+     */
+    public int getParallelThreshold() {
+        return parallelThreshold;
+    }
+
+    public void setParallelThreshold(int parallelThreshold) {
+        this.parallelThreshold = parallelThreshold;
+    }
+
+    /**
+     * Time in milliseconds copies of a message received from other sources are suppressed. Suppressed copies only
+     * record their source on the target. 0 disables duplicate suppression.
+     */
+    public int getDuplicateWindow() {
+        return duplicateWindow;
+    }
+
+    public void setDuplicateWindow(int duplicateWindow) {
+        this.duplicateWindow = duplicateWindow;
+    }
+
+    /**
+     * Maximum number of packets pending in the conflating ingest buffer between the AisBus and the handler. Pending
+     * position reports are replaced by newer reports from the same MMSI. 0 passes packets directly to the handler.
+     */
+    public int getConflationQueueSize() {
+        return conflationQueueSize;
+    }
+
+    public void setConflationQueueSize(int conflationQueueSize) {
+        this.conflationQueueSize = conflationQueueSize;
+    }
+
+    /**
+     * Budget in megabytes for the estimated heap use of targets and past tracks. When exceeded the oldest targets only
+     * received from satellites are evicted, then past tracks are shortened, and new targets are refused until the
+     * estimate is back under the budget. 0 disables the budget, leaving retention to the time to live settings.
+     */
+    public int getHeapBudget() {
+        return heapBudget;
+    }
+
+    public void setHeapBudget(int heapBudget) {
+        this.heapBudget = heapBudget;
+    }
+
+    /**
+     * Directory of the archive of past track points on disk. Tracks can be retrieved from the archive beyond the time
+     * past tracks are kept in memory. Null disables the archive.
+     */
+    public String getTrackArchiveDir() {
+        return trackArchiveDir;
+    }
+
+    public void setTrackArchiveDir(String trackArchiveDir) {
+        this.trackArchiveDir = trackArchiveDir;
+    }
+
+    /**
+     * Time interval in seconds of the points in each archive file, e.g. 3600 for hourly or 86400 for daily files
+     */
+    public int getTrackArchivePartition() {
+        return trackArchivePartition;
+    }
+
+    public void setTrackArchivePartition(int trackArchivePartition) {
+        this.trackArchivePartition = trackArchivePartition;
+    }
+
+    /**
+     * Maximum time in seconds points are buffered in memory before written to the archive
+     */
+    public int getTrackArchiveFlushInterval() {
+        return trackArchiveFlushInterval;
+    }
+
+    public void setTrackArchiveFlushInterval(int trackArchiveFlushInterval) {
+        this.trackArchiveFlushInterval = trackArchiveFlushInterval;
+    }
+
+    /**
+     * Days archive files are kept after the end of their time interval, 0 to keep all files
+     */
+    public int getTrackArchiveTtl() {
+        return trackArchiveTtl;
+    }
+
+    public void setTrackArchiveTtl(int trackArchiveTtl) {
+        this.trackArchiveTtl = trackArchiveTtl;
+    }
+
+    /**
+     * Time in seconds a source is reported in the source statistics after its last message. 0 disables source
+     * statistics.
+     */
+    public int getSourceTtl() {
+        return sourceTtl;
+    }
+
+    public void setSourceTtl(int sourceTtl) {
+        this.sourceTtl = sourceTtl;
+    }
+
+    /**
+     * Directory of the daily and monthly traffic statistics of grid cells. Null disables traffic statistics.
+     */
+    public String getTrafficStatisticsDir() {
+        return trafficStatisticsDir;
+    }
+
+    public void setTrafficStatisticsDir(String trafficStatisticsDir) {
+        this.trafficStatisticsDir = trafficStatisticsDir;
+    }
+
+    /**
+     * Size in degrees of the grid cells of the traffic statistics
+     */
+    public double getTrafficCellSize() {
+        return trafficCellSize;
+    }
+
+    public void setTrafficCellSize(double trafficCellSize) {
+        this.trafficCellSize = trafficCellSize;
+    }
+
+    /**
+     * Time in seconds after the end of an hour, in time of the messages, until its traffic statistics are written
+     */
+    public int getTrafficFlushDelay() {
+        return trafficFlushDelay;
+    }
+
+    public void setTrafficFlushDelay(int trafficFlushDelay) {
+        this.trafficFlushDelay = trafficFlushDelay;
+    }
+
+    /**
+     * Time in seconds hourly traffic statistics are kept in memory after the end of the hour
+     */
+    public int getTrafficRetain() {
+        return trafficRetain;
+    }
+
+    public void setTrafficRetain(int trafficRetain) {
+        this.trafficRetain = trafficRetain;
+    }
+
+    /**
+     * Days daily traffic statistics files are kept after the end of the day, 0 to keep all. Monthly files are kept.
+     */
+    public int getTrafficDayTtl() {
+        return trafficDayTtl;
+    }
+
+    public void setTrafficDayTtl(int trafficDayTtl) {
+        this.trafficDayTtl = trafficDayTtl;
+    }
+
+    /**
+     * Number of abnormal behavior events kept, 0 disables abnormal behavior detection
+     */
+    public int getAnomalyEvents() {
+        return anomalyEvents;
+    }
+
+    public void setAnomalyEvents(int anomalyEvents) {
+        this.anomalyEvents = anomalyEvents;
+    }
+
+    /**
+     * Time in seconds without position reports from a vessel detected as a gap, 0 disables detection of gaps
+     */
+    public int getAnomalyGap() {
+        return anomalyGap;
+    }
+
+    public void setAnomalyGap(int anomalyGap) {
+        this.anomalyGap = anomalyGap;
+    }
+
+    /**
+     * Minimum time in seconds between abnormal behavior events of the same type for the same vessel
+     */
+    public int getAnomalySuppress() {
+        return anomalySuppress;
+    }
+
+    public void setAnomalySuppress(int anomalySuppress) {
+        this.anomalySuppress = anomalySuppress;
+    }
+
+    /**
+     * GeoJSON file of the zones vessels entering and leaving are detected for. Null disables the geofence.
+     */
+    public String getGeofenceFile() {
+        return geofenceFile;
+    }
+
+    public void setGeofenceFile(String geofenceFile) {
+        this.geofenceFile = geofenceFile;
+    }
+
+    /**
+     * Size in degrees of the grid cells zones are indexed by
+     */
+    public double getGeofenceCellSize() {
+        return geofenceCellSize;
+    }
+
+    public void setGeofenceCellSize(double geofenceCellSize) {
+        this.geofenceCellSize = geofenceCellSize;
+    }
+
+    /**
+     * Number of zone entries and exits kept
+     */
+    public int getGeofenceEvents() {
+        return geofenceEvents;
+    }
+
+    public void setGeofenceEvents(int geofenceEvents) {
+        this.geofenceEvents = geofenceEvents;
+    }
+
+    /**
+     * Distance in nautical miles vessels are compared within for close encounters. 0 disables close encounters.
+     */
+    public double getCpaRange() {
+        return cpaRange;
+    }
+
+    public void setCpaRange(double cpaRange) {
+        this.cpaRange = cpaRange;
+    }
+
+    /**
+     * Distance in nautical miles at the closest point of approach of a close encounter, at most
+     */
+    public double getCpaDistance() {
+        return cpaDistance;
+    }
+
+    public void setCpaDistance(double cpaDistance) {
+        this.cpaDistance = cpaDistance;
+    }
+
+    /**
+     * Time in seconds to the closest point of approach of a close encounter, at most
+     */
+    public int getCpaTime() {
+        return cpaTime;
+    }
+
+    public void setCpaTime(int cpaTime) {
+        this.cpaTime = cpaTime;
+    }
+
+    /**
+     * Time in seconds between computations of close encounters
+     */
+    public int getCpaInterval() {
+        return cpaInterval;
+    }
+
+    public void setCpaInterval(int cpaInterval) {
+        this.cpaInterval = cpaInterval;
+    }
+
+    /**
+     * Size in degrees of the grid cells vessels and past track points are counted in for density tiles
+     */
+    public double getDensityCellSize() {
+        return densityCellSize;
+    }
+
+    public void setDensityCellSize(double densityCellSize) {
+        this.densityCellSize = densityCellSize;
+    }
+
+    /**
+     * Interval in seconds between recounts of the density grid, and time to live of cached density tiles
+     */
+    public int getDensityInterval() {
+        return densityInterval;
+    }
+
+    public void setDensityInterval(int densityInterval) {
+        this.densityInterval = densityInterval;
+    }
+
+    /**
+     * Size in MB of the cache of rendered density tiles, 0 to disable the cache
+     */
+    public int getDensityCacheSize() {
+        return densityCacheSize;
+    }
+
+    public void setDensityCacheSize(int densityCacheSize) {
+        this.densityCacheSize = densityCacheSize;
+    }
+
+    /**
+     * Interval in seconds between rebuilds of the vessel tile index, and time to live of cached vessel tiles
+     */
+    public int getVesselTileInterval() {
+        return vesselTileInterval;
+    }
+
+    public void setVesselTileInterval(int vesselTileInterval) {
+        this.vesselTileInterval = vesselTileInterval;
+    }
+
+    /**
+     * Zoom level from which vessel tiles hold all vessels. Below it only one vessel is kept for each few pixels.
+     */
+    public int getVesselTileThinningZoom() {
+        return vesselTileThinningZoom;
+    }
+
+    public void setVesselTileThinningZoom(int vesselTileThinningZoom) {
+        this.vesselTileThinningZoom = vesselTileThinningZoom;
+    }
+
+    /**
+     * Size in MB of the cache of encoded vessel tiles, 0 to disable the cache
+     */
+    public int getVesselTileCacheSize() {
+        return vesselTileCacheSize;
+    }
+
+    public void setVesselTileCacheSize(int vesselTileCacheSize) {
+        this.vesselTileCacheSize = vesselTileCacheSize;
+    }
+
+    /**
+     * Number of vessel list fragments of tiles above which expired fragments are removed from the cache, 0 to disable
+     * the cache
+     */
+    public int getVesselListTileCacheSize() {
+        return vesselListTileCacheSize;
+    }
+
+    public void setVesselListTileCacheSize(int vesselListTileCacheSize) {
+        this.vesselListTileCacheSize = vesselListTileCacheSize;
+    }
+
     public static void save(String filename, AisViewConfiguration conf) throws JAXBException, FileNotFoundException {
         JAXBContext context = JAXBContext.newInstance(AisViewConfiguration.class);
         Marshaller m = context.createMarshaller();
@@ -0,0 +1,438 @@
+/* Copyright (c) 2011 Danish Maritime Authority.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package dk.dma.ais.analysis.viewer.cpa;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import dk.dma.ais.analysis.common.grid.Grid;
+import dk.dma.ais.analysis.common.grid.GridFactory;
+import dk.dma.ais.analysis.common.metrics.Gauge;
+import dk.dma.ais.analysis.common.metrics.Histogram;
+import dk.dma.ais.analysis.common.metrics.MetricsRegistry;
+import dk.dma.ais.analysis.viewer.handler.AisViewHandler;
+import dk.dma.ais.analysis.viewer.handler.TargetSnapshot;
+
+/**
+ * Continuous computation of the closest point of approach (CPA) and time to CPA of all pairs of vessels within a
+ * range of each other. Every interval the thread takes the latest {@link TargetSnapshot} of the handler, dead reckons
+ * each vessel to the time of the snapshot and buckets the vessels by grid cell, with cells about the size of the
+ * search. Only pairs in neighbouring cells are compared, so the work of a pass grows with the number of vessels and
+ * not with the number of pairs.
+ * <p>
+ * The CPA of two vessels on steady courses does not change until one of them reports again, so a pass only searches
+ * the neighbours of vessels with a new report since the last pass, and keeps the encounters between the other
+ * vessels. Vessels without a new report are searched again when their dead reckoned position has moved a slack of a
+ * tenth of the range since their last search. Searches reach the range plus twice the slack, so a pair closing in on
+ * each other without reports is known by the time it is within range, and a pass finds the same encounters as a
+ * search from every vessel would.
+ * <p>
+ * Satellite data, reports older than {@link #MAX_AGE} and reports without speed, or without course when moving, are
+ * left out. Pairs with a relative speed below {@link #MIN_SPEED} are not encounters, so moored vessels alongside each
+ * other are not reported.
+ */
+public class CloseEncounters extends Thread {
+
+    private static final Logger LOG = LoggerFactory.getLogger(CloseEncounters.class);
+
+    /** Reports older than this in milliseconds are not dead reckoned */
+    static final long MAX_AGE = 10 * 60 * 1000L;
+
+    /** Lowest relative speed in knots of an encounter */
+    static final double MIN_SPEED = 1.0;
+
+    // Latitude the longitude span of the search is computed at, at most
+    private static final double MAX_LAT = 89.0;
+
+    // Smallest cell size in degrees, so the cell ids of the grid fit in the upper 32 bits of the cell keys
+    private static final double MIN_CELL_SIZE = 0.01;
+
+    private static final Comparator<Encounter> BY_CPA_TIME = new Comparator<Encounter>() {
+        @Override
+        public int compare(Encounter e1, Encounter e2) {
+            return Long.compare(e1.getCpaTime(), e2.getCpaTime());
+        }
+    };
+
+    private final AisViewHandler handler;
+    private final double range;
+    private final double distance;
+    private final long horizon;
+    private final long interval;
+    private final Grid grid;
+    // Distance in nautical miles a vessel is dead reckoned without being searched again
+    private final double slack;
+    // Distance in nautical miles of the search
+    private final double reach;
+    // Reach in degrees of latitude
+    private final double latRadius;
+    private final long[] cellIds;
+
+    // Vessels of the current pass ascending by MMSI, positions dead reckoned to the time of the snapshot
+    private int size;
+    private int[] rows = new int[0];
+    private int[] mmsis = new int[0];
+    private long[] reports = new long[0];
+    // Reported position and speed and course, telling reports apart within the second of the report time
+    private long[] positions = new long[0];
+    private int[] motions = new int[0];
+    private long[] searched = new long[0];
+    private boolean[] dirty = new boolean[0];
+    private double[] lats = new double[0];
+    private double[] lons = new double[0];
+    // Velocity in knots to the east and north
+    private double[] vxs = new double[0];
+    private double[] vys = new double[0];
+    // Cell id << 32 | index of each vessel, ascending
+    private long[] cells = new long[0];
+
+    // Vessels of the last pass ascending by MMSI, with their report and the time of their last search
+    private int lastSize;
+    private int[] lastMmsis = new int[0];
+    private long[] lastReports = new long[0];
+    private long[] lastPositions = new long[0];
+    private int[] lastMotions = new int[0];
+    private long[] lastSearched = new long[0];
+
+    // Encounters with a CPA in the future by pair of MMSI
+    private final Map<Long, Encounter> candidates = new HashMap<>();
+    private volatile List<Encounter> encounters = Collections.emptyList();
+
+    private final Histogram passTime;
+
+    /**
+     * @param handler
+     *            the handler to take snapshots of
+     * @param range
+     *            distance in nautical miles vessels are compared within
+     * @param distance
+     *            CPA distance in nautical miles of an encounter, at most
+     * @param horizon
+     *            time in milliseconds to the CPA of an encounter, at most
+     * @param interval
+     *            time in milliseconds between passes
+     */
+    public CloseEncounters(AisViewHandler handler, double range, double distance, long horizon, long interval) {
+        this.handler = handler;
+        this.range = range;
+        this.distance = distance;
+        this.horizon = horizon;
+        this.interval = interval;
+        this.slack = range / 10.0;
+        this.reach = range + 2 * slack;
+        this.latRadius = reach / 60.0;
+        // A whole number of cells in 180 degrees, so a cell boundary is at the date line. Cells larger than the search
+        // for short ranges only add comparisons.
+        this.grid = GridFactory.getInstance().getGrid(180.0 / Math.floor(180.0 / Math.max(latRadius, MIN_CELL_SIZE)));
+        this.cellIds = new long[grid.getMaxNearbyCells(latRadius, lonRadius(MAX_LAT))];
+        setName("CloseEncounters");
+        setDaemon(true);
+
+        MetricsRegistry metrics = MetricsRegistry.getInstance();
+        passTime = metrics.histogram("aisview_cpa_pass_duration_seconds", "Time computing close encounters",
+                Histogram.latency());
+        metrics.gauge("aisview_close_encounters", "Predicted close encounters", new Gauge() {
+            @Override
+            public double getValue() {
+                return encounters.size();
+            }
+        });
+    }
+
+    @Override
+    public void run() {
+        while (true) {
+            try {
+                Thread.sleep(interval);
+            } catch (InterruptedException e) {
+                LOG.info("Stopping CloseEncounters");
+                return;
+            }
+            TargetSnapshot snapshot = handler.getSnapshot();
+            if (snapshot != null) {
+                update(snapshot);
+            }
+        }
+    }
+
+    /**
+     * Compute the encounters of a snapshot. Called by the thread every interval.
+     */
+    public void update(TargetSnapshot snapshot) {
+        long begin = System.nanoTime();
+        long now = snapshot.getCreated();
+        load(snapshot, now);
+        expire(now);
+        bucket();
+
+        for (int i = 0; i < size; i++) {
+            if (dirty[i]) {
+                search(snapshot, i, now);
+            }
+        }
+
+        List<Encounter> list = new ArrayList<>();
+        for (Encounter encounter : candidates.values()) {
+            if (encounter.getCpaTime() - now <= horizon && encounter.getDistance(now) <= range) {
+                list.add(encounter);
+            }
+        }
+        Collections.sort(list, BY_CPA_TIME);
+        encounters = Collections.unmodifiableList(list);
+        passTime.recordSince(begin);
+    }
+
+    /**
+     * Take the vessels of the snapshot ordered by MMSI, and mark the vessels with a new report or dead reckoned more
+     * than the slack since their last search as dirty. Report times are often whole seconds, so a report with the time
+     * of the last one is new if the position, speed or course differs.
+     */
+    private void load(TargetSnapshot snapshot, long now) {
+        if (rows.length < snapshot.size()) {
+            int capacity = snapshot.size() + snapshot.size() / 4;
+            rows = new int[capacity];
+            cells = new long[capacity];
+            int[] oldMmsis = mmsis;
+            long[] oldReports = reports;
+            long[] oldPositions = positions;
+            int[] oldMotions = motions;
+            long[] oldSearched = searched;
+            mmsis = new int[capacity];
+            reports = new long[capacity];
+            positions = new long[capacity];
+            motions = new int[capacity];
+            searched = new long[capacity];
+            lastMmsis = Arrays.copyOf(oldMmsis, capacity);
+            lastReports = Arrays.copyOf(oldReports, capacity);
+            lastPositions = Arrays.copyOf(oldPositions, capacity);
+            lastMotions = Arrays.copyOf(oldMotions, capacity);
+            lastSearched = Arrays.copyOf(oldSearched, capacity);
+            dirty = new boolean[capacity];
+            lats = new double[capacity];
+            lons = new double[capacity];
+            vxs = new double[capacity];
+            vys = new double[capacity];
+        } else {
+            // The vessels of the last pass become the previous vessels
+            int[] m = lastMmsis;
+            lastMmsis = mmsis;
+            mmsis = m;
+            long[] r = lastReports;
+            lastReports = reports;
+            reports = r;
+            long[] p = lastPositions;
+            lastPositions = positions;
+            positions = p;
+            int[] v = lastMotions;
+            lastMotions = motions;
+            motions = v;
+            long[] s = lastSearched;
+            lastSearched = searched;
+            searched = s;
+        }
+        lastSize = size;
+
+        // Eligible rows ordered by MMSI, using the cell array for sorting
+        int count = 0;
+        for (int row = 0; row < snapshot.size(); row++) {
+            int sog = snapshot.getSogTenths(row);
+            if (snapshot.isSatData(row) || sog < 0 || sog > 0 && snapshot.getCogTenths(row) < 0
+                    || now - snapshot.getLastReport(row) > MAX_AGE) {
+                continue;
+            }
+            cells[count++] = (long) snapshot.getMmsi(row) << 32 | row;
+        }
+        Arrays.sort(cells, 0, count);
+        size = count;
+
+        int last = 0;
+        for (int i = 0; i < size; i++) {
+            int row = (int) cells[i];
+            int mmsi = (int) (cells[i] >>> 32);
+            rows[i] = row;
+            mmsis[i] = mmsi;
+            reports[i] = snapshot.getLastReport(row);
+            positions[i] = (long) Float.floatToIntBits(snapshot.getLat(row)) << 32
+                    | Float.floatToIntBits(snapshot.getLon(row)) & 0xFFFFFFFFL;
+            motions[i] = snapshot.getSogTenths(row) << 16 | snapshot.getCogTenths(row) & 0xFFFF;
+            while (last < lastSize && lastMmsis[last] < mmsi) {
+                last++;
+            }
+            double sog = snapshot.getSogTenths(row) / 10.0;
+            if (last < lastSize && lastMmsis[last] == mmsi && lastReports[last] == reports[i]
+                    && lastPositions[last] == positions[i] && lastMotions[last] == motions[i]
+                    && sog * (now - lastSearched[last]) / 3600000.0 <= slack) {
+                dirty[i] = false;
+                searched[i] = lastSearched[last];
+            } else {
+                dirty[i] = true;
+                searched[i] = now;
+            }
+
+            double cog = sog > 0 ? Math.toRadians(snapshot.getCogTenths(row) / 10.0) : 0;
+            vxs[i] = sog * Math.sin(cog);
+            vys[i] = sog * Math.cos(cog);
+            double hours = (now - reports[i]) / 3600000.0;
+            double lat = snapshot.getLat(row);
+            double lon = snapshot.getLon(row) + vxs[i] * hours / 60.0 / Math.cos(Math.toRadians(Math.min(
+                    Math.abs(lat), MAX_LAT)));
+            lats[i] = Math.max(-90.0, Math.min(90.0, lat + vys[i] * hours / 60.0));
+            lons[i] = wrap(lon);
+        }
+    }
+
+    /**
+     * Remove the encounters with a CPA in the past, or of a vessel that is dirty or no longer present
+     */
+    private void expire(long now) {
+        Iterator<Encounter> it = candidates.values().iterator();
+        while (it.hasNext()) {
+            Encounter encounter = it.next();
+            if (encounter.getCpaTime() < now || !isClean(encounter.getMmsi1()) || !isClean(encounter.getMmsi2())) {
+                it.remove();
+            }
+        }
+    }
+
+    private boolean isClean(int mmsi) {
+        int i = Arrays.binarySearch(mmsis, 0, size, mmsi);
+        return i >= 0 && !dirty[i];
+    }
+
+    private void bucket() {
+        for (int i = 0; i < size; i++) {
+            cells[i] = grid.getCellId(lats[i], lons[i]) << 32 | i;
+        }
+        Arrays.sort(cells, 0, size);
+    }
+
+    /**
+     * Compare a dirty vessel with the vessels in the cells within reach. A pair of two dirty vessels is compared from
+     * the vessel with the lowest MMSI.
+     */
+    private void search(TargetSnapshot snapshot, int i, long now) {
+        int count = grid.getNearbyCellIds(lats[i], lons[i], latRadius, lonRadius(Math.abs(lats[i]) + latRadius),
+                cellIds);
+        for (int c = 0; c < count; c++) {
+            long cellId = cellIds[c];
+            for (int k = lowerBound(cellId << 32); k < size && cells[k] >> 32 == cellId; k++) {
+                int j = (int) cells[k];
+                if (j == i || dirty[j] && j < i) {
+                    continue;
+                }
+                if (i < j) {
+                    compare(snapshot, i, j, now);
+                } else {
+                    compare(snapshot, j, i, now);
+                }
+            }
+        }
+    }
+
+    /**
+     * Compute the CPA of two vessels in a local flat frame in nautical miles and hours, and keep the pair if it is an
+     * encounter
+     */
+    private void compare(TargetSnapshot snapshot, int i, int j, long now) {
+        double x = wrap(lons[j] - lons[i]) * 60.0 * Math.cos(Math.toRadians((lats[i] + lats[j]) / 2));
+        double y = (lats[j] - lats[i]) * 60.0;
+        double d2 = x * x + y * y;
+        if (d2 > reach * reach) {
+            return;
+        }
+        double vx = vxs[j] - vxs[i];
+        double vy = vys[j] - vys[i];
+        double v2 = vx * vx + vy * vy;
+        if (v2 < MIN_SPEED * MIN_SPEED) {
+            return;
+        }
+        double t = -(x * vx + y * vy) / v2;
+        if (t < 0) {
+            return;
+        }
+        double cx = x + vx * t;
+        double cy = y + vy * t;
+        double dcpa = Math.sqrt(cx * cx + cy * cy);
+        if (dcpa > distance) {
+            return;
+        }
+        long key = (long) mmsis[i] << 32 | mmsis[j];
+        candidates.put(key, new Encounter(mmsis[i], snapshot.getName(rows[i]), lats[i], lons[i], mmsis[j],
+                snapshot.getName(rows[j]), lats[j], lons[j], now, Math.sqrt(d2), now + (long) (t * 3600000.0), dcpa));
+    }
+
+    /**
+     * Index of the first vessel with a cell key not less than the given key
+     */
+    private int lowerBound(long key) {
+        int low = 0;
+        int high = size;
+        while (low < high) {
+            int mid = (low + high) >>> 1;
+            if (cells[mid] < key) {
+                low = mid + 1;
+            } else {
+                high = mid;
+            }
+        }
+        return low;
+    }
+
+    /**
+     * Range in degrees of longitude at a latitude
+     */
+    private double lonRadius(double lat) {
+        return latRadius / Math.cos(Math.toRadians(Math.min(Math.abs(lat), MAX_LAT)));
+    }
+
+    private static double wrap(double lon) {
+        if (lon >= 180.0) {
+            return lon - 360.0;
+        } else if (lon < -180.0) {
+            return lon + 360.0;
+        }
+        return lon;
+    }
+
+    /**
+     * Predicted close encounters with a CPA within the horizon, ordered by time of CPA
+     */
+    public List<Encounter> getEncounters() {
+        return encounters;
+    }
+
+    /**
+     * Close encounters of a vessel, ordered by time of CPA
+     */
+    public List<Encounter> getEncounters(int mmsi) {
+        List<Encounter> list = new ArrayList<>();
+        for (Encounter encounter : encounters) {
+            if (encounter.getMmsi1() == mmsi || encounter.getMmsi2() == mmsi) {
+                list.add(encounter);
+            }
+        }
+        return list;
+    }
+
+}
@@ -0,0 +1,133 @@
+/* Copyright (c) 2011 Danish Maritime Authority.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package dk.dma.ais.analysis.viewer.cpa;
+
+import net.jcip.annotations.Immutable;
+
+/**
+ * Predicted close encounter of two vessels, given by the closest point of approach (CPA) of their dead reckoned
+ * tracks. The vessel with the lowest MMSI is the first vessel.
+ */
+@Immutable
+public class Encounter {
+
+    private final int mmsi1;
+    private final int mmsi2;
+    private final String name1;
+    private final String name2;
+    private final long time;
+    private final double distance;
+    private final long cpaTime;
+    private final double cpaDistance;
+    private final double lat1;
+    private final double lon1;
+    private final double lat2;
+    private final double lon2;
+
+    Encounter(int mmsi1, String name1, double lat1, double lon1, int mmsi2, String name2, double lat2, double lon2,
+            long time, double distance, long cpaTime, double cpaDistance) {
+        this.mmsi1 = mmsi1;
+        this.name1 = name1;
+        this.lat1 = lat1;
+        this.lon1 = lon1;
+        this.mmsi2 = mmsi2;
+        this.name2 = name2;
+        this.lat2 = lat2;
+        this.lon2 = lon2;
+        this.time = time;
+        this.distance = distance;
+        this.cpaTime = cpaTime;
+        this.cpaDistance = cpaDistance;
+    }
+
+    public int getMmsi1() {
+        return mmsi1;
+    }
+
+    public int getMmsi2() {
+        return mmsi2;
+    }
+
+    public String getName1() {
+        return name1;
+    }
+
+    public String getName2() {
+        return name2;
+    }
+
+    /**
+     * Time in milliseconds the encounter was computed at
+     */
+    public long getTime() {
+        return time;
+    }
+
+    /**
+     * Distance in nautical miles between the vessels at the time of computation
+     */
+    public double getDistance() {
+        return distance;
+    }
+
+    /**
+     * Distance in nautical miles between the vessels at a time, from the distance at the time of computation and at
+     * the closest point of approach of the relative motion
+     */
+    double getDistance(long t) {
+        if (cpaTime <= time) {
+            return cpaDistance;
+        }
+        double f = (double) (cpaTime - t) / (cpaTime - time);
+        return Math.sqrt(cpaDistance * cpaDistance + (distance * distance - cpaDistance * cpaDistance) * f * f);
+    }
+
+    /**
+     * Time in milliseconds of the closest point of approach
+     */
+    public long getCpaTime() {
+        return cpaTime;
+    }
+
+    /**
+     * Distance in nautical miles between the vessels at the closest point of approach
+     */
+    public double getCpaDistance() {
+        return cpaDistance;
+    }
+
+    /**
+     * Dead reckoned latitude of the first vessel at the time of computation
+     */
+    public double getLat1() {
+        return lat1;
+    }
+
+    public double getLon1() {
+        return lon1;
+    }
+
+    /**
+     * Dead reckoned latitude of the second vessel at the time of computation
+     */
+    public double getLat2() {
+        return lat2;
+    }
+
+    public double getLon2() {
+        return lon2;
+    }
+
+}
@@ -0,0 +1,104 @@
+/* Copyright (c) 2011 Danish Maritime Authority.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package dk.dma.ais.analysis.viewer.geofence;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.codehaus.jackson.JsonNode;
+import org.codehaus.jackson.map.ObjectMapper;
+
+/**
+ * Reading of zones from a GeoJSON feature collection. Each feature with a Polygon or MultiPolygon geometry is a zone,
+ * named by the name property of the feature, or else by its id. Features with other geometries are skipped.
+ */
+public final class GeoJsonZones {
+
+    private GeoJsonZones() {
+
+    }
+
+    /**
+     * Read the zones of a GeoJSON file
+     *
+     * @throws IOException
+     *             if the file cannot be read or is not a GeoJSON feature collection or feature
+     */
+    public static List<Zone> read(File file) throws IOException {
+        JsonNode root = new ObjectMapper().readTree(file);
+        List<JsonNode> features = new ArrayList<>();
+        String type = root.path("type").getTextValue();
+        if ("FeatureCollection".equals(type)) {
+            for (JsonNode feature : root.path("features")) {
+                features.add(feature);
+            }
+        } else if ("Feature".equals(type)) {
+            features.add(root);
+        } else {
+            throw new IOException("Not a GeoJSON feature collection: " + file);
+        }
+
+        List<Zone> zones = new ArrayList<>();
+        for (JsonNode feature : features) {
+            JsonNode geometry = feature.path("geometry");
+            String geometryType = geometry.path("type").getTextValue();
+            List<double[][]> polygons = new ArrayList<>();
+            if ("Polygon".equals(geometryType)) {
+                polygons.add(polygon(geometry.path("coordinates")));
+            } else if ("MultiPolygon".equals(geometryType)) {
+                for (JsonNode polygon : geometry.path("coordinates")) {
+                    polygons.add(polygon(polygon));
+                }
+            }
+            if (polygons.isEmpty()) {
+                continue;
+            }
+            JsonNode name = feature.path("properties").path("name");
+            if (!name.isTextual() && !name.isNumber()) {
+                name = feature.path("id");
+            }
+            zones.add(new Zone(zones.size(), name.isTextual() || name.isNumber() ? name.asText() : "zone "
+                    + zones.size(), polygons));
+        }
+        return zones;
+    }
+
+    private static double[][] polygon(JsonNode rings) throws IOException {
+        if (rings.size() == 0) {
+            throw new IOException("Polygon without rings");
+        }
+        double[][] polygon = new double[rings.size()][];
+        for (int i = 0; i < polygon.length; i++) {
+            JsonNode ring = rings.get(i);
+            if (ring.size() < 3) {
+                throw new IOException("Polygon ring with less than 3 positions");
+            }
+            polygon[i] = new double[ring.size() * 2];
+            for (int j = 0; j < ring.size(); j++) {
+                JsonNode lon = ring.get(j).path(0);
+                JsonNode lat = ring.get(j).path(1);
+                if (!lon.isNumber() || !lat.isNumber()) {
+                    throw new IOException("Invalid position in polygon ring");
+                }
+                polygon[i][2 * j] = lon.getDoubleValue();
+                polygon[i][2 * j + 1] = lat.getDoubleValue();
+            }
+        }
+        return polygon;
+    }
+
+}
@@ -0,0 +1,164 @@
+/* Copyright (c) 2011 Danish Maritime Authority.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package dk.dma.ais.analysis.viewer.geofence;
+
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicIntegerArray;
+
+import net.jcip.annotations.NotThreadSafe;
+
+import dk.dma.ais.analysis.common.metrics.Counter;
+import dk.dma.ais.analysis.common.metrics.MetricsRegistry;
+import dk.dma.ais.analysis.viewer.handler.CompactTarget;
+
+/**
+ * Detection of vessels entering and leaving zones. On each position update of a target the zones containing the
+ * position are found in a {@link ZoneIndex}, and compared with the zones the vessel was in before. Only vessels inside
+ * zones have a membership, an ascending array of zone ids, which is replaced only when the vessel enters or leaves a
+ * zone, so an update of a vessel staying in the same zones does not allocate.
+ * <p>
+ * The geofence follows the position of the target, so a late report older than the target position does not move the
+ * vessel in or out of zones.
+ * <p>
+ * Updates are not thread safe. The geofence is fed by the handler under its lock, while zones, counts and events may
+ * be read by any thread.
+ */
+@NotThreadSafe
+public class Geofence {
+
+    private static final int[] NO_ZONES = new int[0];
+
+    private final ZoneIndex index;
+    private final Map<Integer, int[]> memberships = new HashMap<>();
+    // Vessels inside each zone
+    private final AtomicIntegerArray vessels;
+    private final GeofenceEvents events;
+    private final int[] found;
+    private final Counter enterEvents;
+    private final Counter exitEvents;
+
+    /**
+     * @param zones
+     *            the zones, with ids equal to their index in the list
+     * @param cellSize
+     *            size in degrees of the cells of the index
+     * @param capacity
+     *            number of events kept
+     */
+    public Geofence(List<Zone> zones, double cellSize, int capacity) {
+        index = new ZoneIndex(zones, cellSize);
+        vessels = new AtomicIntegerArray(zones.size());
+        events = new GeofenceEvents(capacity);
+        found = new int[zones.size()];
+        MetricsRegistry metrics = MetricsRegistry.getInstance();
+        enterEvents = metrics.counter("aisview_geofence_events_total", "Vessels entering or leaving zones", "type",
+                "enter");
+        exitEvents = metrics.counter("aisview_geofence_events_total", "Vessels entering or leaving zones", "type",
+                "exit");
+    }
+
+    /**
+     * Move a target in and out of zones by its current position
+     */
+    public void update(CompactTarget target) {
+        if (!target.hasPos()) {
+            return;
+        }
+        double lat = target.getLatitude();
+        double lon = target.getLongitude();
+        int count = index.find(lat, lon, found);
+        int mmsi = target.getMmsi();
+        int[] previous = memberships.get(mmsi);
+        if (previous == null) {
+            if (count == 0) {
+                return;
+            }
+            previous = NO_ZONES;
+        }
+        if (same(previous, found, count)) {
+            return;
+        }
+        Zone[] zones = index.getZones();
+        int i = 0;
+        int j = 0;
+        while (i < previous.length || j < count) {
+            if (j == count || i < previous.length && previous[i] < found[j]) {
+                vessels.decrementAndGet(previous[i]);
+                events.add(GeofenceEvent.Type.EXIT, zones[previous[i]], mmsi, target.getName(),
+                        target.getLastReport(), lat, lon);
+                exitEvents.inc();
+                i++;
+            } else if (i == previous.length || found[j] < previous[i]) {
+                vessels.incrementAndGet(found[j]);
+                events.add(GeofenceEvent.Type.ENTER, zones[found[j]], mmsi, target.getName(),
+                        target.getLastReport(), lat, lon);
+                enterEvents.inc();
+                j++;
+            } else {
+                i++;
+                j++;
+            }
+        }
+        if (count == 0) {
+            memberships.remove(mmsi);
+        } else {
+            int[] membership = new int[count];
+            System.arraycopy(found, 0, membership, 0, count);
+            memberships.put(mmsi, membership);
+        }
+    }
+
+    /**
+     * Forget a vessel. The vessel leaves its zones without events.
+     */
+    public void remove(int mmsi) {
+        int[] membership = memberships.remove(mmsi);
+        if (membership != null) {
+            for (int zone : membership) {
+                vessels.decrementAndGet(zone);
+            }
+        }
+    }
+
+    private static boolean same(int[] previous, int[] found, int count) {
+        if (previous.length != count) {
+            return false;
+        }
+        for (int i = 0; i < count; i++) {
+            if (previous[i] != found[i]) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    public Zone[] getZones() {
+        return index.getZones().clone();
+    }
+
+    /**
+     * Number of vessels inside a zone
+     */
+    public int getVessels(int zone) {
+        return vessels.get(zone);
+    }
+
+    public GeofenceEvents getEvents() {
+        return events;
+    }
+
+}
@@ -0,0 +1,96 @@
+/* Copyright (c) 2011 Danish Maritime Authority.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package dk.dma.ais.analysis.viewer.geofence;
+
+/**
+ * A vessel entering or leaving a zone
+ */
+public final class GeofenceEvent {
+
+    public enum Type {
+        ENTER, EXIT
+    }
+
+    private final long id;
+    private final Type type;
+    private final int zone;
+    private final String zoneName;
+    private final int mmsi;
+    private final String vesselName;
+    private final long time;
+    private final double lat;
+    private final double lon;
+
+    GeofenceEvent(long id, Type type, Zone zone, int mmsi, String vesselName, long time, double lat, double lon) {
+        this.id = id;
+        this.type = type;
+        this.zone = zone.getId();
+        this.zoneName = zone.getName();
+        this.mmsi = mmsi;
+        this.vesselName = vesselName;
+        this.time = time;
+        this.lat = lat;
+        this.lon = lon;
+    }
+
+    /**
+     * Sequence number of the event. Later events have higher numbers.
+     */
+    public long getId() {
+        return id;
+    }
+
+    public Type getType() {
+        return type;
+    }
+
+    /**
+     * Id of the zone
+     */
+    public int getZone() {
+        return zone;
+    }
+
+    public String getZoneName() {
+        return zoneName;
+    }
+
+    public int getMmsi() {
+        return mmsi;
+    }
+
+    /**
+     * @return the name of the vessel, or null if not known
+     */
+    public String getVesselName() {
+        return vesselName;
+    }
+
+    /**
+     * Time in milliseconds of the first position report inside or outside the zone
+     */
+    public long getTime() {
+        return time;
+    }
+
+    public double getLat() {
+        return lat;
+    }
+
+    public double getLon() {
+        return lon;
+    }
+
+}
@@ -0,0 +1,81 @@
+/* Copyright (c) 2011 Danish Maritime Authority.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package dk.dma.ais.analysis.viewer.geofence;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import net.jcip.annotations.GuardedBy;
+import net.jcip.annotations.ThreadSafe;
+
+/**
+ * The latest zone entries and exits in a ring buffer of fixed capacity. When the buffer is full each new event
+ * replaces the oldest.
+ */
+@ThreadSafe
+public class GeofenceEvents {
+
+    @GuardedBy("this")
+    private final GeofenceEvent[] ring;
+    // Id of the next event, the number of events added
+    @GuardedBy("this")
+    private long next;
+
+    /**
+     * @param capacity
+     *            number of events kept
+     */
+    public GeofenceEvents(int capacity) {
+        ring = new GeofenceEvent[capacity];
+    }
+
+    synchronized void add(GeofenceEvent.Type type, Zone zone, int mmsi, String vesselName, long time, double lat,
+            double lon) {
+        ring[(int) (next % ring.length)] = new GeofenceEvent(next, type, zone, mmsi, vesselName, time, lat, lon);
+        next++;
+    }
+
+    /**
+     * Get the kept events matching a filter, newest first
+     *
+     * @param zone
+     *            id of the zone, or null for all zones
+     * @param mmsi
+     *            MMSI of the vessel, or null for all vessels
+     * @param after
+     *            events with this id or lower are excluded, so a client polling for new events can pass the highest id
+     *            received
+     * @return the events
+     */
+    public synchronized List<GeofenceEvent> list(Integer zone, Integer mmsi, long after) {
+        List<GeofenceEvent> events = new ArrayList<>();
+        long oldest = Math.max(next - ring.length, after + 1);
+        for (long id = next - 1; id >= oldest && id >= 0; id--) {
+            GeofenceEvent event = ring[(int) (id % ring.length)];
+            if ((zone == null || zone == event.getZone()) && (mmsi == null || mmsi == event.getMmsi())) {
+                events.add(event);
+            }
+        }
+        return events;
+    }
+
+    /**
+     * Number of events added since start, including events no longer kept
+     */
+    public synchronized long getCount() {
+        return next;
+    }
+
+}
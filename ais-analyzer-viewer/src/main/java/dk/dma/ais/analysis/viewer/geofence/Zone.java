@@ -0,0 +1,184 @@
+/* Copyright (c) 2011 Danish Maritime Authority.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package dk.dma.ais.analysis.viewer.geofence;
+
+import java.util.List;
+
+/**
+ * A zone of one or more polygons, each an outer ring with optional holes. Rings are arrays of alternating longitudes
+ * and latitudes, as the coordinates of GeoJSON. Zones crossing the 180th meridian are not supported.
+ * <p>
+ * The bounding box of the zone is divided in a raster of {@link #RASTER} by {@link #RASTER} cells. A cell crossed by
+ * no edge is entirely inside or outside the zone, so the polygons are only tested for positions in cells on the
+ * boundary, whatever the number of vertices of the zone.
+ */
+public final class Zone {
+
+    static final int RASTER = 32;
+
+    private static final byte OUTSIDE = 0;
+    private static final byte INSIDE = 1;
+    private static final byte BOUNDARY = 2;
+
+    private final int id;
+    private final String name;
+    // Rings of each polygon, the first being the outer ring
+    private final double[][][] polygons;
+    private final double minLat;
+    private final double maxLat;
+    private final double minLon;
+    private final double maxLon;
+    private final double cellHeight;
+    private final double cellWidth;
+    private final byte[] raster = new byte[RASTER * RASTER];
+
+    Zone(int id, String name, List<double[][]> polygons) {
+        this.id = id;
+        this.name = name;
+        this.polygons = polygons.toArray(new double[polygons.size()][][]);
+        double minLat = Double.MAX_VALUE;
+        double maxLat = -Double.MAX_VALUE;
+        double minLon = Double.MAX_VALUE;
+        double maxLon = -Double.MAX_VALUE;
+        for (double[][] polygon : this.polygons) {
+            double[] outer = polygon[0];
+            for (int i = 0; i < outer.length; i += 2) {
+                minLon = Math.min(minLon, outer[i]);
+                maxLon = Math.max(maxLon, outer[i]);
+                minLat = Math.min(minLat, outer[i + 1]);
+                maxLat = Math.max(maxLat, outer[i + 1]);
+            }
+        }
+        this.minLat = minLat;
+        this.maxLat = maxLat;
+        this.minLon = minLon;
+        this.maxLon = maxLon;
+        // Cells slightly larger than needed keep the maximum latitude and longitude inside the raster
+        this.cellHeight = Math.max(maxLat - minLat, 1e-9) / RASTER * (1 + 1e-9);
+        this.cellWidth = Math.max(maxLon - minLon, 1e-9) / RASTER * (1 + 1e-9);
+        rasterize();
+    }
+
+    /**
+     * Mark the cells within the bounding box of each edge as boundary, a superset of the cells crossed by the edges.
+     * Other cells are inside if their center is.
+     */
+    private void rasterize() {
+        for (double[][] polygon : polygons) {
+            for (double[] ring : polygon) {
+                int n = ring.length;
+                for (int i = 0, j = n - 2; i < n; j = i, i += 2) {
+                    int row0 = row(Math.min(ring[i + 1], ring[j + 1]));
+                    int row1 = row(Math.max(ring[i + 1], ring[j + 1]));
+                    int col0 = column(Math.min(ring[i], ring[j]));
+                    int col1 = column(Math.max(ring[i], ring[j]));
+                    for (int row = row0; row <= row1; row++) {
+                        for (int col = col0; col <= col1; col++) {
+                            raster[row * RASTER + col] = BOUNDARY;
+                        }
+                    }
+                }
+            }
+        }
+        for (int row = 0; row < RASTER; row++) {
+            for (int col = 0; col < RASTER; col++) {
+                if (raster[row * RASTER + col] != BOUNDARY
+                        && test(minLat + (row + 0.5) * cellHeight, minLon + (col + 0.5) * cellWidth)) {
+                    raster[row * RASTER + col] = INSIDE;
+                }
+            }
+        }
+    }
+
+    private int row(double lat) {
+        return (int) ((lat - minLat) / cellHeight);
+    }
+
+    private int column(double lon) {
+        return (int) ((lon - minLon) / cellWidth);
+    }
+
+    /**
+     * Check if a position is inside the zone. The bounding box is checked first, then the raster, and only on the
+     * boundary the polygons.
+     */
+    public boolean contains(double lat, double lon) {
+        if (lat < minLat || lat > maxLat || lon < minLon || lon > maxLon) {
+            return false;
+        }
+        byte cell = raster[row(lat) * RASTER + column(lon)];
+        return cell == INSIDE || cell == BOUNDARY && test(lat, lon);
+    }
+
+    /**
+     * Test each polygon by counting the crossings of its rings by a ray from the position, so a position in a hole is
+     * outside
+     */
+    private boolean test(double lat, double lon) {
+        for (double[][] polygon : polygons) {
+            boolean inside = false;
+            for (double[] ring : polygon) {
+                int n = ring.length;
+                for (int i = 0, j = n - 2; i < n; j = i, i += 2) {
+                    double lati = ring[i + 1];
+                    double latj = ring[j + 1];
+                    if (lati > lat != latj > lat
+                            && lon < (ring[j] - ring[i]) * (lat - lati) / (latj - lati) + ring[i]) {
+                        inside = !inside;
+                    }
+                }
+            }
+            if (inside) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Rings of each polygon as alternating longitudes and latitudes, the first ring of a polygon being the outer ring
+     */
+    double[][][] getPolygons() {
+        return polygons;
+    }
+
+    /**
+     * Index of the zone in the order of the GeoJSON file
+     */
+    public int getId() {
+        return id;
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    public double getMinLat() {
+        return minLat;
+    }
+
+    public double getMaxLat() {
+        return maxLat;
+    }
+
+    public double getMinLon() {
+        return minLon;
+    }
+
+    public double getMaxLon() {
+        return maxLon;
+    }
+
+}
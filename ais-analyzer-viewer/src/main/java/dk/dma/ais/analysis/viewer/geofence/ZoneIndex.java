@@ -0,0 +1,184 @@
+/* Copyright (c) 2011 Danish Maritime Authority.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package dk.dma.ais.analysis.viewer.geofence;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Grid bucketed index of zones. The world is divided in cells of a fixed size in degrees, and each cell lists the
+ * zones with a bounding box overlapping the cell, so only the few zones near a position are tested. Zones of very
+ * different sizes are kept in levels of cells four times larger than the level below, each zone in the lowest level
+ * where its bounding box overlaps at most {@link #MAX_CELLS} cells. A harbour is then listed in a few small cells and
+ * a sea area in a few large cells, and a position is looked up in one cell of each level holding zones.
+ * <p>
+ * The index is immutable and may be read by several threads.
+ */
+final class ZoneIndex {
+
+    static final int MAX_CELLS = 64;
+
+    private static final long NO_KEY = Long.MIN_VALUE;
+    private static final int[] NO_ZONES = new int[0];
+
+    private final Zone[] zones;
+    // Levels holding zones, lowest first
+    private final Level[] levels;
+
+    ZoneIndex(List<Zone> zones, double cellSize) {
+        this.zones = zones.toArray(new Zone[zones.size()]);
+        List<Map<Long, List<Integer>>> buckets = new ArrayList<>();
+        List<Level> levels = new ArrayList<>();
+        for (Zone zone : this.zones) {
+            int level = 0;
+            Level grid = level(levels, buckets, 0, cellSize);
+            while (grid.cells(zone) > MAX_CELLS && grid.cellSize < 360) {
+                level++;
+                grid = level(levels, buckets, level, cellSize);
+            }
+            Map<Long, List<Integer>> levelBuckets = buckets.get(level);
+            long row1 = grid.row(zone.getMaxLat());
+            long col1 = grid.column(zone.getMaxLon());
+            for (long row = grid.row(zone.getMinLat()); row <= row1; row++) {
+                for (long col = grid.column(zone.getMinLon()); col <= col1; col++) {
+                    List<Integer> bucket = levelBuckets.get(row * grid.columns + col);
+                    if (bucket == null) {
+                        bucket = new ArrayList<>(2);
+                        levelBuckets.put(row * grid.columns + col, bucket);
+                    }
+                    bucket.add(zone.getId());
+                }
+            }
+        }
+        List<Level> used = new ArrayList<>();
+        for (int i = 0; i < levels.size(); i++) {
+            if (!buckets.get(i).isEmpty()) {
+                levels.get(i).fill(buckets.get(i));
+                used.add(levels.get(i));
+            }
+        }
+        this.levels = used.toArray(new Level[used.size()]);
+    }
+
+    private static Level level(List<Level> levels, List<Map<Long, List<Integer>>> buckets, int level, double cellSize) {
+        while (levels.size() <= level) {
+            levels.add(new Level(cellSize * Math.pow(4, levels.size())));
+            buckets.add(new HashMap<Long, List<Integer>>());
+        }
+        return levels.get(level);
+    }
+
+    /**
+     * Find the zones containing a position
+     *
+     * @param out
+     *            array of at least the number of zones receiving the ids of the zones in ascending order
+     * @return the number of zones
+     */
+    int find(double lat, double lon, int[] out) {
+        if (!(lat >= -90 && lat <= 90 && lon >= -180 && lon <= 180)) {
+            return 0;
+        }
+        int count = 0;
+        for (Level level : levels) {
+            for (int id : level.bucket(lat, lon)) {
+                if (zones[id].contains(lat, lon)) {
+                    // Insert in order, positions are inside few zones
+                    int i = count++;
+                    while (i > 0 && out[i - 1] > id) {
+                        out[i] = out[i - 1];
+                        i--;
+                    }
+                    out[i] = id;
+                }
+            }
+        }
+        return count;
+    }
+
+    Zone[] getZones() {
+        return zones;
+    }
+
+    /**
+     * Cells of one size, in an open addressing table of cells to ascending zone ids
+     */
+    private static final class Level {
+
+        final double cellSize;
+        final long columns;
+        long[] keys;
+        int[][] cells;
+
+        Level(double cellSize) {
+            this.cellSize = cellSize;
+            this.columns = (long) Math.ceil(360 / cellSize) + 1;
+        }
+
+        void fill(Map<Long, List<Integer>> buckets) {
+            int capacity = Integer.highestOneBit(buckets.size() * 4);
+            keys = new long[capacity];
+            Arrays.fill(keys, NO_KEY);
+            cells = new int[capacity][];
+            for (Map.Entry<Long, List<Integer>> entry : buckets.entrySet()) {
+                int slot = slot(entry.getKey());
+                while (keys[slot] != NO_KEY) {
+                    slot = slot + 1 & capacity - 1;
+                }
+                keys[slot] = entry.getKey();
+                List<Integer> ids = entry.getValue();
+                cells[slot] = new int[ids.size()];
+                for (int i = 0; i < ids.size(); i++) {
+                    cells[slot][i] = ids.get(i);
+                }
+            }
+        }
+
+        int[] bucket(double lat, double lon) {
+            long key = row(lat) * columns + column(lon);
+            int mask = keys.length - 1;
+            for (int slot = slot(key);; slot = slot + 1 & mask) {
+                if (keys[slot] == key) {
+                    return cells[slot];
+                }
+                if (keys[slot] == NO_KEY) {
+                    return NO_ZONES;
+                }
+            }
+        }
+
+        long cells(Zone zone) {
+            return (row(zone.getMaxLat()) - row(zone.getMinLat()) + 1)
+                    * (column(zone.getMaxLon()) - column(zone.getMinLon()) + 1);
+        }
+
+        long row(double lat) {
+            return (long) Math.floor((lat + 90) / cellSize);
+        }
+
+        long column(double lon) {
+            return (long) Math.floor((lon + 180) / cellSize);
+        }
+
+        private int slot(long key) {
+            long hash = key * 0x9E3779B97F4A7C15L;
+            return (int) (hash >>> 32) & keys.length - 1;
+        }
+    }
+
+}
@@ -18,7 +18,6 @@ import java.util.Date;
 import java.util.HashMap;
 import java.util.Map;
 
-import dk.dma.ais.data.AisTarget;
 import dk.dma.ais.message.AisMessage;
 import dk.dma.ais.message.IVesselPositionMessage;
 import dk.dma.ais.packet.AisPacket;
@@ -32,17 +31,23 @@ public class AisTargetEntry {
     // Map from anonymous id to MMSI
     private static Map<Integer, Integer> anonIdMap = new HashMap<>();
     
-    private Date lastReport;
-    private AisTarget target;
+    // Time of the last position report in milliseconds, 0 if none
+    private long lastReport;
+    private CompactTarget target;
     private final int anonId;
     private final TargetSourceData sourceData = new TargetSourceData();
     
+    // Classification of the target in the TargetCounters
+    boolean countedVessel;
+    String countedSourceType;
+    String countedCountry;
+    
     public AisTargetEntry(AisPacket packet) {
         AisMessage aisMessage = packet.tryGetAisMessage();        
         this.anonId = ++anonymousCounter;
         mmsiAnonIdMap.put(aisMessage.getUserId(), this.anonId);
         anonIdMap.put(this.anonId, aisMessage.getUserId());
-        this.target = AisTarget.createTarget(aisMessage);
+        this.target = CompactTarget.create(aisMessage);
     }
     
     public boolean update(AisPacket packet) {
@@ -53,17 +58,12 @@ public class AisTargetEntry {
         // than the last one received
         boolean oldPos = false;
         if (aisMessage instanceof IVesselPositionMessage) {
-            Date thisReport = null;
             // Get timestamp for message tag or fallback to time now
-            thisReport = aisMessage.getVdm().getTimestamp();
-            if (thisReport == null) {
-                thisReport = new Date();
-            }
-            if (lastReport != null) {
-                // We will not update if this report is older than last
-                if (thisReport.before(lastReport)) {
-                    oldPos = true;
-                }
+            Date timestamp = aisMessage.getVdm().getTimestamp();
+            long thisReport = timestamp != null ? timestamp.getTime() : System.currentTimeMillis();
+            // We will not update if this report is older than last
+            if (lastReport != 0 && thisReport < lastReport) {
+                oldPos = true;
             }
             lastReport = thisReport;
         }
@@ -74,7 +74,7 @@ public class AisTargetEntry {
             } catch (IllegalArgumentException e) {
                 // Trying to update target with report of different type of target.
                 // Replace target with new target
-                target = AisTarget.createTarget(aisMessage);
+                target = CompactTarget.create(aisMessage);
                 target.update(aisMessage);
                 targetReplaced = true;
             }
@@ -83,7 +83,10 @@ public class AisTargetEntry {
         return targetReplaced;
     }
 
-    public AisTarget getTarget() {
+    /**
+     * The compact target. Use {@link CompactTarget#toAisTarget()} where an AisLib target is needed.
+     */
+    public CompactTarget getTarget() {
         return target;
     }
     
@@ -98,6 +101,19 @@ public class AisTargetEntry {
     public static Integer getMmsi(int anonId) {
         return anonIdMap.get(anonId);
     }
+
+    /**
+     * Get the anonymous id of a vessel, allocating one if the vessel has not been a target since start
+     */
+    static int getAnonId(int mmsi) {
+        Integer anonId = mmsiAnonIdMap.get(mmsi);
+        if (anonId == null) {
+            anonId = ++anonymousCounter;
+            mmsiAnonIdMap.put(mmsi, anonId);
+            anonIdMap.put(anonId, mmsi);
+        }
+        return anonId;
+    }
     
     
 }
@@ -14,20 +14,41 @@
  */
 package dk.dma.ais.analysis.viewer.handler;
 
+import java.io.File;
+import java.io.IOException;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
 import java.util.Date;
 import java.util.HashMap;
-import java.util.HashSet;
 import java.util.List;
 import java.util.Map;
-import java.util.Set;
+import java.util.concurrent.ForkJoinPool;
 
 import org.apache.log4j.Logger;
 
 import dk.dma.ais.analysis.common.grid.Grid;
 import dk.dma.ais.analysis.common.grid.GridFactory;
+import dk.dma.ais.analysis.common.metrics.Counter;
+import dk.dma.ais.analysis.common.metrics.Gauge;
+import dk.dma.ais.analysis.common.metrics.Histogram;
+import dk.dma.ais.analysis.common.metrics.Meter;
+import dk.dma.ais.analysis.common.metrics.MetricsRegistry;
+import dk.dma.ais.analysis.common.web.Cancellation;
+import dk.dma.ais.analysis.viewer.anomaly.AnomalyDetection;
+import dk.dma.ais.analysis.viewer.anomaly.AnomalyDetector;
+import dk.dma.ais.analysis.viewer.anomaly.CourseDeviationDetector;
+import dk.dma.ais.analysis.viewer.anomaly.GapDetector;
+import dk.dma.ais.analysis.viewer.anomaly.PositionJumpDetector;
+import dk.dma.ais.analysis.viewer.anomaly.SpeedChangeDetector;
+import dk.dma.ais.analysis.viewer.archive.TrackArchive;
+import dk.dma.ais.analysis.viewer.archive.TrafficPicture;
 import dk.dma.ais.analysis.viewer.configuration.AisViewConfiguration;
+import dk.dma.ais.analysis.viewer.geofence.GeoJsonZones;
+import dk.dma.ais.analysis.viewer.geofence.Geofence;
+import dk.dma.ais.analysis.viewer.geofence.Zone;
 import dk.dma.ais.analysis.viewer.kml.KmlGenerator;
 import dk.dma.ais.analysis.viewer.rest.VesselListFilter;
 import dk.dma.ais.analysis.viewer.rest.json.AisViewHandlerStats;
@@ -36,17 +57,18 @@ import dk.dma.ais.analysis.viewer.rest.json.VesselCluster;
 import dk.dma.ais.analysis.viewer.rest.json.VesselClusterJsonRepsonse;
 import dk.dma.ais.analysis.viewer.rest.json.VesselList;
 import dk.dma.ais.analysis.viewer.rest.json.VesselTargetDetails;
-import dk.dma.ais.bus.status.FlowStat;
+import dk.dma.ais.analysis.viewer.tiles.DensityGrid;
+import dk.dma.ais.analysis.viewer.tiles.Tile;
+import dk.dma.ais.analysis.viewer.tiles.VesselTileIndex;
 import dk.dma.ais.data.AisClassATarget;
 import dk.dma.ais.data.AisTarget;
 import dk.dma.ais.data.AisVesselPosition;
 import dk.dma.ais.data.AisVesselTarget;
 import dk.dma.ais.data.IPastTrack;
-import dk.dma.ais.data.PastTrackSortedSet;
+import dk.dma.ais.data.PastTrackPoint;
 import dk.dma.ais.message.AisMessage;
 import dk.dma.ais.message.IVesselPositionMessage;
 import dk.dma.ais.packet.AisPacket;
-import dk.dma.enav.model.Country;
 import dk.dma.enav.model.geometry.Position;
 import dk.dma.enav.util.function.Consumer;
 
@@ -57,92 +79,432 @@ public class AisViewHandler extends Thread implements Consumer<AisPacket> {
 
     private static Logger LOG = Logger.getLogger(AisViewHandler.class);
 
+    // Points buffered for the track archive before an early flush
+    private static final int TRACK_ARCHIVE_MAX_BUFFERED = 1000000;
+
     private final AisViewConfiguration conf;
 
     // Map from MMSI to target and associated data
     private Map<Integer, AisTargetEntry> targetsMap = new HashMap<>();
     // Map from MMSI to PastTrack
-    private Map<Integer, IPastTrack> pastTrackMap = new HashMap<>();
+    private Map<Integer, PastTrack> pastTrackMap = new HashMap<>();
+    // Counts of targets and past tracks
+    private final TargetCounters counters = new TargetCounters();
 
     // Time of last cleanup
     private long lastCleanup = 0;
+
+    // Snapshot of vessel targets for queries
+    private volatile TargetSnapshot snapshot;
+    // Held while creating a snapshot, so only one thread at a time copies the targets under the ingest lock
+    private final Object snapshotLock = new Object();
+    // Counts of vessels and past track points by grid cell for density tiles, null until requested
+    private volatile DensityGrid densityGrid;
+    // Held while counting, so concurrent requests share one count
+    private final Object densityLock = new Object();
+    // Index of the snapshot by tile for vessel tiles, null until requested
+    private volatile VesselTileIndex vesselTileIndex;
+    private final Object vesselTileLock = new Object();
+
+    // Pool for parallel scans of the snapshot, null if queries are evaluated on the calling thread
+    private final ForkJoinPool queryPool;
     
-    // Flow status
-    private FlowStat flow = new FlowStat(); 
+    // Suppression of copies received from several sources, null if disabled
+    private final DuplicateFilter duplicateFilter;
+
+    // Archive of past track points on disk, null if disabled
+    private final TrackArchive trackArchive;
+
+    // Detection of abnormal behavior, null if disabled
+    private final AnomalyDetection anomalyDetection;
+
+    // Zones vessels are tracked in and out of, null if disabled
+    private final Geofence geofence;
+
+    // Budget for the estimated heap use of targets and past tracks in bytes, 0 if unbounded
+    private final long heapBudget;
+    // Time of the last enforcement of the budget
+    private long lastBudgetEnforcement;
+
+    // Message rate over the last minute, sampled every 10 seconds
+    private final Meter flow = new Meter(6);
+
+    // Metrics
+    private final MetricsRegistry metrics = MetricsRegistry.getInstance();
+    private final Counter[] ingestByType = new Counter[64];
+    private final Counter[] skippedByType = new Counter[64];
+    private final Counter ingestInvalid;
+    private final Counter ingestDuplicates;
+    private final Histogram ingestTime;
+    private final Histogram ingestLockWait;
+    private final Histogram cleanupTime;
+    private final Counter evictedTargets;
+    private final Counter replacedTargets;
+    private final Histogram snapshotTime;
+    private final Histogram densityTime;
+    private final Histogram vesselTileIndexTime;
+    private final Counter sequentialScans;
+    private final Counter parallelScans;
+    private final Counter budgetEvictedTargets;
+    private final Counter budgetTrimmedPoints;
+    private final Counter budgetRefusedTargets;
 
     public AisViewHandler(AisViewConfiguration conf) {
         this.conf = conf;
+        ingestInvalid = metrics.counter("aisview_ingest_invalid_total", "Packets without a valid AIS message");
+        ingestDuplicates = metrics.counter("aisview_ingest_duplicates_total",
+                "Copies of already received messages recorded without decoding");
+        ingestTime = metrics.histogram("aisview_ingest_duration_seconds",
+                "Time applying a target message under the lock", Histogram.latency());
+        ingestLockWait = metrics.histogram("aisview_ingest_lock_wait_seconds",
+                "Time ingest waits for the handler lock held by queries and cleanup", Histogram.latency());
+        cleanupTime = metrics.histogram("aisview_cleanup_duration_seconds", "Duration of target cleanup",
+                Histogram.latency());
+        evictedTargets = metrics.counter("aisview_evicted_targets_total", "Targets removed by cleanup");
+        replacedTargets = metrics.counter("aisview_replaced_targets_total",
+                "Targets replaced by a target of another type");
+        snapshotTime = metrics.histogram("aisview_snapshot_duration_seconds", "Time creating a query snapshot",
+                Histogram.latency());
+        densityTime = metrics.histogram("aisview_density_duration_seconds",
+                "Time counting vessels and past track points by grid cell", Histogram.latency());
+        vesselTileIndexTime = metrics.histogram("aisview_vessel_tile_index_duration_seconds",
+                "Time indexing the snapshot by tile", Histogram.latency());
+        sequentialScans = metrics.counter("aisview_query_scans_total", "Snapshot scans by query evaluation", "mode",
+                "sequential");
+        parallelScans = metrics.counter("aisview_query_scans_total", "Snapshot scans by query evaluation", "mode",
+                "parallel");
+
+        budgetEvictedTargets = metrics.counter("aisview_budget_evicted_targets_total",
+                "Satellite only targets evicted to stay within the heap budget");
+        budgetTrimmedPoints = metrics.counter("aisview_budget_trimmed_points_total",
+                "Past track points removed to stay within the heap budget");
+        budgetRefusedTargets = metrics.counter("aisview_budget_refused_targets_total",
+                "New targets refused because the heap budget is exhausted");
+        metrics.gauge("aisview_estimated_heap_bytes", "Estimated heap use of targets and past tracks", new Gauge() {
+            @Override
+            public double getValue() {
+                return counters.getEstimatedBytes();
+            }
+        });
+
+        int parallelism = conf.getQueryParallelism() > 0 ? conf.getQueryParallelism() : Runtime.getRuntime()
+                .availableProcessors();
+        queryPool = parallelism > 1 ? new ForkJoinPool(parallelism) : null;
+        duplicateFilter = conf.getDuplicateWindow() > 0 ? new DuplicateFilter(conf.getDuplicateWindow()) : null;
+        heapBudget = conf.getHeapBudget() * 1024L * 1024L;
+        trackArchive = createTrackArchive(conf);
+        anomalyDetection = createAnomalyDetection(conf);
+        geofence = createGeofence(conf);
+    }
+
+    private static TrackArchive createTrackArchive(AisViewConfiguration conf) {
+        if (conf.getTrackArchiveDir() == null) {
+            return null;
+        }
+        try {
+            return new TrackArchive(new File(conf.getTrackArchiveDir()), conf.getTrackArchivePartition() * 1000L,
+                    conf.getTrackArchiveFlushInterval() * 1000L, TRACK_ARCHIVE_MAX_BUFFERED,
+                    conf.getTrackArchiveTtl() * 86400000L, conf.getSatTargetTtl() * 1000L);
+        } catch (IOException e) {
+            LOG.error("Failed to open track archive, running without: " + e.getMessage());
+            return null;
+        }
+    }
+
+    /**
+     * Detectors of sudden speed changes of 5 knots at more than 5 knots per minute, position jumps of half a nautical
+     * mile at more than 50 knots, turns of more than 90 degrees from a course steered for 5 minutes, and gaps
+     */
+    private static AnomalyDetection createAnomalyDetection(AisViewConfiguration conf) {
+        if (conf.getAnomalyEvents() <= 0) {
+            return null;
+        }
+        List<AnomalyDetector> detectors = new ArrayList<>();
+        detectors.add(new SpeedChangeDetector(5, 5));
+        detectors.add(new PositionJumpDetector(0.5, 50));
+        detectors.add(new CourseDeviationDetector(90, 300000));
+        if (conf.getAnomalyGap() > 0) {
+            detectors.add(new GapDetector(conf.getAnomalyGap() * 1000L));
+        }
+        return new AnomalyDetection(detectors, conf.getAnomalyEvents(), conf.getAnomalySuppress() * 1000L);
+    }
+
+    private static Geofence createGeofence(AisViewConfiguration conf) {
+        if (conf.getGeofenceFile() == null) {
+            return null;
+        }
+        try {
+            List<Zone> zones = GeoJsonZones.read(new File(conf.getGeofenceFile()));
+            LOG.info("Loaded " + zones.size() + " geofence zones");
+            return new Geofence(zones, conf.getGeofenceCellSize(), conf.getGeofenceEvents());
+        } catch (IOException e) {
+            LOG.error("Failed to load geofence zones, running without: " + e.getMessage());
+            return null;
+        }
     }
 
     @Override
-    public synchronized void accept(AisPacket packet) {
-        flow.received();
-        
-        // Get AisMessage
+    public void accept(AisPacket packet) {
+        String raw = packet.getStringMessage();
+        // Skip messages without target data before decoding
+        int msgId = RawPayload.msgId(raw);
+        if (msgId >= 0 && !RawPayload.isTargetDataMessage(msgId)) {
+            skippedCounter(msgId).inc();
+            flow.mark();
+            return;
+        }
+        if (duplicateFilter != null) {
+            long hash = RawPayload.hash(raw);
+            if (hash != 0 && duplicateFilter.isDuplicate(hash, System.currentTimeMillis())) {
+                acceptDuplicate(packet, RawPayload.mmsi(raw));
+                return;
+            }
+        }
+        // Decode outside the lock. The packet caches the decoded message.
         AisMessage aisMessage = packet.tryGetAisMessage();
         if (aisMessage == null) {
-            return;
+            ingestInvalid.inc();
+        } else {
+            ingestCounter(aisMessage.getMsgId()).inc();
         }
-        // We only want to handle messages containing targets data
-        // #1-#3, #4, #5, #18, #19, #21, #24
-        if (!AisTarget.isTargetDataMessage(aisMessage)) {
-            return;
+        flow.mark();
+
+        long start = System.nanoTime();
+        synchronized (this) {
+            long locked = System.nanoTime();
+            ingestLockWait.record(locked - start);
+            // We only want to handle messages containing targets data
+            // #1-#3, #4, #5, #18, #19, #21, #24
+            if (aisMessage == null || !AisTarget.isTargetDataMessage(aisMessage)) {
+                return;
+            }
+            update(packet, aisMessage);
+            ingestTime.recordSince(locked);
+        }
+    }
+
+    /**
+     * Record the source of a copy of an already received message. The copy is not decoded and does not update the
+     * target or past track, but the source filters must know every source the target is received from.
+     */
+    private void acceptDuplicate(AisPacket packet, int mmsi) {
+        ingestDuplicates.inc();
+        flow.mark();
+        synchronized (this) {
+            AisTargetEntry targetEntry = targetsMap.get(mmsi);
+            if (targetEntry == null) {
+                return;
+            }
+            targetEntry.getSourceData().update(packet);
+            counters.updated(targetEntry);
+        }
+    }
+
+    private Counter ingestCounter(int msgId) {
+        int index = msgId & (ingestByType.length - 1);
+        Counter counter = ingestByType[index];
+        if (counter == null) {
+            // Racing threads get the same counter from the registry
+            counter = metrics.counter("aisview_ingest_messages_total", "Decoded messages by message type", "msg_id",
+                    Integer.toString(msgId));
+            ingestByType[index] = counter;
         }
+        return counter;
+    }
+
+    private Counter skippedCounter(int msgId) {
+        Counter counter = skippedByType[msgId];
+        if (counter == null) {
+            counter = metrics.counter("aisview_ingest_skipped_total",
+                    "Messages without target data skipped before decoding by message type", "msg_id",
+                    Integer.toString(msgId));
+            skippedByType[msgId] = counter;
+        }
+        return counter;
+    }
+
+    private void update(AisPacket packet, AisMessage aisMessage) {
         int mmsi = aisMessage.getUserId();
 
         // Get existing AisTargetEntry or create new
         AisTargetEntry targetEntry = targetsMap.get(mmsi);
         if (targetEntry == null) {
+            if (!admitTarget()) {
+                budgetRefusedTargets.inc();
+                return;
+            }
             targetEntry = new AisTargetEntry(packet);
             targetsMap.put(mmsi, targetEntry);
+            // Update entry before counting to have the source of the first message
+            targetEntry.update(packet);
+            counters.added(targetEntry);
+        } else {
+            // Update entry
+            boolean targetReplaced = targetEntry.update(packet);
+
+            if (targetReplaced) {
+                replacedTargets.inc();
+                PastTrack removed = pastTrackMap.remove(mmsi);
+                if (removed != null) {
+                    counters.pastTrackRemoved(removed);
+                }
+            }
+            counters.updated(targetEntry);
         }
-        // Update entry
-        boolean targetReplaced = targetEntry.update(packet);
 
-        if (targetReplaced) {
-            pastTrackMap.remove(mmsi);
+        // Move the vessel in and out of zones
+        if (geofence != null && aisMessage instanceof IVesselPositionMessage) {
+            geofence.update(targetEntry.getTarget());
         }
 
         // Get or create past track entry for mmsi
-        IPastTrack pastTrack = null;
+        PastTrack pastTrack = null;
         // Update pasttrack
         if (conf.isRecordPastTrack()) {
             pastTrack = pastTrackMap.get(mmsi);
             if (pastTrack == null) {
-                pastTrack = new PastTrackSortedSet();
+                pastTrack = new PastTrack();
                 pastTrackMap.put(mmsi, pastTrack);
+                counters.pastTrackAdded();
             }
 
-            if (aisMessage instanceof IVesselPositionMessage) {
-                IVesselPositionMessage posMessage = (IVesselPositionMessage) aisMessage;
-                Position pos = posMessage.getPos().getGeoLocation();
-                if (pos != null) {
-                    // Make VesselPosition instance
-                    AisVesselPosition vesselPosition = new AisVesselPosition();
-                    vesselPosition.update((IVesselPositionMessage) aisMessage);
+        }
 
-                    // Update past track
+        if ((pastTrack != null || trackArchive != null || anomalyDetection != null)
+                && aisMessage instanceof IVesselPositionMessage) {
+            IVesselPositionMessage posMessage = (IVesselPositionMessage) aisMessage;
+            Position pos = posMessage.getPos().getGeoLocation();
+            if (pos != null && anomalyDetection != null) {
+                Date timestamp = aisMessage.getVdm().getTimestamp();
+                anomalyDetection.update(targetEntry.getTarget(),
+                        timestamp != null ? timestamp.getTime() : System.currentTimeMillis(), pos.getLatitude(),
+                        pos.getLongitude(), posMessage.isSogValid() ? posMessage.getSog() / 10.0 : Double.NaN,
+                        posMessage.isCogValid() ? posMessage.getCog() / 10.0 : Double.NaN);
+            }
+            if (pos != null && (pastTrack != null || trackArchive != null)) {
+                // Make VesselPosition instance
+                AisVesselPosition vesselPosition = new AisVesselPosition();
+                vesselPosition.update((IVesselPositionMessage) aisMessage);
+
+                // Update past track
+                if (pastTrack != null) {
+                    int points = pastTrack.size();
                     pastTrack.addPosition(vesselPosition, conf.getPastTrackMinDist());
+                    counters.pastTrackPointsChanged(pastTrack.size() - points);
+                }
+
+                // Archive every timestamped position, including late satellite positions dropped by the past track
+                if (trackArchive != null && vesselPosition.getSourceTimestamp() != null) {
+                    trackArchive.add(mmsi, new PastTrackPoint(vesselPosition));
                 }
             }
         }
 
     }
 
+    /**
+     * @return the detection of abnormal behavior, or null if disabled
+     */
+    public AnomalyDetection getAnomalyDetection() {
+        return anomalyDetection;
+    }
+
+    /**
+     * @return the geofence, or null if disabled
+     */
+    public Geofence getGeofence() {
+        return geofence;
+    }
+
+    /**
+     * @return the archive of past track points, or null if disabled
+     */
+    public TrackArchive getTrackArchive() {
+        return trackArchive;
+    }
+
+    /**
+     * Get the archived track of a vessel. The archive is read without the handler lock.
+     * 
+     * @param anonId
+     *            anonymous id of the vessel, used if mmsi is null
+     * @param mmsi
+     *            MMSI of the vessel
+     * @param from
+     *            start of the time interval in milliseconds, inclusive
+     * @param to
+     *            end of the time interval in milliseconds, exclusive
+     * @return the points ascending by time, or null if the archive is disabled or the vessel is unknown
+     * @throws IOException
+     *             if the archive cannot be read
+     */
+    public List<PastTrackPoint> getArchivedTrack(Integer anonId, Integer mmsi, long from, long to) throws IOException {
+        if (mmsi == null && anonId != null) {
+            synchronized (this) {
+                mmsi = AisTargetEntry.getMmsi(anonId);
+            }
+        }
+        if (trackArchive == null || mmsi == null) {
+            return null;
+        }
+        return trackArchive.getTrack(mmsi, from, to);
+    }
+
     public synchronized Collection<IPastTrack> getAllPastTracks() {
-        return pastTrackMap.values();
+        return new ArrayList<IPastTrack>(pastTrackMap.values());
     }
 
     @Override
     public void run() {
+        long lastTick = System.currentTimeMillis();
+        flow.tick(lastTick);
         while (true) {
             try {
-                Thread.sleep(10000);
+                Thread.sleep(conf.getSnapshotInterval());
             } catch (InterruptedException e) {
                 LOG.info("Stopping AisViewHandler");
                 return;
             }
-            cleanup();
+            long now = System.currentTimeMillis();
+            if (now - lastTick >= 10000) {
+                lastTick = now;
+                flow.tick(now);
+                cleanup();
+            }
+            enforceBudget();
+            synchronized (snapshotLock) {
+                refreshSnapshot();
+            }
+        }
+    }
+
+    private void refreshSnapshot() {
+        long start = System.nanoTime();
+        snapshot = new TargetSnapshot(targetsMap.values(), this);
+        snapshotTime.recordSince(start);
+    }
+
+    private boolean isStale(TargetSnapshot current) {
+        return current == null || System.currentTimeMillis() - current.getCreated() > 2 * conf.getSnapshotInterval();
+    }
+
+    /**
+     * Get the latest snapshot of vessel targets. The snapshot is refreshed by the handler thread, and here if the
+     * handler thread has fallen behind. Only one reader refreshes a stale snapshot, concurrent readers wait for and
+     * share its result instead of each copying the targets under the ingest lock.
+     */
+    public TargetSnapshot getSnapshot() {
+        TargetSnapshot current = snapshot;
+        if (!isStale(current)) {
+            return current;
+        }
+        synchronized (snapshotLock) {
+            current = snapshot;
+            if (isStale(current)) {
+                refreshSnapshot();
+                current = snapshot;
+            }
+            return current;
         }
     }
 
@@ -153,11 +515,11 @@ public class AisViewHandler extends Thread implements Consumer<AisPacket> {
             return;
         }
         lastCleanup = now;
+        long start = System.nanoTime();
         List<Integer> deadTargets = new ArrayList<>();
         for (AisTargetEntry targetEntry : targetsMap.values()) {
-            AisTarget target = targetEntry.getTarget();
-            Date lastReport = target.getLastReport();
-            elapsed = System.currentTimeMillis() - lastReport.getTime();
+            CompactTarget target = targetEntry.getTarget();
+            elapsed = System.currentTimeMillis() - target.getLastReport();
             if (elapsed > conf.getCleanupTtl() * 1000) {
                 deadTargets.add(target.getMmsi());
             }
@@ -165,11 +527,13 @@ public class AisViewHandler extends Thread implements Consumer<AisPacket> {
         // Cleanup past track
         if (conf.isRecordPastTrack()) {
             for (AisTargetEntry targetEntry : targetsMap.values()) {
-                AisTarget target = targetEntry.getTarget();
-                IPastTrack pastTrack = pastTrackMap.get(target.getMmsi());
+                CompactTarget target = targetEntry.getTarget();
+                PastTrack pastTrack = pastTrackMap.get(target.getMmsi());
                 if (pastTrack != null) {
+                    int points = pastTrack.size();
                     pastTrack.cleanup(targetEntry.getSourceData().isSatData() ? conf.getPastTrackSatTtl() : conf
                             .getPastTrackLiveTtl());
+                    counters.pastTrackPointsChanged(pastTrack.size() - points);
                 }
             }
         }
@@ -177,190 +541,363 @@ public class AisViewHandler extends Thread implements Consumer<AisPacket> {
         LOG.info("Removing " + deadTargets.size() + " dead targets");
         for (Integer mmsi : deadTargets) {
             // LOG.info("Removing target: " + mmsi);
-            targetsMap.remove(mmsi);
-            pastTrackMap.remove(mmsi);
+            removeTarget(mmsi);
         }
+        evictedTargets.add(deadTargets.size());
+        cleanupTime.recordSince(start);
     }
 
-    public synchronized BaseVesselList getVesselList(BaseVesselList list, VesselListFilter filter, Position pointA, Position pointB) {
-        // Iterate through all vessel targets and add to response
-        int inWorld = 0;
-        for (AisTargetEntry targetEntry : targetsMap.values()) {
-            AisVesselTarget vesselTarget = getFilteredAisVessel(targetEntry, filter);
-            if (vesselTarget == null || vesselTarget.getVesselPosition() == null
-                    || vesselTarget.getVesselPosition().getPos() == null)
-                continue;
+    private void removeTarget(Integer mmsi) {
+        counters.removed(targetsMap.remove(mmsi));
+        PastTrack pastTrack = pastTrackMap.remove(mmsi);
+        if (pastTrack != null) {
+            counters.pastTrackRemoved(pastTrack);
+        }
+        if (anomalyDetection != null) {
+            anomalyDetection.remove(mmsi);
+        }
+        if (geofence != null) {
+            geofence.remove(mmsi);
+        }
+    }
 
-            inWorld++;
+    /**
+     * Check if a new target fits in the heap budget. Shedding is attempted at most once a second when it does not.
+     */
+    private boolean admitTarget() {
+        if (heapBudget <= 0 || counters.getEstimatedBytes() + TargetCounters.TARGET_BYTES <= heapBudget) {
+            return true;
+        }
+        if (System.currentTimeMillis() - lastBudgetEnforcement >= 1000) {
+            enforceBudget();
+        }
+        return counters.getEstimatedBytes() + TargetCounters.TARGET_BYTES <= heapBudget;
+    }
 
-            // Is it inside the requested area
-            if (rejectedByPosition(vesselTarget, pointA, pointB)) {
-                continue;
+    /**
+     * Shed targets and past track points if the estimated heap use exceeds the budget. The estimate is brought down to
+     * 90% of the budget, so shedding is not repeated for every new target. The oldest targets only received from
+     * satellites are evicted first, as they are the least current and the most numerous with a global satellite feed.
+     * If that is not enough, all past tracks are shortened to the same maximum number of points, removing their oldest
+     * points.
+     */
+    private synchronized void enforceBudget() {
+        if (heapBudget <= 0 || counters.getEstimatedBytes() <= heapBudget) {
+            return;
+        }
+        lastBudgetEnforcement = System.currentTimeMillis();
+        long lowWater = heapBudget / 10 * 9;
+        long before = counters.getEstimatedBytes();
+
+        // Evict satellite only targets, oldest first
+        List<CompactTarget> satTargets = new ArrayList<>();
+        for (AisTargetEntry targetEntry : targetsMap.values()) {
+            if (targetEntry.getSourceData().isSatOnly()) {
+                satTargets.add(targetEntry.getTarget());
             }
+        }
+        Collections.sort(satTargets, new Comparator<CompactTarget>() {
+            @Override
+            public int compare(CompactTarget t1, CompactTarget t2) {
+                return Long.compare(t1.getLastReport(), t2.getLastReport());
+            }
+        });
+        int evicted = 0;
+        for (CompactTarget target : satTargets) {
+            if (counters.getEstimatedBytes() <= lowWater) {
+                break;
+            }
+            removeTarget(target.getMmsi());
+            evicted++;
+        }
+        budgetEvictedTargets.add(evicted);
+
+        // Shorten past tracks to the number of points fitting in the budget
+        int trimmed = 0;
+        long excess = counters.getEstimatedBytes() - lowWater;
+        if (excess > 0 && !pastTrackMap.isEmpty()) {
+            long keep = counters.getPastTrackPoints() - (excess + TargetCounters.PAST_TRACK_POINT_BYTES - 1)
+                    / TargetCounters.PAST_TRACK_POINT_BYTES;
+            int maxSize = maxPastTrackSize(keep);
+            for (PastTrack pastTrack : pastTrackMap.values()) {
+                int removed = pastTrack.trim(maxSize);
+                counters.pastTrackPointsChanged(-removed);
+                trimmed += removed;
+            }
+            budgetTrimmedPoints.add(trimmed);
+        }
 
-            list.addTarget(vesselTarget, targetEntry.getAnonId());
+        if (evicted == 0 && trimmed == 0) {
+            // Only live targets left, new targets are refused
+            return;
         }
+        LOG.warn(String.format("Heap budget of %d MB exceeded: evicted %d satellite only targets and %d past track "
+                + "points, estimate reduced from %d MB to %d MB", heapBudget >> 20, evicted, trimmed, before >> 20,
+                counters.getEstimatedBytes() >> 20));
+    }
 
-        list.setInWorldCount(inWorld);
+    /**
+     * Find the largest maximum past track size keeping at most a number of points in total
+     */
+    private int maxPastTrackSize(long keep) {
+        if (keep <= 0) {
+            return 0;
+        }
+        int[] sizes = new int[pastTrackMap.size()];
+        int i = 0;
+        for (PastTrack pastTrack : pastTrackMap.values()) {
+            sizes[i++] = pastTrack.size();
+        }
+        Arrays.sort(sizes);
+        // With maximum m, tracks shorter than m keep all points and the rest keep m
+        long kept = 0;
+        for (i = 0; i < sizes.length; i++) {
+            int remaining = sizes.length - i;
+            if (kept + (long) sizes[i] * remaining > keep) {
+                return (int) ((keep - kept) / remaining);
+            }
+            kept += sizes[i];
+        }
+        return sizes.length > 0 ? sizes[sizes.length - 1] : 0;
+    }
 
+    public BaseVesselList getVesselList(BaseVesselList list, VesselListFilter filter, Position pointA,
+            Position pointB) {
+        TargetSnapshot snapshot = getSnapshot();
+        SnapshotFilter snapshotFilter = new SnapshotFilter(snapshot, filter, conf);
+        VesselListScan scan = new VesselListScan(snapshot, snapshotFilter, pointA, pointB, list, grain(snapshot));
+        list.addAll(execute(scan, rowsInArea(snapshot, pointA, pointB)));
         return list;
     }
-    
-    public synchronized String generateKml(String resourceURL) {
-        KmlGenerator generator = new KmlGenerator(targetsMap, pastTrackMap, resourceURL, conf);
-        return generator.generate();
-    }
 
     /**
-     * Returns a casted AisVesselTarget of the given AisTarget if it is an instance of AisVesselTarget.
-     * 
-     * @param target
-     * @param filter
-     * @return
+     * Get the vessels of a past traffic picture matching a filter inside an area. Vessel class, flag country and
+     * static report are not archived, so these filters are applied to the current targets, and vessels no longer
+     * targets only pass a filter without them. Source filters are ignored.
      */
-    private synchronized AisVesselTarget getFilteredAisVessel(AisTargetEntry targetEntry, VesselListFilter filter) {
-        AisTarget target = targetEntry.getTarget();
-        if (!(target instanceof AisVesselTarget)) {
-            return null;
+    public BaseVesselList getVesselList(BaseVesselList list, VesselListFilter filter, Position pointA, Position pointB,
+            TrafficPicture picture) {
+        TargetSnapshot snapshot = getSnapshot();
+        SnapshotFilter snapshotFilter = new SnapshotFilter(snapshot, filter, conf);
+        boolean matchesUnknown = snapshotFilter.matchesUnknownVessel();
+        Map<Integer, Integer> rows = new HashMap<>();
+        for (int row = 0; row < snapshot.size(); row++) {
+            rows.put(snapshot.getMmsi(row), row);
         }
-        AisVesselTarget vesselTarget = (AisVesselTarget) target;
-        Map<String, HashSet<String>> filterMap = filter.getFilterMap();
-        TargetSourceData sourceData = targetEntry.getSourceData();
 
-        // Determine TTL
-        boolean lastIsSatData = sourceData.isSatData();
-        Set<String> sourceType = filterMap.get("sourceType");
-        int ttl = (lastIsSatData) ? conf.getSatTargetTtl() : conf.getLiveTargetTtl();
-
-        // If quering for SAT the ttl will be forced to sat ttl
-        if (sourceType != null && sourceType.contains("SAT")) {
-            ttl = conf.getSatTargetTtl();
+        // Find the matching vessels and their rows in the snapshot, -1 if not a target
+        int[] slots = new int[picture.size()];
+        int[] snapshotRows = new int[picture.size()];
+        int count = 0;
+        int inWorld = 0;
+        for (int slot = 0; slot < picture.size(); slot++) {
+            Integer row = rows.get(picture.getMmsi(slot));
+            if (row != null ? !snapshotFilter.matchesVessel(row) : !matchesUnknown) {
+                continue;
+            }
+            inWorld++;
+            if (rejectedByPosition(picture.getLat(slot), picture.getLon(slot), pointA, pointB)) {
+                continue;
+            }
+            slots[count] = slot;
+            snapshotRows[count] = row != null ? row : -1;
+            count++;
         }
 
-        // Is it alive
-        if (!target.isAlive(ttl)) {
-            return null;
+        int[] anonIds = new int[count];
+        synchronized (this) {
+            for (int i = 0; i < count; i++) {
+                int row = snapshotRows[i];
+                anonIds[i] = row >= 0 ? snapshot.getAnonId(row) : AisTargetEntry.getAnonId(picture.getMmsi(slots[i]));
+            }
+        }
+        for (int i = 0; i < count; i++) {
+            list.addTarget(picture, slots[i], snapshot, snapshotRows[i], anonIds[i]);
         }
+        list.setInWorldCount(inWorld);
+        list.setCurrentTime(picture.getTime());
+        return list;
+    }
 
-        // Maybe filtered away
-        Set<String> vesselClass = filterMap.get("vesselClass");
-        if (vesselClass != null) {
-            String vc = (target instanceof AisClassATarget) ? "A" : "B";
-            if (!vesselClass.contains(vc)) {
-                return null;
-            }
+    /**
+     * Get the counts of live vessels and past track points by grid cell. The counts are made on request when the
+     * latest counts are older than the density interval.
+     */
+    public DensityGrid getDensityGrid() {
+        long maxAge = conf.getDensityInterval() * 1000L;
+        DensityGrid current = densityGrid;
+        if (current != null && System.currentTimeMillis() - current.getCreated() < maxAge) {
+            return current;
         }
-        Set<String> country = filterMap.get("country");
-        if (country != null) {
-            Country mc = target.getCountry();
-            if (mc == null)
-                return null;
-            if (!country.contains(mc.getThreeLetter())) {
-                return null;
+        synchronized (densityLock) {
+            current = densityGrid;
+            if (current == null || System.currentTimeMillis() - current.getCreated() >= maxAge) {
+                current = countDensity();
+                densityGrid = current;
             }
+            return current;
         }
-        if (sourceType != null) {
-            boolean matches = false;
-            for (String st : sourceType) {
-                matches |= sourceData.isSourceType(st, conf.getLiveTargetTtl(), conf.getSatTargetTtl());
-            }
-            if (!matches) {
-                return null;
+    }
+
+    private DensityGrid countDensity() {
+        long start = System.nanoTime();
+        Grid grid = GridFactory.getInstance().getGrid(conf.getDensityCellSize());
+
+        TargetSnapshot snapshot = getSnapshot();
+        SnapshotFilter alive = new SnapshotFilter(snapshot, new VesselListFilter(), conf);
+        long[] vesselCells = new long[snapshot.size()];
+        int vessels = 0;
+        for (int row = 0; row < snapshot.size(); row++) {
+            if (alive.matches(row)) {
+                vesselCells[vessels++] = grid.getCellId(snapshot.getLat(row), snapshot.getLon(row));
             }
         }
-        Set<String> sourceCountry = filterMap.get("sourceCountry");
-        if (sourceCountry != null) {
-            boolean matches = false;
-            for (String cnt : sourceCountry) {
-                matches |= sourceData.isCountry(cnt, ttl);
-            }
-            if (!matches) {
-                return null;
+
+        // Only the references to the immutable points are copied while holding the lock
+        List<PastTrackPoint> points;
+        synchronized (this) {
+            points = new ArrayList<>(counters.getPastTrackPoints());
+            for (PastTrack pastTrack : pastTrackMap.values()) {
+                pastTrack.addPointsTo(points);
             }
         }
-        Set<String> sourceRegion = filterMap.get("sourceRegion");
-        if (sourceRegion != null) {
-            boolean matches = false;
-            for (String region : sourceRegion) {
-                matches |= sourceData.isRegion(region, ttl);
-            }
-            if (!matches) {
-                return null;
-            }
+        long[] pointCells = new long[points.size()];
+        for (int i = 0; i < pointCells.length; i++) {
+            PastTrackPoint point = points.get(i);
+            pointCells[i] = grid.getCellId(point.getLat(), point.getLon());
         }
-        Set<String> sourceBs = filterMap.get("sourceBs");
-        if (sourceBs != null) {
-            boolean matches = false;
-            for (String bs : sourceBs) {
-                matches |= sourceData.isBs(bs, ttl);
-            }
-            if (!matches) {
-                return null;
-            }
+
+        DensityGrid density = new DensityGrid(grid, vesselCells, vessels, pointCells, pointCells.length);
+        densityTime.recordSince(start);
+        return density;
+    }
+
+    /**
+     * Get the index of the snapshot by tile. The index is rebuilt on request when it is older than the vessel tile
+     * interval, so tiles of the same index can be cached.
+     */
+    public VesselTileIndex getVesselTileIndex() {
+        long maxAge = conf.getVesselTileInterval() * 1000L;
+        VesselTileIndex current = vesselTileIndex;
+        if (current != null && System.currentTimeMillis() - current.getCreated() < maxAge) {
+            return current;
         }
-        Set<String> sourceSystem = filterMap.get("sourceSystem");
-        if (sourceSystem != null) {
-            boolean matches = false;
-            for (String sys : sourceSystem) {
-                matches |= sourceData.isSystem(sys, ttl);
-            }
-            if (!matches) {
-                return null;
+        synchronized (vesselTileLock) {
+            current = vesselTileIndex;
+            if (current == null || System.currentTimeMillis() - current.getCreated() >= maxAge) {
+                long start = System.nanoTime();
+                current = new VesselTileIndex(getSnapshot());
+                vesselTileIndexTime.recordSince(start);
+                vesselTileIndex = current;
             }
+            return current;
         }
-        Set<String> staticReport = filterMap.get("staticReport");
-        if (staticReport != null) {
-            boolean hasStatic = (vesselTarget.getVesselStatic() != null);
-            if (staticReport.contains("yes") && !hasStatic) {
-                return null;
+    }
+
+    /**
+     * Get the vessels of an index matching a filter inside a tile. The count of vessels in the world is made once for
+     * each filter of the index.
+     */
+    public BaseVesselList getTileVesselList(BaseVesselList list, VesselListFilter filter, VesselTileIndex index,
+            Tile tile) {
+        TargetSnapshot snapshot = index.getSnapshot();
+        SnapshotFilter snapshotFilter = new SnapshotFilter(snapshot, filter, conf);
+        for (int row : index.getRows(tile)) {
+            if (snapshotFilter.matches(row)) {
+                list.addTarget(snapshot, row);
             }
-            if (staticReport.contains("no") && hasStatic) {
-                return null;
+        }
+        list.setInWorldCount(index.count(filter.toString(), snapshotFilter));
+        list.setCurrentTime(snapshot.getCreated());
+        return list;
+    }
+
+    /**
+     * Encode the vessels of an index matching a filter inside a tile as a vector tile, with the attributes of the
+     * vessel list
+     */
+    public byte[] getVesselTile(VesselTileIndex index, Tile tile, VesselListFilter filter, boolean anonymous) {
+        SnapshotFilter snapshotFilter = new SnapshotFilter(index.getSnapshot(), filter, conf);
+        return index.encode(tile, snapshotFilter, anonymous, conf.getVesselTileThinningZoom());
+    }
+
+    /**
+     * Run the scan in the query pool if the number of rows to examine is at least the parallel threshold, else on the
+     * calling thread
+     */
+    private <T> T execute(SnapshotScan<T> scan, int rows) {
+        if (queryPool == null || rows < conf.getParallelThreshold()) {
+            sequentialScans.inc();
+            return scan.scanAll();
+        }
+        parallelScans.inc();
+        return queryPool.invoke(scan);
+    }
+
+    /**
+     * Number of rows per task giving each worker of the query pool a few tasks to balance load
+     */
+    private int grain(TargetSnapshot snapshot) {
+        if (queryPool == null) {
+            return snapshot.size();
+        }
+        return Math.max(1024, snapshot.size() / (4 * queryPool.getParallelism()));
+    }
+
+    /**
+     * Number of rows positioned in the given area
+     */
+    private static int rowsInArea(TargetSnapshot snapshot, Position pointA, Position pointB) {
+        if (pointA == null || pointB == null) {
+            return snapshot.size();
+        }
+        int rows = 0;
+        for (int row = 0; row < snapshot.size(); row++) {
+            if (!rejectedByPosition(snapshot.getLat(row), snapshot.getLon(row), pointA, pointB)) {
+                rows++;
             }
         }
+        return rows;
+    }
 
-        return vesselTarget;
+    public synchronized String generateKml(String resourceURL) {
+        KmlGenerator generator = new KmlGenerator(targetsMap, pastTrackMap, resourceURL, conf);
+        return generator.generate();
     }
 
     /**
      * Returns false if target is out of specified area. Nothing will be rejected if the area is not specified.
      * 
-     * @param target
-     *            The target to test
+     * @param lat
+     *            Latitude of the target
+     * @param lon
+     *            Longitude of the target
      * @param pointA
      *            Upper left corner of area.
      * @param pointB
      *            Bottom right corner of area.
      * @return false if target is out of specified area, else true.
      */
-    private static boolean rejectedByPosition(AisVesselTarget target, Position pointA, Position pointB) {
+    private static boolean rejectedByPosition(double lat, double lon, Position pointA, Position pointB) {
 
         // Check if requested area is null
         if (pointA == null || pointB == null) {
             return false;
         }
 
-        // Check if vessel has a position
-        if (target.getVesselPosition() == null || target.getVesselPosition().getPos() == null) {
-            return true;
-        }
-
         // Latitude check - Reject targets not between A and B
-        if (target.getVesselPosition().getPos().getLatitude() <= pointA.getLatitude()
-                && target.getVesselPosition().getPos().getLatitude() >= pointB.getLatitude()) {
+        if (lat <= pointA.getLatitude() && lat >= pointB.getLatitude()) {
 
             // Longitude check - Accept targets between A and B
             if (pointB.getLongitude() <= pointA.getLongitude()
-                    && (target.getVesselPosition().getPos().getLongitude() >= pointA.getLongitude() || target.getVesselPosition()
-                            .getPos().getLongitude() <= pointB.getLongitude())) {
+                    && (lon >= pointA.getLongitude() || lon <= pointB.getLongitude())) {
 
                 return false;
             }
 
             // Longitude - Reject targets between B and A - Accept others
             if (pointA.getLongitude() <= pointB.getLongitude()
-                    && (target.getVesselPosition().getPos().getLongitude() >= pointB.getLongitude() || target.getVesselPosition()
-                            .getPos().getLongitude() <= pointA.getLongitude())) {
+                    && (lon >= pointB.getLongitude() || lon <= pointA.getLongitude())) {
                 return true;
 
             } else if (pointA.getLongitude() <= pointB.getLongitude()) {
@@ -378,55 +915,34 @@ public class AisViewHandler extends Thread implements Consumer<AisPacket> {
      * @param limit
      * @return
      */
-    public synchronized VesselClusterJsonRepsonse getClusterResponse(int requestId, VesselListFilter filter, Position pointA,
+    public VesselClusterJsonRepsonse getClusterResponse(int requestId, VesselListFilter filter, Position pointA,
             Position pointB, int limit, double size) {
 
         Grid grid = GridFactory.getInstance().getGrid(size);
+        TargetSnapshot snapshot = getSnapshot();
+        SnapshotFilter snapshotFilter = new SnapshotFilter(snapshot, filter, conf);
 
-        // Maps cell ids to vessel clusters
-        HashMap<Long, VesselCluster> map = new HashMap<Long, VesselCluster>();
-
-        // Iterate over targets
-        int inWorld = 0;
-        for (AisTargetEntry targetEntry : targetsMap.values()) {
-            AisVesselTarget vesselTarget = getFilteredAisVessel(targetEntry, filter);
-            if (vesselTarget == null || vesselTarget.getVesselPosition() == null
-                    || vesselTarget.getVesselPosition().getPos() == null) {
-                continue;
-            }
-
-            inWorld++;
-
-            // Is it inside the requested area
-            if (rejectedByPosition(vesselTarget, pointA, pointB)) {
-                continue;
-            }
-
-            Position vesselPosition = vesselTarget.getVesselPosition().getPos();
-            long cellId = grid.getCellId(vesselPosition.getLatitude(), vesselPosition.getLongitude());
+        ClusterScan scan = new ClusterScan(snapshot, snapshotFilter, pointA, pointB, grid, Math.max(1, limit - 1),
+                grain(snapshot));
+        ClusterScan.Partial partial = execute(scan, rowsInArea(snapshot, pointA, pointB));
 
-            // Only create vessel cluster if new
-            if (map.containsKey(cellId)) {
-
-                map.get(cellId).incrementCount();
-
-                if (map.get(cellId).getCount() < limit) {
-                    map.get(cellId).getVessels().addTarget(vesselTarget, targetEntry.getAnonId());
-                }
-
-            } else {
-
-                Position from = grid.getGeoPosOfCellId(cellId);
+        // Create vessel clusters from the cells
+        HashMap<Long, VesselCluster> map = new HashMap<Long, VesselCluster>();
+        for (Map.Entry<Long, ClusterScan.Cell> entry : partial.cells.entrySet()) {
+            long cellId = entry.getKey();
+            ClusterScan.Cell cell = entry.getValue();
 
-                double toLon = from.getLongitude() + grid.getCellSizeInDegrees();
-                double toLat = from.getLatitude() + grid.getCellSizeInDegrees();
-                Position to = Position.create(toLat, toLon);
+            Position from = grid.getGeoPosOfCellId(cellId);
 
-                VesselCluster cluster = new VesselCluster(from, to, 1, new VesselList());
-                map.put(cellId, cluster);
-                map.get(cellId).getVessels().addTarget(vesselTarget, targetEntry.getAnonId());
+            double toLon = from.getLongitude() + grid.getCellSizeInDegrees();
+            double toLat = from.getLatitude() + grid.getCellSizeInDegrees();
+            Position to = Position.create(toLat, toLon);
 
+            VesselCluster cluster = new VesselCluster(from, to, cell.count, new VesselList());
+            for (int i = 0; i < cell.size; i++) {
+                cluster.getVessels().addTarget(snapshot, cell.rows[i]);
             }
+            map.put(cellId, cluster);
         }
 
         // Calculate density
@@ -444,7 +960,7 @@ public class AisViewHandler extends Thread implements Consumer<AisPacket> {
             c.setDensity(density);
 
         }
-        VesselClusterJsonRepsonse response = new VesselClusterJsonRepsonse(requestId, clusters, inWorld);
+        VesselClusterJsonRepsonse response = new VesselClusterJsonRepsonse(requestId, clusters, partial.inWorld);
         return response;
     }
 
@@ -461,7 +977,7 @@ public class AisViewHandler extends Thread implements Consumer<AisPacket> {
             return null;
         }
         anonId = targetEntry.getAnonId();
-        AisTarget target = targetEntry.getTarget();
+        AisTarget target = targetEntry.getTarget().toAisTarget();
         if (!(target instanceof AisVesselTarget)) {
             return null;
         }
@@ -482,106 +998,286 @@ public class AisViewHandler extends Thread implements Consumer<AisPacket> {
      *            A string that will be matched to all vessel names, IMOs and MMSIs.
      * @return A list of targets.
      */
-    public synchronized VesselList searchTargets(String searchCriteria) {
-
-        VesselList response = new VesselList();
-
-        // Iterate through all vessel targets and add to response
-        for (AisTargetEntry targetEntry : targetsMap.values()) {
-            AisTarget target = targetEntry.getTarget();
-            if (!(target instanceof AisVesselTarget)) {
-                continue;
-            }
-
-            // Determine TTL (could come from configuration)
-            TargetSourceData sourceData = targetEntry.getSourceData();
-            boolean satData = sourceData.isSatData();
-            int ttl = (satData) ? conf.getSatTargetTtl() : conf.getLiveTargetTtl();
-
-            // Is it alive
-            if (!target.isAlive(ttl)) {
-                continue;
-            }
-
-            // Maybe filtered away
-            if (rejectedBySearchCriteria(target, searchCriteria)) {
-                continue;
-            }
-
-            response.addTarget((AisVesselTarget) target, targetEntry.getAnonId());
-        }
-
-        return response;
+    public VesselList searchTargets(String searchCriteria) {
+        TargetSnapshot snapshot = getSnapshot();
+        // Only alive targets are searched
+        SnapshotFilter aliveFilter = new SnapshotFilter(snapshot, new VesselListFilter(), conf);
+        SearchScan scan = new SearchScan(snapshot, aliveFilter, searchCriteria, grain(snapshot));
+        return execute(scan, snapshot.size());
     }
 
     /**
      * Returns false if target matches a given searchCriteria. This method only matches on the targets name, mmsi and imo.
      * 
-     * @param target
+     * @param snapshot
+     * @param row
      * @param searchCriteria
+     * @param upperCaseCriteria
+     *            searchCriteria in upper case
      * @return false if the target matches the search criteria.
-     * @throws JsonApiException
      */
-    private static boolean rejectedBySearchCriteria(AisTarget target, String searchCriteria) {
-
-        if (!(target instanceof AisVesselTarget)) {
-            return true;
-        }
-
-        // Get length of search criteria
-        int searchLength = searchCriteria.length();
-
-        AisVesselTarget vessel = (AisVesselTarget) target;
-
-        // Get details
-        Integer mmsi = vessel.getMmsi();
+    private static boolean rejectedBySearchCriteria(TargetSnapshot snapshot, int row, String searchCriteria,
+            String upperCaseCriteria) {
 
         // Check mmsi
-        String mmsiString = Long.toString(mmsi);
-        if (mmsiString.length() >= searchLength && mmsiString.substring(0, searchLength).equals(searchCriteria)) {
+        String mmsiString = Integer.toString(snapshot.getMmsi(row));
+        if (mmsiString.startsWith(searchCriteria)) {
             return false;
         }
 
         // Check name
-        if (vessel.getVesselStatic() != null && vessel.getVesselStatic().getName() != null) {
-            String name = vessel.getVesselStatic().getName().toUpperCase();
+        if (snapshot.hasStatic(row) && snapshot.getName(row) != null) {
+            String name = snapshot.getName(row).toUpperCase();
 
             // Check entire name
-            if (name.length() >= searchLength && name.substring(0, searchLength).equals(searchCriteria.toUpperCase())) {
+            if (name.startsWith(upperCaseCriteria)) {
                 return false;
             }
 
             // Check each word
             String[] words = name.split(" ");
             for (String w : words) {
-                if (w.length() >= searchLength && w.substring(0, searchLength).equals(searchCriteria.toUpperCase())) {
+                if (w.startsWith(upperCaseCriteria)) {
                     return false;
                 }
             }
         }
 
-        // Check imo - if Class A
-        if (vessel instanceof AisClassATarget) {
-            AisClassATarget classAVessel = (AisClassATarget) vessel;
-            if (classAVessel.getClassAStatic() != null && classAVessel.getClassAStatic().getImoNo() != null) {
-                int imo = classAVessel.getClassAStatic().getImoNo();
-                String imoString = Integer.toString(imo);
-                if (imoString.length() >= searchLength && imoString.substring(0, searchLength).equals(searchCriteria)) {
-                    return false;
-                }
-            }
+        // Check imo - only set for class A
+        Integer imo = snapshot.getImo(row);
+        if (imo != null && Integer.toString(imo).startsWith(searchCriteria)) {
+            return false;
         }
 
         return true;
     }
 
-    public synchronized AisViewHandlerStats getStat() {
-        AisViewHandlerStats stats = new AisViewHandlerStats(targetsMap.values(), getAllPastTracks(), flow.getRate());
-        return stats;
+    /**
+     * Statistics from the maintained counters. Does not take the handler lock.
+     */
+    public AisViewHandlerStats getStat() {
+        return counters.getStats(flow.getRate());
+    }
+
+    public double getRate() {
+        return flow.getRate();
     }
 
     public AisViewConfiguration getConf() {
         return conf;
     }
 
+    /**
+     * Scan adding the rows matching a filter inside an area to a vessel list
+     */
+    private static final class VesselListScan extends SnapshotScan<BaseVesselList> {
+        private static final long serialVersionUID = 1L;
+
+        private final TargetSnapshot snapshot;
+        private final SnapshotFilter filter;
+        private final Position pointA;
+        private final Position pointB;
+        private final BaseVesselList kind;
+
+        VesselListScan(TargetSnapshot snapshot, SnapshotFilter filter, Position pointA, Position pointB,
+                BaseVesselList kind, int grain) {
+            this(snapshot, filter, pointA, pointB, kind, 0, snapshot.size(), grain, Cancellation.current());
+        }
+
+        private VesselListScan(TargetSnapshot snapshot, SnapshotFilter filter, Position pointA, Position pointB,
+                BaseVesselList kind, int from, int to, int grain, Cancellation cancellation) {
+            super(from, to, grain, cancellation);
+            this.snapshot = snapshot;
+            this.filter = filter;
+            this.pointA = pointA;
+            this.pointB = pointB;
+            this.kind = kind;
+        }
+
+        @Override
+        SnapshotScan<BaseVesselList> split(int from, int to) {
+            return new VesselListScan(snapshot, filter, pointA, pointB, kind, from, to, getGrain(),
+                    getCancellation());
+        }
+
+        @Override
+        BaseVesselList newPartial() {
+            return kind.newInstance();
+        }
+
+        @Override
+        void scan(BaseVesselList partial, int row) {
+            if (!filter.matches(row)) {
+                return;
+            }
+            partial.setInWorldCount(partial.getInWorldCount() + 1);
+
+            // Is it inside the requested area
+            if (rejectedByPosition(snapshot.getLat(row), snapshot.getLon(row), pointA, pointB)) {
+                return;
+            }
+            partial.addTarget(snapshot, row);
+        }
+
+        @Override
+        BaseVesselList merge(BaseVesselList lower, BaseVesselList higher) {
+            lower.addAll(higher);
+            return lower;
+        }
+    }
+
+    /**
+     * Scan counting the rows matching a filter inside an area by grid cell. Each cell keeps the first rows up to the
+     * given capacity, so merged partials hold the same rows as a sequential scan.
+     */
+    private static final class ClusterScan extends SnapshotScan<ClusterScan.Partial> {
+        private static final long serialVersionUID = 1L;
+
+        private final TargetSnapshot snapshot;
+        private final SnapshotFilter filter;
+        private final Position pointA;
+        private final Position pointB;
+        private final Grid grid;
+        private final int capacity;
+
+        ClusterScan(TargetSnapshot snapshot, SnapshotFilter filter, Position pointA, Position pointB, Grid grid,
+                int capacity, int grain) {
+            this(snapshot, filter, pointA, pointB, grid, capacity, 0, snapshot.size(), grain, Cancellation
+                    .current());
+        }
+
+        private ClusterScan(TargetSnapshot snapshot, SnapshotFilter filter, Position pointA, Position pointB, Grid grid,
+                int capacity, int from, int to, int grain, Cancellation cancellation) {
+            super(from, to, grain, cancellation);
+            this.snapshot = snapshot;
+            this.filter = filter;
+            this.pointA = pointA;
+            this.pointB = pointB;
+            this.grid = grid;
+            this.capacity = capacity;
+        }
+
+        @Override
+        SnapshotScan<Partial> split(int from, int to) {
+            return new ClusterScan(snapshot, filter, pointA, pointB, grid, capacity, from, to, getGrain(),
+                    getCancellation());
+        }
+
+        @Override
+        Partial newPartial() {
+            return new Partial();
+        }
+
+        @Override
+        void scan(Partial partial, int row) {
+            if (!filter.matches(row)) {
+                return;
+            }
+            partial.inWorld++;
+
+            // Is it inside the requested area
+            double lat = snapshot.getLat(row);
+            double lon = snapshot.getLon(row);
+            if (rejectedByPosition(lat, lon, pointA, pointB)) {
+                return;
+            }
+
+            long cellId = grid.getCellId(lat, lon);
+            Cell cell = partial.cells.get(cellId);
+            if (cell == null) {
+                cell = new Cell(capacity);
+                partial.cells.put(cellId, cell);
+            }
+            cell.count++;
+            cell.add(row);
+        }
+
+        @Override
+        Partial merge(Partial lower, Partial higher) {
+            lower.inWorld += higher.inWorld;
+            for (Map.Entry<Long, Cell> entry : higher.cells.entrySet()) {
+                Cell cell = lower.cells.get(entry.getKey());
+                if (cell == null) {
+                    lower.cells.put(entry.getKey(), entry.getValue());
+                    continue;
+                }
+                Cell other = entry.getValue();
+                cell.count += other.count;
+                for (int i = 0; i < other.size; i++) {
+                    cell.add(other.rows[i]);
+                }
+            }
+            return lower;
+        }
+
+        static final class Partial {
+            final HashMap<Long, Cell> cells = new HashMap<>();
+            int inWorld;
+        }
+
+        static final class Cell {
+            final int[] rows;
+            int size;
+            int count;
+
+            Cell(int capacity) {
+                rows = new int[capacity];
+            }
+
+            void add(int row) {
+                if (size < rows.length) {
+                    rows[size++] = row;
+                }
+            }
+        }
+    }
+
+    /**
+     * Scan adding alive rows matching search criteria to a vessel list
+     */
+    private static final class SearchScan extends SnapshotScan<VesselList> {
+        private static final long serialVersionUID = 1L;
+
+        private final TargetSnapshot snapshot;
+        private final SnapshotFilter filter;
+        private final String searchCriteria;
+        private final String upperCaseCriteria;
+
+        SearchScan(TargetSnapshot snapshot, SnapshotFilter filter, String searchCriteria, int grain) {
+            this(snapshot, filter, searchCriteria, 0, snapshot.size(), grain, Cancellation.current());
+        }
+
+        private SearchScan(TargetSnapshot snapshot, SnapshotFilter filter, String searchCriteria, int from, int to,
+                int grain, Cancellation cancellation) {
+            super(from, to, grain, cancellation);
+            this.snapshot = snapshot;
+            this.filter = filter;
+            this.searchCriteria = searchCriteria;
+            this.upperCaseCriteria = searchCriteria.toUpperCase();
+        }
+
+        @Override
+        SnapshotScan<VesselList> split(int from, int to) {
+            return new SearchScan(snapshot, filter, searchCriteria, from, to, getGrain(), getCancellation());
+        }
+
+        @Override
+        VesselList newPartial() {
+            return new VesselList();
+        }
+
+        @Override
+        void scan(VesselList partial, int row) {
+            if (filter.matches(row) && !rejectedBySearchCriteria(snapshot, row, searchCriteria, upperCaseCriteria)) {
+                partial.addTarget(snapshot, row);
+            }
+        }
+
+        @Override
+        VesselList merge(VesselList lower, VesselList higher) {
+            lower.addAll(higher);
+            return lower;
+        }
+    }
+
 }
@@ -0,0 +1,459 @@
+/* Copyright (c) 2011 Danish Maritime Authority.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package dk.dma.ais.analysis.viewer.handler;
+
+import java.util.Date;
+
+import dk.dma.ais.data.AisAtonTarget;
+import dk.dma.ais.data.AisBsTarget;
+import dk.dma.ais.data.AisClassAPosition;
+import dk.dma.ais.data.AisClassAStatic;
+import dk.dma.ais.data.AisClassATarget;
+import dk.dma.ais.data.AisClassBPosition;
+import dk.dma.ais.data.AisClassBStatic;
+import dk.dma.ais.data.AisClassBTarget;
+import dk.dma.ais.data.AisTarget;
+import dk.dma.ais.data.AisTargetDimensions;
+import dk.dma.ais.data.AisVesselPosition;
+import dk.dma.ais.data.AisVesselStatic;
+import dk.dma.ais.data.AisVesselTarget;
+import dk.dma.ais.message.AisMessage;
+import dk.dma.ais.message.AisMessage18;
+import dk.dma.ais.message.AisMessage19;
+import dk.dma.ais.message.AisMessage21;
+import dk.dma.ais.message.AisMessage24;
+import dk.dma.ais.message.AisMessage4;
+import dk.dma.ais.message.AisMessage5;
+import dk.dma.ais.message.AisPositionMessage;
+import dk.dma.ais.message.AisStaticCommon;
+import dk.dma.ais.message.IVesselPositionMessage;
+import dk.dma.ais.message.ShipTypeCargo;
+import dk.dma.ais.message.ShipTypeCargo.ShipType;
+import dk.dma.enav.model.Country;
+import dk.dma.enav.model.geometry.Position;
+
+/**
+ * Compact representation of an AIS target as primitive fields. Replaces the object graph of an AisLib
+ * {@link AisTarget} with its position, static data, dates and boxed values, which is several hundred bytes and more
+ * than a dozen objects per target.
+ * <p>
+ * The target is updated with the same rules as the AisLib targets, and {@link #toAisTarget()} creates the equivalent
+ * AisLib target for the code that needs one. Values are kept in the units of the messages, so the AisLib target has
+ * exactly the values it would have had if it had been updated with the messages. The times of reception of the
+ * individual reports are not kept.
+ */
+public final class CompactTarget {
+
+    static final byte CLASS_A = 1;
+    static final byte CLASS_B = 2;
+    static final byte BS = 3;
+    static final byte ATON = 4;
+
+    private static final byte HAS_POSITION = 1;
+    private static final byte HAS_STATIC = 2;
+    private static final byte HAS_SHIP_TYPE = 4;
+    private static final byte HAS_DIMENSIONS = 8;
+
+    private static final int NO_POS = Integer.MIN_VALUE;
+    private static final short NO_VALUE = Short.MIN_VALUE;
+    private static final long NO_ETA = Long.MIN_VALUE;
+
+    private static final ShipType[] SHIP_TYPES = new ShipType[256];
+
+    private static final StringPool STRINGS = StringPool.getInstance();
+
+    // Static message used to create dimensions, which can only be created from a message
+    private static final AisStaticCommon DIMENSIONS_TEMPLATE = new AisMessage5();
+
+    static {
+        for (int i = 0; i < SHIP_TYPES.length; i++) {
+            // The ship type is a signed byte in the AisLib static data
+            SHIP_TYPES[i] = new ShipTypeCargo((byte) i).getShipType();
+        }
+    }
+
+    private final byte type;
+    private byte flags;
+    private int mmsi;
+    private Country country;
+    private final long created;
+    private long lastReport;
+
+    // Position in 1/10000 minutes
+    private int lat = NO_POS;
+    private int lon = NO_POS;
+    // Speed and course in tenths, heading and rate of turn as reported
+    private short sog = NO_VALUE;
+    private short cog = NO_VALUE;
+    private short heading = NO_VALUE;
+    private short rot = NO_VALUE;
+    private byte posAcc;
+    private byte raim;
+    private byte utcSec;
+    private byte navStatus;
+    private byte specialManIndicator;
+
+    private String name;
+    private String callsign;
+    private byte shipType;
+    private short dimBow;
+    private short dimStern;
+    private byte dimPort;
+    private byte dimStarboard;
+
+    // Class A static data. IMO number 0 and draught 0 are not available.
+    private int imo;
+    private String destination;
+    private long eta = NO_ETA;
+    // Draught in tenths of meters
+    private short draught;
+    private byte posType;
+    private byte version;
+    private byte dte;
+
+    private CompactTarget(byte type) {
+        this.type = type;
+        this.created = System.currentTimeMillis();
+    }
+
+    /**
+     * Create a target of the type given by the message as {@link AisTarget#createTarget(AisMessage)}
+     *
+     * @return the target or null if the message does not hold target data
+     */
+    public static CompactTarget create(AisMessage message) {
+        if (message instanceof AisPositionMessage || message instanceof AisMessage5) {
+            return new CompactTarget(CLASS_A);
+        } else if (message instanceof AisMessage18 || message instanceof AisMessage24
+                || message instanceof AisMessage19) {
+            return new CompactTarget(CLASS_B);
+        } else if (message instanceof AisMessage4) {
+            return new CompactTarget(BS);
+        } else if (message instanceof AisMessage21) {
+            return new CompactTarget(ATON);
+        }
+        return null;
+    }
+
+    /**
+     * Update the target as the AisLib target of the same type
+     *
+     * @throws IllegalArgumentException
+     *             if the message is a report of another type of target
+     */
+    public void update(AisMessage message) {
+        boolean classA = message instanceof AisPositionMessage || message instanceof AisMessage5;
+        boolean classB = message instanceof AisMessage18 || message instanceof AisMessage24
+                || message instanceof AisMessage19;
+        boolean bs = message instanceof AisMessage4;
+        boolean aton = message instanceof AisMessage21;
+        boolean relevant;
+        switch (type) {
+        case CLASS_A:
+            relevant = classA;
+            break;
+        case CLASS_B:
+            relevant = classB;
+            break;
+        case BS:
+            relevant = bs;
+            break;
+        default:
+            relevant = aton;
+            break;
+        }
+        if (!relevant) {
+            if (classA || classB || bs || aton) {
+                throw new IllegalArgumentException("Trying to update target with report of other target type");
+            }
+            return;
+        }
+
+        if (message instanceof AisMessage5) {
+            updateStatic((AisMessage5) message);
+        } else if (message instanceof AisPositionMessage) {
+            AisPositionMessage positionMessage = (AisPositionMessage) message;
+            updatePosition(positionMessage);
+            rot = positionMessage.isRotValid() ? (short) positionMessage.getRot() : NO_VALUE;
+            navStatus = (byte) positionMessage.getNavStatus();
+            specialManIndicator = (byte) positionMessage.getSpecialManIndicator();
+        } else if (message instanceof AisMessage18) {
+            updatePosition((AisMessage18) message);
+        } else if (message instanceof AisMessage24) {
+            updateStatic((AisMessage24) message);
+        } else if (message instanceof AisMessage19) {
+            updatePosition((AisMessage19) message);
+            updateStatic((AisStaticCommon) message);
+        }
+
+        if (lastReport == 0) {
+            country = Country.getCountryForMmsi(message.getUserId());
+        }
+        mmsi = message.getUserId();
+        Date timestamp = message.getVdm().getTimestamp();
+        lastReport = timestamp != null ? timestamp.getTime() : System.currentTimeMillis();
+    }
+
+    private void updatePosition(IVesselPositionMessage message) {
+        sog = message.isSogValid() ? (short) message.getSog() : NO_VALUE;
+        cog = message.isCogValid() ? (short) message.getCog() : NO_VALUE;
+        heading = message.isHeadingValid() ? (short) message.getTrueHeading() : NO_VALUE;
+        Position pos = message.isPositionValid() ? message.getPos().getGeoLocation() : null;
+        if (pos != null) {
+            lat = (int) Math.round(pos.getLatitude() * 600000);
+            lon = (int) Math.round(pos.getLongitude() * 600000);
+        } else {
+            lat = NO_POS;
+            lon = NO_POS;
+        }
+        posAcc = (byte) message.getPosAcc();
+        raim = (byte) message.getRaim();
+        utcSec = (byte) message.getUtcSec();
+        flags |= HAS_POSITION;
+    }
+
+    private void updateStatic(AisStaticCommon message) {
+        name = STRINGS.intern(AisMessage.trimText(message.getName()));
+        callsign = STRINGS.intern(AisMessage.trimText(message.getCallsign()));
+        updateShipTypeAndDimensions(message);
+    }
+
+    private void updateStatic(AisMessage5 message) {
+        String dest = AisMessage.trimText(message.getDest());
+        destination = dest != null && dest.length() > 0 ? STRINGS.intern(dest) : null;
+        draught = (short) message.getDraught();
+        Date etaDate = message.getEtaDate();
+        eta = etaDate != null ? etaDate.getTime() : NO_ETA;
+        posType = (byte) message.getPosType();
+        version = (byte) message.getVersion();
+        dte = (byte) message.getDte();
+        // A missing IMO number does not clear a known one
+        if (message.getImo() > 0) {
+            imo = (int) message.getImo();
+        }
+        updateStatic((AisStaticCommon) message);
+    }
+
+    private void updateStatic(AisMessage24 message) {
+        if (message.getPartNumber() == 0) {
+            name = STRINGS.intern(AisMessage.trimText(message.getName()));
+            flags |= HAS_STATIC;
+        } else {
+            callsign = STRINGS.intern(AisMessage.trimText(message.getCallsign()));
+            updateShipTypeAndDimensions(message);
+        }
+    }
+
+    private void updateShipTypeAndDimensions(AisStaticCommon message) {
+        shipType = (byte) message.getShipType();
+        dimBow = (short) message.getDimBow();
+        dimStern = (short) message.getDimStern();
+        dimPort = (byte) message.getDimPort();
+        dimStarboard = (byte) message.getDimStarboard();
+        flags |= HAS_STATIC | HAS_SHIP_TYPE | HAS_DIMENSIONS;
+    }
+
+    /**
+     * Create the AisLib target with the values of this target
+     */
+    public AisTarget toAisTarget() {
+        AisTarget target;
+        switch (type) {
+        case CLASS_A:
+            target = new AisClassATarget();
+            break;
+        case CLASS_B:
+            target = new AisClassBTarget();
+            break;
+        case BS:
+            target = new AisBsTarget();
+            break;
+        default:
+            target = new AisAtonTarget();
+            break;
+        }
+        target.setMmsi(mmsi);
+        target.setCountry(country);
+        target.setCreated(new Date(created));
+        if (lastReport != 0) {
+            target.setLastReport(new Date(lastReport));
+        }
+        if (target instanceof AisVesselTarget) {
+            AisVesselTarget vesselTarget = (AisVesselTarget) target;
+            if ((flags & HAS_POSITION) != 0) {
+                vesselTarget.setVesselPosition(toVesselPosition());
+            }
+            if ((flags & HAS_STATIC) != 0) {
+                vesselTarget.setVesselStatic(toVesselStatic());
+            }
+        }
+        return target;
+    }
+
+    private AisVesselPosition toVesselPosition() {
+        AisVesselPosition pos;
+        if (type == CLASS_A) {
+            AisClassAPosition classAPos = new AisClassAPosition();
+            classAPos.setRot(rot == NO_VALUE ? null : Double.valueOf(rot));
+            classAPos.setNavStatus(navStatus);
+            classAPos.setSpecialManIndicator(specialManIndicator);
+            pos = classAPos;
+        } else {
+            pos = new AisClassBPosition();
+        }
+        pos.setMmsi(mmsi);
+        pos.setSog(sog == NO_VALUE ? null : sog / 10.0);
+        pos.setCog(cog == NO_VALUE ? null : cog / 10.0);
+        pos.setHeading(heading == NO_VALUE ? null : Double.valueOf(heading));
+        pos.setPos(getPos());
+        pos.setPosAcc(posAcc);
+        pos.setRaim(raim);
+        pos.setUtcSec(utcSec);
+        return pos;
+    }
+
+    private AisVesselStatic toVesselStatic() {
+        AisVesselStatic statics;
+        if (type == CLASS_A) {
+            AisClassAStatic classAStatics = new AisClassAStatic();
+            classAStatics.setImoNo(imo == 0 ? null : imo);
+            classAStatics.setDestination(destination);
+            classAStatics.setDraught(draught == 0 ? null : draught / 10.0);
+            classAStatics.setEta(eta == NO_ETA ? null : new Date(eta));
+            classAStatics.setPosType(posType);
+            classAStatics.setVersion(version);
+            classAStatics.setDte(dte);
+            statics = classAStatics;
+        } else {
+            statics = new AisClassBStatic();
+        }
+        statics.setMmsi(mmsi);
+        statics.setName(name);
+        statics.setCallsign(callsign);
+        if ((flags & HAS_SHIP_TYPE) != 0) {
+            statics.setShipType(shipType);
+            statics.setShipTypeCargo(new ShipTypeCargo(shipType));
+        }
+        if ((flags & HAS_DIMENSIONS) != 0) {
+            AisTargetDimensions dimensions = new AisTargetDimensions(DIMENSIONS_TEMPLATE);
+            dimensions.setDimBow(dimBow);
+            dimensions.setDimStern(dimStern);
+            dimensions.setDimPort(dimPort);
+            dimensions.setDimStarboard(dimStarboard);
+            statics.setDimensions(dimensions);
+        }
+        return statics;
+    }
+
+    public int getMmsi() {
+        return mmsi;
+    }
+
+    public Country getCountry() {
+        return country;
+    }
+
+    /**
+     * Time of the last report in milliseconds, 0 if the target has not been updated
+     */
+    public long getLastReport() {
+        return lastReport;
+    }
+
+    public boolean isAlive(int ttl) {
+        return lastReport != 0 && (System.currentTimeMillis() - lastReport) / 1000 < ttl;
+    }
+
+    public boolean isVessel() {
+        return type == CLASS_A || type == CLASS_B;
+    }
+
+    public boolean isClassA() {
+        return type == CLASS_A;
+    }
+
+    /**
+     * @return true if the target has received a position report with a valid position
+     */
+    public boolean hasPos() {
+        return lat != NO_POS;
+    }
+
+    /**
+     * Latitude as in {@link dk.dma.ais.message.AisPosition#getGeoLocation()}
+     */
+    public double getLatitude() {
+        return lat / 10000.0 / 60.0;
+    }
+
+    public double getLongitude() {
+        return lon / 10000.0 / 60.0;
+    }
+
+    /**
+     * Position or null if no valid position has been received
+     */
+    public Position getPos() {
+        return lat == NO_POS ? null : Position.create(getLatitude(), getLongitude());
+    }
+
+    /**
+     * Speed over ground in tenths of knots, negative if not available
+     */
+    public int getSogTenths() {
+        return sog == NO_VALUE ? -1 : sog;
+    }
+
+    /**
+     * Course over ground in tenths of degrees, negative if not available
+     */
+    public int getCogTenths() {
+        return cog == NO_VALUE ? -1 : cog;
+    }
+
+    /**
+     * Navigational status of the last class A position report
+     */
+    public byte getNavStatus() {
+        return navStatus;
+    }
+
+    public boolean hasStatic() {
+        return (flags & HAS_STATIC) != 0;
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    public String getCallsign() {
+        return callsign;
+    }
+
+    /**
+     * Ship type or null if not reported
+     */
+    public ShipType getShipType() {
+        return (flags & HAS_SHIP_TYPE) != 0 ? SHIP_TYPES[shipType & 0xFF] : null;
+    }
+
+    /**
+     * IMO number or 0 if not available
+     */
+    public int getImo() {
+        return imo;
+    }
+
+}
@@ -0,0 +1,197 @@
+/* Copyright (c) 2011 Danish Maritime Authority.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package dk.dma.ais.analysis.viewer.handler;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.apache.log4j.Logger;
+
+import dk.dma.ais.analysis.common.metrics.Counter;
+import dk.dma.ais.analysis.common.metrics.Gauge;
+import dk.dma.ais.analysis.common.metrics.MetricsRegistry;
+import dk.dma.ais.packet.AisPacket;
+import dk.dma.enav.util.function.Consumer;
+
+/**
+ * Ingest buffer between the AisBus and the handler absorbing bursts from satellite dumps and reconnects. Packets are
+ * passed to the handler in order of arrival by a separate thread as fast as the handler accepts them.
+ * <p>
+ * A position report replaces the pending position report of the same MMSI, so a burst only delays positions and
+ * delivers the newest. A copy of the pending report received from another source, with the same payload, does not
+ * replace it but is passed on right after it, so the handler records the source of the copy as a duplicate. Static
+ * reports and all other messages are always kept. Packets are only dropped when the buffer holds its maximum number of
+ * pending packets.
+ */
+public class ConflatingQueue extends Thread implements Consumer<AisPacket> {
+
+    private static Logger LOG = Logger.getLogger(ConflatingQueue.class);
+
+    private final Consumer<AisPacket> handler;
+    private final int maxSize;
+
+    // Pending packets in order of arrival
+    private final ArrayDeque<Slot> queue = new ArrayDeque<>();
+    // Number of pending packets, including copies
+    private int size;
+    // Pending position reports by MMSI
+    private final Map<Integer, Slot> positions = new HashMap<>();
+
+    private final Counter conflated;
+    private final Counter dropped;
+
+    /**
+     * @param handler
+     *            consumer of the packets
+     * @param maxSize
+     *            maximum number of pending packets
+     */
+    public ConflatingQueue(Consumer<AisPacket> handler, int maxSize) {
+        super("ConflatingQueue");
+        setDaemon(true);
+        this.handler = handler;
+        this.maxSize = maxSize;
+        MetricsRegistry metrics = MetricsRegistry.getInstance();
+        conflated = metrics.counter("aisview_conflated_total",
+                "Pending position reports replaced by a newer report from the same MMSI");
+        dropped = metrics.counter("aisview_conflation_dropped_total",
+                "Packets dropped because the ingest buffer is full");
+        metrics.gauge("aisview_conflation_queue_size", "Packets pending in the ingest buffer", new Gauge() {
+            @Override
+            public double getValue() {
+                return size();
+            }
+        });
+    }
+
+    @Override
+    public void accept(AisPacket packet) {
+        String raw = packet.getStringMessage();
+        int mmsi = isPositionReport(RawPayload.msgId(raw)) ? RawPayload.mmsi(raw) : -1;
+        long hash = mmsi >= 0 ? RawPayload.hash(raw) : 0;
+        synchronized (this) {
+            Slot pending = mmsi >= 0 ? positions.get(mmsi) : null;
+            if (pending != null && (hash == 0 || hash != pending.hash)) {
+                // Copies of the replaced report are dropped with it
+                size -= pending.copies();
+                pending.packet = packet;
+                pending.hash = hash;
+                pending.copies = null;
+                conflated.inc();
+                return;
+            }
+            if (size >= maxSize) {
+                dropped.inc();
+                return;
+            }
+            size++;
+            if (pending != null) {
+                pending.addCopy(packet);
+                return;
+            }
+            Slot slot = new Slot(packet, mmsi, hash);
+            if (mmsi >= 0) {
+                positions.put(mmsi, slot);
+            }
+            queue.add(slot);
+            if (queue.size() == 1) {
+                notify();
+            }
+        }
+    }
+
+    /**
+     * Number of pending packets, including copies of pending position reports
+     */
+    public synchronized int size() {
+        return size;
+    }
+
+    @Override
+    public void run() {
+        while (true) {
+            Slot slot;
+            synchronized (this) {
+                while (queue.isEmpty()) {
+                    try {
+                        wait();
+                    } catch (InterruptedException e) {
+                        LOG.info("Stopping ConflatingQueue");
+                        return;
+                    }
+                }
+                slot = queue.poll();
+                if (slot.mmsi >= 0) {
+                    positions.remove(slot.mmsi);
+                }
+                size -= 1 + slot.copies();
+            }
+            handle(slot.packet);
+            if (slot.copies != null) {
+                for (AisPacket copy : slot.copies) {
+                    handle(copy);
+                }
+            }
+        }
+    }
+
+    private void handle(AisPacket packet) {
+        try {
+            handler.accept(packet);
+        } catch (RuntimeException e) {
+            LOG.error("Failed to handle packet: " + e.getMessage(), e);
+        }
+    }
+
+    /**
+     * Messages that only report the current position of a target: #1-#3, #4 and #18
+     */
+    private static boolean isPositionReport(int msgId) {
+        return msgId >= 1 && msgId <= 4 || msgId == 18;
+    }
+
+    /**
+     * Pending packet. The packet of a position report is replaced while pending, and copies of it from other sources
+     * are kept with it.
+     */
+    private static final class Slot {
+        AisPacket packet;
+        // Payload hash of a position report
+        long hash;
+        List<AisPacket> copies;
+        final int mmsi;
+
+        Slot(AisPacket packet, int mmsi, long hash) {
+            this.packet = packet;
+            this.mmsi = mmsi;
+            this.hash = hash;
+        }
+
+        void addCopy(AisPacket copy) {
+            if (copies == null) {
+                copies = new ArrayList<>(2);
+            }
+            copies.add(copy);
+        }
+
+        int copies() {
+            return copies == null ? 0 : copies.size();
+        }
+    }
+
+}
@@ -0,0 +1,138 @@
+/* Copyright (c) 2011 Danish Maritime Authority.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package dk.dma.ais.analysis.viewer.handler;
+
+import java.util.Arrays;
+
+/**
+ * Detection of copies of the same AIS message received by several base stations or satellites. A message is
+ * identified by a 64 bit hash of the payloads of its VDM/VDO sentences, see {@link RawPayload#hash(String)}. Hashes
+ * are remembered in two generations rotated every window, so a copy is detected if it arrives between one and two
+ * windows after the first.
+ * <p>
+ * Hash collisions between different messages are possible but rare enough to be ignored.
+ */
+public class DuplicateFilter {
+
+    private final long window;
+    private long rotated;
+    private LongHashSet current = new LongHashSet();
+    private LongHashSet previous = new LongHashSet();
+
+    /**
+     * @param window
+     *            minimum time in milliseconds a payload is remembered
+     */
+    public DuplicateFilter(long window) {
+        this.window = window;
+    }
+
+    /**
+     * Check if a payload hash has been seen within the window. The hash is remembered if not.
+     *
+     * @param hash
+     *            payload hash from {@link RawPayload#hash(String)}
+     * @param now
+     *            current time in milliseconds
+     * @return true if the hash has been seen before
+     */
+    public synchronized boolean isDuplicate(long hash, long now) {
+        if (now - rotated >= window) {
+            LongHashSet recycled = previous;
+            previous = current;
+            current = recycled;
+            current.clear();
+            // Forget everything if nothing has been received for two windows
+            if (now - rotated >= 2 * window) {
+                previous.clear();
+            }
+            rotated = now;
+        }
+        if (current.contains(hash) || previous.contains(hash)) {
+            return true;
+        }
+        current.add(hash);
+        return false;
+    }
+
+    /**
+     * Number of remembered hashes
+     */
+    public synchronized int size() {
+        return current.size + previous.size;
+    }
+
+    /**
+     * Open addressing set of non-zero longs
+     */
+    private static final class LongHashSet {
+
+        private long[] table = new long[1024];
+        private int size;
+
+        boolean contains(long hash) {
+            int mask = table.length - 1;
+            for (int i = index(hash, mask);; i = i + 1 & mask) {
+                long value = table[i];
+                if (value == hash) {
+                    return true;
+                }
+                if (value == 0) {
+                    return false;
+                }
+            }
+        }
+
+        void add(long hash) {
+            if (2 * (size + 1) > table.length) {
+                grow();
+            }
+            int mask = table.length - 1;
+            int i = index(hash, mask);
+            while (table[i] != 0) {
+                i = i + 1 & mask;
+            }
+            table[i] = hash;
+            size++;
+        }
+
+        void clear() {
+            if (size > 0) {
+                Arrays.fill(table, 0);
+                size = 0;
+            }
+        }
+
+        private void grow() {
+            long[] old = table;
+            table = new long[old.length * 2];
+            int mask = table.length - 1;
+            for (long value : old) {
+                if (value != 0) {
+                    int i = index(value, mask);
+                    while (table[i] != 0) {
+                        i = i + 1 & mask;
+                    }
+                    table[i] = value;
+                }
+            }
+        }
+
+        private static int index(long hash, int mask) {
+            return (int) (hash ^ hash >>> 32) & mask;
+        }
+    }
+
+}
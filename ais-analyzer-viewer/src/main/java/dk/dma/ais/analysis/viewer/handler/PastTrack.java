@@ -0,0 +1,106 @@
+/* Copyright (c) 2011 Danish Maritime Authority.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package dk.dma.ais.analysis.viewer.handler;
+
+import java.io.Serializable;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.TreeSet;
+
+import dk.dma.ais.data.AisVesselPosition;
+import dk.dma.ais.data.IPastTrack;
+import dk.dma.ais.data.PastTrackPoint;
+import dk.dma.enav.model.geometry.Position;
+
+/**
+ * Past track keeping the same points as {@link dk.dma.ais.data.PastTrackSortedSet}, but able to tell its size without
+ * copying the points
+ */
+public class PastTrack implements IPastTrack, Serializable {
+
+    private static final long serialVersionUID = 1L;
+
+    private final TreeSet<PastTrackPoint> points = new TreeSet<>();
+
+    @Override
+    public void addPosition(AisVesselPosition vesselPosition, int minDist) {
+        if (vesselPosition == null || vesselPosition.getPos() == null || vesselPosition.getSourceTimestamp() == null) {
+            return;
+        }
+        PastTrackPoint point = new PastTrackPoint(vesselPosition);
+        if (!points.add(point) || minDist <= 0) {
+            return;
+        }
+        if (point == points.last()) {
+            // Remove points made redundant by the new last point
+            PastTrackPoint lower;
+            while ((lower = points.lower(point)) != null) {
+                PastTrackPoint lowerLower = points.lower(lower);
+                if (lowerLower == null || !isTooClose(point, lowerLower, minDist)) {
+                    break;
+                }
+                points.remove(lower);
+            }
+        } else {
+            // Out of order points end up being dropped by PastTrackSortedSet, as the ceiling of the point is the
+            // point itself
+            points.remove(point);
+        }
+    }
+
+    private static boolean isTooClose(PastTrackPoint point, PastTrackPoint other, int minDist) {
+        Position pos = Position.create(point.getLat(), point.getLon());
+        return pos.rhumbLineDistanceTo(Position.create(other.getLat(), other.getLon())) < minDist;
+    }
+
+    @Override
+    public void cleanup(int ttl) {
+        while (points.size() > 0 && points.first().isDead(ttl)) {
+            points.pollFirst();
+        }
+    }
+
+    /**
+     * Remove the oldest points exceeding a maximum number of points
+     *
+     * @return the number of points removed
+     */
+    public int trim(int maxSize) {
+        int removed = 0;
+        while (points.size() > maxSize) {
+            points.pollFirst();
+            removed++;
+        }
+        return removed;
+    }
+
+    @Override
+    public List<PastTrackPoint> getPoints() {
+        return new ArrayList<>(points);
+    }
+
+    public int size() {
+        return points.size();
+    }
+
+    /**
+     * Add the points to a collection without an intermediate copy
+     */
+    void addPointsTo(Collection<PastTrackPoint> out) {
+        out.addAll(points);
+    }
+
+}
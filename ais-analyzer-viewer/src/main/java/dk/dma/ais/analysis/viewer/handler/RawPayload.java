@@ -0,0 +1,186 @@
+/* Copyright (c) 2011 Danish Maritime Authority.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package dk.dma.ais.analysis.viewer.handler;
+
+/**
+ * Reading of the armored payload of raw VDM/VDO sentences without parsing the sentences or decoding the message. Used
+ * to reject and suppress messages before the cost of decoding.
+ */
+public final class RawPayload {
+
+    private static final long FNV_OFFSET = 0xcbf29ce484222325L;
+    private static final long FNV_PRIME = 0x100000001b3L;
+
+    private RawPayload() {
+
+    }
+
+    /**
+     * Read the message id from the payload of the first VDM or VDO sentence of a raw packet
+     *
+     * @param raw
+     *            the raw packet lines
+     * @return the message id or -1 if the packet holds no valid VDM or VDO sentence
+     */
+    public static int msgId(String raw) {
+        int payload = payloadStart(raw, 0);
+        if (payload < 0 || payload >= raw.length()) {
+            return -1;
+        }
+        return sixbit(raw.charAt(payload));
+    }
+
+    /**
+     * Read the MMSI from the payload of the first VDM or VDO sentence of a raw packet
+     *
+     * @param raw
+     *            the raw packet lines
+     * @return the MMSI or -1 if the packet holds no valid VDM or VDO sentence
+     */
+    public static int mmsi(String raw) {
+        int payload = payloadStart(raw, 0);
+        if (payload < 0 || payload + 7 > raw.length()) {
+            return -1;
+        }
+        // The MMSI is bits 8-37, in the first seven six bit characters
+        long bits = 0;
+        for (int i = 0; i < 7; i++) {
+            int value = sixbit(raw.charAt(payload + i));
+            if (value < 0) {
+                return -1;
+            }
+            bits = bits << 6 | value;
+        }
+        return (int) (bits >>> 4 & 0x3FFFFFFF);
+    }
+
+    /**
+     * Check if a message id is one of the messages holding target data: #1-#3, #4, #5, #18, #19, #21 and #24. This is
+     * the set accepted by {@link dk.dma.ais.data.AisTarget#isTargetDataMessage(dk.dma.ais.message.AisMessage)}.
+     */
+    public static boolean isTargetDataMessage(int msgId) {
+        switch (msgId) {
+        case 1:
+        case 2:
+        case 3:
+        case 4:
+        case 5:
+        case 18:
+        case 19:
+        case 21:
+        case 24:
+            return true;
+        default:
+            return false;
+        }
+    }
+
+    /**
+     * Hash the payloads and fill bits of the VDM and VDO sentences of a raw packet. Comment blocks and proprietary
+     * sentences are ignored, so copies received with different tagging get the same hash.
+     *
+     * @param raw
+     *            the raw packet lines
+     * @return the hash or 0 if the packet holds no VDM or VDO sentences
+     */
+    public static long hash(String raw) {
+        long hash = FNV_OFFSET;
+        boolean found = false;
+        int pos = 0;
+        int payload;
+        while ((payload = payloadStart(raw, pos)) >= 0) {
+            // Hash the payload and the fill bits of the sentence
+            int i = payload;
+            for (; i < raw.length(); i++) {
+                char c = raw.charAt(i);
+                if (c == '*' || c == '\r' || c == '\n') {
+                    break;
+                }
+                hash = (hash ^ c) * FNV_PRIME;
+            }
+            // Separate sentences of multi-sentence messages
+            hash = (hash ^ '\n') * FNV_PRIME;
+            found = true;
+            pos = i;
+        }
+        if (!found) {
+            return 0;
+        }
+        return hash == 0 ? 1 : hash;
+    }
+
+    /**
+     * Find the payload of the first VDM or VDO sentence in the lines from a position
+     *
+     * @return index of the payload in field 5 or -1 if there are no more VDM or VDO sentences
+     */
+    private static int payloadStart(String raw, int from) {
+        int length = raw.length();
+        int pos = from;
+        while (pos < length) {
+            int end = raw.indexOf('\n', pos);
+            if (end < 0) {
+                end = length;
+            }
+            int start = sentenceStart(raw, pos, end);
+            if (start >= 0) {
+                int field = 0;
+                int i = start;
+                while (i < end && field < 5) {
+                    if (raw.charAt(i++) == ',') {
+                        field++;
+                    }
+                }
+                if (field == 5) {
+                    return i;
+                }
+            }
+            pos = end + 1;
+        }
+        return -1;
+    }
+
+    /**
+     * Find the start of a VDM or VDO sentence in a line
+     *
+     * @return index of the '!' starting the sentence or -1 if the line is not a VDM or VDO sentence
+     */
+    private static int sentenceStart(String raw, int from, int end) {
+        int start = from;
+        // Skip a leading comment block
+        if (start < end && raw.charAt(start) == '\\') {
+            int close = raw.indexOf('\\', start + 1);
+            if (close < 0 || close >= end) {
+                return -1;
+            }
+            start = close + 1;
+        }
+        if (start + 6 >= end || raw.charAt(start) != '!' || raw.charAt(start + 3) != 'V'
+                || raw.charAt(start + 4) != 'D') {
+            return -1;
+        }
+        char c = raw.charAt(start + 5);
+        return c == 'M' || c == 'O' ? start : -1;
+    }
+
+    private static int sixbit(char c) {
+        if (c < '0' || c > 'w' || c > 'W' && c < '`') {
+            return -1;
+        }
+        int value = c - 48;
+        return value > 40 ? value - 8 : value;
+    }
+
+}
@@ -0,0 +1,182 @@
+/* Copyright (c) 2011 Danish Maritime Authority.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package dk.dma.ais.analysis.viewer.handler;
+
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+
+import dk.dma.ais.analysis.viewer.configuration.AisViewConfiguration;
+import dk.dma.ais.analysis.viewer.rest.VesselListFilter;
+import dk.dma.ais.packet.AisPacketTags.SourceType;
+
+/**
+ * A {@link VesselListFilter} compiled against the dictionaries of a {@link TargetSnapshot}. Filter values become masks
+ * over dictionary codes, so matching a row only reads primitive arrays.
+ */
+public class SnapshotFilter {
+
+    private final TargetSnapshot snapshot;
+    private final long now;
+    private final int liveTtl;
+    private final int satTtl;
+
+    // If quering for SAT the ttl will be forced to sat ttl
+    private final boolean forceSatTtl;
+    private final boolean acceptClassA;
+    private final boolean acceptClassB;
+    private final boolean[] countries;
+    private final boolean[] liveSourceTypes;
+    private final boolean[] satSourceTypes;
+    private final boolean[] sourceCountries;
+    private final boolean[] sourceRegions;
+    private final boolean[] sourceBs;
+    private final boolean[] sourceSystems;
+    private final boolean requireStatic;
+    private final boolean requireNoStatic;
+
+    public SnapshotFilter(TargetSnapshot snapshot, VesselListFilter filter, AisViewConfiguration conf) {
+        this.snapshot = snapshot;
+        this.now = System.currentTimeMillis();
+        this.liveTtl = conf.getLiveTargetTtl();
+        this.satTtl = conf.getSatTargetTtl();
+        Map<String, HashSet<String>> filterMap = filter.getFilterMap();
+
+        Set<String> sourceType = filterMap.get("sourceType");
+        forceSatTtl = sourceType != null && sourceType.contains("SAT");
+        if (sourceType != null) {
+            TargetSnapshot.Dictionary dictionary = snapshot.getSources(TargetSnapshot.SOURCE_TYPE).dictionary;
+            liveSourceTypes = new boolean[dictionary.size()];
+            satSourceTypes = new boolean[dictionary.size()];
+            for (String st : sourceType) {
+                SourceType type = SourceType.fromString(st);
+                int code = dictionary.get(st);
+                if (type != null && code >= 0) {
+                    if (type == SourceType.SATELLITE) {
+                        satSourceTypes[code] = true;
+                    } else {
+                        liveSourceTypes[code] = true;
+                    }
+                }
+            }
+        } else {
+            liveSourceTypes = null;
+            satSourceTypes = null;
+        }
+
+        Set<String> vesselClass = filterMap.get("vesselClass");
+        acceptClassA = vesselClass == null || vesselClass.contains("A");
+        acceptClassB = vesselClass == null || vesselClass.contains("B");
+
+        countries = mask(snapshot.getCountries(), filterMap.get("country"));
+        sourceCountries = mask(TargetSnapshot.SOURCE_COUNTRY, filterMap.get("sourceCountry"));
+        sourceRegions = mask(TargetSnapshot.SOURCE_REGION, filterMap.get("sourceRegion"));
+        sourceBs = mask(TargetSnapshot.SOURCE_BS, filterMap.get("sourceBs"));
+        sourceSystems = mask(TargetSnapshot.SOURCE_SYSTEM, filterMap.get("sourceSystem"));
+
+        Set<String> staticReport = filterMap.get("staticReport");
+        requireStatic = staticReport != null && staticReport.contains("yes");
+        requireNoStatic = staticReport != null && staticReport.contains("no");
+    }
+
+    private boolean[] mask(int dimension, Set<String> values) {
+        return mask(snapshot.getSources(dimension).dictionary, values);
+    }
+
+    private static boolean[] mask(TargetSnapshot.Dictionary dictionary, Set<String> values) {
+        if (values == null) {
+            return null;
+        }
+        boolean[] mask = new boolean[dictionary.size()];
+        for (String value : values) {
+            int code = dictionary.get(value);
+            if (code >= 0) {
+                mask[code] = true;
+            }
+        }
+        return mask;
+    }
+
+    /**
+     * @return true if the vessel of the row is alive and passes the filter
+     */
+    public boolean matches(int row) {
+        TargetSnapshot s = snapshot;
+        // Determine TTL
+        int ttl = forceSatTtl || s.isSatData(row) ? satTtl : liveTtl;
+
+        // Is it alive
+        long lastReport = s.getLastReport(row);
+        if (lastReport == 0 || (now - lastReport) / 1000 >= ttl) {
+            return false;
+        }
+
+        // Maybe filtered away
+        if (!matchesVessel(row)) {
+            return false;
+        }
+        if (liveSourceTypes != null) {
+            TargetSnapshot.Sources types = s.getSources(TargetSnapshot.SOURCE_TYPE);
+            if (!types.isFresh(row, liveSourceTypes, now, liveTtl)
+                    && !types.isFresh(row, satSourceTypes, now, satTtl)) {
+                return false;
+            }
+        }
+        if (!isFresh(TargetSnapshot.SOURCE_COUNTRY, sourceCountries, row, ttl)
+                || !isFresh(TargetSnapshot.SOURCE_REGION, sourceRegions, row, ttl)
+                || !isFresh(TargetSnapshot.SOURCE_BS, sourceBs, row, ttl)
+                || !isFresh(TargetSnapshot.SOURCE_SYSTEM, sourceSystems, row, ttl)) {
+            return false;
+        }
+        return true;
+    }
+
+    /**
+     * Match the vessel class, flag country and static report of a row, regardless of whether the vessel is alive and
+     * where it has been received from
+     */
+    public boolean matchesVessel(int row) {
+        TargetSnapshot s = snapshot;
+        if (!(s.isClassA(row) ? acceptClassA : acceptClassB)) {
+            return false;
+        }
+        if (countries != null) {
+            int code = s.getCountryCode(row);
+            if (code < 0 || !countries[code]) {
+                return false;
+            }
+        }
+        boolean hasStatic = s.hasStatic(row);
+        if (requireStatic && !hasStatic || requireNoStatic && hasStatic) {
+            return false;
+        }
+        return true;
+    }
+
+    /**
+     * @return true if a vessel not in the snapshot passes the vessel class, flag country and static report filters
+     */
+    public boolean matchesUnknownVessel() {
+        return acceptClassA && acceptClassB && countries == null && !requireStatic;
+    }
+
+    /**
+     * @return true if there is no mask or the row has a value of the mask received within ttl
+     */
+    private boolean isFresh(int dimension, boolean[] mask, int row, int ttl) {
+        return mask == null || snapshot.getSources(dimension).isFresh(row, mask, now, ttl);
+    }
+
+}
@@ -0,0 +1,97 @@
+/* Copyright (c) 2011 Danish Maritime Authority.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package dk.dma.ais.analysis.viewer.handler;
+
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveTask;
+
+import dk.dma.ais.analysis.common.web.Cancellation;
+
+/**
+ * Scan of a range of snapshot rows, split in halves over a {@link ForkJoinPool} until ranges are no larger than the
+ * grain. Each leaf accumulates into its own partial result, and partial results are merged pairwise when the halves
+ * are joined. The left partial always holds the lower rows, so merging can preserve row order.
+ * <p>
+ * Leaves check the {@link Cancellation} of the request at regular intervals and stop with a
+ * {@link java.util.concurrent.CancellationException} if the request has been cancelled.
+ * 
+ * @param <T>
+ *            type of partial result
+ */
+abstract class SnapshotScan<T> extends RecursiveTask<T> {
+
+    private static final long serialVersionUID = 1L;
+
+    private final int from;
+    private final int to;
+    private final int grain;
+    private final Cancellation cancellation;
+
+    SnapshotScan(int from, int to, int grain, Cancellation cancellation) {
+        this.from = from;
+        this.to = to;
+        this.grain = Math.max(1, grain);
+        this.cancellation = cancellation;
+    }
+
+    int getGrain() {
+        return grain;
+    }
+
+    Cancellation getCancellation() {
+        return cancellation;
+    }
+
+    /**
+     * Create a scan of the given rows with the same parameters as this scan
+     */
+    abstract SnapshotScan<T> split(int from, int to);
+
+    abstract T newPartial();
+
+    abstract void scan(T partial, int row);
+
+    /**
+     * Merge the partial result of higher rows into the partial result of lower rows
+     */
+    abstract T merge(T lower, T higher);
+
+    /**
+     * Scan all rows on the calling thread
+     */
+    T scanAll() {
+        T partial = newPartial();
+        for (int row = from; row < to; row++) {
+            if ((row & 4095) == 0) {
+                cancellation.check();
+            }
+            scan(partial, row);
+        }
+        return partial;
+    }
+
+    @Override
+    protected T compute() {
+        if (to - from <= grain) {
+            return scanAll();
+        }
+        int mid = (from + to) >>> 1;
+        SnapshotScan<T> lower = split(from, mid);
+        lower.fork();
+        T higher = split(mid, to).compute();
+        return merge(lower.join(), higher);
+    }
+
+}
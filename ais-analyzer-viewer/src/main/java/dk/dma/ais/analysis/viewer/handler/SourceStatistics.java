@@ -0,0 +1,244 @@
+/* Copyright (c) 2011 Danish Maritime Authority.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package dk.dma.ais.analysis.viewer.handler;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+
+import net.jcip.annotations.GuardedBy;
+import net.jcip.annotations.ThreadSafe;
+
+import dk.dma.ais.analysis.common.sketch.HyperLogLog;
+import dk.dma.ais.analysis.viewer.rest.json.SourceHealth;
+import dk.dma.ais.packet.AisPacket;
+import dk.dma.ais.packet.AisPacketTags;
+import dk.dma.ais.proprietary.GatehouseSourceTag;
+import dk.dma.ais.proprietary.IProprietaryTag;
+import dk.dma.ais.sentence.Vdm;
+import dk.dma.enav.util.function.Consumer;
+
+/**
+ * Health of the feeds of the sources of received packets: base stations, source ids, source countries and Gatehouse
+ * regions. For each source the messages per minute of the last hour, a sketch of the distinct MMSI numbers of each
+ * ten minutes of the last hour and the times of the first and last message are kept, so the health of all sources is
+ * read in time proportional to the number of sources, whatever the number of targets.
+ * <p>
+ * Every packet from the AisBus is recorded, including duplicates, packets replaced in the conflating queue and
+ * messages without target data.
+ */
+@ThreadSafe
+public class SourceStatistics implements Consumer<AisPacket> {
+
+    static final String BS = "bs";
+    static final String ID = "id";
+    static final String COUNTRY = "country";
+    static final String REGION = "region";
+
+    private static final long MINUTE = 60000;
+    private static final int MINUTES = 60;
+    private static final long SKETCH_INTERVAL = 10 * MINUTE;
+    private static final int SKETCHES = 6;
+    private static final int PRECISION = 10;
+
+    // Sources by dimension and value
+    @GuardedBy("this")
+    private final Map<String, Map<String, Source>> sources = new HashMap<>();
+
+    private final long ttl;
+
+    /**
+     * @param ttl
+     *            time in milliseconds sources without messages are kept
+     */
+    public SourceStatistics(long ttl) {
+        this.ttl = ttl;
+        for (String dimension : new String[] { BS, ID, COUNTRY, REGION }) {
+            sources.put(dimension, new HashMap<String, Source>());
+        }
+    }
+
+    /**
+     * Record the reception of a packet. Only the sentences and tags of the packet are read, and the MMSI is read from
+     * the raw payload.
+     */
+    @Override
+    public void accept(AisPacket packet) {
+        int mmsi = RawPayload.mmsi(packet.getStringMessage());
+        AisPacketTags tags = packet.getTags();
+        String region = null;
+        Vdm vdm = packet.getVdm();
+        if (vdm != null && vdm.getTags() != null) {
+            for (IProprietaryTag tag : vdm.getTags()) {
+                if (tag instanceof GatehouseSourceTag) {
+                    region = ((GatehouseSourceTag) tag).getRegion();
+                }
+            }
+        }
+        long now = System.currentTimeMillis();
+        synchronized (this) {
+            if (tags != null) {
+                if (tags.getSourceBs() != null) {
+                    source(BS, tags.getSourceBs().toString()).received(mmsi, now);
+                }
+                if (tags.getSourceId() != null) {
+                    source(ID, tags.getSourceId()).received(mmsi, now);
+                }
+                if (tags.getSourceCountry() != null) {
+                    source(COUNTRY, tags.getSourceCountry().getThreeLetter()).received(mmsi, now);
+                }
+            }
+            if (region != null) {
+                source(REGION, region).received(mmsi, now);
+            }
+        }
+    }
+
+    @GuardedBy("this")
+    private Source source(String dimension, String value) {
+        Map<String, Source> values = sources.get(dimension);
+        Source source = values.get(value);
+        if (source == null) {
+            source = new Source();
+            values.put(value, source);
+        }
+        return source;
+    }
+
+    /**
+     * Remove the sources without messages within the time to live
+     */
+    @GuardedBy("this")
+    private void expire(long now) {
+        for (Map<String, Source> values : sources.values()) {
+            Iterator<Source> it = values.values().iterator();
+            while (it.hasNext()) {
+                if (it.next().lastSeen + ttl < now) {
+                    it.remove();
+                }
+            }
+        }
+    }
+
+    /**
+     * Get the health of the sources. Sources without messages within the time to live are removed first.
+     *
+     * @param dimension
+     *            bs, id, country or region, or null for all
+     * @param quiet
+     *            time in milliseconds without messages after which a source is quiet
+     */
+    public synchronized List<SourceHealth> getHealth(String dimension, long quiet) {
+        long now = System.currentTimeMillis();
+        expire(now);
+        List<SourceHealth> result = new ArrayList<>();
+        for (Map.Entry<String, Map<String, Source>> values : sources.entrySet()) {
+            if (dimension != null && !dimension.equals(values.getKey())) {
+                continue;
+            }
+            for (Map.Entry<String, Source> entry : values.getValue().entrySet()) {
+                Source source = entry.getValue();
+                SourceHealth health = new SourceHealth();
+                health.setDimension(values.getKey());
+                health.setValue(entry.getKey());
+                health.setMessages(source.messages);
+                health.setFirstSeen(source.firstSeen);
+                health.setLastSeen(source.lastSeen);
+                health.setQuiet(source.lastSeen + quiet < now);
+                health.setRate1m(source.rate(now, 1));
+                health.setRate5m(source.rate(now, 5));
+                health.setRate60m(source.rate(now, MINUTES));
+                health.setVessels(source.vessels(now));
+                result.add(health);
+            }
+        }
+        return result;
+    }
+
+    /**
+     * Counters of a source. Messages are counted by minute and MMSI numbers sketched by ten minutes in rings, where
+     * the slot of a minute or ten minutes is cleared when it is reused.
+     */
+    private static final class Source {
+        long messages;
+        long firstSeen;
+        long lastSeen;
+        final int[] minuteCounts = new int[MINUTES];
+        long lastMinute;
+        final HyperLogLog[] sketches = new HyperLogLog[SKETCHES];
+        long lastSketch;
+
+        void received(int mmsi, long now) {
+            if (messages == 0) {
+                firstSeen = now;
+            }
+            messages++;
+            lastSeen = now;
+
+            long minute = now / MINUTE;
+            for (long m = Math.max(lastMinute + 1, minute - MINUTES + 1); m <= minute; m++) {
+                minuteCounts[(int) (m % MINUTES)] = 0;
+            }
+            lastMinute = Math.max(lastMinute, minute);
+            minuteCounts[(int) (minute % MINUTES)]++;
+
+            if (mmsi >= 0) {
+                long slot = now / SKETCH_INTERVAL;
+                for (long s = Math.max(lastSketch + 1, slot - SKETCHES + 1); s <= slot; s++) {
+                    sketches[(int) (s % SKETCHES)] = null;
+                }
+                lastSketch = Math.max(lastSketch, slot);
+                HyperLogLog sketch = sketches[(int) (slot % SKETCHES)];
+                if (sketch == null) {
+                    sketch = new HyperLogLog(PRECISION);
+                    sketches[(int) (slot % SKETCHES)] = sketch;
+                }
+                sketch.add(mmsi);
+            }
+        }
+
+        /**
+         * Messages per second in the complete minutes of the last given minutes
+         */
+        double rate(long now, int minutes) {
+            long minute = now / MINUTE;
+            long count = 0;
+            for (long m = minute - minutes; m < minute; m++) {
+                // Minutes after the last message are empty, and slots before the ring hold later minutes
+                if (m <= lastMinute && m > lastMinute - MINUTES) {
+                    count += minuteCounts[(int) (m % MINUTES)];
+                }
+            }
+            return count / (minutes * 60.0);
+        }
+
+        /**
+         * Estimated distinct MMSI numbers of the last hour, in steps of ten minutes
+         */
+        long vessels(long now) {
+            long slot = now / SKETCH_INTERVAL;
+            HyperLogLog merged = new HyperLogLog(PRECISION);
+            for (long s = slot - SKETCHES + 1; s <= slot; s++) {
+                if (s <= lastSketch && s > lastSketch - SKETCHES && sketches[(int) (s % SKETCHES)] != null) {
+                    merged.merge(sketches[(int) (s % SKETCHES)]);
+                }
+            }
+            return merged.estimate();
+        }
+    }
+
+}
@@ -0,0 +1,90 @@
+/* Copyright (c) 2011 Danish Maritime Authority.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package dk.dma.ais.analysis.viewer.handler;
+
+import java.util.concurrent.ConcurrentHashMap;
+
+import dk.dma.ais.analysis.common.metrics.Counter;
+import dk.dma.ais.analysis.common.metrics.Gauge;
+import dk.dma.ais.analysis.common.metrics.MetricsRegistry;
+
+/**
+ * Pool of the text values repeated in the reports of the targets: names, callsigns, destinations and source tags.
+ * Targets keep the pooled instance, so the memory used for text is proportional to the number of distinct values, and
+ * comparing pooled values usually ends at the reference check in {@link String#equals(Object)}.
+ * <p>
+ * The pool is bounded. When full it is cleared and refilled by the following reports, so values no longer in use are
+ * eventually released. Values pooled before a clear are still valid, they are just not shared with later copies.
+ */
+public final class StringPool {
+
+    private static final int MAX_SIZE = 1 << 18;
+
+    private static StringPool instance;
+
+    private final ConcurrentHashMap<String, String> values = new ConcurrentHashMap<>();
+    private final int maxSize;
+    private final Counter cleared;
+
+    StringPool(int maxSize) {
+        this.maxSize = maxSize;
+        MetricsRegistry metrics = MetricsRegistry.getInstance();
+        cleared = metrics.counter("aisview_string_pool_cleared_total",
+                "Times the string pool has been full and cleared");
+        metrics.gauge("aisview_string_pool_size", "Distinct strings in the string pool", new Gauge() {
+            @Override
+            public double getValue() {
+                return size();
+            }
+        });
+    }
+
+    /**
+     * Get the pooled instance of a value
+     *
+     * @param value
+     *            the value, may be null
+     * @return the pooled instance equal to the value, or null if the value is null
+     */
+    public String intern(String value) {
+        if (value == null) {
+            return null;
+        }
+        String pooled = values.get(value);
+        if (pooled != null) {
+            return pooled;
+        }
+        if (values.size() >= maxSize) {
+            values.clear();
+            cleared.inc();
+        }
+        pooled = values.putIfAbsent(value, value);
+        return pooled != null ? pooled : value;
+    }
+
+    public int size() {
+        return values.size();
+    }
+
+    public static StringPool getInstance() {
+        synchronized (StringPool.class) {
+            if (instance == null) {
+                instance = new StringPool(MAX_SIZE);
+            }
+            return instance;
+        }
+    }
+
+}
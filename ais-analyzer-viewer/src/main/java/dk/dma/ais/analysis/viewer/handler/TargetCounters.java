@@ -0,0 +1,153 @@
+/* Copyright (c) 2011 Danish Maritime Authority.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package dk.dma.ais.analysis.viewer.handler;
+
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import dk.dma.ais.analysis.viewer.rest.json.AisViewHandlerStats;
+import dk.dma.enav.model.Country;
+
+/**
+ * Target and past track counts maintained as targets are inserted, updated and evicted. Counts are changed by the
+ * handler under its lock and read without locking, so a snapshot may be a few messages behind.
+ */
+public class TargetCounters {
+
+    /**
+     * Approximate heap use of a target with its entry, source data and snapshot row, measured on a synthetic fleet
+     */
+    static final long TARGET_BYTES = 640;
+    /**
+     * Approximate heap use of an empty past track with its map entry
+     */
+    static final long PAST_TRACK_BYTES = 160;
+    /**
+     * Approximate heap use of a past track point in its sorted set
+     */
+    static final long PAST_TRACK_POINT_BYTES = 96;
+
+    private final AtomicInteger totalTargets = new AtomicInteger();
+    private final AtomicInteger vesselTargets = new AtomicInteger();
+    private final AtomicInteger pastTrackTargets = new AtomicInteger();
+    private final AtomicInteger pastTrackPoints = new AtomicInteger();
+    // Targets by last source type
+    private final ConcurrentMap<String, AtomicInteger> sourceTypes = new ConcurrentHashMap<>();
+    // Targets by flag country
+    private final ConcurrentMap<String, AtomicInteger> countries = new ConcurrentHashMap<>();
+
+    /**
+     * Count a new target
+     */
+    void added(AisTargetEntry targetEntry) {
+        totalTargets.incrementAndGet();
+        updated(targetEntry);
+    }
+
+    /**
+     * Move an updated target to its current classification
+     */
+    void updated(AisTargetEntry targetEntry) {
+        boolean vessel = targetEntry.getTarget().isVessel();
+        if (vessel != targetEntry.countedVessel) {
+            vesselTargets.addAndGet(vessel ? 1 : -1);
+            targetEntry.countedVessel = vessel;
+        }
+        String sourceType = targetEntry.getSourceData().getSourceType();
+        if (!sourceType.equals(targetEntry.countedSourceType)) {
+            move(sourceTypes, targetEntry.countedSourceType, sourceType);
+            targetEntry.countedSourceType = sourceType;
+        }
+        Country country = targetEntry.getTarget().getCountry();
+        String countryCode = country != null ? country.getThreeLetter() : null;
+        if (countryCode != null && !countryCode.equals(targetEntry.countedCountry)) {
+            move(countries, targetEntry.countedCountry, countryCode);
+            targetEntry.countedCountry = countryCode;
+        }
+    }
+
+    /**
+     * Uncount an evicted target
+     */
+    void removed(AisTargetEntry targetEntry) {
+        totalTargets.decrementAndGet();
+        if (targetEntry.countedVessel) {
+            vesselTargets.decrementAndGet();
+        }
+        move(sourceTypes, targetEntry.countedSourceType, null);
+        move(countries, targetEntry.countedCountry, null);
+    }
+
+    void pastTrackAdded() {
+        pastTrackTargets.incrementAndGet();
+    }
+
+    void pastTrackRemoved(PastTrack pastTrack) {
+        pastTrackTargets.decrementAndGet();
+        pastTrackPoints.addAndGet(-pastTrack.size());
+    }
+
+    void pastTrackPointsChanged(int delta) {
+        if (delta != 0) {
+            pastTrackPoints.addAndGet(delta);
+        }
+    }
+
+    /**
+     * Approximate heap use of the targets and past tracks from the counts
+     */
+    long getEstimatedBytes() {
+        return totalTargets.get() * TARGET_BYTES + pastTrackTargets.get() * PAST_TRACK_BYTES + pastTrackPoints.get()
+                * PAST_TRACK_POINT_BYTES;
+    }
+
+    int getPastTrackPoints() {
+        return pastTrackPoints.get();
+    }
+
+    private static void move(ConcurrentMap<String, AtomicInteger> counts, String from, String to) {
+        if (from != null) {
+            counts.get(from).decrementAndGet();
+        }
+        if (to != null) {
+            AtomicInteger count = counts.get(to);
+            if (count == null) {
+                count = new AtomicInteger();
+                counts.put(to, count);
+            }
+            count.incrementAndGet();
+        }
+    }
+
+    public AisViewHandlerStats getStats(double rate) {
+        return new AisViewHandlerStats(totalTargets.get(), vesselTargets.get(), pastTrackTargets.get(),
+                pastTrackPoints.get(), rate, snapshot(sourceTypes), snapshot(countries));
+    }
+
+    private static Map<String, Integer> snapshot(ConcurrentMap<String, AtomicInteger> counts) {
+        Map<String, Integer> snapshot = new TreeMap<>();
+        for (Map.Entry<String, AtomicInteger> entry : counts.entrySet()) {
+            int count = entry.getValue().get();
+            if (count > 0) {
+                snapshot.put(entry.getKey(), count);
+            }
+        }
+        return snapshot;
+    }
+
+}
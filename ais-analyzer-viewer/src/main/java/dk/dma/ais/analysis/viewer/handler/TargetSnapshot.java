@@ -0,0 +1,379 @@
+/* Copyright (c) 2011 Danish Maritime Authority.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package dk.dma.ais.analysis.viewer.handler;
+
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.Map;
+
+import net.jcip.annotations.Immutable;
+
+import dk.dma.ais.analysis.viewer.rest.json.ShipTypeMapper;
+import dk.dma.ais.message.ShipTypeCargo.ShipType;
+import dk.dma.enav.model.Country;
+
+/**
+ * Immutable column oriented copy of the vessel targets with a position. Each vessel is a row, and each attribute is
+ * a primitive array indexed by row, so queries scan dense arrays instead of following references from target entries
+ * to targets, positions and source data.
+ * <p>
+ * The times of reception by source type, country, region, base station and system are kept as compressed rows of
+ * dictionary codes and times, so source filters have the same freshness semantics as {@link TargetSourceData}.
+ */
+@Immutable
+public final class TargetSnapshot {
+
+    static final int CLASS_A = 1;
+    static final int CLASS_A_POSITION = 2;
+    static final int STATIC = 4;
+    static final int MOORED = 8;
+    static final int SAT = 16;
+
+    static final int SOURCE_TYPE = TargetSourceData.SOURCE_TYPE;
+    static final int SOURCE_COUNTRY = TargetSourceData.SOURCE_COUNTRY;
+    static final int SOURCE_REGION = TargetSourceData.SOURCE_REGION;
+    static final int SOURCE_BS = TargetSourceData.SOURCE_BS;
+    static final int SOURCE_SYSTEM = TargetSourceData.SOURCE_SYSTEM;
+
+    private static final ShipTypeMapper SHIP_TYPE_MAPPER = ShipTypeMapper.getInstance();
+
+    private final long created;
+    private final int size;
+
+    private final int[] mmsi;
+    private final int[] anonId;
+    private final float[] lat;
+    private final float[] lon;
+    // Course over ground in tenths of degrees, -1 if not available
+    private final short[] cog;
+    // Speed over ground in tenths of knots, -1 if not available
+    private final short[] sog;
+    private final byte[] flags;
+    private final byte[] color;
+    private final long[] lastReport;
+    // Flag country as index into countries, -1 if unknown
+    private final short[] country;
+    private final String[] name;
+    private final String[] callsign;
+    // IMO number, 0 if not available
+    private final int[] imo;
+
+    private final Dictionary countries = new Dictionary();
+    private final Sources[] sources = new Sources[5];
+
+    /**
+     * Copy the given targets. Only the copying of references and primitives is done while holding the lock guarding
+     * the targets; dictionary encoding and ship type mapping is done after the lock has been released.
+     */
+    TargetSnapshot(Collection<AisTargetEntry> targets, Object lock) {
+        this.created = System.currentTimeMillis();
+        int capacity;
+        ShipType[] shipTypes;
+        Country[] flagCountries;
+        synchronized (lock) {
+            capacity = targets.size();
+            shipTypes = new ShipType[capacity];
+            flagCountries = new Country[capacity];
+            mmsi = new int[capacity];
+            anonId = new int[capacity];
+            lat = new float[capacity];
+            lon = new float[capacity];
+            cog = new short[capacity];
+            sog = new short[capacity];
+            flags = new byte[capacity];
+            color = new byte[capacity];
+            lastReport = new long[capacity];
+            country = new short[capacity];
+            name = new String[capacity];
+            callsign = new String[capacity];
+            imo = new int[capacity];
+            for (int i = 0; i < sources.length; i++) {
+                sources[i] = new Sources(capacity);
+            }
+
+            int row = 0;
+            for (AisTargetEntry targetEntry : targets) {
+                CompactTarget target = targetEntry.getTarget();
+                if (!target.isVessel() || !target.hasPos()) {
+                    continue;
+                }
+                TargetSourceData sourceData = targetEntry.getSourceData();
+
+                mmsi[row] = target.getMmsi();
+                anonId[row] = targetEntry.getAnonId();
+                lat[row] = (float) target.getLatitude();
+                lon[row] = (float) target.getLongitude();
+                cog[row] = (short) target.getCogTenths();
+                sog[row] = (short) target.getSogTenths();
+                lastReport[row] = target.getLastReport();
+
+                int f = 0;
+                if (target.isClassA()) {
+                    f |= CLASS_A | CLASS_A_POSITION;
+                    byte navStatus = target.getNavStatus();
+                    if (navStatus == 1 || navStatus == 5) {
+                        f |= MOORED;
+                    }
+                }
+                if (target.hasStatic()) {
+                    f |= STATIC;
+                }
+                if (sourceData.isSatData()) {
+                    f |= SAT;
+                }
+                flags[row] = (byte) f;
+
+                shipTypes[row] = target.getShipType();
+                flagCountries[row] = target.getCountry();
+
+                if (target.hasStatic()) {
+                    name[row] = target.getName();
+                    callsign[row] = target.getCallsign();
+                    imo[row] = target.getImo();
+                }
+
+                for (int i = 0; i < sourceData.getSourceCount(); i++) {
+                    sources[sourceData.getSourceDimension(i)].add(row, sourceData.getSourceValue(i),
+                            sourceData.getSourceTime(i));
+                }
+                for (Sources source : sources) {
+                    source.endRow(row);
+                }
+                row++;
+            }
+            size = row;
+        }
+
+        for (int row = 0; row < size; row++) {
+            ShipTypeMapper.ShipTypeColor shipTypeColor = ShipTypeMapper.ShipTypeColor.GREY;
+            if (shipTypes[row] != null) {
+                shipTypeColor = SHIP_TYPE_MAPPER.getColor(shipTypes[row]);
+            }
+            color[row] = (byte) shipTypeColor.ordinal();
+            Country flagCountry = flagCountries[row];
+            country[row] = flagCountry == null ? -1 : (short) countries.code(flagCountry.getThreeLetter());
+        }
+        for (Sources source : sources) {
+            source.encode(size);
+        }
+    }
+
+    /**
+     * Time of creation in milliseconds
+     */
+    public long getCreated() {
+        return created;
+    }
+
+    /**
+     * Number of rows
+     */
+    public int size() {
+        return size;
+    }
+
+    public int getMmsi(int row) {
+        return mmsi[row];
+    }
+
+    public int getAnonId(int row) {
+        return anonId[row];
+    }
+
+    public float getLat(int row) {
+        return lat[row];
+    }
+
+    public float getLon(int row) {
+        return lon[row];
+    }
+
+    /**
+     * Course over ground in degrees, or null if not available
+     */
+    public Double getCog(int row) {
+        return cog[row] < 0 ? null : cog[row] / 10.0;
+    }
+
+    /**
+     * Course over ground in tenths of degrees, -1 if not available
+     */
+    public int getCogTenths(int row) {
+        return cog[row];
+    }
+
+    /**
+     * Speed over ground in tenths of knots, -1 if not available
+     */
+    public int getSogTenths(int row) {
+        return sog[row];
+    }
+
+    public boolean isClassA(int row) {
+        return (flags[row] & CLASS_A) != 0;
+    }
+
+    /**
+     * @return true if the last position report is a class A report
+     */
+    public boolean isClassAPosition(int row) {
+        return (flags[row] & CLASS_A_POSITION) != 0;
+    }
+
+    /**
+     * @return true if the navigational status is moored or at anchor
+     */
+    public boolean isMoored(int row) {
+        return (flags[row] & MOORED) != 0;
+    }
+
+    public boolean hasStatic(int row) {
+        return (flags[row] & STATIC) != 0;
+    }
+
+    public boolean isSatData(int row) {
+        return (flags[row] & SAT) != 0;
+    }
+
+    /**
+     * Ordinal of the ship type color
+     */
+    public int getColor(int row) {
+        return color[row];
+    }
+
+    public long getLastReport(int row) {
+        return lastReport[row];
+    }
+
+    public String getName(int row) {
+        return name[row];
+    }
+
+    public String getCallsign(int row) {
+        return callsign[row];
+    }
+
+    /**
+     * IMO number or null if not available
+     */
+    public Integer getImo(int row) {
+        return imo[row] == 0 ? null : imo[row];
+    }
+
+    /**
+     * Flag country code of the row, or -1 if unknown
+     */
+    int getCountryCode(int row) {
+        return country[row];
+    }
+
+    Dictionary getCountries() {
+        return countries;
+    }
+
+    Sources getSources(int dimension) {
+        return sources[dimension];
+    }
+
+    /**
+     * Dense codes of strings
+     */
+    static final class Dictionary {
+        private final Map<String, Integer> codes = new HashMap<>();
+
+        int code(String value) {
+            Integer code = codes.get(value);
+            if (code == null) {
+                code = codes.size();
+                codes.put(value, code);
+            }
+            return code;
+        }
+
+        /**
+         * @return the code or -1 if the value is not in the dictionary
+         */
+        int get(String value) {
+            Integer code = codes.get(value);
+            return code == null ? -1 : code;
+        }
+
+        int size() {
+            return codes.size();
+        }
+    }
+
+    /**
+     * Time of last reception of each value of a source dimension. Row i has the codes and times at positions
+     * offsets[i] until offsets[i + 1]. Filled while the snapshot is created.
+     */
+    static final class Sources {
+        final Dictionary dictionary = new Dictionary();
+        final int[] offsets;
+        int[] codes;
+        long[] times;
+        private String[] values;
+        private int count;
+
+        Sources(int capacity) {
+            offsets = new int[capacity + 1];
+            values = new String[capacity * 2];
+            times = new long[capacity * 2];
+        }
+
+        /**
+         * Add a value to the given row. Rows must be filled in order and ended with {@link #endRow(int)}.
+         */
+        void add(int row, String value, long time) {
+            if (count == values.length) {
+                values = Arrays.copyOf(values, count * 2 + 8);
+                times = Arrays.copyOf(times, count * 2 + 8);
+            }
+            values[count] = value;
+            times[count] = time;
+            count++;
+        }
+
+        void endRow(int row) {
+            offsets[row + 1] = count;
+        }
+
+        /**
+         * Replace the values of the given number of rows by dictionary codes
+         */
+        void encode(int rows) {
+            codes = new int[offsets[rows]];
+            for (int i = 0; i < codes.length; i++) {
+                codes[i] = dictionary.code(values[i]);
+            }
+            values = null;
+        }
+
+        /**
+         * @return true if the row has a value accepted by the given code mask received within ttl seconds
+         */
+        boolean isFresh(int row, boolean[] accepted, long now, int ttl) {
+            for (int i = offsets[row]; i < offsets[row + 1]; i++) {
+                if (accepted[codes[i]] && now - times[i] < ttl * 1000L) {
+                    return true;
+                }
+            }
+            return false;
+        }
+    }
+
+}
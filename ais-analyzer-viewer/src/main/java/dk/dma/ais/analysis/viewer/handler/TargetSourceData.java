@@ -15,110 +15,154 @@
 package dk.dma.ais.analysis.viewer.handler;
 
 import java.io.Serializable;
+import java.util.Arrays;
 import java.util.Date;
-import java.util.HashMap;
-import java.util.Map;
 
-import dk.dma.ais.message.AisMessage;
 import dk.dma.ais.packet.AisPacket;
 import dk.dma.ais.packet.AisPacketTags;
 import dk.dma.ais.packet.AisPacketTags.SourceType;
 import dk.dma.ais.proprietary.GatehouseSourceTag;
 import dk.dma.ais.proprietary.IProprietaryTag;
+import dk.dma.ais.sentence.Vdm;
 import dk.dma.enav.model.Country;
 
 /**
  * Class to data about the source of an AIS target
+ * <p>
+ * The times of last reception by source type, country, region, base station and system are kept in small parallel
+ * arrays instead of maps, as a target is typically received from a few sources only.
  */
 public class TargetSourceData implements Serializable {
 
     private static final long serialVersionUID = 1L;
 
-    private AisPacketTags lastTagging = new AisPacketTags();
-    private String lastSourceRegion;
-    private final Date created;
-
-    /**
-     * Map from source type to last time of reception
-     */
-    private final Map<String, Long> sourceTypeTime = new HashMap<>();
+    static final int SOURCE_TYPE = 0;
+    static final int SOURCE_COUNTRY = 1;
+    static final int SOURCE_REGION = 2;
+    static final int SOURCE_BS = 3;
+    static final int SOURCE_SYSTEM = 4;
 
-    /**
-     * Map from source country to last time of reception
-     */
-    private final Map<String, Long> sourceCountryTime = new HashMap<>();
+    private static final int NO_BS = Integer.MIN_VALUE;
 
-    /**
-     * Map from source region to last time of reception
-     */
-    private final Map<String, Long> sourceRegionTime = new HashMap<>();
+    private static final StringPool STRINGS = StringPool.getInstance();
 
-    /**
-     * Map from source base station to last time of reception
-     */
-    private final Map<String, Long> sourceBsTime = new HashMap<>();
+    // Tagging of the last received packet
+    private SourceType lastSourceType;
+    private String lastSourceId;
+    private int lastSourceBs = NO_BS;
+    private Country lastSourceCountry;
+    private String lastSourceRegion;
+    private final long created;
 
     /**
-     * Map from source system to last time of reception
+     * Dimension, value and last time of reception of each source, in the first sourceCount elements
      */
-    private final Map<String, Long> sourceSystemTime = new HashMap<>();
+    private byte[] sourceDimensions = new byte[4];
+    private String[] sourceValues = new String[4];
+    private long[] sourceTimes = new long[4];
+    private int sourceCount;
 
     public TargetSourceData() {
-        this.created = new Date();
+        this.created = System.currentTimeMillis();
     }
 
+    /**
+     * Record the reception of a packet. Only the sentences and tags of the packet are read, so duplicates can be
+     * recorded without decoding the message.
+     */
     public void update(AisPacket packet) {
-        AisMessage message = packet.tryGetAisMessage();
-        if (message == null) {
+        Vdm vdm = packet.getVdm();
+        if (vdm == null) {
             return;
         }
 
         this.lastSourceRegion = null;
         // Get source region from Gatehouse tag
-        if (message.getTags() != null) {
-            for (IProprietaryTag tag : message.getTags()) {
+        if (vdm.getTags() != null) {
+            for (IProprietaryTag tag : vdm.getTags()) {
                 if (tag instanceof GatehouseSourceTag) {
                     GatehouseSourceTag ghTag = (GatehouseSourceTag) tag;
-                    this.lastSourceRegion = ghTag.getRegion();
+                    this.lastSourceRegion = STRINGS.intern(ghTag.getRegion());
                 }
             }
         }
-        this.lastTagging = packet.getTags();
+        AisPacketTags tagging = packet.getTags();
+        this.lastSourceType = tagging.getSourceType();
+        this.lastSourceId = STRINGS.intern(tagging.getSourceId());
+        this.lastSourceBs = tagging.getSourceBs() != null ? tagging.getSourceBs() : NO_BS;
+        this.lastSourceCountry = tagging.getSourceCountry();
 
         // Update times of reception of time
-        Long now = System.currentTimeMillis();
+        long now = System.currentTimeMillis();
 
-        SourceType sourceType = lastTagging.getSourceType();
+        SourceType sourceType = lastSourceType;
         if (sourceType == null) {
             sourceType = SourceType.TERRESTRIAL;
         }
-        sourceTypeTime.put(sourceType.encode(), now);
+        received(SOURCE_TYPE, sourceType.encode(), now);
 
-        Country srcCnt = lastTagging.getSourceCountry();
-        if (srcCnt != null) {
-            sourceCountryTime.put(srcCnt.getThreeLetter(), now);
+        if (lastSourceCountry != null) {
+            received(SOURCE_COUNTRY, lastSourceCountry.getThreeLetter(), now);
         }
 
         if (lastSourceRegion != null) {
-            sourceRegionTime.put(lastSourceRegion, now);
+            received(SOURCE_REGION, lastSourceRegion, now);
+        }
+
+        if (lastSourceBs != NO_BS) {
+            received(SOURCE_BS, STRINGS.intern(Integer.toString(lastSourceBs)), now);
         }
 
-        if (lastTagging.getSourceBs() != null) {
-            sourceBsTime.put(Integer.toString(lastTagging.getSourceBs()), now);
+        if (lastSourceId != null) {
+            received(SOURCE_SYSTEM, lastSourceId, now);
         }
 
-        if (lastTagging.getSourceId() != null) {
-            sourceSystemTime.put(lastTagging.getSourceId(), now);
+    }
+
+    private void received(int dimension, String value, long time) {
+        int index = indexOf(dimension, value);
+        if (index < 0) {
+            if (sourceCount == sourceValues.length) {
+                int capacity = sourceCount * 2;
+                sourceDimensions = Arrays.copyOf(sourceDimensions, capacity);
+                sourceValues = Arrays.copyOf(sourceValues, capacity);
+                sourceTimes = Arrays.copyOf(sourceTimes, capacity);
+            }
+            index = sourceCount++;
+            sourceDimensions[index] = (byte) dimension;
+            sourceValues[index] = value;
         }
+        sourceTimes[index] = time;
+    }
+
+    private int indexOf(int dimension, String value) {
+        for (int i = 0; i < sourceCount; i++) {
+            if (sourceDimensions[i] == dimension && sourceValues[i].equals(value)) {
+                return i;
+            }
+        }
+        return -1;
+    }
 
+    /**
+     * Source id of the last received packet, or null if not tagged
+     */
+    public String getSourceId() {
+        return lastSourceId;
     }
 
-    public AisPacketTags getTagging() {
-        return lastTagging;
+    /**
+     * Source base station of the last received packet, or null if not tagged
+     */
+    public Integer getSourceBs() {
+        return lastSourceBs == NO_BS ? null : lastSourceBs;
     }
 
-    public void setTagging(AisPacketTags tagging) {
-        this.lastTagging = tagging;
+    /**
+     * Source country of the last received packet, or null if not tagged
+     */
+    public Country getSourceCountry() {
+        return lastSourceCountry;
     }
 
     public String getSourceRegion() {
@@ -130,17 +174,28 @@ public class TargetSourceData implements Serializable {
     }
 
     public Date getCreated() {
-        return created;
+        return new Date(created);
     }
 
     public boolean isSatData() {
-        SourceType sourceType = lastTagging.getSourceType();
-        return sourceType != null && sourceType == SourceType.SATELLITE;
+        return lastSourceType == SourceType.SATELLITE;
+    }
+
+    /**
+     * Check if the target has only been received from satellites
+     */
+    public boolean isSatOnly() {
+        String terrestrial = SourceType.TERRESTRIAL.encode();
+        for (int i = 0; i < sourceCount; i++) {
+            if (sourceDimensions[i] == SOURCE_TYPE && sourceValues[i].equals(terrestrial)) {
+                return false;
+            }
+        }
+        return sourceCount > 0;
     }
 
     public String getSourceType() {
-        SourceType sourceType = lastTagging.getSourceType();
-        if (sourceType != null && sourceType == SourceType.SATELLITE) {
+        if (lastSourceType == SourceType.SATELLITE) {
             return "SAT";
         } else {
             return "LIVE";
@@ -157,30 +212,47 @@ public class TargetSourceData implements Serializable {
             ttl = satTargetTtl;
         }
 
-        return isFresh(sourceTypeTime, st, ttl);
+        return isFresh(SOURCE_TYPE, st, ttl);
     }
 
     public boolean isCountry(String cnt, int ttl) {
-        return isFresh(sourceCountryTime, cnt, ttl);
+        return isFresh(SOURCE_COUNTRY, cnt, ttl);
     }
 
     public boolean isRegion(String region, int ttl) {
-        return isFresh(sourceRegionTime, region, ttl);
+        return isFresh(SOURCE_REGION, region, ttl);
     }
 
     public boolean isBs(String bs, int ttl) {
-        return isFresh(sourceBsTime, bs, ttl);
+        return isFresh(SOURCE_BS, bs, ttl);
     }
 
     public boolean isSystem(String sys, int ttl) {
-        return isFresh(sourceSystemTime, sys, ttl);
+        return isFresh(SOURCE_SYSTEM, sys, ttl);
     }
 
-    private static boolean isFresh(Map<String, Long> timeMap, String key, int ttl) {
-        Long last = timeMap.get(key);
-        if (last == null) {
-            last = 0L;
-        }
+    /**
+     * Number of sources the target has been received from, over all dimensions
+     */
+    int getSourceCount() {
+        return sourceCount;
+    }
+
+    int getSourceDimension(int index) {
+        return sourceDimensions[index];
+    }
+
+    String getSourceValue(int index) {
+        return sourceValues[index];
+    }
+
+    long getSourceTime(int index) {
+        return sourceTimes[index];
+    }
+
+    private boolean isFresh(int dimension, String value, int ttl) {
+        int index = value == null ? -1 : indexOf(dimension, value);
+        long last = index < 0 ? 0L : sourceTimes[index];
         long elapsed = System.currentTimeMillis() - last;
         return elapsed < ttl * 1000;
     }
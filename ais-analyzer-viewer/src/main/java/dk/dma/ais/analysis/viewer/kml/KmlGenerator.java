@@ -35,6 +35,7 @@ import de.micromata.opengis.kml.v_2_2_0.ListItemType;
 import de.micromata.opengis.kml.v_2_2_0.ListStyle;
 import de.micromata.opengis.kml.v_2_2_0.Placemark;
 import de.micromata.opengis.kml.v_2_2_0.Style;
+import dk.dma.ais.analysis.common.web.Cancellation;
 import dk.dma.ais.analysis.viewer.configuration.AisViewConfiguration;
 import dk.dma.ais.analysis.viewer.handler.AisTargetEntry;
 import dk.dma.ais.data.AisClassAPosition;
@@ -53,7 +54,7 @@ import dk.dma.ais.message.ShipTypeCargo.ShipType;
 public class KmlGenerator {
 
     private final Map<Integer, AisTargetEntry> targetsMap;
-    private final Map<Integer, IPastTrack> pastTrackMap;
+    private final Map<Integer, ? extends IPastTrack> pastTrackMap;
     private String resourceUrl;
     final Kml kml;
     final Document document;
@@ -77,8 +78,8 @@ public class KmlGenerator {
     private final Folder threedayfolder;
     private Folder sart;
 
-    public KmlGenerator(Map<Integer, AisTargetEntry> targetsMap, Map<Integer, IPastTrack> pastTrackMap, String resourceURL,
-            AisViewConfiguration conf) {
+    public KmlGenerator(Map<Integer, AisTargetEntry> targetsMap, Map<Integer, ? extends IPastTrack> pastTrackMap,
+            String resourceURL, AisViewConfiguration conf) {
         this.targetsMap = targetsMap;
         this.pastTrackMap = pastTrackMap;
         this.resourceUrl = resourceURL;
@@ -163,6 +164,7 @@ public class KmlGenerator {
 
     public String generate() {
 
+        Cancellation cancellation = Cancellation.current();
         List<AisTargetEntry> sortedByMMSI = new ArrayList<AisTargetEntry>();
         List<AisVesselTarget> sortedByName = new ArrayList<AisVesselTarget>();
 
@@ -172,9 +174,13 @@ public class KmlGenerator {
         Collections.sort(sortedByMMSI, new SortByMMSIComparator());
         // For each AIS target
         for (AisTargetEntry entry : sortedByMMSI) {
+            cancellation.check();
 
             // Initial checks. Vessel has to have at least a position
-            AisTarget target = entry.getTarget();
+            if (!entry.getTarget().isVessel() || !entry.getTarget().hasPos()) {
+                continue;
+            }
+            AisTarget target = entry.getTarget().toAisTarget();
             if (!(target instanceof AisVesselTarget)) {
                 continue;
             }
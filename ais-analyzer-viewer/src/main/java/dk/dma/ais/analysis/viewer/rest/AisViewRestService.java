@@ -14,34 +14,82 @@
  */
 package dk.dma.ais.analysis.viewer.rest;
 
+import java.io.IOException;
+import java.io.OutputStream;
 import java.net.MalformedURLException;
 import java.net.URL;
 import java.text.DateFormat;
 import java.text.SimpleDateFormat;
+import java.util.ArrayList;
 import java.util.Date;
+import java.util.EnumSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.Callable;
 
 import javax.servlet.http.HttpServletRequest;
 import javax.servlet.http.HttpServletResponse;
 import javax.ws.rs.GET;
+import javax.ws.rs.HeaderParam;
 import javax.ws.rs.Path;
+import javax.ws.rs.PathParam;
 import javax.ws.rs.Produces;
 import javax.ws.rs.QueryParam;
 import javax.ws.rs.WebApplicationException;
+import javax.ws.rs.core.CacheControl;
 import javax.ws.rs.core.Context;
+import javax.ws.rs.core.EntityTag;
 import javax.ws.rs.core.MediaType;
+import javax.ws.rs.core.Request;
 import javax.ws.rs.core.Response;
+import javax.ws.rs.core.Response.ResponseBuilder;
+import javax.ws.rs.core.StreamingOutput;
 import javax.ws.rs.core.UriInfo;
 
+import org.codehaus.jackson.map.ObjectMapper;
+
+import dk.dma.ais.analysis.common.grid.Grid;
+import dk.dma.ais.analysis.common.metrics.MetricsRegistry;
+import dk.dma.ais.analysis.common.traffic.CellStatistics;
+import dk.dma.ais.analysis.common.traffic.TrafficBucket;
+import dk.dma.ais.analysis.common.traffic.TrafficStatistics;
+import dk.dma.ais.analysis.common.web.CachedJsonResponse;
+import dk.dma.ais.analysis.common.web.Cancellation;
 import dk.dma.ais.analysis.common.web.QueryParams;
+import dk.dma.ais.analysis.common.web.ResponseCache;
+import dk.dma.ais.analysis.common.web.TileCache;
 import dk.dma.ais.analysis.viewer.AisView;
+import dk.dma.ais.analysis.viewer.anomaly.AnomalyDetection;
+import dk.dma.ais.analysis.viewer.anomaly.AnomalyEvent;
+import dk.dma.ais.analysis.viewer.anomaly.AnomalyType;
+import dk.dma.ais.analysis.viewer.archive.TrackArchive;
+import dk.dma.ais.analysis.viewer.archive.TrafficPicture;
+import dk.dma.ais.analysis.viewer.cpa.CloseEncounters;
+import dk.dma.ais.analysis.viewer.cpa.Encounter;
+import dk.dma.ais.analysis.viewer.geofence.Geofence;
+import dk.dma.ais.analysis.viewer.geofence.GeofenceEvent;
+import dk.dma.ais.analysis.viewer.geofence.Zone;
 import dk.dma.ais.analysis.viewer.handler.AisViewHandler;
+import dk.dma.ais.analysis.viewer.handler.SourceStatistics;
+import dk.dma.ais.analysis.viewer.rest.json.AbnormalEvent;
 import dk.dma.ais.analysis.viewer.rest.json.AisViewHandlerStats;
 import dk.dma.ais.analysis.viewer.rest.json.AnonymousVesselList;
+import dk.dma.ais.analysis.viewer.rest.json.ArchivedTrack;
 import dk.dma.ais.analysis.viewer.rest.json.BaseVesselList;
+import dk.dma.ais.analysis.viewer.rest.json.GeofenceZone;
+import dk.dma.ais.analysis.viewer.rest.json.SourceHealth;
+import dk.dma.ais.analysis.viewer.rest.json.TrafficStatisticsJsonResponse;
 import dk.dma.ais.analysis.viewer.rest.json.VesselClusterJsonRepsonse;
 import dk.dma.ais.analysis.viewer.rest.json.VesselList;
 import dk.dma.ais.analysis.viewer.rest.json.VesselListJsonResponse;
 import dk.dma.ais.analysis.viewer.rest.json.VesselTargetDetails;
+import dk.dma.ais.analysis.viewer.tiles.DensityGrid;
+import dk.dma.ais.analysis.viewer.tiles.DensityRenderer;
+import dk.dma.ais.analysis.viewer.tiles.Tile;
+import dk.dma.ais.analysis.viewer.tiles.VectorTile;
+import dk.dma.ais.analysis.viewer.tiles.VesselTileIndex;
+import dk.dma.ais.data.PastTrackPoint;
 import dk.dma.enav.model.geometry.Position;
 
 /**
@@ -50,34 +98,139 @@ import dk.dma.enav.model.geometry.Position;
 @Path("/")
 public class AisViewRestService {
 
+    private static final ObjectMapper MAPPER = new ObjectMapper();
+
+    // Frames of a playback at most
+    private static final int MAX_PLAYBACK_FRAMES = 10000;
+
+    // Lowest speed of a playback, real time
+    private static final double MIN_PLAYBACK_SPEED = 1;
+
+    // Wall clock time of a playback in milliseconds at most, as it holds a thread of the few given to playbacks
+    private static final long MAX_PLAYBACK_DURATION = 10 * 60 * 1000L;
+
+    // Sleep between frames of a playback in milliseconds at most, so a cancelled playback ends soon
+    private static final long PLAYBACK_SLEEP_STEP = 250;
+
     private final AisViewHandler handler;
+    private final ResponseCache<String, CachedJsonResponse> responseCache;
+    private final TileCache<String> densityCache;
+    private final TileCache<String> vesselTileCache;
+    private final ResponseCache<String, CachedJsonResponse> vesselListTileCache;
 
     public AisViewRestService() {
         this.handler = AisView.get().getHandler();
+        this.responseCache = AisView.get().getResponseCache();
+        this.densityCache = AisView.get().getDensityCache();
+        this.vesselTileCache = AisView.get().getVesselTileCache();
+        this.vesselListTileCache = AisView.get().getVesselListTileCache();
     }
 
     @GET
     @Path("anon_vessel_list")
     @Produces(MediaType.APPLICATION_JSON)
-    public VesselListJsonResponse anonVesselList(@Context UriInfo uriInfo) {
+    public Response anonVesselList(@Context UriInfo uriInfo, @HeaderParam("Accept-Encoding") String acceptEncoding)
+            throws IOException {
         QueryParams queryParams = new QueryParams(uriInfo.getQueryParameters());
-        return vesselList(queryParams, true);
+        return cachedVesselList(queryParams, true, acceptEncoding);
     }
 
     @GET
     @Path("vessel_list")
     @Produces(MediaType.APPLICATION_JSON)
-    public VesselListJsonResponse vesselList(@Context UriInfo uriInfo) {
+    public Response vesselList(@Context UriInfo uriInfo, @HeaderParam("Accept-Encoding") String acceptEncoding)
+            throws IOException {
         QueryParams queryParams = new QueryParams(uriInfo.getQueryParameters());
-        return vesselList(queryParams, handler.getConf().isAnonymous());
+        return cachedVesselList(queryParams, handler.getConf().isAnonymous(), acceptEncoding);
     }
 
     @GET
     @Path("vessel_clusters")
     @Produces(MediaType.APPLICATION_JSON)
-    public VesselClusterJsonRepsonse vesselClusters(@Context UriInfo uriInfo) {
-        QueryParams queryParams = new QueryParams(uriInfo.getQueryParameters());
-        return cluster(queryParams);
+    public Response vesselClusters(@Context UriInfo uriInfo, @HeaderParam("Accept-Encoding") String acceptEncoding)
+            throws IOException {
+        final QueryParams queryParams = new QueryParams(uriInfo.getQueryParameters());
+        if (responseCache == null) {
+            return Response.ok(cluster(queryParams)).build();
+        }
+        String key = "vessel_clusters " + new VesselListFilter(queryParams) + " " + areaKey(queryParams) + " "
+                + clusterLimit(queryParams) + " " + clusterSize(queryParams);
+        CachedJsonResponse cached = responseCache.get(key, new Callable<CachedJsonResponse>() {
+            @Override
+            public CachedJsonResponse call() throws IOException {
+                return CachedJsonResponse.create(cluster(queryParams), "requestId");
+            }
+        });
+        return cachedResponse(cached, requestId(queryParams), acceptEncoding);
+    }
+
+    /**
+     * Density tile of live vessels and past track points. The layer parameter selects vessels, tracks or all (default).
+     * Tiles are cached and may be cached by clients for the density interval.
+     */
+    @GET
+    @Path("density/{z}/{x}/{y}.png")
+    @Produces("image/png")
+    public Response density(@PathParam("z") int z, @PathParam("x") int x, @PathParam("y") int y,
+            @QueryParam("layer") String layerName) throws IOException {
+        final DensityGrid.Layer layer = layerName == null ? DensityGrid.Layer.ALL : DensityGrid.Layer
+                .fromString(layerName);
+        final Tile tile = tile(z, x, y);
+        if (layer == null) {
+            throw new WebApplicationException(Response.Status.BAD_REQUEST);
+        }
+        final DensityGrid grid = handler.getDensityGrid();
+        byte[] png;
+        if (densityCache == null) {
+            png = DensityRenderer.render(grid, tile, layer);
+        } else {
+            // Tiles of a previous count are not shared with the current
+            png = densityCache.get(tile + " " + layer + " " + grid.getCreated(), new Callable<byte[]>() {
+                @Override
+                public byte[] call() throws IOException {
+                    return DensityRenderer.render(grid, tile, layer);
+                }
+            });
+        }
+        return Response.ok(png).header("Cache-Control", "max-age=" + handler.getConf().getDensityInterval()).build();
+    }
+
+    /**
+     * Mapbox Vector Tile of the vessels with the attributes of vessel_list. Filter is given as for vessel_list. Below
+     * the thinning zoom level only one vessel is kept for each few pixels. Tiles are cached and may be cached by
+     * clients for the vessel tile interval, and are revalidated by ETag.
+     */
+    @GET
+    @Path("tiles/{z}/{x}/{y}.mvt")
+    @Produces(VectorTile.CONTENT_TYPE)
+    public Response vesselTile(@PathParam("z") int z, @PathParam("x") int x, @PathParam("y") int y,
+            @Context UriInfo uriInfo, @Context Request request) throws IOException {
+        final Tile tile = tile(z, x, y);
+        final VesselListFilter filter = new VesselListFilter(new QueryParams(uriInfo.getQueryParameters()));
+        final boolean anonymous = handler.getConf().isAnonymous();
+        final VesselTileIndex index = handler.getVesselTileIndex();
+        CacheControl cacheControl = new CacheControl();
+        cacheControl.setMaxAge(handler.getConf().getVesselTileInterval());
+
+        // Tiles of the same index are the same
+        EntityTag etag = new EntityTag(Long.toHexString(index.getCreated()));
+        ResponseBuilder builder = request.evaluatePreconditions(etag);
+        if (builder != null) {
+            return builder.cacheControl(cacheControl).build();
+        }
+        byte[] mvt;
+        if (vesselTileCache == null) {
+            mvt = handler.getVesselTile(index, tile, filter, anonymous);
+        } else {
+            String key = tile + " " + anonymous + " " + filter + " " + index.getCreated();
+            mvt = vesselTileCache.get(key, new Callable<byte[]>() {
+                @Override
+                public byte[] call() {
+                    return handler.getVesselTile(index, tile, filter, anonymous);
+                }
+            });
+        }
+        return Response.ok(mvt).tag(etag).cacheControl(cacheControl).build();
     }
 
     @GET
@@ -95,6 +248,109 @@ public class AisViewRestService {
         return details;
     }
 
+    /**
+     * Track of a vessel from the track archive. The vessel is given by mmsi, or by its anonymous id. The time interval
+     * is given by from and to in milliseconds since the epoch, by default the last 24 hours.
+     */
+    @GET
+    @Path("archived_track")
+    @Produces(MediaType.APPLICATION_JSON)
+    public ArchivedTrack archivedTrack(@Context UriInfo uriInfo) throws IOException {
+        QueryParams queryParams = new QueryParams(uriInfo.getQueryParameters());
+        Integer id = queryParams.getInt("id");
+        Integer mmsi = queryParams.getInt("mmsi");
+        boolean anonymous = handler.getConf().isAnonymous();
+        if (anonymous && mmsi != null) {
+            throw new WebApplicationException(Response.Status.FORBIDDEN);
+        }
+        long to = queryParams.getLong("to") != null ? queryParams.getLong("to") : System.currentTimeMillis();
+        long from = queryParams.getLong("from") != null ? queryParams.getLong("from") : to - 24 * 3600 * 1000L;
+        if (from >= to) {
+            throw new WebApplicationException(Response.Status.BAD_REQUEST);
+        }
+        List<PastTrackPoint> points = handler.getArchivedTrack(id, mmsi, from, to);
+        if (points == null) {
+            throw new WebApplicationException(Response.Status.NOT_FOUND);
+        }
+        return new ArchivedTrack(anonymous || mmsi == null ? 0 : mmsi, from, to, points);
+    }
+
+    /**
+     * Vessel list at a past time given by time in milliseconds since the epoch, reconstructed from the track archive.
+     * Vessels without a position within maxAge seconds before the time are left out, by default the sat target ttl.
+     * Area and filter are given as for vessel_list.
+     */
+    @GET
+    @Path("vessel_list_history")
+    @Produces(MediaType.APPLICATION_JSON)
+    public VesselListJsonResponse vesselListHistory(@Context UriInfo uriInfo) throws IOException {
+        QueryParams queryParams = new QueryParams(uriInfo.getQueryParameters());
+        Long time = queryParams.getLong("time");
+        if (time == null) {
+            throw new WebApplicationException(Response.Status.BAD_REQUEST);
+        }
+        TrafficPicture picture = trackArchive().getPicture(time, maxAge(queryParams));
+        return historicalVesselList(queryParams, picture);
+    }
+
+    /**
+     * Playback of the vessel list from the track archive. A vessel list as for vessel_list_history is streamed on a
+     * line for each step seconds from from to to, in milliseconds since the epoch. The frames are sent speed times
+     * faster than real time, by default one minute per second, and at least in real time. A playback may take at most
+     * {@link #MAX_PLAYBACK_DURATION} milliseconds.
+     */
+    @GET
+    @Path("playback")
+    @Produces("application/x-ndjson")
+    public Response playback(@Context UriInfo uriInfo) {
+        final QueryParams queryParams = new QueryParams(uriInfo.getQueryParameters());
+        final TrackArchive archive = trackArchive();
+        final Long from = queryParams.getLong("from");
+        final long to = queryParams.getLong("to") != null ? queryParams.getLong("to") : System.currentTimeMillis();
+        final long step = (queryParams.getInt("step") != null ? queryParams.getInt("step") : 60) * 1000L;
+        double speed = queryParams.getDouble("speed") != null ? queryParams.getDouble("speed") : 60;
+        if (from == null || from >= to || step <= 0 || speed < MIN_PLAYBACK_SPEED
+                || (to - from) / step >= MAX_PLAYBACK_FRAMES || (to - from) / speed > MAX_PLAYBACK_DURATION) {
+            throw new WebApplicationException(Response.Status.BAD_REQUEST);
+        }
+        final long maxAge = maxAge(queryParams);
+        final long interval = Math.round(step / speed);
+        final Cancellation cancellation = Cancellation.current();
+        return Response.ok(new StreamingOutput() {
+            @Override
+            public void write(OutputStream output) throws IOException {
+                // The first frame is reconstructed from a keyframe, the following by the points of each step
+                TrafficPicture picture = archive.getPicture(from, maxAge);
+                long time = from;
+                while (true) {
+                    long begin = System.currentTimeMillis();
+                    output.write(MAPPER.writeValueAsBytes(historicalVesselList(queryParams, picture)));
+                    output.write('\n');
+                    output.flush();
+                    time += step;
+                    if (time > to || cancellation.isCancelled()) {
+                        return;
+                    }
+                    archive.advance(picture, time);
+                    picture.retain(time - maxAge);
+                    // Sleep in steps, as a closed connection is only noticed by the next write
+                    long sleep;
+                    while ((sleep = interval - (System.currentTimeMillis() - begin)) > 0) {
+                        if (cancellation.isCancelled()) {
+                            return;
+                        }
+                        try {
+                            Thread.sleep(Math.min(sleep, PLAYBACK_SLEEP_STEP));
+                        } catch (InterruptedException e) {
+                            Thread.currentThread().interrupt();
+                            return;
+                        }
+                    }
+                }
+            }
+        }).build();
+    }
+
     @GET
     @Path("vessel_search")
     @Produces(MediaType.APPLICATION_JSON)
@@ -120,7 +376,117 @@ public class AisViewRestService {
         if (expected == null) {
             expected = 0.0;
         }
-        return "status=" + ((handler.getStat().getRate() > expected) ? "ok" : "nok");
+        return "status=" + ((handler.getRate() > expected) ? "ok" : "nok");
+    }
+
+    /**
+     * Health of the feeds of base stations, source ids, source countries and regions, or of one kind of source given
+     * by dimension. A source is quiet when no message was received for quiet seconds, by default 300.
+     */
+    @GET
+    @Path("source_statistics")
+    @Produces(MediaType.APPLICATION_JSON)
+    public List<SourceHealth> sourceStatistics(@QueryParam("dimension") String dimension,
+            @QueryParam("quiet") Integer quiet) {
+        SourceStatistics sourceStatistics = AisView.get().getSourceStatistics();
+        if (sourceStatistics == null) {
+            throw new WebApplicationException(Response.Status.NOT_FOUND);
+        }
+        return sourceStatistics.getHealth(dimension, (quiet != null ? quiet : 300) * 1000L);
+    }
+
+    /**
+     * Latest abnormal behavior events, newest first, in the format of the abnormal behavior web client. The events
+     * can be filtered by a comma separated list of eventTypes, where types not detected are ignored, by mmsi and by
+     * time of the event in milliseconds within timeMin and timeMax. A client polling for new events passes the highest
+     * id received as after.
+     */
+    @GET
+    @Path("abnormal_events")
+    @Produces(MediaType.APPLICATION_JSON)
+    public List<AbnormalEvent> abnormalEvents(@QueryParam("eventTypes") String eventTypes,
+            @QueryParam("mmsi") Integer mmsi, @QueryParam("timeMin") Long timeMin, @QueryParam("timeMax") Long timeMax,
+            @QueryParam("after") Long after) {
+        AnomalyDetection anomalyDetection = handler.getAnomalyDetection();
+        if (anomalyDetection == null) {
+            throw new WebApplicationException(Response.Status.NOT_FOUND);
+        }
+        EnumSet<AnomalyType> types = null;
+        if (eventTypes != null) {
+            types = EnumSet.noneOf(AnomalyType.class);
+            for (String name : eventTypes.split(",")) {
+                for (AnomalyType type : AnomalyType.values()) {
+                    if (type.name().equals(name.trim())) {
+                        types.add(type);
+                    }
+                }
+            }
+        }
+        List<AnomalyEvent> events = anomalyDetection.getEvents().list(types, mmsi,
+                timeMin != null ? timeMin : Long.MIN_VALUE, timeMax != null ? timeMax : Long.MAX_VALUE,
+                after != null ? after : -1);
+        DateFormat dateFormat = new SimpleDateFormat("MMM d, yyyy h:mm:ss a", Locale.US);
+        List<AbnormalEvent> response = new ArrayList<>(events.size());
+        for (AnomalyEvent event : events) {
+            response.add(new AbnormalEvent(event, dateFormat));
+        }
+        return response;
+    }
+
+    /**
+     * Geofence zones with the number of vessels inside each
+     */
+    @GET
+    @Path("geofence_zones")
+    @Produces(MediaType.APPLICATION_JSON)
+    public List<GeofenceZone> geofenceZones() {
+        Geofence geofence = geofence();
+        List<GeofenceZone> zones = new ArrayList<>();
+        for (Zone zone : geofence.getZones()) {
+            zones.add(new GeofenceZone(zone, geofence.getVessels(zone.getId())));
+        }
+        return zones;
+    }
+
+    /**
+     * Latest entries and exits of geofence zones, newest first, optionally of one zone given by its id or of one
+     * vessel given by mmsi. A client polling for new events passes the highest id received as after.
+     */
+    @GET
+    @Path("geofence_events")
+    @Produces(MediaType.APPLICATION_JSON)
+    public List<GeofenceEvent> geofenceEvents(@QueryParam("zone") Integer zone, @QueryParam("mmsi") Integer mmsi,
+            @QueryParam("after") Long after) {
+        return geofence().getEvents().list(zone, mmsi, after != null ? after : -1);
+    }
+
+    private Geofence geofence() {
+        Geofence geofence = handler.getGeofence();
+        if (geofence == null) {
+            throw new WebApplicationException(Response.Status.NOT_FOUND);
+        }
+        return geofence;
+    }
+
+    /**
+     * Predicted close encounters ordered by time of closest point of approach, optionally of one vessel given by mmsi
+     */
+    @GET
+    @Path("close_encounters")
+    @Produces(MediaType.APPLICATION_JSON)
+    public List<Encounter> closeEncounters(@QueryParam("mmsi") Integer mmsi) {
+        CloseEncounters closeEncounters = AisView.get().getCloseEncounters();
+        if (closeEncounters == null) {
+            throw new WebApplicationException(Response.Status.NOT_FOUND);
+        }
+        return mmsi != null ? closeEncounters.getEncounters(mmsi) : closeEncounters.getEncounters();
+    }
+
+    @GET
+    @Path("metrics")
+    @Produces(MetricsRegistry.CONTENT_TYPE)
+    public String metrics() {
+        return MetricsRegistry.getInstance().toPrometheus();
     }
 
     @GET
@@ -138,22 +504,86 @@ public class AisViewRestService {
         return handler.generateKml(resources);
     }
 
+    /**
+     * Vessel list of an area, or of a tile if z, x and y are given
+     */
+    private Response cachedVesselList(final QueryParams request, final boolean anonymous, String acceptEncoding)
+            throws IOException {
+        if (request.getInt("z") != null) {
+            return tileVesselList(request, anonymous, acceptEncoding);
+        }
+        if (responseCache == null) {
+            return Response.ok(vesselList(request, anonymous)).build();
+        }
+        String key = "vessel_list " + anonymous + " " + new VesselListFilter(request) + " " + areaKey(request);
+        CachedJsonResponse cached = responseCache.get(key, new Callable<CachedJsonResponse>() {
+            @Override
+            public CachedJsonResponse call() throws IOException {
+                return CachedJsonResponse.create(vesselList(request, anonymous), "requestId");
+            }
+        });
+        return cachedResponse(cached, requestId(request), acceptEncoding);
+    }
+
+    /**
+     * Vessel list of the tile given by z, x and y. The lists of tiles are made from the vessel tile index and shared
+     * by all requests with the same filter until the index is rebuilt.
+     */
+    private Response tileVesselList(QueryParams request, final boolean anonymous, String acceptEncoding)
+            throws IOException {
+        Integer x = request.getInt("x");
+        Integer y = request.getInt("y");
+        if (x == null || y == null) {
+            throw new WebApplicationException(Response.Status.BAD_REQUEST);
+        }
+        final Tile tile = tile(request.getInt("z"), x, y);
+        final VesselListFilter filter = new VesselListFilter(request);
+        final VesselTileIndex index = handler.getVesselTileIndex();
+        CachedJsonResponse cached;
+        if (vesselListTileCache == null) {
+            cached = tileVesselList(anonymous, filter, index, tile);
+        } else {
+            String key = tile + " " + anonymous + " " + filter + " " + index.getCreated();
+            cached = vesselListTileCache.get(key, new Callable<CachedJsonResponse>() {
+                @Override
+                public CachedJsonResponse call() throws IOException {
+                    return tileVesselList(anonymous, filter, index, tile);
+                }
+            });
+        }
+        return cachedResponse(cached, requestId(request), acceptEncoding);
+    }
+
+    private CachedJsonResponse tileVesselList(boolean anonymous, VesselListFilter filter, VesselTileIndex index,
+            Tile tile) throws IOException {
+        BaseVesselList list = anonymous ? new AnonymousVesselList() : new VesselList();
+        return CachedJsonResponse.create(new VesselListJsonResponse(-1, handler.getTileVesselList(list, filter, index,
+                tile)), "requestId");
+    }
+
+    private static Response cachedResponse(final CachedJsonResponse cached, final int requestId,
+            String acceptEncoding) {
+        final boolean gzip = acceptEncoding != null && acceptEncoding.contains("gzip");
+        ResponseBuilder builder = Response.ok(new StreamingOutput() {
+            @Override
+            public void write(OutputStream output) throws IOException {
+                cached.write(output, requestId, gzip);
+            }
+        });
+        builder.header("Vary", "Accept-Encoding");
+        if (gzip) {
+            builder.header("Content-Encoding", "gzip");
+        }
+        return builder.build();
+    }
+
     private VesselListJsonResponse vesselList(QueryParams request, boolean anonymous) {
         VesselListFilter filter = new VesselListFilter(request);
-        // Get corners
-        Double topLat = request.getDouble("topLat");
-        Double topLon = request.getDouble("topLon");
-        Double botLat = request.getDouble("botLat");
-        Double botLon = request.getDouble("botLon");
 
         // Extract requested area
-        Position pointA = null;
-        Position pointB = null;
-
-        if (topLat != null && topLon != null && botLat != null && botLon != null) {
-            pointA = Position.create(topLat, topLon);
-            pointB = Position.create(botLat, botLon);
-        }
+        Position[] area = cachedArea(request);
+        Position pointA = area != null ? area[0] : null;
+        Position pointB = area != null ? area[1] : null;
 
         // Get response from AisViewHandler and return it
         BaseVesselList list;
@@ -163,52 +593,183 @@ public class AisViewRestService {
             list = new VesselList();
         }
 
-        // Get request id
-        Integer requestId = request.getInt("requestId");
-        if (requestId == null) {
-            requestId = -1;
+        return new VesselListJsonResponse(requestId(request), handler.getVesselList(list, filter, pointA, pointB));
+    }
+
+    private VesselListJsonResponse historicalVesselList(QueryParams request, TrafficPicture picture) {
+        VesselListFilter filter = new VesselListFilter(request);
+
+        // Extract requested area
+        Position[] area = area(request);
+        Position pointA = area != null ? area[0] : null;
+        Position pointB = area != null ? area[1] : null;
+
+        BaseVesselList list;
+        if (handler.getConf().isAnonymous()) {
+            list = new AnonymousVesselList();
+        } else {
+            list = new VesselList();
+        }
+
+        return new VesselListJsonResponse(requestId(request), handler.getVesselList(list, filter, pointA, pointB,
+                picture));
+    }
+
+    private static Tile tile(int z, int x, int y) {
+        try {
+            return new Tile(z, x, y);
+        } catch (IllegalArgumentException e) {
+            throw new WebApplicationException(Response.Status.BAD_REQUEST);
         }
+    }
 
-        return new VesselListJsonResponse(requestId, handler.getVesselList(list, filter, pointA, pointB));
+    /**
+     * Traffic statistics of the grid cells within an area in the hour, day or month given by period, by default day,
+     * holding the time in milliseconds, by default now. Hours are kept for a limited time only. The area is given as
+     * for vessel_list, by default the whole world.
+     */
+    @GET
+    @Path("traffic_statistics")
+    @Produces(MediaType.APPLICATION_JSON)
+    public TrafficStatisticsJsonResponse trafficStatistics(@Context UriInfo uriInfo) throws IOException {
+        TrafficStatistics trafficStatistics = AisView.get().getTrafficStatistics();
+        if (trafficStatistics == null) {
+            throw new WebApplicationException(Response.Status.NOT_FOUND);
+        }
+        QueryParams queryParams = new QueryParams(uriInfo.getQueryParameters());
+        long time = queryParams.getLong("time") != null ? queryParams.getLong("time") : System.currentTimeMillis();
+        String period = queryParams.getFirst("period") != null ? queryParams.getFirst("period") : "day";
+        TrafficBucket bucket;
+        switch (period) {
+        case "hour":
+            bucket = trafficStatistics.getHour(time);
+            if (bucket == null) {
+                throw new WebApplicationException(Response.Status.NOT_FOUND);
+            }
+            break;
+        case "day":
+            bucket = trafficStatistics.getDay(time);
+            break;
+        case "month":
+            bucket = trafficStatistics.getMonth(time);
+            break;
+        default:
+            throw new WebApplicationException(Response.Status.BAD_REQUEST);
+        }
+        Grid grid = trafficStatistics.getGrid();
+        Position[] area = area(queryParams);
+        TrafficStatisticsJsonResponse response = new TrafficStatisticsJsonResponse(bucket.getStart(),
+                bucket.getEnd(), grid.getCellSizeInDegrees());
+        for (Map.Entry<Long, CellStatistics> entry : bucket.getCells().entrySet()) {
+            Position corner = grid.getGeoPosOfCellId(entry.getKey());
+            if (area != null
+                    && (corner.getLatitude() > area[0].getLatitude() || corner.getLatitude() < area[1].getLatitude()
+                            - grid.getCellSizeInDegrees() || corner.getLongitude() > area[1].getLongitude() || corner
+                            .getLongitude() < area[0].getLongitude() - grid.getCellSizeInDegrees())) {
+                continue;
+            }
+            response.addCell(corner, entry.getValue());
+        }
+        return response;
+    }
+
+    private TrackArchive trackArchive() {
+        TrackArchive archive = handler.getTrackArchive();
+        if (archive == null) {
+            throw new WebApplicationException(Response.Status.NOT_FOUND);
+        }
+        return archive;
+    }
+
+    /**
+     * Maximum age of the positions of a past vessel list in milliseconds
+     */
+    private long maxAge(QueryParams request) {
+        Integer maxAge = request.getInt("maxAge");
+        if (maxAge == null) {
+            maxAge = handler.getConf().getSatTargetTtl();
+        }
+        return maxAge * 1000L;
     }
 
     private VesselClusterJsonRepsonse cluster(QueryParams request) {
         VesselListFilter filter = new VesselListFilter(request);
 
-        // Extract cluster limit
+        // Extract requested area
+        Position[] area = cachedArea(request);
+        Position pointA = area != null ? area[0] : null;
+        Position pointB = area != null ? area[1] : null;
+
+        return handler.getClusterResponse(requestId(request), filter, pointA, pointB, clusterLimit(request),
+                clusterSize(request));
+    }
+
+    private static int clusterLimit(QueryParams request) {
         Integer limit = request.getInt("clusterLimit");
         if (limit == null) {
             limit = 10;
         }
+        return limit;
+    }
 
-        // Extract cluster size
+    private static double clusterSize(QueryParams request) {
         Double size = request.getDouble("clusterSize");
         if (size == null) {
             size = 4.0;
         }
+        return size;
+    }
+
+    private static int requestId(QueryParams request) {
+        Integer requestId = request.getInt("requestId");
+        if (requestId == null) {
+            requestId = -1;
+        }
+        return requestId;
+    }
 
-        // Get corners
+    /**
+     * Get the requested area as upper left and bottom right corners
+     * 
+     * @return the corners or null if no area is requested
+     */
+    private static Position[] area(QueryParams request) {
         Double topLat = request.getDouble("topLat");
         Double topLon = request.getDouble("topLon");
         Double botLat = request.getDouble("botLat");
         Double botLon = request.getDouble("botLon");
-
-        // Extract requested area
-        Position pointA = null;
-        Position pointB = null;
-
-        if (topLat != null && topLon != null && botLat != null && botLon != null) {
-            pointA = Position.create(topLat, topLon);
-            pointB = Position.create(botLat, botLon);
+        if (topLat == null || topLon == null || botLat == null || botLon == null) {
+            return null;
         }
+        return new Position[] { Position.create(topLat, topLon), Position.create(botLat, botLon) };
+    }
 
-        // Get request id
-        Integer requestId = request.getInt("requestId");
-        if (requestId == null) {
-            requestId = -1;
+    /**
+     * Get the requested area of a cached response. When responses are cached the area is expanded to the cache grid,
+     * so nearby views share responses.
+     * 
+     * @return the corners or null if no area is requested
+     */
+    private Position[] cachedArea(QueryParams request) {
+        Position[] area = area(request);
+        if (area == null || responseCache == null) {
+            return area;
         }
+        double gridSize = handler.getConf().getResponseCacheGridSize();
+        double topLat = Math.min(90, Math.ceil(area[0].getLatitude() / gridSize) * gridSize);
+        double topLon = Math.floor(area[0].getLongitude() / gridSize) * gridSize;
+        double botLat = Math.max(-90, Math.floor(area[1].getLatitude() / gridSize) * gridSize);
+        double botLon = Math.ceil(area[1].getLongitude() / gridSize) * gridSize;
+        return new Position[] { Position.create(topLat, topLon), Position.create(botLat, botLon) };
+    }
 
-        return handler.getClusterResponse(requestId, filter, pointA, pointB, limit, size);
+    private String areaKey(QueryParams request) {
+        Position[] area = cachedArea(request);
+        if (area == null) {
+            return "world";
+        }
+        return area[0].getLatitude() + "," + area[0].getLongitude() + "," + area[1].getLatitude() + ","
+                + area[1].getLongitude();
     }
 
 }
@@ -0,0 +1,34 @@
+/* Copyright (c) 2011 Danish Maritime Authority.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package dk.dma.ais.analysis.viewer.rest;
+
+import java.util.concurrent.CancellationException;
+
+import javax.ws.rs.core.Response;
+import javax.ws.rs.ext.ExceptionMapper;
+import javax.ws.rs.ext.Provider;
+
+/**
+ * Maps a request cancelled because its client went away to 503. The response is rarely seen by anyone.
+ */
+@Provider
+public class CancellationExceptionMapper implements ExceptionMapper<CancellationException> {
+
+    @Override
+    public Response toResponse(CancellationException exception) {
+        return Response.status(Response.Status.SERVICE_UNAVAILABLE).build();
+    }
+
+}
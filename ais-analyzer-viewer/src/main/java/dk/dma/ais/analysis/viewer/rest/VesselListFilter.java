@@ -17,6 +17,8 @@ package dk.dma.ais.analysis.viewer.rest;
 import java.util.HashMap;
 import java.util.HashSet;
 import java.util.Map;
+import java.util.TreeMap;
+import java.util.TreeSet;
 
 import org.apache.commons.lang.StringUtils;
 
@@ -29,6 +31,13 @@ public class VesselListFilter {
 
     private Map<String, HashSet<String>> filterMap = new HashMap<String, HashSet<String>>();
 
+    /**
+     * Filter accepting all vessels
+     */
+    public VesselListFilter() {
+
+    }
+
     public VesselListFilter(QueryParams request) {
         for (String filterName : filterNames) {
             if (request.containsKey(filterName)) {
@@ -48,4 +57,16 @@ public class VesselListFilter {
         return filterMap;
     }
 
+    /**
+     * Filters and values in sorted order, equal for equal filters
+     */
+    @Override
+    public String toString() {
+        Map<String, TreeSet<String>> sorted = new TreeMap<>();
+        for (Map.Entry<String, HashSet<String>> entry : filterMap.entrySet()) {
+            sorted.put(entry.getKey(), new TreeSet<>(entry.getValue()));
+        }
+        return sorted.toString();
+    }
+
 }
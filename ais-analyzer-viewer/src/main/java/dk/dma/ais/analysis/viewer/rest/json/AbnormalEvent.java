@@ -0,0 +1,172 @@
+/* Copyright (c) 2011 Danish Maritime Authority.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package dk.dma.ais.analysis.viewer.rest.json;
+
+import java.text.DateFormat;
+import java.util.Date;
+
+import dk.dma.ais.analysis.viewer.anomaly.AnomalyEvent;
+
+/**
+ * Abnormal behavior event in the format of the abnormal behavior web client
+ */
+public class AbnormalEvent {
+
+    private long id;
+    private String type;
+    private String description;
+    private Location location;
+    private String date;
+    private long time;
+    private int vessel;
+    private String vesselName;
+    private String shipType;
+
+    public AbnormalEvent() {
+
+    }
+
+    /**
+     * @param event
+     *            the event
+     * @param dateFormat
+     *            format of the date, as "Nov 5, 2012 11:14:31 AM" parsed by the client
+     */
+    public AbnormalEvent(AnomalyEvent event, DateFormat dateFormat) {
+        this.id = event.getId();
+        this.type = event.getType().name();
+        this.description = event.getDescription();
+        this.location = new Location(event.getLat(), event.getLon());
+        this.date = dateFormat.format(new Date(event.getTime()));
+        this.time = event.getTime();
+        this.vessel = event.getMmsi();
+        this.vesselName = event.getVesselName();
+        this.shipType = event.getShipType();
+    }
+
+    /**
+     * Sequence number of the event, to be passed as after when polling for newer events
+     */
+    public long getId() {
+        return id;
+    }
+
+    public void setId(long id) {
+        this.id = id;
+    }
+
+    public String getType() {
+        return type;
+    }
+
+    public void setType(String type) {
+        this.type = type;
+    }
+
+    public String getDescription() {
+        return description;
+    }
+
+    public void setDescription(String description) {
+        this.description = description;
+    }
+
+    public Location getLocation() {
+        return location;
+    }
+
+    public void setLocation(Location location) {
+        this.location = location;
+    }
+
+    public String getDate() {
+        return date;
+    }
+
+    public void setDate(String date) {
+        this.date = date;
+    }
+
+    /**
+     * Time of the event in milliseconds
+     */
+    public long getTime() {
+        return time;
+    }
+
+    public void setTime(long time) {
+        this.time = time;
+    }
+
+    /**
+     * MMSI of the vessel
+     */
+    public int getVessel() {
+        return vessel;
+    }
+
+    public void setVessel(int vessel) {
+        this.vessel = vessel;
+    }
+
+    public String getVesselName() {
+        return vesselName;
+    }
+
+    public void setVesselName(String vesselName) {
+        this.vesselName = vesselName;
+    }
+
+    public String getShipType() {
+        return shipType;
+    }
+
+    public void setShipType(String shipType) {
+        this.shipType = shipType;
+    }
+
+    public static class Location {
+
+        private double latitude;
+        private double longitude;
+
+        public Location() {
+
+        }
+
+        public Location(double latitude, double longitude) {
+            this.latitude = latitude;
+            this.longitude = longitude;
+        }
+
+        public double getLatitude() {
+            return latitude;
+        }
+
+        public void setLatitude(double latitude) {
+            this.latitude = latitude;
+        }
+
+        public double getLongitude() {
+            return longitude;
+        }
+
+        public void setLongitude(double longitude) {
+            this.longitude = longitude;
+        }
+
+    }
+
+}
@@ -15,37 +15,29 @@
 package dk.dma.ais.analysis.viewer.rest.json;
 
 import java.io.Serializable;
-import java.util.Collection;
-
-import dk.dma.ais.analysis.viewer.handler.AisTargetEntry;
-import dk.dma.ais.data.AisTarget;
-import dk.dma.ais.data.AisVesselTarget;
-import dk.dma.ais.data.IPastTrack;
+import java.util.Map;
 
 public class AisViewHandlerStats implements Serializable {
 
     private static final long serialVersionUID = 1L;
 
-    private int totalTargets = 0;
-    private int pastTrackTargets = 0;
-    private int vesselTargets = 0;
-    private int pastTrackPoints = 0;
-    private double rate = 0.0;
+    private final int totalTargets;
+    private final int pastTrackTargets;
+    private final int vesselTargets;
+    private final int pastTrackPoints;
+    private final double rate;
+    private final Map<String, Integer> sourceTypes;
+    private final Map<String, Integer> countries;
 
-    public AisViewHandlerStats(Collection<AisTargetEntry> targets, Collection<IPastTrack> pastTracks, double rate) {
+    public AisViewHandlerStats(int totalTargets, int vesselTargets, int pastTrackTargets, int pastTrackPoints,
+            double rate, Map<String, Integer> sourceTypes, Map<String, Integer> countries) {
+        this.totalTargets = totalTargets;
+        this.vesselTargets = vesselTargets;
+        this.pastTrackTargets = pastTrackTargets;
+        this.pastTrackPoints = pastTrackPoints;
         this.rate = rate;
-        totalTargets = targets.size();
-        // Go through all targets
-        for (AisTargetEntry targetEntry : targets) {
-            AisTarget target = targetEntry.getTarget();                   
-            if (target instanceof AisVesselTarget) {
-                vesselTargets++;
-            }
-        }
-        pastTrackTargets = pastTracks.size();
-        for (IPastTrack pastTrack : pastTracks) {
-            pastTrackPoints += pastTrack.getPoints().size();
-        }
+        this.sourceTypes = sourceTypes;
+        this.countries = countries;
     }
 
     public int getTotalTargets() {
@@ -68,4 +60,18 @@ public class AisViewHandlerStats implements Serializable {
         return rate;
     }
 
+    /**
+     * Number of targets by the source type of their last message
+     */
+    public Map<String, Integer> getSourceTypes() {
+        return sourceTypes;
+    }
+
+    /**
+     * Number of targets by flag country
+     */
+    public Map<String, Integer> getCountries() {
+        return countries;
+    }
+
 }
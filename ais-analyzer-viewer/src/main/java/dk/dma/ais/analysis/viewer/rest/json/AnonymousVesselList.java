@@ -17,6 +17,8 @@ package dk.dma.ais.analysis.viewer.rest.json;
 import java.util.ArrayList;
 import java.util.Locale;
 
+import dk.dma.ais.analysis.viewer.archive.TrafficPicture;
+import dk.dma.ais.analysis.viewer.handler.TargetSnapshot;
 import dk.dma.ais.data.AisClassAPosition;
 import dk.dma.ais.data.AisVesselPosition;
 import dk.dma.ais.data.AisVesselStatic;
@@ -85,4 +87,21 @@ public class AnonymousVesselList extends BaseVesselList {
         vesselCount++;
     }
 
+    @Override
+    public AnonymousVesselList newInstance() {
+        return new AnonymousVesselList();
+    }
+
+    @Override
+    public void addTarget(TargetSnapshot snapshot, int row) {
+        vessels.put(snapshot.getAnonId(row), anonymousFields(snapshot, row));
+        vesselCount++;
+    }
+
+    @Override
+    public void addTarget(TrafficPicture picture, int slot, TargetSnapshot snapshot, int row, int anonId) {
+        vessels.put(anonId, anonymousFields(picture, slot, snapshot, row));
+        vesselCount++;
+    }
+
 }
@@ -0,0 +1,57 @@
+/* Copyright (c) 2011 Danish Maritime Authority.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package dk.dma.ais.analysis.viewer.rest.json;
+
+import java.util.List;
+
+import dk.dma.ais.data.PastTrackPoint;
+
+/**
+ * Track of a vessel read from the track archive
+ */
+public class ArchivedTrack {
+
+    private final long mmsi;
+    private final long from;
+    private final long to;
+    private final List<PastTrackPoint> points;
+
+    public ArchivedTrack(long mmsi, long from, long to, List<PastTrackPoint> points) {
+        this.mmsi = mmsi;
+        this.from = from;
+        this.to = to;
+        this.points = points;
+    }
+
+    /**
+     * MMSI of the vessel, 0 if anonymous
+     */
+    public long getMmsi() {
+        return mmsi;
+    }
+
+    public long getFrom() {
+        return from;
+    }
+
+    public long getTo() {
+        return to;
+    }
+
+    public List<PastTrackPoint> getPoints() {
+        return points;
+    }
+
+}
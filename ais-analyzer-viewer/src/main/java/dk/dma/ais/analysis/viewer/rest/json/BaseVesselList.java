@@ -16,7 +16,10 @@ package dk.dma.ais.analysis.viewer.rest.json;
 
 import java.util.ArrayList;
 import java.util.HashMap;
+import java.util.Locale;
 
+import dk.dma.ais.analysis.viewer.archive.TrafficPicture;
+import dk.dma.ais.analysis.viewer.handler.TargetSnapshot;
 import dk.dma.ais.data.AisVesselTarget;
 
 public abstract class BaseVesselList {
@@ -33,6 +36,66 @@ public abstract class BaseVesselList {
     }
     
     public abstract void addTarget(AisVesselTarget vesselTarget, int anonId);
+
+    public abstract void addTarget(TargetSnapshot snapshot, int row);
+
+    /**
+     * Add a vessel of a past traffic picture. Class, color and statics are taken from the snapshot row of the vessel,
+     * or left unknown if the row is -1.
+     */
+    public abstract void addTarget(TrafficPicture picture, int slot, TargetSnapshot snapshot, int row, int anonId);
+
+    /**
+     * Create an empty list of the same kind
+     */
+    public abstract BaseVesselList newInstance();
+
+    /**
+     * Add the vessels and counts of a list of the same kind
+     */
+    public void addAll(BaseVesselList other) {
+        vessels.putAll(other.vessels);
+        vesselCount += other.vesselCount;
+        inWorldCount += other.inWorldCount;
+    }
+
+    /**
+     * Fields of a snapshot row shown in both anonymous and named lists
+     */
+    protected static ArrayList<String> anonymousFields(TargetSnapshot snapshot, int row) {
+        Double cog = snapshot.getCog(row);
+        return anonymousFields(cog == null ? 0d : cog, snapshot.getLat(row), snapshot.getLon(row),
+                snapshot.isClassAPosition(row), snapshot.getColor(row), snapshot.isMoored(row));
+    }
+
+    /**
+     * Fields of a vessel of a past traffic picture shown in both anonymous and named lists. The navigational status
+     * is not archived, so the vessel is never shown as moored.
+     */
+    protected static ArrayList<String> anonymousFields(TrafficPicture picture, int slot, TargetSnapshot snapshot,
+            int row) {
+        boolean classA = row >= 0 && snapshot.isClassAPosition(row);
+        int color = row >= 0 ? snapshot.getColor(row) : ShipTypeMapper.ShipTypeColor.GREY.ordinal();
+        return anonymousFields(picture.getCog(slot), picture.getLat(slot), picture.getLon(slot), classA, color, false);
+    }
+
+    private static ArrayList<String> anonymousFields(double cog, double lat, double lon, boolean classA, int color,
+            boolean moored) {
+        // Round cog to nearest 10
+        long cogL = Math.round(cog / 10.0) * 10;
+        if (cogL == 360) {
+            cogL = 0;
+        }
+
+        ArrayList<String> list = new ArrayList<String>();
+        list.add(Long.toString(cogL));
+        list.add(String.format(Locale.US, "%.5f", lat));
+        list.add(String.format(Locale.US, "%.5f", lon));
+        list.add(classA ? "A" : "B");
+        list.add(Integer.toString(color));
+        list.add(moored ? "1" : "0");
+        return list;
+    }
     
     public HashMap<Integer, ArrayList<String>> getVessels() {
         return vessels;
@@ -41,6 +104,13 @@ public abstract class BaseVesselList {
     public long getCurrentTime() {
         return currentTime;
     }
+
+    /**
+     * Set the time the list shows the vessels at, for lists of a past traffic picture
+     */
+    public void setCurrentTime(long currentTime) {
+        this.currentTime = currentTime;
+    }
     
     public int getVesselCount() {
         return vesselCount;
@@ -0,0 +1,105 @@
+/* Copyright (c) 2011 Danish Maritime Authority.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package dk.dma.ais.analysis.viewer.rest.json;
+
+import dk.dma.ais.analysis.viewer.geofence.Zone;
+
+/**
+ * A geofence zone with the number of vessels inside
+ */
+public class GeofenceZone {
+
+    private int id;
+    private String name;
+    private int vessels;
+    private double minLat;
+    private double maxLat;
+    private double minLon;
+    private double maxLon;
+
+    public GeofenceZone() {
+
+    }
+
+    public GeofenceZone(Zone zone, int vessels) {
+        this.id = zone.getId();
+        this.name = zone.getName();
+        this.vessels = vessels;
+        this.minLat = zone.getMinLat();
+        this.maxLat = zone.getMaxLat();
+        this.minLon = zone.getMinLon();
+        this.maxLon = zone.getMaxLon();
+    }
+
+    public int getId() {
+        return id;
+    }
+
+    public void setId(int id) {
+        this.id = id;
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    public void setName(String name) {
+        this.name = name;
+    }
+
+    /**
+     * Number of vessels inside the zone
+     */
+    public int getVessels() {
+        return vessels;
+    }
+
+    public void setVessels(int vessels) {
+        this.vessels = vessels;
+    }
+
+    public double getMinLat() {
+        return minLat;
+    }
+
+    public void setMinLat(double minLat) {
+        this.minLat = minLat;
+    }
+
+    public double getMaxLat() {
+        return maxLat;
+    }
+
+    public void setMaxLat(double maxLat) {
+        this.maxLat = maxLat;
+    }
+
+    public double getMinLon() {
+        return minLon;
+    }
+
+    public void setMinLon(double minLon) {
+        this.minLon = minLon;
+    }
+
+    public double getMaxLon() {
+        return maxLon;
+    }
+
+    public void setMaxLon(double maxLon) {
+        this.maxLon = maxLon;
+    }
+
+}
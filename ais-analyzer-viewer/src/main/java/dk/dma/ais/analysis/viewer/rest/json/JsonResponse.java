@@ -14,6 +14,13 @@
  */
 package dk.dma.ais.analysis.viewer.rest.json;
 
+import org.codehaus.jackson.annotate.JsonPropertyOrder;
+
+/**
+ * Base of responses to requests with a request id. The request id is serialized first, which lets cached responses be
+ * written with the id of each request.
+ */
+@JsonPropertyOrder({ "requestId" })
 public abstract class JsonResponse {
 
     protected int requestId;
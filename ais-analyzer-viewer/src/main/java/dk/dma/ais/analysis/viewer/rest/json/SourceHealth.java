@@ -0,0 +1,138 @@
+/* Copyright (c) 2011 Danish Maritime Authority.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package dk.dma.ais.analysis.viewer.rest.json;
+
+/**
+ * Health of the feed of a source
+ */
+public class SourceHealth {
+
+    private String dimension;
+    private String value;
+    private long messages;
+    private long firstSeen;
+    private long lastSeen;
+    private boolean quiet;
+    private double rate1m;
+    private double rate5m;
+    private double rate60m;
+    private long vessels;
+
+    public SourceHealth() {
+
+    }
+
+    /**
+     * Kind of source: bs, id, country or region
+     */
+    public String getDimension() {
+        return dimension;
+    }
+
+    public void setDimension(String dimension) {
+        this.dimension = dimension;
+    }
+
+    public String getValue() {
+        return value;
+    }
+
+    public void setValue(String value) {
+        this.value = value;
+    }
+
+    /**
+     * Messages since the source was first seen
+     */
+    public long getMessages() {
+        return messages;
+    }
+
+    public void setMessages(long messages) {
+        this.messages = messages;
+    }
+
+    public long getFirstSeen() {
+        return firstSeen;
+    }
+
+    public void setFirstSeen(long firstSeen) {
+        this.firstSeen = firstSeen;
+    }
+
+    public long getLastSeen() {
+        return lastSeen;
+    }
+
+    public void setLastSeen(long lastSeen) {
+        this.lastSeen = lastSeen;
+    }
+
+    /**
+     * True if no message has been received from the source for a while
+     */
+    public boolean isQuiet() {
+        return quiet;
+    }
+
+    public void setQuiet(boolean quiet) {
+        this.quiet = quiet;
+    }
+
+    /**
+     * Messages per second in the last minute
+     */
+    public double getRate1m() {
+        return rate1m;
+    }
+
+    public void setRate1m(double rate1m) {
+        this.rate1m = rate1m;
+    }
+
+    /**
+     * Messages per second in the last 5 minutes
+     */
+    public double getRate5m() {
+        return rate5m;
+    }
+
+    public void setRate5m(double rate5m) {
+        this.rate5m = rate5m;
+    }
+
+    /**
+     * Messages per second in the last hour
+     */
+    public double getRate60m() {
+        return rate60m;
+    }
+
+    public void setRate60m(double rate60m) {
+        this.rate60m = rate60m;
+    }
+
+    /**
+     * Estimated distinct vessels received in the last hour
+     */
+    public long getVessels() {
+        return vessels;
+    }
+
+    public void setVessels(long vessels) {
+        this.vessels = vessels;
+    }
+
+}
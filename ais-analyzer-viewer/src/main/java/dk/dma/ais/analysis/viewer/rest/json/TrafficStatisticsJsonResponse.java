@@ -0,0 +1,153 @@
+/* Copyright (c) 2011 Danish Maritime Authority.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package dk.dma.ais.analysis.viewer.rest.json;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import dk.dma.ais.analysis.common.traffic.CellStatistics;
+import dk.dma.ais.analysis.common.traffic.TypeStatistics;
+import dk.dma.ais.message.ShipTypeCargo.ShipType;
+import dk.dma.enav.model.geometry.Position;
+
+/**
+ * Traffic statistics of the grid cells in an area within an hour, day or month
+ */
+public class TrafficStatisticsJsonResponse {
+
+    private long start;
+    private long end;
+    private double cellSize;
+    private double[] speedBounds = TypeStatistics.SPEED_BOUNDS;
+    private int courseBins = TypeStatistics.COURSE_BINS;
+    private List<Cell> cells = new ArrayList<>();
+
+    public TrafficStatisticsJsonResponse() {
+
+    }
+
+    public TrafficStatisticsJsonResponse(long start, long end, double cellSize) {
+        this.start = start;
+        this.end = end;
+        this.cellSize = cellSize;
+    }
+
+    public void addCell(Position corner, CellStatistics cellStatistics) {
+        cells.add(new Cell(corner, cellStatistics));
+    }
+
+    public long getStart() {
+        return start;
+    }
+
+    public long getEnd() {
+        return end;
+    }
+
+    public double getCellSize() {
+        return cellSize;
+    }
+
+    public double[] getSpeedBounds() {
+        return speedBounds;
+    }
+
+    public int getCourseBins() {
+        return courseBins;
+    }
+
+    public List<Cell> getCells() {
+        return cells;
+    }
+
+    /**
+     * A cell given by its south west corner, with the statistics of all ship types and of each ship type
+     */
+    public static class Cell {
+        private double lat;
+        private double lon;
+        private Type total;
+        private Map<String, Type> types = new HashMap<>();
+
+        public Cell() {
+
+        }
+
+        Cell(Position corner, CellStatistics cellStatistics) {
+            this.lat = corner.getLatitude();
+            this.lon = corner.getLongitude();
+            this.total = new Type(cellStatistics.getTotal());
+            for (ShipType shipType : ShipType.values()) {
+                TypeStatistics stats = cellStatistics.get(shipType);
+                if (stats != null) {
+                    types.put(shipType.name(), new Type(stats));
+                }
+            }
+        }
+
+        public double getLat() {
+            return lat;
+        }
+
+        public double getLon() {
+            return lon;
+        }
+
+        public Type getTotal() {
+            return total;
+        }
+
+        public Map<String, Type> getTypes() {
+            return types;
+        }
+    }
+
+    public static class Type {
+        private long messages;
+        private long vessels;
+        private int[] speeds;
+        private int[] courses;
+
+        public Type() {
+
+        }
+
+        Type(TypeStatistics stats) {
+            this.messages = stats.getMessages();
+            this.vessels = stats.getVessels();
+            this.speeds = stats.getSpeeds();
+            this.courses = stats.getCourses();
+        }
+
+        public long getMessages() {
+            return messages;
+        }
+
+        public long getVessels() {
+            return vessels;
+        }
+
+        public int[] getSpeeds() {
+            return speeds;
+        }
+
+        public int[] getCourses() {
+            return courses;
+        }
+    }
+
+}
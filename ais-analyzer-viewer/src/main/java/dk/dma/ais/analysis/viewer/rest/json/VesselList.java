@@ -17,6 +17,8 @@ package dk.dma.ais.analysis.viewer.rest.json;
 import java.util.ArrayList;
 import java.util.Locale;
 
+import dk.dma.ais.analysis.viewer.archive.TrafficPicture;
+import dk.dma.ais.analysis.viewer.handler.TargetSnapshot;
 import dk.dma.ais.data.AisClassAPosition;
 import dk.dma.ais.data.AisClassAStatic;
 import dk.dma.ais.data.AisVesselPosition;
@@ -98,4 +100,37 @@ public class VesselList extends BaseVesselList {
         vesselCount++;
     }
 
+    @Override
+    public VesselList newInstance() {
+        return new VesselList();
+    }
+
+    @Override
+    public void addTarget(TargetSnapshot snapshot, int row) {
+        ArrayList<String> list = anonymousFields(snapshot, row);
+        boolean hasStatic = snapshot.hasStatic(row);
+        list.add(Long.toString(snapshot.getMmsi(row)));
+        list.add(hasStatic ? snapshot.getName(row) : "N/A");
+        list.add(hasStatic ? snapshot.getCallsign(row) : "N/A");
+        Integer imo = snapshot.getImo(row);
+        list.add(imo == null ? "N/A" : Integer.toString(imo));
+
+        vessels.put(snapshot.getAnonId(row), list);
+        vesselCount++;
+    }
+
+    @Override
+    public void addTarget(TrafficPicture picture, int slot, TargetSnapshot snapshot, int row, int anonId) {
+        ArrayList<String> list = anonymousFields(picture, slot, snapshot, row);
+        boolean hasStatic = row >= 0 && snapshot.hasStatic(row);
+        list.add(Integer.toString(picture.getMmsi(slot)));
+        list.add(hasStatic ? snapshot.getName(row) : "N/A");
+        list.add(hasStatic ? snapshot.getCallsign(row) : "N/A");
+        Integer imo = row >= 0 ? snapshot.getImo(row) : null;
+        list.add(imo == null ? "N/A" : Integer.toString(imo));
+
+        vessels.put(anonId, list);
+        vesselCount++;
+    }
+
 }
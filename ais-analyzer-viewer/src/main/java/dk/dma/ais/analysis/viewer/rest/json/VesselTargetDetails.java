@@ -98,7 +98,7 @@ public class VesselTargetDetails {
         
         this.sourceType = sourceData.getSourceType();
         
-        this.sourceSystem = sourceData.getTagging().getSourceId();
+        this.sourceSystem = sourceData.getSourceId();
         if (this.sourceSystem == null) {
             this.sourceSystem = "N/A";
         }
@@ -106,14 +106,14 @@ public class VesselTargetDetails {
         if (this.sourceRegion == null) {
             this.sourceRegion = "N/A";
         }
-        if (sourceData.getTagging().getSourceBs() != null) {
-            this.sourceBs = Integer.toString(sourceData.getTagging().getSourceBs());
+        if (sourceData.getSourceBs() != null) {
+            this.sourceBs = Integer.toString(sourceData.getSourceBs());
         } else {
             this.sourceBs = "N/A";
         }
         
-        if (sourceData.getTagging().getSourceCountry() != null) {
-            this.sourceCountry = sourceData.getTagging().getSourceCountry().getName();
+        if (sourceData.getSourceCountry() != null) {
+            this.sourceCountry = sourceData.getSourceCountry().getName();
         } else {
             this.sourceCountry = "N/A";
         }
@@ -0,0 +1,193 @@
+/* Copyright (c) 2011 Danish Maritime Authority.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package dk.dma.ais.analysis.viewer.tiles;
+
+import java.util.Arrays;
+
+import net.jcip.annotations.Immutable;
+
+import dk.dma.ais.analysis.common.grid.Grid;
+
+/**
+ * Counts of vessels and past track points in the cells of a {@link Grid}, for rendering density tiles. Only cells with
+ * a count are kept, as arrays sorted by cell id. Cell ids of a row of cells are consecutive, so the cells of a tile are
+ * found by a binary search for each row crossing the tile.
+ */
+@Immutable
+public final class DensityGrid {
+
+    /**
+     * The counts shown in a tile
+     */
+    public enum Layer {
+        ALL, VESSELS, TRACKS;
+
+        /**
+         * @return the layer or null if the name is not a layer
+         */
+        public static Layer fromString(String name) {
+            for (Layer layer : values()) {
+                if (layer.name().equalsIgnoreCase(name)) {
+                    return layer;
+                }
+            }
+            return null;
+        }
+    }
+
+    private final Grid grid;
+    private final long created;
+    private final long[] cells;
+    private final int[] vessels;
+    private final int[] points;
+
+    /**
+     * Count the cells of vessels and past track points. The given arrays are sorted in place.
+     * 
+     * @param vesselCells
+     *            cell id of each vessel in the first vesselCount elements
+     * @param pointCells
+     *            cell id of each past track point in the first pointCount elements
+     */
+    public DensityGrid(Grid grid, long[] vesselCells, int vesselCount, long[] pointCells, int pointCount) {
+        this.grid = grid;
+        this.created = System.currentTimeMillis();
+        Arrays.sort(vesselCells, 0, vesselCount);
+        Arrays.sort(pointCells, 0, pointCount);
+
+        // Merge the runs of equal cell ids
+        long[] cells = new long[vesselCount + pointCount];
+        int[] vessels = new int[cells.length];
+        int[] points = new int[cells.length];
+        int size = 0;
+        int v = 0;
+        int p = 0;
+        while (v < vesselCount || p < pointCount) {
+            long cell;
+            if (p == pointCount || v < vesselCount && vesselCells[v] <= pointCells[p]) {
+                cell = vesselCells[v];
+            } else {
+                cell = pointCells[p];
+            }
+            cells[size] = cell;
+            while (v < vesselCount && vesselCells[v] == cell) {
+                vessels[size]++;
+                v++;
+            }
+            while (p < pointCount && pointCells[p] == cell) {
+                points[size]++;
+                p++;
+            }
+            size++;
+        }
+        this.cells = Arrays.copyOf(cells, size);
+        this.vessels = Arrays.copyOf(vessels, size);
+        this.points = Arrays.copyOf(points, size);
+    }
+
+    /**
+     * Time of creation in milliseconds
+     */
+    public long getCreated() {
+        return created;
+    }
+
+    public double getCellSize() {
+        return grid.getCellSizeInDegrees();
+    }
+
+    /**
+     * Number of cells with a count
+     */
+    public int size() {
+        return cells.length;
+    }
+
+    /**
+     * Add the counts of the cells of a layer to the pixels of a tile. Cells smaller than a pixel are summed in the
+     * pixel of their center. Cells larger than a pixel are drawn as rectangles, with the largest count of the cells
+     * meeting at a pixel.
+     * 
+     * @param pixels
+     *            counts of the tile by pixel, row by row from the top left corner
+     */
+    public void accumulate(Tile tile, Layer layer, int[] pixels) {
+        double size = grid.getCellSizeInDegrees();
+        boolean fill = size > tile.getPixelWidth();
+        double west = tile.getWest();
+        double east = tile.getEast();
+        long firstRow = (long) Math.floor(Math.max(tile.getSouth(), -90) / size);
+        long lastRow = (long) Math.floor(Math.min(tile.getNorth(), 90) / size);
+        for (long row = firstRow; row <= lastRow; row++) {
+            double lat = row * size;
+            long from = grid.getCellId(lat + size / 2, west);
+            long to = grid.getCellId(lat + size / 2, Math.nextDown(east));
+            int i = Arrays.binarySearch(cells, from);
+            if (i < 0) {
+                i = -i - 1;
+            }
+            if (i == cells.length || cells[i] > to) {
+                continue;
+            }
+            // Cells of a row are consecutive, so the position of a cell follows from the first of the row
+            double firstLon = grid.getGeoPosOfCellId(from).getLongitude();
+            double y0 = tile.pixelY(lat + size);
+            double y1 = tile.pixelY(lat);
+            for (; i < cells.length && cells[i] <= to; i++) {
+                int count = count(layer, i);
+                if (count == 0) {
+                    continue;
+                }
+                double lon = firstLon + (cells[i] - from) * size;
+                double x0 = tile.pixelX(lon);
+                double x1 = tile.pixelX(lon + size);
+                if (fill) {
+                    fill(pixels, x0, y0, x1, y1, count);
+                } else {
+                    int x = (int) Math.floor((x0 + x1) / 2);
+                    int y = (int) Math.floor((y0 + y1) / 2);
+                    if (x >= 0 && x < Tile.SIZE && y >= 0 && y < Tile.SIZE) {
+                        pixels[y * Tile.SIZE + x] += count;
+                    }
+                }
+            }
+        }
+    }
+
+    private int count(Layer layer, int i) {
+        switch (layer) {
+        case VESSELS:
+            return vessels[i];
+        case TRACKS:
+            return points[i];
+        default:
+            return vessels[i] + points[i];
+        }
+    }
+
+    private static void fill(int[] pixels, double x0, double y0, double x1, double y1, int count) {
+        int fromX = Math.max(0, (int) Math.floor(x0));
+        int toX = Math.min(Tile.SIZE, (int) Math.ceil(x1));
+        int fromY = Math.max(0, (int) Math.floor(y0));
+        int toY = Math.min(Tile.SIZE, (int) Math.ceil(y1));
+        for (int y = fromY; y < toY; y++) {
+            for (int x = fromX; x < toX; x++) {
+                int pixel = y * Tile.SIZE + x;
+                pixels[pixel] = Math.max(pixels[pixel], count);
+            }
+        }
+    }
+
+}
@@ -0,0 +1,87 @@
+/* Copyright (c) 2011 Danish Maritime Authority.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package dk.dma.ais.analysis.viewer.tiles;
+
+import java.awt.Color;
+import java.awt.image.BufferedImage;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+
+import javax.imageio.ImageIO;
+
+/**
+ * Rendering of density tiles as PNG images. Counts are colored on a logarithmic scale from transparent blue to red.
+ * Traffic mostly follows lanes, so the count of a pixel grows with its width rather than its area when zooming out,
+ * and the count at which the scale saturates is proportional to the number of cells across a pixel.
+ */
+public final class DensityRenderer {
+
+    // Count of a cell at which the color scale saturates
+    private static final double SATURATION = 50;
+
+    private static final int[] PALETTE = new int[256];
+
+    private static final byte[] EMPTY;
+
+    static {
+        for (int i = 1; i < PALETTE.length; i++) {
+            double t = i / 255.0;
+            // Blue through cyan, green and yellow to red
+            float hue = (float) ((1 - t) * 240 / 360);
+            int alpha = (int) (96 + t * 128);
+            PALETTE[i] = alpha << 24 | Color.HSBtoRGB(hue, 1, 1) & 0xffffff;
+        }
+        try {
+            EMPTY = png(new int[Tile.SIZE * Tile.SIZE]);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    private DensityRenderer() {
+
+    }
+
+    /**
+     * Render a layer of a density grid in a tile
+     * 
+     * @return the PNG image
+     */
+    public static byte[] render(DensityGrid grid, Tile tile, DensityGrid.Layer layer) throws IOException {
+        int[] counts = new int[Tile.SIZE * Tile.SIZE];
+        grid.accumulate(tile, layer, counts);
+        double saturation = SATURATION * Math.max(1, tile.getPixelWidth() / grid.getCellSize());
+        double scale = 255 / Math.log1p(saturation);
+        int[] argb = new int[counts.length];
+        boolean empty = true;
+        for (int i = 0; i < counts.length; i++) {
+            if (counts[i] > 0) {
+                argb[i] = PALETTE[(int) Math.max(1, Math.min(255, Math.log1p(counts[i]) * scale))];
+                empty = false;
+            }
+        }
+        return empty ? EMPTY : png(argb);
+    }
+
+    private static byte[] png(int[] argb) throws IOException {
+        BufferedImage image = new BufferedImage(Tile.SIZE, Tile.SIZE, BufferedImage.TYPE_INT_ARGB);
+        image.setRGB(0, 0, Tile.SIZE, Tile.SIZE, argb, 0, Tile.SIZE);
+        ByteArrayOutputStream out = new ByteArrayOutputStream(4096);
+        ImageIO.write(image, "png", out);
+        return out.toByteArray();
+    }
+
+}
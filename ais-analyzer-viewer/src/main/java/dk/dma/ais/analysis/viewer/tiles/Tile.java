@@ -0,0 +1,125 @@
+/* Copyright (c) 2011 Danish Maritime Authority.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package dk.dma.ais.analysis.viewer.tiles;
+
+import net.jcip.annotations.Immutable;
+
+/**
+ * A slippy map tile in the spherical Mercator projection used by OpenLayers and OpenStreetMap. Tile x grows east from
+ * 180 W and tile y grows south from 85.05 N. Pixel coordinates are relative to the top left corner of the tile.
+ */
+@Immutable
+public final class Tile {
+
+    public static final int SIZE = 256;
+    public static final int MAX_ZOOM = 20;
+    public static final double MAX_LATITUDE = 85.0511287798;
+
+    private final int z;
+    private final int x;
+    private final int y;
+    // Size of the world in pixels at the zoom level
+    private final double worldSize;
+
+    public Tile(int z, int x, int y) {
+        if (z < 0 || z > MAX_ZOOM || x < 0 || y < 0 || x >= 1 << z || y >= 1 << z) {
+            throw new IllegalArgumentException("Invalid tile " + z + "/" + x + "/" + y);
+        }
+        this.z = z;
+        this.x = x;
+        this.y = y;
+        this.worldSize = (double) SIZE * (1 << z);
+    }
+
+    public int getZ() {
+        return z;
+    }
+
+    public int getX() {
+        return x;
+    }
+
+    public int getY() {
+        return y;
+    }
+
+    public double getWest() {
+        return lon(x * SIZE);
+    }
+
+    public double getEast() {
+        return lon((x + 1) * SIZE);
+    }
+
+    public double getNorth() {
+        return lat(y * SIZE);
+    }
+
+    public double getSouth() {
+        return lat((y + 1) * SIZE);
+    }
+
+    /**
+     * Horizontal pixel of a longitude, not limited to the tile
+     */
+    public double pixelX(double lon) {
+        return worldX(lon) * worldSize - (double) x * SIZE;
+    }
+
+    /**
+     * Vertical pixel of a latitude, not limited to the tile
+     */
+    public double pixelY(double lat) {
+        return worldY(lat) * worldSize - (double) y * SIZE;
+    }
+
+    /**
+     * Horizontal position of a longitude as a fraction of the world width. The tile x of the position at zoom z is
+     * the integer part of the fraction times 2^z.
+     */
+    public static double worldX(double lon) {
+        return (lon + 180) / 360;
+    }
+
+    /**
+     * Vertical position of a latitude as a fraction of the world height, latitudes beyond the projection are limited
+     */
+    public static double worldY(double lat) {
+        lat = Math.max(-MAX_LATITUDE, Math.min(MAX_LATITUDE, lat));
+        double sin = Math.sin(Math.toRadians(lat));
+        return 0.5 - Math.log((1 + sin) / (1 - sin)) / (4 * Math.PI);
+    }
+
+    /**
+     * Width of a pixel in degrees of longitude
+     */
+    public double getPixelWidth() {
+        return 360 / worldSize;
+    }
+
+    private double lon(double worldX) {
+        return worldX / worldSize * 360 - 180;
+    }
+
+    private double lat(double worldY) {
+        return Math.toDegrees(Math.atan(Math.sinh(Math.PI * (1 - 2 * worldY / worldSize))));
+    }
+
+    @Override
+    public String toString() {
+        return z + "/" + x + "/" + y;
+    }
+
+}
@@ -0,0 +1,217 @@
+/* Copyright (c) 2011 Danish Maritime Authority.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package dk.dma.ais.analysis.viewer.tiles;
+
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Writer of a Mapbox Vector Tile with a single layer of points. The tile is encoded as version 2 of the protocol
+ * buffer format of the specification. Points are in tile coordinates from 0 to the extent, with y growing south.
+ * <p>
+ * Features are added with {@link #addPoint(long, int, int)} followed by the attributes of the feature. The writer is
+ * not thread safe.
+ */
+public final class VectorTile {
+
+    public static final String CONTENT_TYPE = "application/vnd.mapbox-vector-tile";
+    public static final int EXTENT = 4096;
+
+    private static final int VERSION = 2;
+    private static final int VARINT = 0;
+    private static final int LENGTH_DELIMITED = 2;
+    private static final int POINT = 1;
+    private static final int MOVE_TO_ONE = 1 | 1 << 3;
+
+    private final String name;
+    private final Map<String, Integer> keys = new HashMap<>();
+    private final Map<Object, Integer> values = new HashMap<>();
+    private final List<Object> valueList = new ArrayList<>();
+    private final Writer features = new Writer(1024);
+    private final Writer feature = new Writer(64);
+    private final Writer tags = new Writer(32);
+    private final Writer geometry = new Writer(16);
+    private boolean open;
+    private int size;
+
+    public VectorTile(String name) {
+        this.name = name;
+    }
+
+    /**
+     * Start a point feature
+     */
+    public void addPoint(long id, int x, int y) {
+        endFeature();
+        feature.varintField(1, id);
+        geometry.varint(MOVE_TO_ONE);
+        geometry.zigzag(x);
+        geometry.zigzag(y);
+        open = true;
+        size++;
+    }
+
+    public void addAttribute(String key, String value) {
+        attribute(key, value);
+    }
+
+    public void addAttribute(String key, long value) {
+        attribute(key, value);
+    }
+
+    public void addAttribute(String key, boolean value) {
+        attribute(key, value);
+    }
+
+    /**
+     * Number of features
+     */
+    public int size() {
+        return size;
+    }
+
+    /**
+     * Encode the tile
+     */
+    public byte[] encode() {
+        endFeature();
+        String[] keyList = new String[keys.size()];
+        for (Map.Entry<String, Integer> entry : keys.entrySet()) {
+            keyList[entry.getValue()] = entry.getKey();
+        }
+
+        Writer layer = new Writer(features.size + 64 + keys.size() * 16 + valueList.size() * 16);
+        layer.varintField(15, VERSION);
+        layer.stringField(1, name);
+        layer.bytes(features);
+        for (String key : keyList) {
+            layer.stringField(3, key);
+        }
+        Writer value = new Writer(32);
+        for (Object v : valueList) {
+            value.size = 0;
+            if (v instanceof String) {
+                value.stringField(1, (String) v);
+            } else if (v instanceof Long) {
+                value.tag(6, VARINT);
+                value.zigzag((Long) v);
+            } else {
+                value.varintField(7, (Boolean) v ? 1 : 0);
+            }
+            layer.bytesField(4, value);
+        }
+        layer.varintField(5, EXTENT);
+
+        Writer tile = new Writer(layer.size + 8);
+        tile.bytesField(3, layer);
+        return Arrays.copyOf(tile.bytes, tile.size);
+    }
+
+    private void attribute(String key, Object value) {
+        Integer keyIndex = keys.get(key);
+        if (keyIndex == null) {
+            keyIndex = keys.size();
+            keys.put(key, keyIndex);
+        }
+        Integer valueIndex = values.get(value);
+        if (valueIndex == null) {
+            valueIndex = valueList.size();
+            values.put(value, valueIndex);
+            valueList.add(value);
+        }
+        tags.varint(keyIndex);
+        tags.varint(valueIndex);
+    }
+
+    private void endFeature() {
+        if (!open) {
+            return;
+        }
+        feature.bytesField(2, tags);
+        feature.varintField(3, POINT);
+        feature.bytesField(4, geometry);
+        features.bytesField(2, feature);
+        feature.size = 0;
+        tags.size = 0;
+        geometry.size = 0;
+        open = false;
+    }
+
+    /**
+     * Growable buffer of protocol buffer encoded values
+     */
+    private static final class Writer {
+        byte[] bytes;
+        int size;
+
+        Writer(int capacity) {
+            bytes = new byte[capacity];
+        }
+
+        void tag(int field, int type) {
+            varint(field << 3 | type);
+        }
+
+        void varintField(int field, long value) {
+            tag(field, VARINT);
+            varint(value);
+        }
+
+        void stringField(int field, String value) {
+            byte[] utf8 = value.getBytes(StandardCharsets.UTF_8);
+            tag(field, LENGTH_DELIMITED);
+            varint(utf8.length);
+            ensure(utf8.length);
+            System.arraycopy(utf8, 0, bytes, size, utf8.length);
+            size += utf8.length;
+        }
+
+        void bytesField(int field, Writer value) {
+            tag(field, LENGTH_DELIMITED);
+            varint(value.size);
+            bytes(value);
+        }
+
+        void bytes(Writer value) {
+            ensure(value.size);
+            System.arraycopy(value.bytes, 0, bytes, size, value.size);
+            size += value.size;
+        }
+
+        void zigzag(long value) {
+            varint(value << 1 ^ value >> 63);
+        }
+
+        void varint(long value) {
+            ensure(10);
+            while ((value & ~0x7FL) != 0) {
+                bytes[size++] = (byte) (value & 0x7F | 0x80);
+                value >>>= 7;
+            }
+            bytes[size++] = (byte) value;
+        }
+
+        private void ensure(int length) {
+            if (size + length > bytes.length) {
+                bytes = Arrays.copyOf(bytes, Math.max(bytes.length * 2, size + length));
+            }
+        }
+    }
+
+}
@@ -0,0 +1,227 @@
+/* Copyright (c) 2011 Danish Maritime Authority.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package dk.dma.ais.analysis.viewer.tiles;
+
+import java.util.Arrays;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+import net.jcip.annotations.ThreadSafe;
+
+import dk.dma.ais.analysis.viewer.handler.SnapshotFilter;
+import dk.dma.ais.analysis.viewer.handler.TargetSnapshot;
+
+/**
+ * Spatial index of the rows of a target snapshot by bucket, where the buckets are the tiles of zoom level
+ * {@link #BUCKET_ZOOM}. Rows are sorted by bucket, and buckets by row of buckets and then east, so the rows of a tile
+ * at or below the bucket zoom are a few contiguous ranges, one for each row of buckets.
+ * <p>
+ * Positions are kept as fractions of the world as by {@link Tile#worldX(double)}, so the tile of a row at any zoom is
+ * found by scaling with a power of two, which is exact.
+ * <p>
+ * Apart from the counts of matching rows, which are memoized by filter, the index is immutable.
+ */
+@ThreadSafe
+public final class VesselTileIndex {
+
+    public static final int BUCKET_ZOOM = 8;
+    public static final int THINNING_PIXELS = 4;
+
+    private static final int BUCKETS = 1 << BUCKET_ZOOM;
+    private static final int THINNING_CELLS = Tile.SIZE / THINNING_PIXELS;
+    // Largest fraction of the world below 1
+    private static final double WORLD_MAX = Math.nextDown(1.0);
+
+    private final TargetSnapshot snapshot;
+    private final long created;
+    // Rows of bucket b at positions offsets[b] until offsets[b + 1]
+    private final int[] offsets;
+    private final int[] rows;
+    private final double[] xs;
+    private final double[] ys;
+    // Number of matching rows by filter
+    private final ConcurrentMap<String, Integer> counts = new ConcurrentHashMap<>();
+
+    public VesselTileIndex(TargetSnapshot snapshot) {
+        this.snapshot = snapshot;
+        this.created = System.currentTimeMillis();
+        int size = snapshot.size();
+        int[] buckets = new int[size];
+        double[] worldX = new double[size];
+        double[] worldY = new double[size];
+        offsets = new int[BUCKETS * BUCKETS + 1];
+        for (int row = 0; row < size; row++) {
+            worldX[row] = Math.max(0, Math.min(WORLD_MAX, Tile.worldX(snapshot.getLon(row))));
+            worldY[row] = Math.max(0, Math.min(WORLD_MAX, Tile.worldY(snapshot.getLat(row))));
+            buckets[row] = (int) (worldY[row] * BUCKETS) * BUCKETS + (int) (worldX[row] * BUCKETS);
+            offsets[buckets[row] + 1]++;
+        }
+        for (int b = 0; b < BUCKETS * BUCKETS; b++) {
+            offsets[b + 1] += offsets[b];
+        }
+
+        // Counting sort by bucket
+        int[] next = new int[BUCKETS * BUCKETS];
+        System.arraycopy(offsets, 0, next, 0, next.length);
+        rows = new int[size];
+        xs = new double[size];
+        ys = new double[size];
+        for (int row = 0; row < size; row++) {
+            int i = next[buckets[row]]++;
+            rows[i] = row;
+            xs[i] = worldX[row];
+            ys[i] = worldY[row];
+        }
+    }
+
+    public TargetSnapshot getSnapshot() {
+        return snapshot;
+    }
+
+    /**
+     * Time of creation in milliseconds
+     */
+    public long getCreated() {
+        return created;
+    }
+
+    /**
+     * Snapshot rows inside a tile
+     */
+    public int[] getRows(Tile tile) {
+        int[] positions = positions(tile);
+        int[] result = new int[positions.length];
+        for (int i = 0; i < positions.length; i++) {
+            result[i] = rows[positions[i]];
+        }
+        return result;
+    }
+
+    /**
+     * Number of rows matching a filter. The count is made once for each key of a filter.
+     */
+    public int count(String key, SnapshotFilter filter) {
+        Integer count = counts.get(key);
+        if (count == null) {
+            count = 0;
+            for (int row = 0; row < snapshot.size(); row++) {
+                if (filter.matches(row)) {
+                    count++;
+                }
+            }
+            counts.putIfAbsent(key, count);
+        }
+        return count;
+    }
+
+    /**
+     * Encode the rows matching a filter inside a tile as a vector tile. Below the thinning zoom only the most recently
+     * reported vessel of each square of {@link #THINNING_PIXELS} pixels is kept.
+     *
+     * @param anonymous
+     *            leave out MMSI, name, call sign and IMO number
+     */
+    public byte[] encode(Tile tile, SnapshotFilter filter, boolean anonymous, int thinningZoom) {
+        double scale = 1 << tile.getZ();
+        int[] kept = null;
+        if (tile.getZ() < thinningZoom) {
+            kept = new int[THINNING_CELLS * THINNING_CELLS];
+            Arrays.fill(kept, -1);
+        }
+        VectorTile vectorTile = new VectorTile("vessels");
+        for (int i : positions(tile)) {
+            int row = rows[i];
+            if (!filter.matches(row)) {
+                continue;
+            }
+            double x = xs[i] * scale - tile.getX();
+            double y = ys[i] * scale - tile.getY();
+            if (kept == null) {
+                add(vectorTile, row, x, y, anonymous);
+                continue;
+            }
+            int cell = (int) (y * THINNING_CELLS) * THINNING_CELLS + (int) (x * THINNING_CELLS);
+            if (kept[cell] < 0 || snapshot.getLastReport(rows[kept[cell]]) < snapshot.getLastReport(row)) {
+                kept[cell] = i;
+            }
+        }
+        if (kept != null) {
+            for (int i : kept) {
+                if (i >= 0) {
+                    add(vectorTile, rows[i], xs[i] * scale - tile.getX(), ys[i] * scale - tile.getY(), anonymous);
+                }
+            }
+        }
+        return vectorTile.encode();
+    }
+
+    /**
+     * Positions in the index of the rows inside a tile
+     */
+    private int[] positions(Tile tile) {
+        double scale = 1 << tile.getZ();
+        // The rows of buckets and the buckets of the tile
+        int shift = Math.max(0, tile.getZ() - BUCKET_ZOOM);
+        int span = 1 << Math.max(0, BUCKET_ZOOM - tile.getZ());
+        int firstRow = (tile.getY() >> shift) * span;
+        int firstColumn = (tile.getX() >> shift) * span;
+        int[] positions = new int[16];
+        int count = 0;
+        for (int bucketRow = firstRow; bucketRow < firstRow + span; bucketRow++) {
+            int from = offsets[bucketRow * BUCKETS + firstColumn];
+            int to = offsets[bucketRow * BUCKETS + firstColumn + span];
+            for (int i = from; i < to; i++) {
+                // Rows of the bucket may be outside the tile above the bucket zoom
+                if (shift > 0 && ((int) (xs[i] * scale) != tile.getX() || (int) (ys[i] * scale) != tile.getY())) {
+                    continue;
+                }
+                if (count == positions.length) {
+                    positions = Arrays.copyOf(positions, count * 2);
+                }
+                positions[count++] = i;
+            }
+        }
+        return Arrays.copyOf(positions, count);
+    }
+
+    /**
+     * Add a row with the attributes of the vessel list
+     */
+    private void add(VectorTile vectorTile, int row, double x, double y, boolean anonymous) {
+        vectorTile.addPoint(snapshot.getAnonId(row), (int) (x * VectorTile.EXTENT), (int) (y * VectorTile.EXTENT));
+        // Round cog to nearest 10
+        Double cog = snapshot.getCog(row);
+        long cogL = Math.round((cog == null ? 0 : cog) / 10.0) * 10;
+        vectorTile.addAttribute("cog", cogL == 360 ? 0 : cogL);
+        vectorTile.addAttribute("class", snapshot.isClassAPosition(row) ? "A" : "B");
+        vectorTile.addAttribute("color", snapshot.getColor(row));
+        vectorTile.addAttribute("moored", snapshot.isMoored(row));
+        if (anonymous) {
+            return;
+        }
+        vectorTile.addAttribute("mmsi", snapshot.getMmsi(row));
+        if (snapshot.hasStatic(row) && snapshot.getName(row) != null) {
+            vectorTile.addAttribute("name", snapshot.getName(row));
+        }
+        if (snapshot.hasStatic(row) && snapshot.getCallsign(row) != null) {
+            vectorTile.addAttribute("callsign", snapshot.getCallsign(row));
+        }
+        Integer imo = snapshot.getImo(row);
+        if (imo != null) {
+            vectorTile.addAttribute("imo", imo);
+        }
+    }
+
+}
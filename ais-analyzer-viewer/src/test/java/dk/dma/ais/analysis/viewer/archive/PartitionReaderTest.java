@@ -0,0 +1,87 @@
+/* Copyright (c) 2011 Danish Maritime Authority.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package dk.dma.ais.analysis.viewer.archive;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import dk.dma.ais.data.PastTrackPoint;
+
+public class PartitionReaderTest {
+
+    private static final long HOUR = 3600000;
+    private static final long START = 1000 * HOUR;
+
+    @Test
+    public void readWindows() throws IOException {
+        File dir = Files.createTempDirectory("archive").toFile();
+        try {
+            TrackArchive archive = new TrackArchive(dir, HOUR, 60000, 10000, 0, HOUR);
+            // One segment per flush
+            for (int flush = 0; flush < 20; flush++) {
+                for (int mmsi = 1; mmsi <= 50; mmsi++) {
+                    long time = START + flush * 60000 + mmsi;
+                    archive.add(mmsi, TrackSegment.point(time, 33000000 + mmsi * flush, 7200000 - flush, 900, 120));
+                }
+                archive.flush();
+            }
+            File file = null;
+            for (File f : dir.listFiles()) {
+                if (f.getName().endsWith(".trk")) {
+                    file = f;
+                }
+            }
+
+            // A window per segment, a window of a few segments and a window of the file
+            for (int windowSize : new int[] { 64, 4000, PartitionReader.WINDOW_SIZE }) {
+                List<PastTrackPoint> points = new ArrayList<>();
+                int segments = 0;
+                try (PartitionReader reader = new PartitionReader(file, file.length(), windowSize)) {
+                    Assert.assertEquals(START, reader.readHeader().getLong(8));
+                    while (reader.next()) {
+                        TrackSegment.read(reader.buffer(), reader.position(), 7, 0, Long.MAX_VALUE, points);
+                        segments++;
+                    }
+                    Assert.assertEquals(file.length(), reader.end());
+                }
+                Assert.assertEquals(20, segments);
+                Assert.assertEquals(archive.getTrack(7, 0, Long.MAX_VALUE), points);
+            }
+
+            // An incomplete segment is truncated when the archive is opened
+            long length = file.length();
+            try (RandomAccessFile raf = new RandomAccessFile(file, "rw")) {
+                raf.seek(length);
+                raf.writeInt(TrackSegment.SEGMENT_MAGIC);
+                raf.writeInt(1000);
+            }
+            TrackArchive reopened = new TrackArchive(dir, HOUR, 60000, 10000, 0, HOUR);
+            Assert.assertEquals(length, file.length());
+            Assert.assertEquals(20, reopened.getTrack(7, 0, Long.MAX_VALUE).size());
+        } finally {
+            for (File file : dir.listFiles()) {
+                file.delete();
+            }
+            dir.delete();
+        }
+    }
+}
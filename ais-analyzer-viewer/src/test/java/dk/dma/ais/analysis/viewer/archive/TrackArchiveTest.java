@@ -0,0 +1,278 @@
+/* Copyright (c) 2011 Danish Maritime Authority.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package dk.dma.ais.analysis.viewer.archive;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.TreeMap;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+/**
+ * Compares traffic pictures with the last point of each vessel found by going through all points
+ */
+public class TrackArchiveTest {
+
+    private static final long MINUTE = 60000;
+    private static final long HOUR = 60 * MINUTE;
+    private static final long HORIZON = 2 * HOUR;
+    private static final long[] MAX_AGES = { 10 * MINUTE, HOUR, 3 * HOUR };
+
+    private final List<Point> points = new ArrayList<>();
+    // Number of points added when each keyframe was written, by time of the keyframe
+    private final TreeMap<Long, Integer> keyframes = new TreeMap<>();
+
+    @Test
+    public void pictures() throws IOException {
+        File dir = Files.createTempDirectory("archive").toFile();
+        try {
+            // Keyframes are written for partitions that ended an hour ago, so the first three are written by the
+            // first flush
+            long start = Math.floorDiv(System.currentTimeMillis(), HOUR) * HOUR - 4 * HOUR;
+            TrackArchive archive = new TrackArchive(dir, HOUR, MINUTE, 1000000, 0, HORIZON);
+            Random random = new Random(1);
+            List<Point> generated = generate(random, start);
+
+            // Flushed
+            int added = 0;
+            while (added < generated.size() && generated.get(added).time < start + 3 * HOUR) {
+                add(archive, generated.get(added++));
+            }
+            flush(archive, dir);
+            Assert.assertEquals(3, keyframes.size());
+            Assert.assertEquals(start + HOUR, (long) keyframes.firstKey());
+
+            // Late points of vessels reporting until one and a half hours, just before the keyframe of two hours
+            for (int mmsi = 4; mmsi <= 12; mmsi += 4) {
+                add(archive, new Point(mmsi, start + 2 * HOUR - mmsi * 1000, random));
+            }
+            while (added < generated.size() && generated.get(added).time < start + 3 * HOUR + 30 * MINUTE) {
+                add(archive, generated.get(added++));
+            }
+            flush(archive, dir);
+
+            // Buffered
+            while (added < generated.size()) {
+                add(archive, generated.get(added++));
+            }
+            Assert.assertTrue(archive.getBuffered() > 0);
+            assertPictures(archive, start);
+            // A late point is seen by pictures before the keyframe following it, but not by pictures based on it
+            long late = start + 2 * HOUR - 4000;
+            Assert.assertEquals(late, timeOf(archive.getPicture(start + 2 * HOUR - 1, HOUR), 4));
+            Assert.assertTrue(timeOf(archive.getPicture(start + 2 * HOUR + MINUTE, HOUR), 4) < start + 90 * MINUTE);
+            Assert.assertEquals(1, archive.getTrack(4, late, late + 1).size());
+            assertAdvance(archive, start);
+
+            // Reopened
+            flush(archive, dir);
+            Assert.assertEquals(0, archive.getBuffered());
+            assertPictures(archive, start);
+            TrackArchive reopened = new TrackArchive(dir, HOUR, MINUTE, 1000000, 0, HORIZON);
+            Assert.assertEquals(keyframes.size(), reopened.getKeyframeCount());
+            assertPictures(reopened, start);
+            assertAdvance(reopened, start);
+        } finally {
+            for (File file : dir.listFiles()) {
+                file.delete();
+            }
+            dir.delete();
+        }
+    }
+
+    /**
+     * Points of vessels reporting every five minutes for four hours, some only in the first one and a half hours and
+     * some only after two hours, ascending by time
+     */
+    private static List<Point> generate(Random random, long start) {
+        List<Point> generated = new ArrayList<>();
+        for (long report = 0; report < 48; report++) {
+            long time = start + report * 5 * MINUTE;
+            for (int mmsi = 1; mmsi <= 40; mmsi++) {
+                if (mmsi % 4 == 0 && time >= start + 90 * MINUTE || mmsi % 5 == 0 && time < start + 2 * HOUR) {
+                    continue;
+                }
+                generated.add(new Point(mmsi, time + mmsi * 1000 + random.nextInt(1000), random));
+            }
+        }
+        return generated;
+    }
+
+    private void add(TrackArchive archive, Point point) {
+        point.seq = points.size();
+        points.add(point);
+        archive.add(point.mmsi, TrackSegment.point(point.time, point.lat, point.lon, point.cog, point.sog));
+    }
+
+    /**
+     * Flush the archive and record the points known to the keyframes written
+     */
+    private void flush(TrackArchive archive, File dir) throws IOException {
+        archive.flush();
+        for (File file : dir.listFiles()) {
+            if (file.getName().endsWith(".key")) {
+                Long time = TrackKeyframe.time(file);
+                if (!keyframes.containsKey(time)) {
+                    keyframes.put(time, points.size());
+                }
+            }
+        }
+    }
+
+    private void assertPictures(TrackArchive archive, long start) throws IOException {
+        List<Long> times = new ArrayList<>();
+        for (long time = start - 10 * MINUTE; time < start + 5 * HOUR; time += 7 * MINUTE) {
+            times.add(time);
+        }
+        for (long keyframe : keyframes.keySet()) {
+            times.add(keyframe - 1);
+            times.add(keyframe);
+            times.add(keyframe + 1);
+        }
+        // At and just after points, which are only in pictures after them
+        for (int i = 0; i < points.size(); i += 25) {
+            times.add(points.get(i).time);
+            times.add(points.get(i).time + 1);
+        }
+        for (long time : times) {
+            for (long maxAge : MAX_AGES) {
+                TrafficPicture picture = archive.getPicture(time, maxAge);
+                Assert.assertEquals(time, picture.getTime());
+                assertPicture("picture at " + (time - start) + " of " + maxAge, expected(time, maxAge), picture);
+            }
+        }
+    }
+
+    /**
+     * Play back pictures as the playback endpoint does
+     */
+    private void assertAdvance(TrackArchive archive, long start) throws IOException {
+        for (long maxAge : MAX_AGES) {
+            long from = start + 50 * MINUTE;
+            TrafficPicture picture = archive.getPicture(from, maxAge);
+            Map<Integer, Point> base = expected(from, maxAge);
+            for (long time = from + 3 * MINUTE; time < start + 5 * HOUR; time += 3 * MINUTE) {
+                archive.advance(picture, time);
+                picture.retain(time - maxAge);
+                // The picture played back from and the points since, within the maximum age
+                Map<Integer, Point> expected = new HashMap<>(base);
+                for (Point point : points) {
+                    if (point.time >= from && point.time < time) {
+                        last(expected, point);
+                    }
+                }
+                for (Iterator<Point> it = expected.values().iterator(); it.hasNext();) {
+                    if (it.next().time < time - maxAge) {
+                        it.remove();
+                    }
+                }
+                assertPicture("advanced to " + (time - start) + " of " + maxAge, expected, picture);
+            }
+        }
+    }
+
+    /**
+     * The last visible point of each vessel within the maximum age, where a picture based on a keyframe only sees the
+     * points before the keyframe known when the keyframe was written
+     */
+    private Map<Integer, Point> expected(long time, long maxAge) {
+        maxAge = Math.min(maxAge, HORIZON);
+        Long keyframe = keyframes.floorKey(time);
+        if (keyframe != null && keyframe <= time - maxAge) {
+            keyframe = null;
+        }
+        Map<Integer, Point> expected = new HashMap<>();
+        for (Point point : points) {
+            if (point.time < time - maxAge || point.time >= time) {
+                continue;
+            }
+            if (keyframe == null || point.time >= keyframe || isVisible(keyframe, point)) {
+                last(expected, point);
+            }
+        }
+        return expected;
+    }
+
+    /**
+     * @return true if a point before a keyframe is in the keyframe
+     */
+    private boolean isVisible(long keyframe, Point point) {
+        if (point.time < keyframe - HORIZON) {
+            return false;
+        }
+        Long previous = keyframes.lowerKey(keyframe);
+        if (previous != null && previous > keyframe - HORIZON && point.time < previous) {
+            return isVisible(previous, point);
+        }
+        return point.seq < keyframes.get(keyframe);
+    }
+
+    private static long timeOf(TrafficPicture picture, int mmsi) {
+        for (int slot = 0; slot < picture.size(); slot++) {
+            if (picture.getMmsi(slot) == mmsi) {
+                return picture.getTime(slot);
+            }
+        }
+        return Long.MIN_VALUE;
+    }
+
+    private static void last(Map<Integer, Point> picture, Point point) {
+        Point last = picture.get(point.mmsi);
+        if (last == null || last.time < point.time) {
+            picture.put(point.mmsi, point);
+        }
+    }
+
+    private static void assertPicture(String message, Map<Integer, Point> expected, TrafficPicture picture) {
+        Assert.assertEquals(message, expected.size(), picture.size());
+        for (int slot = 0; slot < picture.size(); slot++) {
+            Point point = expected.get(picture.getMmsi(slot));
+            Assert.assertNotNull(message + ": " + picture.getMmsi(slot), point);
+            Assert.assertEquals(message, point.time, picture.getTime(slot));
+            Assert.assertEquals(message, point.lat, picture.getLatUnits(slot));
+            Assert.assertEquals(message, point.lon, picture.getLonUnits(slot));
+            Assert.assertEquals(message, point.cog / 10.0, picture.getCog(slot), 0);
+            Assert.assertEquals(message, point.sog / 10.0, picture.getSog(slot), 0);
+        }
+    }
+
+    private static final class Point {
+        final int mmsi;
+        final long time;
+        final int lat;
+        final int lon;
+        final int cog;
+        final int sog;
+        int seq;
+
+        Point(int mmsi, long time, Random random) {
+            this.mmsi = mmsi;
+            this.time = time;
+            this.lat = random.nextInt(108000000) - 54000000;
+            this.lon = random.nextInt(216000000) - 108000000;
+            this.cog = random.nextInt(3600);
+            this.sog = random.nextInt(300);
+        }
+    }
+
+}
@@ -0,0 +1,230 @@
+/* Copyright (c) 2011 Danish Maritime Authority.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package dk.dma.ais.analysis.viewer.cpa;
+
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import dk.dma.ais.analysis.viewer.configuration.AisViewConfiguration;
+import dk.dma.ais.analysis.viewer.handler.AisViewHandler;
+import dk.dma.ais.analysis.viewer.handler.TargetSnapshot;
+import dk.dma.ais.binary.SixbitException;
+import dk.dma.ais.message.AisMessage1;
+import dk.dma.ais.message.AisPosition;
+import dk.dma.ais.packet.AisPacket;
+import dk.dma.ais.packet.AisPacketTags;
+import dk.dma.ais.packet.AisPacketTags.SourceType;
+import dk.dma.ais.sentence.CommentBlock;
+import dk.dma.ais.sentence.Vdm;
+import dk.dma.enav.model.geometry.Position;
+
+/**
+ * Compares the encounters of incremental passes with all pairs of vessels of the same snapshots. Between passes some
+ * vessels report, some changing course and speed, while the others are dead reckoned, so the passes search both
+ * vessels with new reports and vessels dead reckoned beyond the slack.
+ */
+public class CloseEncountersTest {
+
+    private static final double RANGE = 0.1;
+    private static final double DISTANCE = 0.05;
+    private static final long HORIZON = 10 * 60 * 1000L;
+
+    // Tolerance of distances of pairs kept from an earlier pass. Longitudes are dead reckoned at the latitude of the
+    // report, so a flat frame at a later time differs by meters.
+    private static final double DISTANCE_TOLERANCE = 1e-3;
+
+    private final Random random = new Random(1);
+
+    // Vessels on steady courses through an area of 0.4 nautical miles, position at the start and velocity in
+    // degrees per millisecond
+    private final int vessels = 300;
+    private final double[] lats = new double[vessels];
+    private final double[] lons = new double[vessels];
+    private final double[] dlats = new double[vessels];
+    private final double[] dlons = new double[vessels];
+    private final int[] sogs = new int[vessels];
+    private final int[] cogs = new int[vessels];
+    private long start;
+
+    @Test
+    public void incrementalPasses() throws Exception {
+        AisViewConfiguration conf = new AisViewConfiguration();
+        conf.setDuplicateWindow(0);
+        conf.setAnomalyEvents(0);
+        conf.setSnapshotInterval(0);
+        AisViewHandler handler = new AisViewHandler(conf);
+        CloseEncounters closeEncounters = new CloseEncounters(handler, RANGE, DISTANCE, HORIZON, 1000);
+
+        start = System.currentTimeMillis();
+        for (int i = 0; i < vessels; i++) {
+            course(i, 56 + random.nextDouble() * 0.4 / 60, 11 + random.nextDouble() * 0.4 / 60 / 0.56, start);
+            // Reports up to eight minutes old, and some too old to be dead reckoned
+            long age = i % 50 == 0 ? CloseEncounters.MAX_AGE + 60000 : random.nextInt(8 * 60 * 1000);
+            handler.accept(report(i, start - age));
+        }
+
+        int reports = 0;
+        int compared = 0;
+        for (int pass = 0; pass < 12; pass++) {
+            Thread.sleep(200 + random.nextInt(800));
+            long now = System.currentTimeMillis();
+            // No reports before one of the passes, so all vessels are dead reckoned
+            for (int i = 0; pass != 5 && i < vessels; i++) {
+                if (random.nextInt(100) < 10) {
+                    // Comment block times are whole seconds, so some reports have the time of the last report
+                    long time = now - random.nextInt(2000);
+                    if (random.nextInt(3) == 0) {
+                        course(i, lat(i, time), lon(i, time), time);
+                    }
+                    handler.accept(report(i, time));
+                    reports++;
+                }
+            }
+            Thread.sleep(5);
+            TargetSnapshot snapshot = handler.getSnapshot();
+            closeEncounters.update(snapshot);
+            compared += compare(snapshot, closeEncounters.getEncounters());
+        }
+        Assert.assertTrue(reports > 200);
+        Assert.assertTrue(compared > 1000);
+    }
+
+    /**
+     * Compare the encounters with all pairs of the snapshot
+     *
+     * @return the number of encounters
+     */
+    private static int compare(TargetSnapshot snapshot, List<Encounter> actual) {
+        long now = snapshot.getCreated();
+        List<Integer> mmsis = new ArrayList<>();
+        List<double[]> states = new ArrayList<>();
+        for (int row = 0; row < snapshot.size(); row++) {
+            int sog = snapshot.getSogTenths(row);
+            if (snapshot.isSatData(row) || sog < 0 || sog > 0 && snapshot.getCogTenths(row) < 0
+                    || now - snapshot.getLastReport(row) > CloseEncounters.MAX_AGE) {
+                continue;
+            }
+            double cog = sog > 0 ? Math.toRadians(snapshot.getCogTenths(row) / 10.0) : 0;
+            double vx = sog / 10.0 * Math.sin(cog);
+            double vy = sog / 10.0 * Math.cos(cog);
+            double hours = (now - snapshot.getLastReport(row)) / 3600000.0;
+            double lat = snapshot.getLat(row);
+            mmsis.add(snapshot.getMmsi(row));
+            states.add(new double[] { lat + vy * hours / 60, snapshot.getLon(row) + vx * hours / 60
+                    / Math.cos(Math.toRadians(lat)), vx, vy });
+        }
+
+        Map<Long, Encounter> encounters = new HashMap<>();
+        for (Encounter encounter : actual) {
+            Assert.assertTrue(encounter.getMmsi1() < encounter.getMmsi2());
+            Assert.assertNull(encounters.put((long) encounter.getMmsi1() << 32 | encounter.getMmsi2(), encounter));
+        }
+        int expected = 0;
+        for (int i = 0; i < states.size(); i++) {
+            for (int j = 0; j < states.size(); j++) {
+                int mmsi1 = mmsis.get(i);
+                int mmsi2 = mmsis.get(j);
+                if (mmsi1 >= mmsi2) {
+                    continue;
+                }
+                double[] a = states.get(i);
+                double[] b = states.get(j);
+                double x = (b[1] - a[1]) * 60 * Math.cos(Math.toRadians((a[0] + b[0]) / 2));
+                double y = (b[0] - a[0]) * 60;
+                double vx = b[2] - a[2];
+                double vy = b[3] - a[3];
+                double d = Math.sqrt(x * x + y * y);
+                double v2 = vx * vx + vy * vy;
+                double t = v2 > 0 ? -(x * vx + y * vy) / v2 : 0;
+                double cx = x + vx * t;
+                double cy = y + vy * t;
+                double dcpa = Math.sqrt(cx * cx + cy * cy);
+                long cpaTime = now + (long) (t * 3600000.0);
+                // The time the tolerance moves the CPA
+                double timeTolerance = 1000 + DISTANCE_TOLERANCE / Math.sqrt(v2) * 3600000.0;
+                Encounter encounter = encounters.remove((long) mmsi1 << 32 | mmsi2);
+                if (Math.abs(d - RANGE) < DISTANCE_TOLERANCE || Math.abs(dcpa - DISTANCE) < DISTANCE_TOLERANCE
+                        || Math.abs(cpaTime - now) < timeTolerance || Math.abs(cpaTime - now - HORIZON) < timeTolerance
+                        || Math.abs(v2 - CloseEncounters.MIN_SPEED * CloseEncounters.MIN_SPEED) < 1e-6) {
+                    // On a limit
+                    continue;
+                }
+                boolean isEncounter = d <= RANGE && v2 >= CloseEncounters.MIN_SPEED * CloseEncounters.MIN_SPEED
+                        && t >= 0 && dcpa <= DISTANCE && cpaTime - now <= HORIZON;
+                Assert.assertEquals("Pair " + mmsi1 + " " + mmsi2 + " at " + d + " nm, CPA " + dcpa + " nm in "
+                        + t * 60 + " minutes", isEncounter, encounter != null);
+                if (isEncounter) {
+                    expected++;
+                    Assert.assertEquals(dcpa, encounter.getCpaDistance(), DISTANCE_TOLERANCE);
+                    Assert.assertEquals(cpaTime, encounter.getCpaTime(), timeTolerance);
+                    Assert.assertEquals(d, encounter.getDistance(now), DISTANCE_TOLERANCE);
+                }
+            }
+        }
+        Assert.assertEquals("Encounters of vessels left out", 0, encounters.size());
+        return expected;
+    }
+
+    /**
+     * Set a random course and speed of a vessel through a position at a time, moored for some vessels
+     */
+    private void course(int i, double lat, double lon, long time) {
+        sogs[i] = i % 20 == 1 ? 0 : 10 + random.nextInt(400);
+        cogs[i] = random.nextInt(3600);
+        double knots = sogs[i] / 10.0;
+        dlats[i] = knots * Math.cos(Math.toRadians(cogs[i] / 10.0)) / 60 / 3600000;
+        dlons[i] = knots * Math.sin(Math.toRadians(cogs[i] / 10.0)) / 60 / 3600000 / Math.cos(Math.toRadians(lat));
+        lats[i] = lat - dlats[i] * (time - start);
+        lons[i] = lon - dlons[i] * (time - start);
+    }
+
+    private double lat(int i, long time) {
+        return lats[i] + dlats[i] * (time - start);
+    }
+
+    private double lon(int i, long time) {
+        return lons[i] + dlons[i] * (time - start);
+    }
+
+    /**
+     * Position report of a vessel at a time. Some vessels are seen by satellite, and some report a speed without a
+     * course.
+     */
+    private AisPacket report(int i, long time) throws SixbitException {
+        AisMessage1 message = new AisMessage1();
+        message.setUserId(219000000 + i);
+        message.setSog(sogs[i]);
+        message.setCog(i % 25 == 2 ? 3600 : cogs[i]);
+        message.setTrueHeading(511);
+        message.setPos(new AisPosition(Position.create(lat(i, time), lon(i, time))));
+        CommentBlock cb = new CommentBlock();
+        cb.addTimestamp(new Date(time));
+        cb.addString(AisPacketTags.SOURCE_TYPE_KEY, (i % 30 == 3 ? SourceType.SATELLITE : SourceType.TERRESTRIAL)
+                .encode());
+        StringBuilder buf = new StringBuilder(cb.encode()).append("\r\n");
+        for (String sentence : Vdm.createSentences(message, 0)) {
+            buf.append(sentence).append("\r\n");
+        }
+        return AisPacket.from(buf.toString());
+    }
+
+}
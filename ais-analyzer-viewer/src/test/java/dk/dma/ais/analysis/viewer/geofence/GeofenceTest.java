@@ -0,0 +1,233 @@
+/* Copyright (c) 2011 Danish Maritime Authority.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package dk.dma.ais.analysis.viewer.geofence;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.TreeSet;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import dk.dma.ais.analysis.viewer.handler.CompactTarget;
+import dk.dma.ais.binary.SixbitException;
+import dk.dma.ais.message.AisMessage;
+import dk.dma.ais.message.AisMessage1;
+import dk.dma.ais.message.AisPosition;
+import dk.dma.ais.packet.AisPacket;
+import dk.dma.ais.sentence.CommentBlock;
+import dk.dma.ais.sentence.Vdm;
+import dk.dma.enav.model.geometry.Position;
+
+/**
+ * Tests the enter and exit events of vessels moving through zones
+ */
+public class GeofenceTest {
+
+    private static final long START = 1400000000000L;
+
+    @Test
+    public void eventSequence() throws SixbitException {
+        Geofence geofence = new Geofence(zones(), 0.5, 100);
+        Map<Integer, CompactTarget> targets = new HashMap<>();
+        List<String> expected = new ArrayList<>();
+
+        // Outside all zones
+        move(geofence, targets, 1, 53, 9, 0);
+        // Into the square, then into its hole
+        move(geofence, targets, 1, 54.25, 10.25, 1);
+        expected.add("ENTER 0 1 54.25 10.25 1");
+        move(geofence, targets, 1, 55, 10.75, 2);
+        expected.add("EXIT 0 1 55.0 10.75 2");
+        // Into the overlap of the square and the second square, events in the order of the zones
+        move(geofence, targets, 1, 55.75, 11.75, 3);
+        expected.add("ENTER 0 1 55.75 11.75 3");
+        expected.add("ENTER 1 1 55.75 11.75 3");
+        Assert.assertEquals(1, geofence.getVessels(0));
+        Assert.assertEquals(1, geofence.getVessels(1));
+        move(geofence, targets, 1, 56.5, 12.5, 4);
+        expected.add("EXIT 0 1 56.5 12.5 4");
+        // A second vessel in the second square
+        move(geofence, targets, 2, 56, 12.5, 5);
+        expected.add("ENTER 1 2 56.0 12.5 5");
+        Assert.assertEquals(0, geofence.getVessels(0));
+        Assert.assertEquals(2, geofence.getVessels(1));
+        // From the second square into the first polygon of the multipolygon
+        move(geofence, targets, 1, 54.5, 20.5, 6);
+        expected.add("EXIT 1 1 54.5 20.5 6");
+        expected.add("ENTER 2 1 54.5 20.5 6");
+        // Between the polygons, into the second polygon and within it
+        move(geofence, targets, 1, 54.5, 21.5, 7);
+        expected.add("EXIT 2 1 54.5 21.5 7");
+        move(geofence, targets, 1, 54.5, 22.5, 8);
+        expected.add("ENTER 2 1 54.5 22.5 8");
+        move(geofence, targets, 1, 54.75, 22.75, 9);
+        Assert.assertEquals(1, geofence.getVessels(1));
+        Assert.assertEquals(1, geofence.getVessels(2));
+
+        // A removed vessel leaves without events, and enters again when updated
+        geofence.remove(2);
+        Assert.assertEquals(0, geofence.getVessels(1));
+        move(geofence, targets, 2, 56, 12.5, 10);
+        expected.add("ENTER 1 2 56.0 12.5 10");
+        Assert.assertEquals(1, geofence.getVessels(1));
+
+        Assert.assertEquals(expected, events(geofence.getEvents().list(null, null, -1)));
+        Assert.assertEquals(expected.size(), geofence.getEvents().getCount());
+        Assert.assertEquals(Arrays.asList("ENTER 1 1 55.75 11.75 3", "EXIT 1 1 54.5 20.5 6"),
+                events(geofence.getEvents().list(1, 1, -1)));
+        Assert.assertEquals(expected.subList(8, expected.size()), events(geofence.getEvents().list(null, null, 7)));
+    }
+
+    @Test
+    public void randomWalk() throws SixbitException {
+        List<Zone> zones = zones();
+        Geofence geofence = new Geofence(zones, 0.5, 100000);
+        Geofence small = new Geofence(zones, 0.5, 16);
+        Map<Integer, CompactTarget> targets = new HashMap<>();
+        Map<Integer, TreeSet<Integer>> memberships = new HashMap<>();
+        List<String> expected = new ArrayList<>();
+        Random random = new Random(1);
+        // Vessels move around the squares or around the zone of two squares
+        double[] lats = new double[20];
+        double[] lons = new double[lats.length];
+        double[] west = new double[lats.length];
+        for (int i = 0; i < lats.length; i++) {
+            west[i] = i % 4 == 0 ? 19.5 : 9.5;
+            lats[i] = 53.5 + random.nextInt(16) * 0.25;
+            lons[i] = west[i] + random.nextInt(16) * 0.25;
+        }
+        for (int step = 1; step <= 20000; step++) {
+            int vessel = random.nextInt(lats.length);
+            int mmsi = vessel + 1;
+            if (random.nextInt(50) == 0) {
+                geofence.remove(mmsi);
+                small.remove(mmsi);
+                memberships.remove(mmsi);
+                continue;
+            }
+            // Steps of whole cells of the index and the rasters of the zones, or anywhere
+            double step0 = random.nextBoolean() ? 0.25 : random.nextDouble() * 0.3;
+            lats[vessel] = Math.max(53.5, Math.min(57.5, lats[vessel] + (random.nextInt(3) - 1) * step0));
+            lons[vessel] = Math.max(west[vessel], Math.min(west[vessel] + 4, lons[vessel] + (random.nextInt(3) - 1)
+                    * step0));
+            CompactTarget target = move(geofence, targets, mmsi, lats[vessel], lons[vessel], step);
+            small.update(target);
+
+            TreeSet<Integer> previous = memberships.get(mmsi);
+            TreeSet<Integer> current = new TreeSet<>();
+            for (Zone zone : zones) {
+                if (zone.contains(target.getLatitude(), target.getLongitude())) {
+                    current.add(zone.getId());
+                }
+            }
+            for (Zone zone : zones) {
+                int id = zone.getId();
+                boolean was = previous != null && previous.contains(id);
+                if (was != current.contains(id)) {
+                    expected.add(event(was ? "EXIT" : "ENTER", id, mmsi, target.getLatitude(),
+                            target.getLongitude(), step));
+                }
+            }
+            memberships.put(mmsi, current);
+
+            for (Zone zone : zones) {
+                int vessels = 0;
+                for (TreeSet<Integer> membership : memberships.values()) {
+                    vessels += membership.contains(zone.getId()) ? 1 : 0;
+                }
+                Assert.assertEquals(vessels, geofence.getVessels(zone.getId()));
+                Assert.assertEquals(vessels, small.getVessels(zone.getId()));
+            }
+        }
+        Assert.assertTrue(expected.size() > 1000);
+        Assert.assertEquals(expected, events(geofence.getEvents().list(null, null, -1)));
+        Assert.assertEquals(expected.size(), small.getEvents().getCount());
+        Assert.assertEquals(expected.subList(expected.size() - 16, expected.size()),
+                events(small.getEvents().list(null, null, -1)));
+    }
+
+    /**
+     * A square with a hole, a second square overlapping the first and a zone of two squares, all with edges on cell
+     * boundaries of the index
+     */
+    private static List<Zone> zones() {
+        List<Zone> zones = new ArrayList<>();
+        zones.add(new Zone(0, "first", Collections.singletonList(new double[][] { square(10, 54, 12, 56),
+            square(10.5, 54.5, 11.5, 55.5) })));
+        zones.add(new Zone(1, "second", Collections.singletonList(new double[][] { square(11, 55, 13, 57) })));
+        zones.add(new Zone(2, "third", Arrays.asList(new double[][] { square(20, 54, 21, 55) },
+                new double[][] { square(22, 54, 23, 55) })));
+        return zones;
+    }
+
+    private static double[] square(double minLon, double minLat, double maxLon, double maxLat) {
+        return new double[] { minLon, minLat, maxLon, minLat, maxLon, maxLat, minLon, maxLat, minLon, minLat };
+    }
+
+    /**
+     * Report a vessel at a position at a number of seconds after the start, and update the geofence with its target
+     */
+    private static CompactTarget move(Geofence geofence, Map<Integer, CompactTarget> targets, int mmsi, double lat,
+            double lon, int seconds) throws SixbitException {
+        AisMessage1 message = new AisMessage1();
+        message.setUserId(mmsi);
+        message.setPos(new AisPosition(Position.create(lat, lon)));
+        CommentBlock cb = new CommentBlock();
+        cb.addTimestamp(new Date(START + seconds * 1000L));
+        StringBuilder buf = new StringBuilder(cb.encode()).append("\r\n");
+        for (String sentence : Vdm.createSentences(message, 0)) {
+            buf.append(sentence).append("\r\n");
+        }
+        AisMessage received = AisPacket.from(buf.toString()).tryGetAisMessage();
+        CompactTarget target = targets.get(mmsi);
+        if (target == null) {
+            target = CompactTarget.create(received);
+            targets.put(mmsi, target);
+        }
+        target.update(received);
+        geofence.update(target);
+        return target;
+    }
+
+    private static String event(String type, int zone, int mmsi, double lat, double lon, int seconds) {
+        return type + " " + zone + " " + mmsi + " " + lat + " " + lon + " " + seconds;
+    }
+
+    /**
+     * Events oldest first, checking the ids and zone names
+     */
+    private static List<String> events(List<GeofenceEvent> events) {
+        List<String> list = new ArrayList<>();
+        for (int i = events.size() - 1; i >= 0; i--) {
+            GeofenceEvent event = events.get(i);
+            if (i > 0) {
+                Assert.assertTrue(event.getId() < events.get(i - 1).getId());
+            }
+            Assert.assertEquals(zones().get(event.getZone()).getName(), event.getZoneName());
+            Assert.assertEquals(0, (event.getTime() - START) % 1000);
+            list.add(event(event.getType().name(), event.getZone(), event.getMmsi(), event.getLat(), event.getLon(),
+                    (int) ((event.getTime() - START) / 1000)));
+        }
+        return list;
+    }
+
+}
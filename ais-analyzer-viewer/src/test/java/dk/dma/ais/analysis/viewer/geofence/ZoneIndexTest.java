@@ -0,0 +1,249 @@
+/* Copyright (c) 2011 Danish Maritime Authority.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package dk.dma.ais.analysis.viewer.geofence;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+/**
+ * Compares lookups in the zone index with plain ray casting over the polygons of every zone
+ */
+public class ZoneIndexTest {
+
+    private static final double[] RADII = { 0.002, 0.03, 0.4, 3, 15 };
+
+    @Test
+    public void randomZones() {
+        Random random = new Random(1);
+        List<Zone> zones = zones(random);
+        for (double cellSize : new double[] { 0.5, 0.1, 1.0 / 3 }) {
+            ZoneIndex index = new ZoneIndex(zones, cellSize);
+            for (Zone zone : zones) {
+                // Random positions in and around the bounding box
+                double height = zone.getMaxLat() - zone.getMinLat();
+                double width = zone.getMaxLon() - zone.getMinLon();
+                for (int i = 0; i < 300; i++) {
+                    assertFind(index, zones, zone.getMinLat() - height * 0.1 + random.nextDouble() * height * 1.2,
+                            zone.getMinLon() - width * 0.1 + random.nextDouble() * width * 1.2);
+                }
+                // Vertices and corners of the bounding box
+                for (double[][] polygon : zone.getPolygons()) {
+                    for (double[] ring : polygon) {
+                        for (int i = 0; i < ring.length; i += 2) {
+                            assertFind(index, zones, ring[i + 1], ring[i]);
+                        }
+                    }
+                }
+                for (double lat : new double[] { zone.getMinLat(), zone.getMaxLat() }) {
+                    for (double lon : new double[] { zone.getMinLon(), zone.getMaxLon() }) {
+                        assertFind(index, zones, lat, lon);
+                    }
+                }
+                rasterBoundaries(index, zones, zone, random);
+                cellBoundaries(index, zones, zone, cellSize, random);
+            }
+            // Random positions anywhere
+            for (int i = 0; i < 20000; i++) {
+                assertFind(index, zones, random.nextDouble() * 180 - 90, random.nextDouble() * 360 - 180);
+            }
+        }
+    }
+
+    @Test
+    public void edgesOnCellBoundaries() {
+        List<Zone> zones = new ArrayList<>();
+        // A square with a square hole and a triangle sharing an edge with the square, all on cell boundaries
+        zones.add(zone(zones.size(), ring(10, 54, 12, 54, 12, 56, 10, 56), ring(10.5, 54.5, 11.5, 54.5, 11.5, 55.5,
+                10.5, 55.5)));
+        zones.add(zone(zones.size(), ring(12, 54, 14, 55, 12, 56)));
+        // Two squares of one zone meeting at a corner
+        List<double[][]> polygons = new ArrayList<>();
+        polygons.add(new double[][] { ring(-1, -1, 0, -1, 0, 0, -1, 0) });
+        polygons.add(new double[][] { ring(0, 0, 1, 0, 1, 1, 0, 1) });
+        zones.add(new Zone(zones.size(), "zone " + zones.size(), polygons));
+        ZoneIndex index = new ZoneIndex(zones, 0.5);
+        for (double lat = -2; lat <= 57; lat += 0.25) {
+            for (double lon = -2; lon <= 15; lon += 0.25) {
+                assertFind(index, zones, lat, lon);
+            }
+        }
+        int[] found = new int[zones.size()];
+        Assert.assertEquals(1, index.find(55, 10.25, found));
+        Assert.assertEquals(0, found[0]);
+        Assert.assertEquals(0, index.find(55, 11, found));
+        Assert.assertEquals(1, index.find(55, 13, found));
+        Assert.assertEquals(1, found[0]);
+        Assert.assertEquals(1, index.find(0.5, 0.5, found));
+        Assert.assertEquals(2, found[0]);
+        Assert.assertEquals(1, index.find(-0.5, -0.5, found));
+        Assert.assertEquals(2, found[0]);
+    }
+
+    /**
+     * Positions on the boundaries of the raster cells of a zone
+     */
+    private static void rasterBoundaries(ZoneIndex index, List<Zone> zones, Zone zone, Random random) {
+        double cellHeight = Math.max(zone.getMaxLat() - zone.getMinLat(), 1e-9) / Zone.RASTER * (1 + 1e-9);
+        double cellWidth = Math.max(zone.getMaxLon() - zone.getMinLon(), 1e-9) / Zone.RASTER * (1 + 1e-9);
+        for (int k = 0; k <= Zone.RASTER; k++) {
+            double lat = zone.getMinLat() + k * cellHeight;
+            double lon = zone.getMinLon() + k * cellWidth;
+            for (int i = 0; i < 10; i++) {
+                assertFind(index, zones, lat, zone.getMinLon() + random.nextInt(Zone.RASTER + 1) * cellWidth);
+                assertFind(index, zones, lat, zone.getMinLon() + random.nextDouble()
+                        * (zone.getMaxLon() - zone.getMinLon()));
+                assertFind(index, zones, zone.getMinLat() + random.nextDouble()
+                        * (zone.getMaxLat() - zone.getMinLat()), lon);
+            }
+        }
+    }
+
+    /**
+     * Positions on the boundaries of the index cells of each level over a zone
+     */
+    private static void cellBoundaries(ZoneIndex index, List<Zone> zones, Zone zone, double cellSize, Random random) {
+        for (double size = cellSize; size < 360; size *= 4) {
+            double lat0 = Math.floor((zone.getMinLat() + 90) / size) * size - 90;
+            double lon0 = Math.floor((zone.getMinLon() + 180) / size) * size - 180;
+            for (int k = 0; k < 20 && lat0 + k * size <= zone.getMaxLat() + size; k++) {
+                double lat = lat0 + k * size;
+                assertFind(index, zones, lat, zone.getMinLon() + random.nextDouble()
+                        * (zone.getMaxLon() - zone.getMinLon()));
+                assertFind(index, zones, lat, lon0 + random.nextInt(20) * size);
+            }
+            for (int k = 0; k < 20 && lon0 + k * size <= zone.getMaxLon() + size; k++) {
+                double lon = lon0 + k * size;
+                assertFind(index, zones, zone.getMinLat() + random.nextDouble()
+                        * (zone.getMaxLat() - zone.getMinLat()), lon);
+            }
+        }
+    }
+
+    private static void assertFind(ZoneIndex index, List<Zone> zones, double lat, double lon) {
+        List<Integer> expected = new ArrayList<>();
+        for (Zone zone : zones) {
+            // Ray casting is false outside the bounding box, skipping it only saves time
+            boolean inBox = lat >= zone.getMinLat() && lat <= zone.getMaxLat() && lon >= zone.getMinLon()
+                    && lon <= zone.getMaxLon();
+            if (inBox && rayCast(zone.getPolygons(), lat, lon)) {
+                expected.add(zone.getId());
+            }
+        }
+        int[] found = new int[zones.size()];
+        int count = index.find(lat, lon, found);
+        List<Integer> actual = new ArrayList<>();
+        for (int i = 0; i < count; i++) {
+            actual.add(found[i]);
+        }
+        Assert.assertEquals("Zones at " + lat + ", " + lon, expected, actual);
+    }
+
+    /**
+     * Plain even-odd ray casting of each polygon, all rings of a polygon together so holes are outside
+     */
+    private static boolean rayCast(double[][][] polygons, double lat, double lon) {
+        for (double[][] polygon : polygons) {
+            int crossings = 0;
+            for (double[] ring : polygon) {
+                for (int i = 0; i < ring.length; i += 2) {
+                    int j = i == 0 ? ring.length - 2 : i - 2;
+                    double lati = ring[i + 1];
+                    double latj = ring[j + 1];
+                    if (lati > lat != latj > lat
+                            && lon < (ring[j] - ring[i]) * (lat - lati) / (latj - lati) + ring[i]) {
+                        crossings++;
+                    }
+                }
+            }
+            if (crossings % 2 == 1) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Star shaped polygons of very different sizes, some with a hole and some of two or three polygons
+     */
+    private static List<Zone> zones(Random random) {
+        List<Zone> zones = new ArrayList<>();
+        for (int i = 0; i < 300; i++) {
+            double radius = RADII[random.nextInt(RADII.length)];
+            int count = random.nextInt(4) == 0 ? 2 + random.nextInt(2) : 1;
+            // Extent of the polygons from the center of the first, keeping the zone clear of the poles and the 180th
+            // meridian
+            double extent = radius * (1 + 2.5 * (count - 1));
+            double lat = -80 + random.nextDouble() * 160;
+            double lon = -170 + random.nextDouble() * 340;
+            if (i % 3 == 0 && zones.size() > 0) {
+                // Overlapping another zone
+                Zone other = zones.get(random.nextInt(zones.size()));
+                lat = (other.getMinLat() + other.getMaxLat()) / 2;
+                lon = (other.getMinLon() + other.getMaxLon()) / 2;
+            }
+            lat = Math.max(-85 + extent, Math.min(85 - extent, lat));
+            lon = Math.max(-175 + extent, Math.min(175 - extent, lon));
+            List<double[][]> polygons = new ArrayList<>();
+            for (int j = 0; j < count; j++) {
+                double plat = lat + (j % 2 == 0 ? j : -j) * 1.25 * radius;
+                double plon = lon + (j % 2 == 0 ? j : -j) * 1.25 * radius;
+                double[] outer = star(random, plat, plon, radius, 0.5 * radius, 3 + random.nextInt(40));
+                if (random.nextInt(3) == 0) {
+                    polygons.add(new double[][] { outer,
+                            star(random, plat, plon, 0.4 * radius, 0.1 * radius, 3 + random.nextInt(10)) });
+                } else {
+                    polygons.add(new double[][] { outer });
+                }
+            }
+            zones.add(new Zone(zones.size(), "zone " + zones.size(), polygons));
+        }
+        return zones;
+    }
+
+    /**
+     * A closed ring around a center with vertices at random radii between two bounds
+     */
+    private static double[] star(Random random, double lat, double lon, double max, double min, int vertices) {
+        double[] ring = new double[vertices * 2 + 2];
+        for (int i = 0; i < vertices; i++) {
+            double angle = (i + random.nextDouble() * 0.9) * 2 * Math.PI / vertices;
+            double radius = min + random.nextDouble() * (max - min);
+            ring[2 * i] = lon + radius * Math.cos(angle);
+            ring[2 * i + 1] = lat + radius * Math.sin(angle);
+        }
+        ring[vertices * 2] = ring[0];
+        ring[vertices * 2 + 1] = ring[1];
+        return ring;
+    }
+
+    private static double[] ring(double... lonLats) {
+        double[] ring = Arrays.copyOf(lonLats, lonLats.length + 2);
+        ring[lonLats.length] = lonLats[0];
+        ring[lonLats.length + 1] = lonLats[1];
+        return ring;
+    }
+
+    private static Zone zone(int id, double[]... rings) {
+        List<double[][]> polygons = new ArrayList<>();
+        polygons.add(rings);
+        return new Zone(id, "zone " + id, polygons);
+    }
+
+}
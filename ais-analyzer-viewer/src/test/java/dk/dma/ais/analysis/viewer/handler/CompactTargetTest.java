@@ -0,0 +1,234 @@
+/* Copyright (c) 2011 Danish Maritime Authority.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package dk.dma.ais.analysis.viewer.handler;
+
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import dk.dma.ais.analysis.common.generator.SyntheticFleet;
+import dk.dma.ais.analysis.common.generator.SyntheticFleetConf;
+import dk.dma.ais.data.AisClassAPosition;
+import dk.dma.ais.data.AisClassAStatic;
+import dk.dma.ais.data.AisTarget;
+import dk.dma.ais.data.AisTargetDimensions;
+import dk.dma.ais.data.AisVesselPosition;
+import dk.dma.ais.data.AisVesselStatic;
+import dk.dma.ais.data.AisVesselTarget;
+import dk.dma.ais.message.AisMessage;
+import dk.dma.ais.message.AisMessage18;
+import dk.dma.ais.message.AisMessage5;
+import dk.dma.ais.message.AisPosition;
+import dk.dma.ais.message.AisPositionMessage;
+import dk.dma.ais.packet.AisPacket;
+
+/**
+ * Compares compact targets with AisLib targets updated with the same messages
+ */
+public class CompactTargetTest {
+
+    @Test
+    public void syntheticFleet() {
+        SyntheticFleetConf conf = new SyntheticFleetConf();
+        conf.setFleetSize(200);
+        conf.setClassBFraction(0.4);
+        SyntheticFleet fleet = new SyntheticFleet(conf);
+        Random random = new Random(1);
+        long time = 1400000000000L;
+
+        Map<Integer, AisTarget> expected = new HashMap<>();
+        Map<Integer, CompactTarget> actual = new HashMap<>();
+        List<AisMessage> delayed = new ArrayList<>();
+        List<Integer> mmsis = new ArrayList<>();
+        for (int i = 0; i < 20000; i++) {
+            time += 100;
+            AisMessage message = fleet.nextPacket(new Date(time)).tryGetAisMessage();
+            if (message == null) {
+                continue;
+            }
+            if (!mmsis.contains(message.getUserId())) {
+                mmsis.add(message.getUserId());
+            }
+            int r = random.nextInt(100);
+            if (r < 5 && mmsis.size() > 1) {
+                // A report of another vessel, which may be of the other class
+                message.setUserId(mmsis.get(random.nextInt(mmsis.size())));
+            } else if (r < 10) {
+                // Reported again later, out of order
+                delayed.add(message);
+                continue;
+            } else if (r < 20) {
+                unavailable(message);
+            }
+            update(expected, actual, message);
+            if (!delayed.isEmpty() && random.nextInt(10) == 0) {
+                update(expected, actual, delayed.remove(random.nextInt(delayed.size())));
+            }
+        }
+        for (AisMessage message : delayed) {
+            update(expected, actual, message);
+        }
+
+        Assert.assertEquals(expected.keySet(), actual.keySet());
+        for (Map.Entry<Integer, AisTarget> entry : expected.entrySet()) {
+            assertTarget(entry.getValue(), actual.get(entry.getKey()).toAisTarget());
+        }
+    }
+
+    /**
+     * Update the targets as {@link AisTargetEntry}, replacing a target by a report of another type of target
+     */
+    private static void update(Map<Integer, AisTarget> expected, Map<Integer, CompactTarget> actual,
+            AisMessage message) {
+        int mmsi = message.getUserId();
+        AisTarget target = expected.get(mmsi);
+        CompactTarget compactTarget = actual.get(mmsi);
+        Assert.assertEquals(target == null, compactTarget == null);
+        if (target == null) {
+            target = AisTarget.createTarget(message);
+            compactTarget = CompactTarget.create(message);
+            Assert.assertEquals(target == null, compactTarget == null);
+            if (target == null) {
+                return;
+            }
+        }
+        try {
+            target.update(message);
+        } catch (IllegalArgumentException e) {
+            target = AisTarget.createTarget(message);
+            target.update(message);
+        }
+        try {
+            compactTarget.update(message);
+        } catch (IllegalArgumentException e) {
+            compactTarget = CompactTarget.create(message);
+            compactTarget.update(message);
+        }
+        expected.put(mmsi, target);
+        actual.put(mmsi, compactTarget);
+    }
+
+    /**
+     * Mark values of a message not available
+     */
+    private static void unavailable(AisMessage message) {
+        if (message instanceof AisPositionMessage) {
+            AisPositionMessage position = (AisPositionMessage) message;
+            position.setSog(1023);
+            position.setCog(3600);
+            position.setTrueHeading(511);
+            position.setRot(-128);
+            position.setPos(new AisPosition(91 * 600000L, 181 * 600000L));
+        } else if (message instanceof AisMessage18) {
+            AisMessage18 position = (AisMessage18) message;
+            position.setSog(1023);
+            position.setCog(3600);
+            position.setTrueHeading(511);
+            position.setPos(new AisPosition(91 * 600000L, 181 * 600000L));
+        } else if (message instanceof AisMessage5) {
+            AisMessage5 statics = (AisMessage5) message;
+            statics.setImo(0);
+            statics.setDest("@@@@@@@@@@@@@@@@@@@@");
+            statics.setDraught(0);
+            statics.setEta(0);
+        }
+    }
+
+    private static void assertTarget(AisTarget expected, AisTarget actual) {
+        String mmsi = Integer.toString(expected.getMmsi());
+        Assert.assertEquals(mmsi, expected.getClass(), actual.getClass());
+        Assert.assertEquals(mmsi, expected.getMmsi(), actual.getMmsi());
+        Assert.assertEquals(mmsi, expected.getCountry(), actual.getCountry());
+        Assert.assertEquals(mmsi, expected.getLastReport(), actual.getLastReport());
+        Assert.assertEquals(mmsi, expected.getTargetType(), actual.getTargetType());
+        if (expected instanceof AisVesselTarget) {
+            assertPosition(mmsi, ((AisVesselTarget) expected).getVesselPosition(),
+                    ((AisVesselTarget) actual).getVesselPosition());
+            assertStatic(mmsi, ((AisVesselTarget) expected).getVesselStatic(),
+                    ((AisVesselTarget) actual).getVesselStatic());
+        }
+    }
+
+    private static void assertPosition(String mmsi, AisVesselPosition expected, AisVesselPosition actual) {
+        if (expected == null || actual == null) {
+            Assert.assertSame(mmsi, expected, actual);
+            return;
+        }
+        Assert.assertEquals(mmsi, expected.getClass(), actual.getClass());
+        Assert.assertEquals(mmsi, expected.getMmsi(), actual.getMmsi());
+        Assert.assertEquals(mmsi, expected.getSog(), actual.getSog());
+        Assert.assertEquals(mmsi, expected.getCog(), actual.getCog());
+        Assert.assertEquals(mmsi, expected.getHeading(), actual.getHeading());
+        Assert.assertEquals(mmsi, expected.getPos(), actual.getPos());
+        Assert.assertEquals(mmsi, expected.getPosAcc(), actual.getPosAcc());
+        Assert.assertEquals(mmsi, expected.getRaim(), actual.getRaim());
+        Assert.assertEquals(mmsi, expected.getUtcSec(), actual.getUtcSec());
+        if (expected instanceof AisClassAPosition) {
+            AisClassAPosition expectedA = (AisClassAPosition) expected;
+            AisClassAPosition actualA = (AisClassAPosition) actual;
+            Assert.assertEquals(mmsi, expectedA.getRot(), actualA.getRot());
+            Assert.assertEquals(mmsi, expectedA.getNavStatus(), actualA.getNavStatus());
+            Assert.assertEquals(mmsi, expectedA.getSpecialManIndicator(), actualA.getSpecialManIndicator());
+        }
+    }
+
+    private static void assertStatic(String mmsi, AisVesselStatic expected, AisVesselStatic actual) {
+        if (expected == null || actual == null) {
+            Assert.assertSame(mmsi, expected, actual);
+            return;
+        }
+        Assert.assertEquals(mmsi, expected.getClass(), actual.getClass());
+        Assert.assertEquals(mmsi, expected.getMmsi(), actual.getMmsi());
+        Assert.assertEquals(mmsi, expected.getName(), actual.getName());
+        Assert.assertEquals(mmsi, expected.getCallsign(), actual.getCallsign());
+        Assert.assertEquals(mmsi, expected.getShipType(), actual.getShipType());
+        if (expected.getShipTypeCargo() == null || actual.getShipTypeCargo() == null) {
+            Assert.assertSame(mmsi, expected.getShipTypeCargo(), actual.getShipTypeCargo());
+        } else {
+            Assert.assertEquals(mmsi, expected.getShipTypeCargo().getShipType(),
+                    actual.getShipTypeCargo().getShipType());
+            Assert.assertEquals(mmsi, expected.getShipTypeCargo().getShipCargo(),
+                    actual.getShipTypeCargo().getShipCargo());
+        }
+        AisTargetDimensions expectedDimensions = expected.getDimensions();
+        AisTargetDimensions actualDimensions = actual.getDimensions();
+        if (expectedDimensions == null || actualDimensions == null) {
+            Assert.assertSame(mmsi, expectedDimensions, actualDimensions);
+        } else {
+            Assert.assertEquals(mmsi, expectedDimensions.getDimBow(), actualDimensions.getDimBow());
+            Assert.assertEquals(mmsi, expectedDimensions.getDimStern(), actualDimensions.getDimStern());
+            Assert.assertEquals(mmsi, expectedDimensions.getDimPort(), actualDimensions.getDimPort());
+            Assert.assertEquals(mmsi, expectedDimensions.getDimStarboard(), actualDimensions.getDimStarboard());
+        }
+        if (expected instanceof AisClassAStatic) {
+            AisClassAStatic expectedA = (AisClassAStatic) expected;
+            AisClassAStatic actualA = (AisClassAStatic) actual;
+            Assert.assertEquals(mmsi, expectedA.getImoNo(), actualA.getImoNo());
+            Assert.assertEquals(mmsi, expectedA.getDestination(), actualA.getDestination());
+            Assert.assertEquals(mmsi, expectedA.getDraught(), actualA.getDraught());
+            Assert.assertEquals(mmsi, expectedA.getEta(), actualA.getEta());
+            Assert.assertEquals(mmsi, expectedA.getPosType(), actualA.getPosType());
+            Assert.assertEquals(mmsi, expectedA.getVersion(), actualA.getVersion());
+            Assert.assertEquals(mmsi, expectedA.getDte(), actualA.getDte());
+        }
+    }
+
+}
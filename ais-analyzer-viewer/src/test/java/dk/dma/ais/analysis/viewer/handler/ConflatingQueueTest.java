@@ -0,0 +1,141 @@
+/* Copyright (c) 2011 Danish Maritime Authority.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package dk.dma.ais.analysis.viewer.handler;
+
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import dk.dma.ais.analysis.common.generator.SyntheticFleet;
+import dk.dma.ais.analysis.common.generator.SyntheticFleetConf;
+import dk.dma.ais.packet.AisPacket;
+import dk.dma.enav.util.function.Consumer;
+
+public class ConflatingQueueTest {
+
+    @Test
+    public void conflate() throws InterruptedException {
+        List<AisPacket> positions = positions(2);
+        AisPacket copy = copy(positions.get(0));
+        Recorder recorder = new Recorder();
+        ConflatingQueue queue = new ConflatingQueue(recorder, 100);
+        queue.accept(positions.get(0));
+        queue.accept(copy);
+        Assert.assertEquals(2, queue.size());
+        // The newer report replaces the pending report and its copy
+        queue.accept(positions.get(1));
+        Assert.assertEquals(1, queue.size());
+        Assert.assertEquals(positions.subList(1, 2), drain(queue, recorder, 1));
+    }
+
+    @Test
+    public void keepCopies() throws InterruptedException {
+        List<AisPacket> positions = positions(1);
+        AisPacket copy = copy(positions.get(0));
+        AisPacket other = copy(copy);
+        Recorder recorder = new Recorder();
+        ConflatingQueue queue = new ConflatingQueue(recorder, 100);
+        queue.accept(positions.get(0));
+        queue.accept(copy);
+        queue.accept(other);
+        Assert.assertEquals(3, queue.size());
+        List<AisPacket> expected = new ArrayList<>();
+        expected.add(positions.get(0));
+        expected.add(copy);
+        expected.add(other);
+        Assert.assertEquals(expected, drain(queue, recorder, 3));
+    }
+
+    @Test
+    public void maxSize() throws InterruptedException {
+        List<AisPacket> positions = positions(1);
+        ConflatingQueue queue = new ConflatingQueue(new Recorder(), 2);
+        queue.accept(positions.get(0));
+        queue.accept(copy(positions.get(0)));
+        queue.accept(copy(copy(positions.get(0))));
+        Assert.assertEquals(2, queue.size());
+    }
+
+    /**
+     * Consecutive position reports of a moving vessel
+     */
+    private static List<AisPacket> positions(int count) {
+        SyntheticFleetConf conf = new SyntheticFleetConf();
+        conf.setFleetSize(10);
+        SyntheticFleet fleet = new SyntheticFleet(conf);
+        Map<Integer, List<AisPacket>> byMmsi = new HashMap<>();
+        while (true) {
+            AisPacket packet = fleet.nextPacket(new Date());
+            String raw = packet.getStringMessage();
+            int msgId = RawPayload.msgId(raw);
+            if (msgId != 1 && msgId != 18) {
+                continue;
+            }
+            List<AisPacket> positions = byMmsi.get(RawPayload.mmsi(raw));
+            if (positions == null) {
+                positions = new ArrayList<>();
+                byMmsi.put(RawPayload.mmsi(raw), positions);
+            } else if (RawPayload.hash(raw) == RawPayload.hash(positions.get(0).getStringMessage())) {
+                // Not moving
+                positions.clear();
+            }
+            positions.add(packet);
+            if (positions.size() == count) {
+                return positions;
+            }
+        }
+    }
+
+    /**
+     * A copy of a packet from another source
+     */
+    private static AisPacket copy(AisPacket packet) {
+        return AisPacket.from("\\s:copy*00\\\r\n" + packet.getStringMessage());
+    }
+
+    /**
+     * Start the queue and wait for the handler to receive a number of packets
+     */
+    private static List<AisPacket> drain(ConflatingQueue queue, Recorder recorder, int count)
+            throws InterruptedException {
+        queue.start();
+        long deadline = System.currentTimeMillis() + 10000;
+        while (recorder.packets().size() < count && System.currentTimeMillis() < deadline) {
+            Thread.sleep(10);
+        }
+        // Nothing more arrives
+        Thread.sleep(50);
+        queue.interrupt();
+        return recorder.packets();
+    }
+
+    private static final class Recorder implements Consumer<AisPacket> {
+        private final List<AisPacket> packets = new ArrayList<>();
+
+        @Override
+        public synchronized void accept(AisPacket packet) {
+            packets.add(packet);
+        }
+
+        synchronized List<AisPacket> packets() {
+            return new ArrayList<>(packets);
+        }
+    }
+}
@@ -0,0 +1,71 @@
+/* Copyright (c) 2011 Danish Maritime Authority.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package dk.dma.ais.analysis.viewer.handler;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+public class DuplicateFilterTest {
+
+    @Test
+    public void withinWindow() {
+        DuplicateFilter filter = new DuplicateFilter(1000);
+        Assert.assertFalse(filter.isDuplicate(17, 0));
+        Assert.assertTrue(filter.isDuplicate(17, 999));
+        Assert.assertFalse(filter.isDuplicate(18, 999));
+        Assert.assertEquals(2, filter.size());
+    }
+
+    @Test
+    public void rotation() {
+        DuplicateFilter filter = new DuplicateFilter(1000);
+        Assert.assertFalse(filter.isDuplicate(17, 0));
+        Assert.assertFalse(filter.isDuplicate(18, 900));
+        // Rotated once, both are in the previous generation
+        Assert.assertTrue(filter.isDuplicate(17, 1000));
+        Assert.assertTrue(filter.isDuplicate(18, 1100));
+        Assert.assertFalse(filter.isDuplicate(19, 1100));
+        // Rotated twice, only the hash of the last generation is remembered
+        Assert.assertFalse(filter.isDuplicate(17, 2000));
+        Assert.assertTrue(filter.isDuplicate(19, 2000));
+        Assert.assertEquals(2, filter.size());
+    }
+
+    @Test
+    public void idle() {
+        DuplicateFilter filter = new DuplicateFilter(1000);
+        Assert.assertFalse(filter.isDuplicate(17, 0));
+        // Nothing received for two windows
+        Assert.assertFalse(filter.isDuplicate(17, 2500));
+        Assert.assertEquals(1, filter.size());
+    }
+
+    @Test
+    public void grow() {
+        DuplicateFilter filter = new DuplicateFilter(1000);
+        for (long hash = 1; hash <= 10000; hash++) {
+            Assert.assertFalse(filter.isDuplicate(hash * 0x9E3779B97F4A7C15L, 0));
+        }
+        for (long hash = 1; hash <= 10000; hash++) {
+            Assert.assertTrue(filter.isDuplicate(hash * 0x9E3779B97F4A7C15L, 1500));
+        }
+        Assert.assertEquals(10000, filter.size());
+        // Hashes of the same table index
+        Assert.assertFalse(filter.isDuplicate(1L << 32 | 1, 1500));
+        Assert.assertFalse(filter.isDuplicate(2L << 32 | 2, 1500));
+        Assert.assertTrue(filter.isDuplicate(1L << 32 | 1, 1500));
+        Assert.assertTrue(filter.isDuplicate(2L << 32 | 2, 1500));
+    }
+}
@@ -0,0 +1,117 @@
+/* Copyright (c) 2011 Danish Maritime Authority.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package dk.dma.ais.analysis.viewer.handler;
+
+import java.util.Date;
+import java.util.HashSet;
+import java.util.Set;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import dk.dma.ais.analysis.common.generator.SyntheticFleet;
+import dk.dma.ais.analysis.common.generator.SyntheticFleetConf;
+import dk.dma.ais.data.AisTarget;
+import dk.dma.ais.message.AisMessage;
+import dk.dma.ais.packet.AisPacket;
+
+public class RawPayloadTest {
+
+    private static final String TYPE_1 = "!AIVDM,1,1,,B,177KQJ5000G?tO`K>RA1wUbN0TKH,0*5C";
+    private static final String TYPE_5 =
+            "!AIVDM,2,1,1,A,55?MbV02;H;s<HtKR20EHE:0@T4@Dn2222222216L961O5Gf0NSQEp6ClRp8,0*1C\r\n"
+                    + "!AIVDM,2,2,1,A,88888888880,2*25";
+
+    private static final String[] SENTENCES = { TYPE_1, TYPE_5,
+            "!AIVDM,1,1,,A,85Mwp`1Kf3aCnsNvBWLi=wQuNhA5t43N`5nCuI=p<IBfVqnMgPGs,0*47",
+            "!AIVDM,1,1,,B,>>M4fWA<59B1@E=@,0*17", "!AIVDO,1,1,,,B>qc:003wk?8mP=18D3Q3wgTiT;T,0*13",
+            "!AIVDM,1,1,,A,402R3WiuHkjqiOwS9pNAi@702@=?,0*18" };
+
+    @Test
+    public void sentences() {
+        for (String raw : SENTENCES) {
+            assertDecodedAs(raw);
+            // Tagged by a comment block on the line and by a proprietary sentence before
+            assertDecodedAs("\\s:source,c:1400000000*24\\" + raw);
+            assertDecodedAs("$PGHP,1,2014,1,1,0,0,0,0,219,801,2190047,1,*1E\r\n" + raw);
+        }
+    }
+
+    @Test
+    public void syntheticFleet() {
+        SyntheticFleetConf conf = new SyntheticFleetConf();
+        conf.setFleetSize(500);
+        SyntheticFleet fleet = new SyntheticFleet(conf);
+        Set<Integer> msgIds = new HashSet<>();
+        for (int i = 0; i < 5000; i++) {
+            String raw = fleet.nextPacket(new Date()).getStringMessage();
+            msgIds.add(assertDecodedAs(raw));
+        }
+        // Single and multi sentence messages of class A and B
+        Assert.assertTrue(msgIds.contains(1));
+        Assert.assertTrue(msgIds.contains(5));
+        Assert.assertTrue(msgIds.contains(18));
+        Assert.assertTrue(msgIds.contains(24));
+    }
+
+    @Test
+    public void malformed() {
+        String[] invalid = { "", "\r\n", "garbage", "$GPGGA,123519,4807.038,N,01131.000,E,1,08,0.9,545.4,M,46.9,M,,*47",
+                "!AIVDM,1,1,,A", "!AIALR,1,1,,A,177KQJ5000G?tO`K>RA1wUbN0TKH,0*5C",
+                "\\s:source*00" + TYPE_1, "\\s:source,c:1400000000*24" };
+        for (String raw : invalid) {
+            Assert.assertEquals(raw, -1, RawPayload.msgId(raw));
+            Assert.assertEquals(raw, -1, RawPayload.mmsi(raw));
+            Assert.assertEquals(raw, 0, RawPayload.hash(raw));
+        }
+        // No payload, too short for an MMSI, or characters outside the six bit alphabet
+        Assert.assertEquals(-1, RawPayload.msgId("!AIVDM,1,1,,A,"));
+        Assert.assertEquals(-1, RawPayload.mmsi("!AIVDM,1,1,,A,,0*00"));
+        Assert.assertEquals(-1, RawPayload.mmsi("!AIVDM,1,1,,B,177KQ,0*00"));
+        Assert.assertEquals(-1, RawPayload.mmsi("!AIVDM,1,1,,B,177KQ~5000G?tO`K>RA1wUbN0TKH,0*00"));
+        Assert.assertEquals(-1, RawPayload.msgId("!AIVDM,1,1,,B,x77KQJ5000G?tO`K>RA1wUbN0TKH,0*00"));
+    }
+
+    @Test
+    public void hash() {
+        long hash = RawPayload.hash(TYPE_5);
+        Assert.assertNotEquals(0, hash);
+        // The same message tagged differently or with another sequence id and channel
+        String tagged = "\\s:source,c:1400000000*24\\" + TYPE_5.replace("\r\n", "\r\n\\g:2*00\\");
+        Assert.assertEquals(hash, RawPayload.hash(tagged));
+        Assert.assertEquals(hash, RawPayload.hash(TYPE_5.replace(",1,A,", ",7,B,")));
+        Assert.assertEquals(hash, RawPayload.hash("$PGHP,1,2014,1,1,0,0,0,0,219,801,2190047,1,*1E\r\n" + TYPE_5));
+        // Another message, or the sentences of a multi-sentence message split differently
+        Assert.assertNotEquals(hash, RawPayload.hash(TYPE_1));
+        Assert.assertNotEquals(hash, RawPayload.hash(TYPE_5.replace(",2*25", ",4*25")));
+        Assert.assertNotEquals(hash,
+                RawPayload.hash(TYPE_5.replace("p8,0*1C", "p,0*1C").replace("2,A,88888888880", "2,A,p88888888880")));
+    }
+
+    /**
+     * Assert the message id and MMSI read from the raw packet are those decoded by AisLib
+     *
+     * @return the message id
+     */
+    private static int assertDecodedAs(String raw) {
+        AisMessage message = AisPacket.from(raw).tryGetAisMessage();
+        Assert.assertNotNull(raw, message);
+        int msgId = RawPayload.msgId(raw);
+        Assert.assertEquals(raw, message.getMsgId(), msgId);
+        Assert.assertEquals(raw, message.getUserId(), RawPayload.mmsi(raw));
+        Assert.assertEquals(raw, AisTarget.isTargetDataMessage(message), RawPayload.isTargetDataMessage(msgId));
+        return msgId;
+    }
+}
@@ -0,0 +1,370 @@
+/* Copyright (c) 2011 Danish Maritime Authority.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package dk.dma.ais.analysis.viewer.handler;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import dk.dma.ais.analysis.common.generator.SyntheticFleet;
+import dk.dma.ais.analysis.common.generator.SyntheticFleetConf;
+import dk.dma.ais.analysis.common.grid.Grid;
+import dk.dma.ais.analysis.common.grid.GridFactory;
+import dk.dma.ais.analysis.viewer.configuration.AisViewConfiguration;
+import dk.dma.ais.analysis.viewer.rest.VesselListFilter;
+import dk.dma.ais.analysis.viewer.rest.json.BaseVesselList;
+import dk.dma.ais.analysis.viewer.rest.json.VesselCluster;
+import dk.dma.ais.analysis.viewer.rest.json.VesselClusterJsonRepsonse;
+import dk.dma.ais.analysis.viewer.rest.json.VesselList;
+import dk.dma.ais.data.AisClassATarget;
+import dk.dma.ais.data.AisTarget;
+import dk.dma.ais.data.AisVesselTarget;
+import dk.dma.ais.packet.AisPacket;
+import dk.dma.enav.model.Country;
+import dk.dma.enav.model.geometry.Position;
+
+/**
+ * Compares the vessel lists and clusters of the snapshot with the filtering of each target as done before the
+ * snapshot, see {@link #filter(AisViewConfiguration, AisTargetEntry, VesselListFilter)}
+ */
+public class SnapshotFilterTest {
+
+    private static final int LIVE_TTL = 3;
+    private static final int SAT_TTL = 7200;
+
+    // Index of the MMSI in the fields of a vessel list
+    private static final int MMSI_FIELD = 6;
+
+    private static final Position[][] AREAS = { null,
+            { Position.create(55.5, -20.3), Position.create(-10.7, 60.1) },
+            // Across the antimeridian
+            { Position.create(40.3, 120.5), Position.create(-30.1, -150.7) } };
+
+    @Test
+    public void vesselListAndClusters() throws InterruptedException {
+        AisViewConfiguration conf = new AisViewConfiguration();
+        conf.setLiveTargetTtl(LIVE_TTL);
+        conf.setSatTargetTtl(SAT_TTL);
+        conf.setDuplicateWindow(0);
+        AisViewHandler handler = new AisViewHandler(conf);
+        Map<Integer, AisTargetEntry> entries = new HashMap<>();
+
+        // The same fleet received through two systems in two countries. Vessels received from satellites and from
+        // the ground at first.
+        SyntheticFleetConf fleetConf = new SyntheticFleetConf();
+        fleetConf.setFleetSize(400);
+        fleetConf.setClassBFraction(0.3);
+        fleetConf.setSatFraction(0.6);
+        SyntheticFleet mixed = new SyntheticFleet(fleetConf);
+        fleetConf.setSatFraction(0.3);
+        SyntheticFleet first = new SyntheticFleet(fleetConf);
+        fleetConf.setSourceCountry("NOR");
+        fleetConf.setSourceId("OTHER");
+        SyntheticFleet second = new SyntheticFleet(fleetConf);
+
+        // Received a while ago. The targets are only alive with the SAT ttl, and the sources are only fresh with the
+        // SAT ttl after the sleep.
+        long now = System.currentTimeMillis();
+        Set<String> baseStations = new HashSet<>();
+        for (int i = 0; i < 4000; i++) {
+            Date time = new Date(now - 30 * 60 * 1000L + i * 100);
+            AisPacket packet = mixed.nextPacket(time);
+            if (i >= 2000) {
+                packet = first.nextPacket(time);
+            } else {
+                first.nextPacket(time);
+            }
+            second.nextPacket(time);
+            accept(handler, entries, packet);
+            if (packet.getTags().getSourceBs() != null) {
+                baseStations.add(packet.getTags().getSourceBs().toString());
+            }
+        }
+        Thread.sleep((LIVE_TTL + 1) * 1000);
+
+        // Received now from the other system, except from every third vessel
+        for (int i = 0; i < 1200; i++) {
+            AisPacket packet = second.nextPacket(new Date(System.currentTimeMillis() + 60000));
+            if (packet.tryGetAisMessage() != null && packet.tryGetAisMessage().getUserId() % 3 != 0) {
+                accept(handler, entries, packet);
+            }
+        }
+
+        List<String> bs = new ArrayList<>(baseStations);
+        List<VesselListFilter> filters = new ArrayList<>();
+        filters.add(new VesselListFilter());
+        filters.add(filter("vesselClass", "A"));
+        filters.add(filter("vesselClass", "B"));
+        filters.add(filter("country", "DNK,NOR"));
+        filters.add(filter("country", "DNK,XXX"));
+        filters.add(filter("sourceType", "LIVE"));
+        filters.add(filter("sourceType", "SAT"));
+        filters.add(filter("sourceType", "LIVE,SAT"));
+        filters.add(filter("sourceCountry", "DNK"));
+        filters.add(filter("sourceCountry", "NOR"));
+        filters.add(filter("sourceCountry", "DNK,NOR"));
+        filters.add(filter("sourceCountry", "DNK", "sourceType", "SAT"));
+        filters.add(filter("sourceRegion", "800,802"));
+        filters.add(filter("sourceRegion", "801", "sourceType", "SAT"));
+        filters.add(filter("sourceBs", bs.get(0) + "," + bs.get(1)));
+        filters.add(filter("sourceBs", bs.get(2), "sourceType", "LIVE,SAT"));
+        filters.add(filter("sourceSystem", "SIM"));
+        filters.add(filter("sourceSystem", "OTHER,SIMSAT"));
+        filters.add(filter("sourceSystem", "SIM", "sourceType", "SAT"));
+        filters.add(filter("staticReport", "yes"));
+        filters.add(filter("staticReport", "no"));
+        filters.add(filter("staticReport", "yes", "vesselClass", "B", "country", "DNK,SWE,NOR,DEU"));
+
+        for (VesselListFilter filter : filters) {
+            for (Position[] area : AREAS) {
+                Position pointA = area != null ? area[0] : null;
+                Position pointB = area != null ? area[1] : null;
+                String message = filter + " in " + (area != null ? Arrays.toString(area) : "world");
+
+                // Reference
+                Set<Integer> expected = new HashSet<>();
+                int expectedInWorld = 0;
+                List<AisVesselTarget> targets = new ArrayList<>();
+                for (AisTargetEntry entry : entries.values()) {
+                    AisVesselTarget target = filter(conf, entry, filter);
+                    if (target == null || target.getVesselPosition() == null
+                            || target.getVesselPosition().getPos() == null) {
+                        continue;
+                    }
+                    expectedInWorld++;
+                    if (!rejectedByPosition(target, pointA, pointB)) {
+                        expected.add(target.getMmsi());
+                        targets.add(target);
+                    }
+                }
+
+                BaseVesselList list = handler.getVesselList(new VesselList(), filter, pointA, pointB);
+                Assert.assertEquals(message, expected, mmsis(list));
+                Assert.assertEquals(message, expectedInWorld, list.getInWorldCount());
+
+                for (int limit : new int[] { 1, 3, 100 }) {
+                    double size = limit == 1 ? 10 : 2;
+                    VesselClusterJsonRepsonse clusters = handler.getClusterResponse(1, filter, pointA, pointB, limit,
+                            size);
+                    assertClusters(message, targets, expectedInWorld, limit, size, clusters);
+                }
+            }
+        }
+    }
+
+    private static void accept(AisViewHandler handler, Map<Integer, AisTargetEntry> entries, AisPacket packet) {
+        if (packet.tryGetAisMessage() == null) {
+            return;
+        }
+        // Vessels without a country, as the MMSI does not have nine digits
+        int mmsi = packet.tryGetAisMessage().getUserId();
+        if (mmsi % 10 == 1) {
+            mmsi %= 100000000;
+            packet.tryGetAisMessage().setUserId(mmsi);
+        }
+        handler.accept(packet);
+        AisTargetEntry entry = entries.get(mmsi);
+        if (entry == null) {
+            entry = new AisTargetEntry(packet);
+            entries.put(mmsi, entry);
+        }
+        entry.update(packet);
+    }
+
+    /**
+     * A filter of names, each followed by its comma separated values
+     */
+    private static VesselListFilter filter(String... namesAndValues) {
+        VesselListFilter filter = new VesselListFilter();
+        for (int i = 0; i < namesAndValues.length; i += 2) {
+            filter.getFilterMap().put(namesAndValues[i],
+                    new HashSet<>(Arrays.asList(namesAndValues[i + 1].split(","))));
+        }
+        return filter;
+    }
+
+    private static Set<Integer> mmsis(BaseVesselList list) {
+        Set<Integer> mmsis = new HashSet<>();
+        for (List<String> fields : list.getVessels().values()) {
+            mmsis.add(Integer.parseInt(fields.get(MMSI_FIELD)));
+        }
+        return mmsis;
+    }
+
+    private static void assertClusters(String message, List<AisVesselTarget> targets, int inWorld, int limit,
+            double size, VesselClusterJsonRepsonse response) {
+        Grid grid = GridFactory.getInstance().getGrid(size);
+        Map<Long, Integer> expected = new TreeMap<>();
+        for (AisVesselTarget target : targets) {
+            Position pos = target.getVesselPosition().getPos();
+            long cellId = grid.getCellId(pos.getLatitude(), pos.getLongitude());
+            Integer count = expected.get(cellId);
+            expected.put(cellId, count == null ? 1 : count + 1);
+        }
+        Map<Long, Integer> actual = new TreeMap<>();
+        for (VesselCluster cluster : response.getClusters()) {
+            long cellId = grid.getCellId(cluster.getFrom().getLatitude() + size / 2, cluster.getFrom().getLongitude()
+                    + size / 2);
+            actual.put(cellId, cluster.getCount());
+            // The first vessels up to the limit
+            Assert.assertEquals(message, Math.max(1, Math.min(cluster.getCount(), limit - 1)), cluster.getVessels()
+                    .getVesselCount());
+        }
+        Assert.assertEquals(message, expected, actual);
+        Assert.assertEquals(message, inWorld, response.getVesselsInWorld());
+    }
+
+    /**
+     * The vessel target of an entry if alive and passing the filter, as filtered before the snapshot
+     */
+    private static AisVesselTarget filter(AisViewConfiguration conf, AisTargetEntry targetEntry,
+            VesselListFilter filter) {
+        AisTarget target = targetEntry.getTarget().toAisTarget();
+        if (!(target instanceof AisVesselTarget)) {
+            return null;
+        }
+        AisVesselTarget vesselTarget = (AisVesselTarget) target;
+        Map<String, HashSet<String>> filterMap = filter.getFilterMap();
+        TargetSourceData sourceData = targetEntry.getSourceData();
+
+        // Determine TTL
+        boolean lastIsSatData = sourceData.isSatData();
+        Set<String> sourceType = filterMap.get("sourceType");
+        int ttl = lastIsSatData ? conf.getSatTargetTtl() : conf.getLiveTargetTtl();
+
+        // If quering for SAT the ttl will be forced to sat ttl
+        if (sourceType != null && sourceType.contains("SAT")) {
+            ttl = conf.getSatTargetTtl();
+        }
+
+        // Is it alive
+        if (!target.isAlive(ttl)) {
+            return null;
+        }
+
+        // Maybe filtered away
+        Set<String> vesselClass = filterMap.get("vesselClass");
+        if (vesselClass != null) {
+            String vc = target instanceof AisClassATarget ? "A" : "B";
+            if (!vesselClass.contains(vc)) {
+                return null;
+            }
+        }
+        Set<String> country = filterMap.get("country");
+        if (country != null) {
+            Country mc = target.getCountry();
+            if (mc == null) {
+                return null;
+            }
+            if (!country.contains(mc.getThreeLetter())) {
+                return null;
+            }
+        }
+        if (sourceType != null) {
+            boolean matches = false;
+            for (String st : sourceType) {
+                matches |= sourceData.isSourceType(st, conf.getLiveTargetTtl(), conf.getSatTargetTtl());
+            }
+            if (!matches) {
+                return null;
+            }
+        }
+        Set<String> sourceCountry = filterMap.get("sourceCountry");
+        if (sourceCountry != null) {
+            boolean matches = false;
+            for (String cnt : sourceCountry) {
+                matches |= sourceData.isCountry(cnt, ttl);
+            }
+            if (!matches) {
+                return null;
+            }
+        }
+        Set<String> sourceRegion = filterMap.get("sourceRegion");
+        if (sourceRegion != null) {
+            boolean matches = false;
+            for (String region : sourceRegion) {
+                matches |= sourceData.isRegion(region, ttl);
+            }
+            if (!matches) {
+                return null;
+            }
+        }
+        Set<String> sourceBs = filterMap.get("sourceBs");
+        if (sourceBs != null) {
+            boolean matches = false;
+            for (String bs : sourceBs) {
+                matches |= sourceData.isBs(bs, ttl);
+            }
+            if (!matches) {
+                return null;
+            }
+        }
+        Set<String> sourceSystem = filterMap.get("sourceSystem");
+        if (sourceSystem != null) {
+            boolean matches = false;
+            for (String sys : sourceSystem) {
+                matches |= sourceData.isSystem(sys, ttl);
+            }
+            if (!matches) {
+                return null;
+            }
+        }
+        Set<String> staticReport = filterMap.get("staticReport");
+        if (staticReport != null) {
+            boolean hasStatic = vesselTarget.getVesselStatic() != null;
+            if (staticReport.contains("yes") && !hasStatic) {
+                return null;
+            }
+            if (staticReport.contains("no") && hasStatic) {
+                return null;
+            }
+        }
+
+        return vesselTarget;
+    }
+
+    /**
+     * Area test as done before the snapshot
+     */
+    private static boolean rejectedByPosition(AisVesselTarget target, Position pointA, Position pointB) {
+        if (pointA == null || pointB == null) {
+            return false;
+        }
+        Position pos = target.getVesselPosition().getPos();
+        if (pos.getLatitude() <= pointA.getLatitude() && pos.getLatitude() >= pointB.getLatitude()) {
+            if (pointB.getLongitude() <= pointA.getLongitude()
+                    && (pos.getLongitude() >= pointA.getLongitude() || pos.getLongitude() <= pointB.getLongitude())) {
+                return false;
+            }
+            if (pointA.getLongitude() <= pointB.getLongitude()
+                    && (pos.getLongitude() >= pointB.getLongitude() || pos.getLongitude() <= pointA.getLongitude())) {
+                return true;
+            } else if (pointA.getLongitude() <= pointB.getLongitude()) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+}
@@ -0,0 +1,71 @@
+/* Copyright (c) 2011 Danish Maritime Authority.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package dk.dma.ais.analysis.viewer.tiles;
+
+import java.util.Date;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import dk.dma.ais.analysis.common.generator.SyntheticFleet;
+import dk.dma.ais.analysis.common.generator.SyntheticFleetConf;
+import dk.dma.ais.analysis.viewer.configuration.AisViewConfiguration;
+import dk.dma.ais.analysis.viewer.handler.AisViewHandler;
+import dk.dma.ais.analysis.viewer.handler.TargetSnapshot;
+import dk.dma.ais.analysis.viewer.rest.VesselListFilter;
+
+public class VesselTileIndexTest {
+
+    @Test
+    public void readTiles() {
+        AisViewHandler handler = new AisViewHandler(new AisViewConfiguration());
+        SyntheticFleetConf fleetConf = new SyntheticFleetConf();
+        fleetConf.setFleetSize(200);
+        SyntheticFleet fleet = new SyntheticFleet(fleetConf);
+        for (int i = 0; i < 1000; i++) {
+            handler.accept(fleet.nextPacket(new Date()));
+        }
+        VesselTileIndex index = new VesselTileIndex(handler.getSnapshot());
+        TargetSnapshot snapshot = index.getSnapshot();
+        Assert.assertTrue(snapshot.size() > 0);
+        int empty = new VectorTile("vessels").encode().length;
+
+        // Below, at and above the bucket zoom
+        for (int z : new int[] { 8, 9, 10, 14 }) {
+            for (int row = 0; row < snapshot.size(); row++) {
+                Tile tile = tileOf(snapshot, row, z);
+                int[] rows = index.getRows(tile);
+                boolean found = false;
+                for (int r : rows) {
+                    Tile other = tileOf(snapshot, r, z);
+                    Assert.assertEquals(tile.getX(), other.getX());
+                    Assert.assertEquals(tile.getY(), other.getY());
+                    found |= r == row;
+                }
+                Assert.assertTrue("row " + row + " in tile " + tile, found);
+                byte[] encoded = handler.getVesselTile(index, tile, new VesselListFilter(), false);
+                Assert.assertTrue(encoded.length > empty);
+            }
+        }
+    }
+
+    private static Tile tileOf(TargetSnapshot snapshot, int row, int z) {
+        int n = 1 << z;
+        int x = Math.min(n - 1, (int) (Tile.worldX(snapshot.getLon(row)) * n));
+        int y = Math.min(n - 1, (int) (Tile.worldY(snapshot.getLat(row)) * n));
+        return new Tile(z, x, y);
+    }
+
+}
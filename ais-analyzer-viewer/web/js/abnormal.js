@@ -90,6 +90,8 @@ function getEventArguments(){
 	var eventTypeSOG = $('#eventTypeSOG').attr('checked');
 	var eventTypeSSC = $('#eventTypeSSC').attr('checked');
 	var eventTypeCE = $('#eventTypeCE').attr('checked');
+	var eventTypePJ = $('#eventTypePJ').attr('checked');
+	var eventTypeGap = $('#eventTypeGap').attr('checked');
 	var eventMMSI = $("#eventMMSI").val();
 	var eventFromDate = $("#eventFromDate").val();
 	var eventFromHour = $("#eventFromHour").val();
@@ -114,6 +116,12 @@ function getEventArguments(){
 	if (eventTypeCE){
 		eventTypes.push("CLOSE_ENCOUNTER");
 	}
+	if (eventTypePJ){
+		eventTypes.push("POSITION_JUMP");
+	}
+	if (eventTypeGap){
+		eventTypes.push("GAP");
+	}
 	eventTypesStr = "";
 	for(var i = 0; i < eventTypes.length; i++){
 		eventTypesStr += eventTypes[i];
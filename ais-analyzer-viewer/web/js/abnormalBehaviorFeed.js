@@ -1,4 +1,4 @@
-var eventListUrl = "/abnormal/json/list";
+var eventListUrl = "rest/abnormal_events";
 var events = [];
 
 function loadBehaviors(){
@@ -7,7 +7,7 @@ function loadBehaviors(){
 
 	//data.eventTypes = "COG, SOG, SUDDEN_SPEED_CHANGE, CLOSE_ENCOUNTER";
 	var now = new Date();
-	data.eventTypes = "COG,SOG";
+	data.eventTypes = "COG,SOG,SUDDEN_SPEED_CHANGE,POSITION_JUMP,GAP";
 	data.timeMin = now.getTime() - (abnormalFeedLifeTime * 60 * 1000);
 
 	$.getJSON(eventListUrl, data, 
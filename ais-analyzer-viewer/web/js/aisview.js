@@ -113,7 +113,11 @@ function loadVessels(){
 		// Show Loading panel
 		$("#loadingPanel").css('visibility', 'visible');
 
-		loadVesselList();
+		if (loadByTiles && !loadAllVessels){
+			loadVesselTiles();
+		} else {
+			loadVesselList();
+		}
 
 		clusterLayer.setVisibility(false);
 		clusterTextLayer.setVisibility(false);
@@ -215,6 +219,94 @@ function loadVesselList(){
 	);
 }
 
+/**
+ * Loads and draws the vessels of the tiles covering the view.
+ * The vessels are drawn when the lists of all tiles are received.
+ */
+function loadVesselTiles(){
+
+	saveViewPort();
+
+	// Find the tiles covering the viewport
+	var zoom = Math.max(map.zoom - tileLoadZoomOffset, 0);
+	var n = Math.pow(2, zoom);
+	var tileX = function(lon){
+		return Math.min(n - 1, Math.max(0, Math.floor((lon + 180) / 360 * n)));
+	};
+	var tileY = function(lat){
+		var rad = lat * Math.PI / 180;
+		var y = (1 - Math.log(Math.tan(rad) + 1 / Math.cos(rad)) / Math.PI) / 2;
+		return Math.min(n - 1, Math.max(0, Math.floor(y * n)));
+	};
+	var firstX = tileX(filterQuery.topLon);
+	var lastX = tileX(filterQuery.botLon);
+	var firstY = tileY(filterQuery.topLat);
+	var lastY = tileY(filterQuery.botLat);
+	if (lastX < firstX){
+		// The view crosses the date line
+		lastX += n;
+	}
+
+	// Generate data
+	var data = $.extend({}, filterQuery);
+	delete data.topLon; 
+	delete data.topLat; 
+	delete data.botLon; 
+	delete data.botLat;
+	lastRequestId++;
+	var requestId = lastRequestId;
+	data.requestId = requestId;
+	data.z = zoom;
+
+	var remaining = (lastX - firstX + 1) * (lastY - firstY + 1);
+	var tileVessels = {};
+	var vesselsInWorld = 0;
+	for (var x = firstX; x <= lastX; x++){
+		for (var y = firstY; y <= lastY; y++){
+			data.x = x % n;
+			data.y = y;
+			$.getJSON(listUrl, data, 
+				function (result) {
+
+					if (result.requestId != lastRequestId) return;
+
+					$.extend(tileVessels, result.vesselList.vessels);
+					vesselsInWorld = result.vesselsInWorld;
+					remaining--;
+					if (remaining > 0) return;
+					
+					// Update vessel counter
+					$("#vesselsTotal").html(vesselsInWorld);
+
+					// Load new vessels
+					for (vesselId in tileVessels) {
+						var vessel = new Vessel(vesselId, tileVessels[vesselId], 1);
+					
+						if (selectedVessel && vesselId == selectedVessel.id && !selectSearchedVessel) {
+							// Update selected vessel
+							selectedVessel = vessel;
+						} else if (selectSearchedVessel && searchedVessel && vesselId == searchedVessel.id) {
+							// Update selected vessel
+							selectedVessel = vessel;
+							vessels.push(vessel);
+						}
+
+						vessels.push(vessel);
+					}
+
+					// Draw vessels
+					drawVessels();
+
+					selectSearchedVessel = false;
+
+					// Hide Loading panel
+					$("#loadingPanel").css('visibility', 'hidden');
+				}
+			);
+		}
+	}
+}
+
 /**
  * Loads and draws the vessel clusters.
  */
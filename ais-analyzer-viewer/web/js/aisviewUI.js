@@ -17,6 +17,7 @@ var timeStampsLayer;
 var clusterLayer;
 var clusterTextLayer;
 var indieVesselLayer;
+var densityLayer;
 
 // Other
 var idleSince;
@@ -162,6 +163,19 @@ function addLayers(){
 	renderer = (renderer) ? [renderer] : OpenLayers.Layer.Vector.prototype.renderers;
 	// renderer = ["Canvas", "SVG", "VML"];
 
+	// Create tile layer with the density of vessels and past tracks
+	densityLayer = new OpenLayers.Layer.XYZ(
+			"Density",
+			densityUrl,
+			{
+				isBaseLayer: false,
+				opacity: densityOpacity,
+				visibility: includeDensityLayer
+			}
+		);
+
+	map.addLayer(densityLayer);
+
 	// Create vector layer with a stylemap for vessels
 	vesselLayer = new OpenLayers.Layer.Vector(
 			"Vessels",
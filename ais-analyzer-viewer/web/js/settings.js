@@ -18,6 +18,9 @@ var loadFrequence = 60*1000;		// The number of milliseconds between auto load*
 var loadDelay = 400;				// The number of milliseconds between movement and load*
 var loadCheckingFrequence = 100;	// The number of milliseconds between each check to see if it should load
 var loadViewportOnly = true;
+var loadByTiles = false;			// Whether or not to load the vessels of the map tiles covering the viewport.
+									// Tiles are shared by all clients, so the server can answer from its cache.
+var tileLoadZoomOffset = 2;			// The number of zoom levels the tiles loaded are above the map zoom level
 
 var reloadPageAfterTime = false;		// Whether or not to reload the page after being idle in some time
 var reloadPageTime = 10*60*1000;	// The idle time to relead page
@@ -36,7 +39,12 @@ var listUrl = '/aisview/rest/anon_vessel_list';
 var clusterUrl = '/aisview/rest/vessel_clusters';
 var detailsUrl = '/aisview/rest/vessel_target_details';
 var searchUrl = '/aisview/rest/vessel_search';
-var eventListUrl = "/abnormal/rest/list";
+var eventListUrl = "/aisview/rest/abnormal_events";
+var densityUrl = '/aisview/rest/density/${z}/${x}/${y}.png';
+
+// Density
+var includeDensityLayer = false;		// Whether or not to show the density of vessels and past tracks
+var densityOpacity = 0.7;				// The opacity of the density layer
 
 // Clustering
 var includeClustering = true;